@@ -0,0 +1,55 @@
+package ra.one.two.ray.tracing.animation;
+
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.scene.Camera;
+
+/**
+ * Camera parameters over time. The track has 12 components, look from, look at and up followed by the vertical field of
+ * view, aperture and focus distance. The shutter interval is relative to the start of each frame, the projection is the
+ * same for all of them.
+ */
+public class CameraAnimation {
+    public static final int TRACK_DIMENSION = 12;
+
+    private final KeyframeTrack track;
+    private final double aspectRatio;
+    private final double shutterOpen;
+    private final double shutterClose;
+    private final Camera.Projection projection;
+
+    public CameraAnimation(final KeyframeTrack track, final double aspectRatio, final double shutterOpen, final double shutterClose,
+                           final Camera.Projection projection) {
+        if (track.getDimension() != TRACK_DIMENSION) {
+            throw new IllegalArgumentException("Camera track needs " + TRACK_DIMENSION + " components, got " + track.getDimension());
+        }
+        this.track = track;
+        this.aspectRatio = aspectRatio;
+        this.shutterOpen = shutterOpen;
+        this.shutterClose = shutterClose;
+        this.projection = projection;
+    }
+
+    /**
+     * Camera for the frame starting at a time, placed where the track has it when the shutter opens.
+     *
+     * @param frameStart time the frame starts at
+     * @return camera firing rays between frameStart + shutter open and frameStart + shutter close
+     */
+    public Camera cameraAt(final double frameStart) {
+        final double time = frameStart + shutterOpen;
+        return new Camera(vector(time, 0), vector(time, 3), vector(time, 6), track.value(time, 9), aspectRatio,
+                track.value(time, 10), track.value(time, 11), frameStart + shutterOpen, frameStart + shutterClose, projection);
+    }
+
+    public double shutterOpenAt(final double frameStart) {
+        return frameStart + shutterOpen;
+    }
+
+    public double shutterCloseAt(final double frameStart) {
+        return frameStart + shutterClose;
+    }
+
+    private Vec3 vector(final double time, final int component) {
+        return new Vec3(track.value(time, component), track.value(time, component + 1), track.value(time, component + 2));
+    }
+}
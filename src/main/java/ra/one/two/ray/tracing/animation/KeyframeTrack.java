@@ -0,0 +1,108 @@
+package ra.one.two.ray.tracing.animation;
+
+/**
+ * Values of some dimension given at key times, linearly interpolated in between and held constant before the first
+ * and after the last key.
+ */
+public class KeyframeTrack {
+    private final double[] times;
+    // value of component c at key k is at values[k * dimension + c]
+    private final double[] values;
+    private final int dimension;
+
+    /**
+     * @param times     key times, in increasing order
+     * @param values    values at the keys, dimension values per key
+     * @param dimension number of components of a value
+     */
+    public KeyframeTrack(final double[] times, final double[] values, final int dimension) {
+        if (times.length == 0 || values.length != times.length * dimension) {
+            throw new IllegalArgumentException("A track needs at least one key and " + dimension + " values per key");
+        }
+        for (int k = 1; k < times.length; k++) {
+            if (times[k] <= times[k - 1]) {
+                throw new IllegalArgumentException("Key times must increase, got " + times[k] + " after " + times[k - 1]);
+            }
+        }
+        this.times = times;
+        this.values = values;
+        this.dimension = dimension;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Interpolated value of one component.
+     *
+     * @param time      time to evaluate the track at
+     * @param component index of the component
+     * @return value of the component at the time
+     */
+    public double value(final double time, final int component) {
+        if (time <= times[0]) {
+            return values[component];
+        }
+        final int last = times.length - 1;
+        if (time >= times[last]) {
+            return values[last * dimension + component];
+        }
+        final int key = keyBefore(time);
+        final double blend = (time - times[key]) / (times[key + 1] - times[key]);
+        final double start = values[key * dimension + component];
+        return start + blend * (values[(key + 1) * dimension + component] - start);
+    }
+
+    /**
+     * Smallest value a component takes between two times. Since values are linear between keys the extremes are
+     * at the ends of the interval or at keys inside it.
+     *
+     * @param timeStart start of the interval
+     * @param timeEnd   end of the interval
+     * @param component index of the component
+     * @return minimum of the component over the interval
+     */
+    public double min(final double timeStart, final double timeEnd, final int component) {
+        double min = Math.min(value(timeStart, component), value(timeEnd, component));
+        for (int k = 0; k < times.length; k++) {
+            if (times[k] > timeStart && times[k] < timeEnd) {
+                min = Math.min(min, values[k * dimension + component]);
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Largest value a component takes between two times, see min.
+     *
+     * @param timeStart start of the interval
+     * @param timeEnd   end of the interval
+     * @param component index of the component
+     * @return maximum of the component over the interval
+     */
+    public double max(final double timeStart, final double timeEnd, final int component) {
+        double max = Math.max(value(timeStart, component), value(timeEnd, component));
+        for (int k = 0; k < times.length; k++) {
+            if (times[k] > timeStart && times[k] < timeEnd) {
+                max = Math.max(max, values[k * dimension + component]);
+            }
+        }
+        return max;
+    }
+
+    // Index of the last key at or before the time, for a time strictly inside the track
+    private int keyBefore(final double time) {
+        int low = 0;
+        int high = times.length - 1;
+        while (high - low > 1) {
+            final int middle = (low + high) >>> 1;
+            if (times[middle] <= time) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
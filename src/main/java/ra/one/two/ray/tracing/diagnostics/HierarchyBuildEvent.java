@@ -0,0 +1,35 @@
+package ra.one.two.ray.tracing.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Building the acceleration structure of one group of a scene, not counting its members. Nested groups are built
+ * before the group around them.
+ */
+@Name("ra.one.two.raytracing.HierarchyBuild")
+@Label("Hierarchy Build")
+@Category({"Ray Tracing", "Scene"})
+@Description("Building or loading the acceleration structure of a group")
+public class HierarchyBuildEvent extends Event {
+    @Label("Group")
+    public String group;
+
+    @Label("Accelerator")
+    @Description("Keyword of the acceleration structure, e.g. bvh or grid")
+    public String accelerator;
+
+    @Label("Primitives")
+    public int primitiveCount;
+
+    @Label("Nodes")
+    @Description("Nodes of the structure, or cells of a grid")
+    public int nodeCount;
+
+    @Label("From Cache")
+    @Description("The layout came from the scene cache instead of being built")
+    public boolean fromCache;
+}
@@ -0,0 +1,26 @@
+package ra.one.two.ray.tracing.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Tone mapping, encoding and writing a rendered image.
+ */
+@Name("ra.one.two.raytracing.ImageWrite")
+@Label("Image Write")
+@Category({"Ray Tracing", "Output"})
+public class ImageWriteEvent extends Event {
+    @Label("Path")
+    public String path;
+
+    @Label("Format")
+    public String format;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+}
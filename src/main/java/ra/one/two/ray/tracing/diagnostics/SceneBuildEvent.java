@@ -0,0 +1,30 @@
+package ra.one.two.ray.tracing.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Loading a scene file, from reading the text to the compiled scene. Texture loads and hierarchy builds happen inside it.
+ * <p>
+ * The events of this package are recorded with {@code java -XX:StartFlightRecording=filename=render.jfr ...} and show
+ * up under Ray Tracing in JDK Mission Control. Without a recording begin and commit do nothing and the JIT removes the
+ * event objects, so the events stay in production code.
+ */
+@Name("ra.one.two.raytracing.SceneBuild")
+@Label("Scene Build")
+@Category({"Ray Tracing", "Scene"})
+@Description("Parsing and compiling a scene, through the scene cache")
+public class SceneBuildEvent extends Event {
+    @Label("Content Hash")
+    public String contentHash;
+
+    @Label("Cache Hit")
+    @Description("Textures and hierarchies came from the scene cache file")
+    public boolean cacheHit;
+
+    @Label("Statements")
+    public int statementCount;
+}
@@ -0,0 +1,33 @@
+package ra.one.two.ray.tracing.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Loading an image texture or environment map, decoding it unless the asset cache had it.
+ */
+@Name("ra.one.two.raytracing.TextureLoad")
+@Label("Texture Load")
+@Category({"Ray Tracing", "Scene"})
+@Description("Reading and decoding an image texture or environment map")
+public class TextureLoadEvent extends Event {
+    @Label("Path")
+    public String path;
+
+    @Label("Kind")
+    @Description("image or environment")
+    public String kind;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+
+    @Label("From Cache")
+    @Description("The decoded texels came from the asset cache instead of the file")
+    public boolean fromCache;
+}
@@ -0,0 +1,36 @@
+package ra.one.two.ray.tracing.diagnostics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Rendering samples for one rectangle of an image. A hot tile shows up as one with a long duration or many rays per sample.
+ */
+@Name("ra.one.two.raytracing.TileRender")
+@Label("Tile Render")
+@Category({"Ray Tracing", "Render"})
+@Description("Tracing samples for a rectangle of pixels")
+public class TileRenderEvent extends Event {
+    @Label("X")
+    public int x;
+
+    @Label("Y")
+    @Description("Row of the top edge, 0 is the top of the image")
+    public int y;
+
+    @Label("Width")
+    public int width;
+
+    @Label("Height")
+    public int height;
+
+    @Label("Samples Per Pixel")
+    public int samplesPerPixel;
+
+    @Label("Rays")
+    @Description("Camera, bounce and shadow rays traced for the tile")
+    public long rays;
+}
@@ -0,0 +1,260 @@
+package ra.one.two.ray.tracing.distributed;
+
+import ra.one.two.ray.tracing.scene.Framebuffer;
+import ra.one.two.ray.tracing.scene.description.CompiledScene;
+import ra.one.two.ray.tracing.scene.description.SceneLoader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coordinator of a distributed render. Splits the image into tiles and the samples of every pixel into rounds, hands
+ * the resulting tasks to workers connecting over TCP and adds their results up in a framebuffer.
+ * Every worker gets one task per thread plus one more so it never waits on the network. When a worker disconnects or
+ * stops sending heartbeats, the tasks it had are put back at the front of the queue for the other workers.
+ * <p>
+ * Workers can be started by hand on other machines with RenderWorker, or as local processes with --local-workers.
+ */
+public class RenderCoordinator {
+    public static final int DEFAULT_TILE_SIZE = 32;
+    public static final int DEFAULT_SAMPLES_PER_TASK = 250;
+
+    private final Path sceneFile;
+    private final CompiledScene scene;
+    private final Framebuffer framebuffer;
+    private final BlockingDeque<TileTask> pendingTasks = new LinkedBlockingDeque<>();
+    private final CountDownLatch remainingTasks;
+    private final int taskCount;
+    private final AtomicInteger connectedWorkers = new AtomicInteger();
+    private final AtomicInteger workerIds = new AtomicInteger();
+
+    /**
+     * @param sceneFile      scene file workers load, workers need to be able to read it under the same path
+     * @param scene          the scene loaded from the file
+     * @param tileSize       width and height of the tiles
+     * @param samplesPerTask samples per pixel of one task, the samples of a pixel are split into rounds of this many
+     */
+    public RenderCoordinator(final Path sceneFile, final CompiledScene scene, final int tileSize, final int samplesPerTask) {
+        this.sceneFile = sceneFile.toAbsolutePath();
+        this.scene = scene;
+        this.framebuffer = new Framebuffer(scene.getImageWidth(), scene.getImageHeight());
+        int taskId = 0;
+        // Round by round, so that every pixel has some samples early on
+        for (int samplesDone = 0; samplesDone < scene.getSamplesPerPixel(); samplesDone += samplesPerTask) {
+            final int samples = Math.min(samplesPerTask, scene.getSamplesPerPixel() - samplesDone);
+            for (int y = 0; y < scene.getImageHeight(); y += tileSize) {
+                for (int x = 0; x < scene.getImageWidth(); x += tileSize) {
+                    pendingTasks.add(new TileTask(taskId++, x, y, Math.min(tileSize, scene.getImageWidth() - x),
+                            Math.min(tileSize, scene.getImageHeight() - y), samples));
+                }
+            }
+        }
+        this.taskCount = taskId;
+        this.remainingTasks = new CountDownLatch(taskId);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: RenderCoordinator <scene file> <output image> [--port N] [--local-workers N] [--worker-threads N]"
+                    + " [--tile-size N] [--samples-per-task N]");
+            System.exit(1);
+        }
+        int port = RenderProtocol.DEFAULT_PORT;
+        int localWorkers = 0;
+        int workerThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        int tileSize = DEFAULT_TILE_SIZE;
+        int samplesPerTask = DEFAULT_SAMPLES_PER_TASK;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            final int value = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--port":
+                    port = value;
+                    break;
+                case "--local-workers":
+                    localWorkers = value;
+                    break;
+                case "--worker-threads":
+                    workerThreads = value;
+                    break;
+                case "--tile-size":
+                    tileSize = value;
+                    break;
+                case "--samples-per-task":
+                    samplesPerTask = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        final Path sceneFile = Path.of(args[0]);
+        final CompiledScene scene = SceneLoader.load(sceneFile);
+        final RenderCoordinator coordinator = new RenderCoordinator(sceneFile, scene, tileSize, samplesPerTask);
+        final long start = System.currentTimeMillis();
+        final List<Process> workerProcesses = new ArrayList<>();
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.err.println("Coordinator listening on port " + serverSocket.getLocalPort());
+            for (int i = 0; i < localWorkers; i++) {
+                workerProcesses.add(startLocalWorker(serverSocket.getLocalPort(), workerThreads));
+            }
+            coordinator.render(serverSocket, workerProcesses);
+        } finally {
+            for (final Process process : workerProcesses) {
+                // Workers exit on their own once the coordinator says bye or closes, this is for the ones that do not
+                if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                    process.destroy();
+                }
+            }
+        }
+        coordinator.framebuffer.write(Path.of(args[1]));
+        System.err.println("Rendered in " + (System.currentTimeMillis() - start) / 1000 + " s");
+    }
+
+    /**
+     * Start a worker process on this machine with the same java and class path as this process.
+     *
+     * @param port    port the coordinator listens on
+     * @param threads render threads of the worker
+     * @return the worker process
+     * @throws IOException if the process can not be started
+     */
+    public static Process startLocalWorker(final int port, final int threads) throws IOException {
+        final String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), RenderWorker.class.getName(),
+                "localhost", Integer.toString(port), Integer.toString(threads))
+                .inheritIO()
+                .start();
+    }
+
+    /**
+     * Hand out tasks to the workers connecting to the server socket until all of them are done.
+     *
+     * @param serverSocket    socket workers connect to
+     * @param localWorkers    worker processes started for this render, the render fails if all of them exit early.
+     *                        Empty when workers are started some other way, then the render waits for workers as long as it takes
+     * @return the framebuffer with all samples added up
+     * @throws IOException          if all local workers exited before the render was done
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Framebuffer render(final ServerSocket serverSocket, final List<Process> localWorkers) throws IOException, InterruptedException {
+        final Thread acceptor = new Thread(() -> acceptWorkers(serverSocket), "render-coordinator-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        long lastReported = taskCount;
+        while (!remainingTasks.await(1, TimeUnit.SECONDS)) {
+            if (!localWorkers.isEmpty() && connectedWorkers.get() == 0 && localWorkers.stream().noneMatch(Process::isAlive)) {
+                throw new IOException("All local workers exited with " + remainingTasks.getCount() + " of " + taskCount + " tasks left");
+            }
+            if (remainingTasks.getCount() != lastReported) {
+                lastReported = remainingTasks.getCount();
+                System.err.println((taskCount - lastReported) + " of " + taskCount + " tasks done, " + connectedWorkers.get() + " workers");
+            }
+        }
+        return framebuffer;
+    }
+
+    public Framebuffer getFramebuffer() {
+        return framebuffer;
+    }
+
+    private void acceptWorkers(final ServerSocket serverSocket) {
+        while (remainingTasks.getCount() > 0) {
+            try {
+                final Socket socket = serverSocket.accept();
+                final Thread connection = new Thread(() -> serveWorker(socket), "render-worker-" + workerIds.incrementAndGet());
+                connection.setDaemon(true);
+                connection.start();
+            } catch (SocketException e) {
+                // Server socket closed, the render is over
+                return;
+            } catch (IOException e) {
+                System.err.println("Failed to accept a worker: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serveWorker(final Socket socket) {
+        final List<TileTask> inFlight = new ArrayList<>();
+        boolean connected = false;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout((int) (RenderProtocol.HEARTBEAT_INTERVAL_IN_MILLIS * RenderProtocol.MISSED_HEARTBEATS_BEFORE_DEAD));
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            RenderProtocol.expect(RenderProtocol.HELLO, input.readByte());
+            final int version = input.readInt();
+            final int threads = input.readInt();
+            if (version != RenderProtocol.VERSION) {
+                throw new IOException("Worker speaks protocol version " + version + ", expected " + RenderProtocol.VERSION);
+            }
+            output.writeByte(RenderProtocol.SCENE);
+            output.writeUTF(sceneFile.toString());
+            output.writeUTF(scene.getContentHash());
+            output.flush();
+            byte type;
+            while ((type = input.readByte()) == RenderProtocol.HEARTBEAT) {
+                // still loading the scene
+            }
+            RenderProtocol.expect(RenderProtocol.READY, type);
+            final String workerHash = input.readUTF();
+            if (!workerHash.equals(scene.getContentHash())) {
+                throw new IOException("Worker loaded a different scene, hash " + workerHash);
+            }
+            connected = true;
+            connectedWorkers.incrementAndGet();
+
+            final int maxInFlight = Math.max(1, threads) + 1;
+            while (remainingTasks.getCount() > 0) {
+                TileTask task;
+                while (inFlight.size() < maxInFlight && (task = pendingTasks.poll()) != null) {
+                    inFlight.add(task);
+                    RenderProtocol.writeTask(output, task);
+                }
+                output.flush();
+
+                // Results and heartbeats both come back here, a heartbeat is a chance to pick up tasks other workers dropped
+                type = input.readByte();
+                if (type == RenderProtocol.RESULT) {
+                    final int taskId = input.readInt();
+                    final TileTask finished = inFlight.stream().filter(t -> t.getTaskId() == taskId).findFirst()
+                            .orElseThrow(() -> new IOException("Worker returned task " + taskId + " it was not given"));
+                    final float[] sums = new float[3 * finished.getWidth() * finished.getHeight()];
+                    RenderProtocol.readResultSums(input, sums);
+                    framebuffer.addTile(finished.getX(), finished.getY(), finished.getWidth(), finished.getHeight(), sums, finished.getSamplesPerPixel());
+                    inFlight.remove(finished);
+                    remainingTasks.countDown();
+                } else {
+                    RenderProtocol.expect(RenderProtocol.HEARTBEAT, type);
+                }
+            }
+            output.writeByte(RenderProtocol.BYE);
+            output.flush();
+        } catch (IOException e) {
+            if (remainingTasks.getCount() > 0) {
+                System.err.println(Thread.currentThread().getName() + " lost, " + inFlight.size() + " tasks go back in the queue: " + e);
+            }
+        } finally {
+            if (connected) {
+                connectedWorkers.decrementAndGet();
+            }
+            for (final TileTask task : inFlight) {
+                pendingTasks.addFirst(task);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ra.one.two.ray.tracing.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Binary protocol between the render coordinator and its workers, big endian over a plain TCP connection.
+ * Every message is a one byte type followed by its fields.
+ * <pre>
+ * worker       HELLO     int version, int threads
+ * coordinator  SCENE     utf scene path, utf content hash
+ * worker       READY     utf content hash of the scene it loaded
+ * coordinator  TASK      int task id, int x, int y, int width, int height, int samples per pixel
+ * worker       RESULT    int task id, width * height * 3 floats of radiance sums
+ * worker       HEARTBEAT
+ * coordinator  BYE
+ * </pre>
+ * The worker sends a heartbeat every few seconds while connected, a coordinator that hears nothing for a while takes
+ * the worker for dead and hands its tasks to other workers.
+ */
+public final class RenderProtocol {
+    public static final int VERSION = 1;
+    public static final int DEFAULT_PORT = 7878;
+    public static final long HEARTBEAT_INTERVAL_IN_MILLIS = 2000;
+    // A worker is dead after missing this many heartbeats
+    public static final int MISSED_HEARTBEATS_BEFORE_DEAD = 5;
+
+    public static final byte HELLO = 1;
+    public static final byte SCENE = 2;
+    public static final byte READY = 3;
+    public static final byte TASK = 4;
+    public static final byte RESULT = 5;
+    public static final byte HEARTBEAT = 6;
+    public static final byte BYE = 7;
+
+    private RenderProtocol() {
+    }
+
+    public static void writeTask(final DataOutputStream output, final TileTask task) throws IOException {
+        output.writeByte(TASK);
+        output.writeInt(task.getTaskId());
+        output.writeInt(task.getX());
+        output.writeInt(task.getY());
+        output.writeInt(task.getWidth());
+        output.writeInt(task.getHeight());
+        output.writeInt(task.getSamplesPerPixel());
+    }
+
+    // Fields of a TASK message, its type byte has been read already
+    public static TileTask readTask(final DataInputStream input) throws IOException {
+        return new TileTask(input.readInt(), input.readInt(), input.readInt(), input.readInt(), input.readInt(), input.readInt());
+    }
+
+    public static void writeResult(final DataOutputStream output, final int taskId, final float[] sums) throws IOException {
+        output.writeByte(RESULT);
+        output.writeInt(taskId);
+        for (final float sum : sums) {
+            output.writeFloat(sum);
+        }
+    }
+
+    // Sums of a RESULT message, its type byte and task id have been read already
+    public static void readResultSums(final DataInputStream input, final float[] sums) throws IOException {
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = input.readFloat();
+        }
+    }
+
+    public static void expect(final byte expected, final byte actual) throws IOException {
+        if (expected != actual) {
+            throw new IOException("Expected message " + expected + " but got " + actual);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ra.one.two.ray.tracing.distributed;
+
+import ra.one.two.ray.tracing.scene.TileRenderer;
+import ra.one.two.ray.tracing.scene.description.CompiledScene;
+import ra.one.two.ray.tracing.scene.description.SceneLoader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker process of a distributed render. Connects to a coordinator, loads the scene file the coordinator names and
+ * renders the tasks it is sent, one per thread at a time, until the coordinator says bye or goes away.
+ */
+public class RenderWorker {
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+    private final int threads;
+
+    public RenderWorker(final String host, final int port, final int threads) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: RenderWorker <coordinator host> <coordinator port> [threads]");
+            System.exit(1);
+        }
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        new RenderWorker(args[0], Integer.parseInt(args[1]), threads).run();
+    }
+
+    public void run() throws IOException {
+        final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+        final ExecutorService renderExecutor = Executors.newFixedThreadPool(threads);
+        try (socket) {
+            synchronized (output) {
+                output.writeByte(RenderProtocol.HELLO);
+                output.writeInt(RenderProtocol.VERSION);
+                output.writeInt(threads);
+                output.flush();
+            }
+            // Loading a scene that is not cached yet can take a while, keep the coordinator posted from here on
+            heartbeat.scheduleAtFixedRate(this::sendHeartbeat, 0, RenderProtocol.HEARTBEAT_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+
+            RenderProtocol.expect(RenderProtocol.SCENE, input.readByte());
+            final Path sceneFile = Path.of(input.readUTF());
+            final String expectedHash = input.readUTF();
+            final CompiledScene scene = SceneLoader.load(sceneFile);
+            if (!expectedHash.equals(scene.getContentHash())) {
+                System.err.println("Scene " + sceneFile + " differs from the one the coordinator loaded");
+            }
+            synchronized (output) {
+                output.writeByte(RenderProtocol.READY);
+                output.writeUTF(scene.getContentHash());
+                output.flush();
+            }
+
+            final TileRenderer tileRenderer = new TileRenderer(scene);
+            while (true) {
+                final byte type = input.readByte();
+                if (type == RenderProtocol.BYE) {
+                    break;
+                }
+                RenderProtocol.expect(RenderProtocol.TASK, type);
+                final TileTask task = RenderProtocol.readTask(input);
+                renderExecutor.execute(() -> render(tileRenderer, task));
+            }
+        } finally {
+            heartbeat.shutdownNow();
+            renderExecutor.shutdownNow();
+        }
+    }
+
+    private void render(final TileRenderer tileRenderer, final TileTask task) {
+        final float[] sums = new float[3 * task.getWidth() * task.getHeight()];
+        tileRenderer.render(task.getX(), task.getY(), task.getWidth(), task.getHeight(), task.getSamplesPerPixel(), sums);
+        try {
+            synchronized (output) {
+                RenderProtocol.writeResult(output, task.getTaskId(), sums);
+                output.flush();
+            }
+        } catch (IOException e) {
+            // Coordinator is gone, closing the socket ends the read loop
+            closeQuietly();
+        }
+    }
+
+    private void sendHeartbeat() {
+        try {
+            synchronized (output) {
+                output.writeByte(RenderProtocol.HEARTBEAT);
+                output.flush();
+            }
+        } catch (IOException e) {
+            closeQuietly();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // already closing
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ra.one.two.ray.tracing.distributed;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A rectangle of the image and a number of samples to take for each of its pixels. An image is split into tiles and
+ * its samples into several rounds, so a full render is many tasks and workers of any speed stay busy until the end.
+ */
+@Getter
+@AllArgsConstructor
+public class TileTask {
+    private final int taskId;
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    private final int samplesPerPixel;
+}
@@ -0,0 +1,66 @@
+package ra.one.two.ray.tracing.lights;
+
+/**
+ * Piecewise constant probability distribution over [0, 1) built from a tabulated non negative function,
+ * sampled by inverting its cumulative distribution function.
+ */
+class Distribution1D {
+    private final double[] function;
+    // cdf[i] is the probability of sampling a value below i / n, so cdf[0] = 0 and cdf[n] = 1
+    private final double[] cdf;
+    private final double integral;
+
+    Distribution1D(final double[] function) {
+        this.function = function;
+        final int n = function.length;
+        cdf = new double[n + 1];
+        for (int i = 0; i < n; i++) {
+            cdf[i + 1] = cdf[i] + function[i] / n;
+        }
+        integral = cdf[n];
+        for (int i = 1; i <= n; i++) {
+            // A function that is zero everywhere falls back to a uniform distribution
+            cdf[i] = integral == 0 ? (double) i / n : cdf[i] / integral;
+        }
+    }
+
+    /**
+     * Index of the piece a uniform random number falls into.
+     *
+     * @param random uniform random number in [0, 1)
+     * @return index of the piece, the offset inside it is given by offsetInPiece
+     */
+    int sampleIndex(final double random) {
+        // Find the last cdf entry that is <= random
+        int low = 0;
+        int high = function.length - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (cdf[middle] <= random) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    // Where in piece index the random number lands, between 0 and 1
+    double offsetInPiece(final int index, final double random) {
+        final double width = cdf[index + 1] - cdf[index];
+        return width > 0 ? (random - cdf[index]) / width : 0.5;
+    }
+
+    // Density of sampling a value inside piece index, relative to the uniform density over [0, 1)
+    double density(final int index) {
+        return integral == 0 ? 1.0 : function[index] / integral;
+    }
+
+    double getIntegral() {
+        return integral;
+    }
+
+    int size() {
+        return function.length;
+    }
+}
@@ -0,0 +1,42 @@
+package ra.one.two.ray.tracing.lights;
+
+import ra.one.two.ray.tracing.materials.Material;
+
+/**
+ * A primitive with an emissive material that lights can be sampled from directly. The material belongs to this emitter
+ * only, so a hit record carrying it tells which emitter a ray hit.
+ */
+public interface Emitter {
+    Material getMaterial();
+
+    /**
+     * @return bounds of the emitter for the light tree
+     */
+    LightBounds lightBounds();
+
+    /**
+     * Pick a direction from a point towards the emitter.
+     *
+     * @param pointX  x of the point receiving light
+     * @param pointY  y of the point
+     * @param pointZ  z of the point
+     * @param random1 uniform random number in [0, 1)
+     * @param random2 uniform random number in [0, 1)
+     * @param sample  receives the unit direction, the probability density per unit solid angle and a distance just past
+     *                the emitter along the direction. Radiance is left alone, it depends on where the direction hits
+     */
+    void sample(double pointX, double pointY, double pointZ, double random1, double random2, LightSample sample);
+
+    /**
+     * Probability density per unit solid angle with which sample picks the direction from a point to a point on the emitter.
+     *
+     * @param pointX x of the point receiving light
+     * @param pointY y of the point
+     * @param pointZ z of the point
+     * @param hitX   x of the point on the emitter
+     * @param hitY   y of the point on the emitter
+     * @param hitZ   z of the point on the emitter
+     * @return probability density of the direction
+     */
+    double pdf(double pointX, double pointY, double pointZ, double hitX, double hitY, double hitZ);
+}
@@ -0,0 +1,135 @@
+package ra.one.two.ray.tracing.lights;
+
+import ra.one.two.ray.tracing.textures.HdrImage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Light arriving from infinitely far away in every direction, described by an equirectangular (latitude longitude)
+ * high dynamic range image. The top row of the image is straight up (+y), the middle column looks down -z.
+ * Directions are importance sampled proportional to the brightness of the map with a 2D piecewise constant distribution,
+ * a marginal distribution over rows and a conditional distribution over the columns of each row,
+ * see Pharr, Jakob and Humphreys "Physically Based Rendering" 13.6.5.
+ */
+public class EnvironmentLight {
+    private final int width;
+    private final int height;
+    // Copied out of the image, every texel is read building the distributions so a mapped image gains nothing by being
+    // read in place, and lookups are faster on an array
+    private final float[] rgb;
+    // Multiplier applied to the radiance stored in the map
+    private final double intensity;
+    private final Distribution1D[] conditionalOverColumns;
+    private final Distribution1D marginalOverRows;
+
+    public EnvironmentLight(final Path environmentMapPath, final double intensity) throws IOException {
+        this(HdrImage.read(environmentMapPath), intensity);
+    }
+
+    public EnvironmentLight(final HdrImage environmentMap, final double intensity) {
+        this.width = environmentMap.getWidth();
+        this.height = environmentMap.getHeight();
+        this.rgb = new float[environmentMap.getRgb().capacity()];
+        environmentMap.getRgb().duplicate().rewind().get(rgb);
+        this.intensity = intensity;
+
+        // Rows near the poles cover less solid angle, weigh the brightness of each texel by sin theta so that
+        // the distribution is proportional to the power arriving from it.
+        conditionalOverColumns = new Distribution1D[height];
+        final double[] rowWeights = new double[height];
+        for (int row = 0; row < height; row++) {
+            final double sinTheta = Math.sin(Math.PI * (row + 0.5) / height);
+            final double[] columnWeights = new double[width];
+            for (int column = 0; column < width; column++) {
+                final int index = 3 * (column + row * width);
+                columnWeights[column] = luminance(rgb[index], rgb[index + 1], rgb[index + 2]) * sinTheta;
+            }
+            conditionalOverColumns[row] = new Distribution1D(columnWeights);
+            rowWeights[row] = conditionalOverColumns[row].getIntegral();
+        }
+        marginalOverRows = new Distribution1D(rowWeights);
+    }
+
+    /**
+     * Radiance arriving along the opposite of a direction i.e. seen by a ray travelling in that direction.
+     *
+     * @param directionX x component of the direction, need not be unit length
+     * @param directionY y component of the direction
+     * @param directionZ z component of the direction
+     * @param radiance   receives the red, green and blue radiance at index 0, 1 and 2
+     */
+    public void radiance(final double directionX, final double directionY, final double directionZ, final double[] radiance) {
+        final int index = 3 * texelIndex(directionX, directionY, directionZ);
+        radiance[0] = rgb[index] * intensity;
+        radiance[1] = rgb[index + 1] * intensity;
+        radiance[2] = rgb[index + 2] * intensity;
+    }
+
+    /**
+     * Pick a direction towards the environment with probability proportional to its brightness.
+     *
+     * @param random1 uniform random number in [0, 1), picks the row
+     * @param random2 uniform random number in [0, 1), picks the column
+     * @param sample  receives the direction, its probability density and the radiance arriving along it
+     */
+    public void sample(final double random1, final double random2, final LightSample sample) {
+        final int row = marginalOverRows.sampleIndex(random1);
+        final double v = (row + marginalOverRows.offsetInPiece(row, random1)) / height;
+        final Distribution1D conditional = conditionalOverColumns[row];
+        final int column = conditional.sampleIndex(random2);
+        final double u = (column + conditional.offsetInPiece(column, random2)) / width;
+
+        final double theta = Math.PI * v;
+        final double phi = 2 * Math.PI * (u - 0.5);
+        final double sinTheta = Math.sin(theta);
+        sample.directionX = sinTheta * Math.sin(phi);
+        sample.directionY = Math.cos(theta);
+        sample.directionZ = -sinTheta * Math.cos(phi);
+        sample.distance = Double.POSITIVE_INFINITY;
+        // Density over the unit square of the map, then change of variables to solid angle, d omega = 2 pi^2 sin theta du dv
+        final double densityOverMap = marginalOverRows.density(row) * conditional.density(column);
+        sample.pdf = sinTheta == 0 ? 0 : densityOverMap / (2 * Math.PI * Math.PI * sinTheta);
+        final int index = 3 * (column + row * width);
+        sample.radianceRed = rgb[index] * intensity;
+        sample.radianceGreen = rgb[index + 1] * intensity;
+        sample.radianceBlue = rgb[index + 2] * intensity;
+    }
+
+    /**
+     * Probability density per unit solid angle with which sample picks a direction.
+     *
+     * @param directionX x component of the direction, need not be unit length
+     * @param directionY y component of the direction
+     * @param directionZ z component of the direction
+     * @return probability density of the direction
+     */
+    public double pdf(final double directionX, final double directionY, final double directionZ) {
+        final double length = Math.sqrt(directionX * directionX + directionY * directionY + directionZ * directionZ);
+        final double cosTheta = Math.max(-1, Math.min(1, directionY / length));
+        final double sinTheta = Math.sqrt(1 - cosTheta * cosTheta);
+        if (sinTheta == 0) {
+            return 0;
+        }
+        final int texel = texelIndex(directionX, directionY, directionZ);
+        final int row = texel / width;
+        final int column = texel - row * width;
+        final double densityOverMap = marginalOverRows.density(row) * conditionalOverColumns[row].density(column);
+        return densityOverMap / (2 * Math.PI * Math.PI * sinTheta);
+    }
+
+    // Index of the texel a direction maps to in the equirectangular projection
+    private int texelIndex(final double directionX, final double directionY, final double directionZ) {
+        final double length = Math.sqrt(directionX * directionX + directionY * directionY + directionZ * directionZ);
+        final double cosTheta = Math.max(-1, Math.min(1, directionY / length));
+        final double u = 0.5 + Math.atan2(directionX, -directionZ) / (2 * Math.PI);
+        final double v = Math.acos(cosTheta) / Math.PI;
+        final int column = Math.min(width - 1, Math.max(0, (int) (u * width)));
+        final int row = Math.min(height - 1, Math.max(0, (int) (v * height)));
+        return column + row * width;
+    }
+
+    private static double luminance(final double red, final double green, final double blue) {
+        return 0.2126 * red + 0.7152 * green + 0.0722 * blue;
+    }
+}
@@ -0,0 +1,209 @@
+package ra.one.two.ray.tracing.lights;
+
+/**
+ * Bounds of one emitter or of a cluster of them: where they are, how much power they emit, the cone around an axis
+ * holding all their surface normals (angle thetaO) and how far past the normals they emit (angle thetaE).
+ * From a point, the importance estimates how much light the cluster could send there,
+ * see Conty Estevez and Kulla "Importance Sampling of Many Lights with Adaptive Tree Splitting" and
+ * Pharr, Jakob and Humphreys "Physically Based Rendering" 4th edition 12.6.3.
+ */
+class LightBounds {
+    final double minX;
+    final double minY;
+    final double minZ;
+    final double maxX;
+    final double maxY;
+    final double maxZ;
+    // Emitted power, only compared between clusters so any constant factor will do
+    final double power;
+    // Unit axis of the normal cone
+    final double axisX;
+    final double axisY;
+    final double axisZ;
+    final double cosThetaO;
+    final double cosThetaE;
+    // Emits on both sides of its surface, the cone then bounds the normals up to their sign
+    final boolean twoSided;
+
+    LightBounds(final double minX, final double minY, final double minZ, final double maxX, final double maxY, final double maxZ,
+                final double power, final double axisX, final double axisY, final double axisZ,
+                final double cosThetaO, final double cosThetaE, final boolean twoSided) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        this.power = power;
+        this.axisX = axisX;
+        this.axisY = axisY;
+        this.axisZ = axisZ;
+        this.cosThetaO = cosThetaO;
+        this.cosThetaE = cosThetaE;
+        this.twoSided = twoSided;
+    }
+
+    double centroid(final int axis) {
+        return axis == 0 ? (minX + maxX) / 2 : axis == 1 ? (minY + maxY) / 2 : (minZ + maxZ) / 2;
+    }
+
+    double extent(final int axis) {
+        return axis == 0 ? maxX - minX : axis == 1 ? maxY - minY : maxZ - minZ;
+    }
+
+    double surfaceArea() {
+        final double x = maxX - minX;
+        final double y = maxY - minY;
+        final double z = maxZ - minZ;
+        return 2 * (x * y + y * z + z * x);
+    }
+
+    /**
+     * Bounds of two clusters together, the normal cone grows to hold both cones.
+     *
+     * @param first  bounds of the first cluster, null for none
+     * @param second bounds of the second cluster, null for none
+     * @return bounds of both
+     */
+    static LightBounds union(final LightBounds first, final LightBounds second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        final double[] cone = unionCone(first, second);
+        return new LightBounds(Math.min(first.minX, second.minX), Math.min(first.minY, second.minY), Math.min(first.minZ, second.minZ),
+                Math.max(first.maxX, second.maxX), Math.max(first.maxY, second.maxY), Math.max(first.maxZ, second.maxZ),
+                first.power + second.power, cone[0], cone[1], cone[2], cone[3],
+                Math.min(first.cosThetaE, second.cosThetaE), first.twoSided || second.twoSided);
+    }
+
+    // Smallest cone holding both normal cones, as axis x, y, z and cos thetaO
+    private static double[] unionCone(final LightBounds first, final LightBounds second) {
+        final double thetaFirst = safeAcos(first.cosThetaO);
+        final double thetaSecond = safeAcos(second.cosThetaO);
+        final double thetaBetween = safeAcos(first.axisX * second.axisX + first.axisY * second.axisY + first.axisZ * second.axisZ);
+        if (Math.min(thetaBetween + thetaSecond, Math.PI) <= thetaFirst) {
+            return new double[]{first.axisX, first.axisY, first.axisZ, first.cosThetaO};
+        }
+        if (Math.min(thetaBetween + thetaFirst, Math.PI) <= thetaSecond) {
+            return new double[]{second.axisX, second.axisY, second.axisZ, second.cosThetaO};
+        }
+        final double thetaO = (thetaFirst + thetaBetween + thetaSecond) / 2;
+        // Rotate the first axis towards the second one so the new cone just reaches both
+        double rotationX = first.axisY * second.axisZ - first.axisZ * second.axisY;
+        double rotationY = first.axisZ * second.axisX - first.axisX * second.axisZ;
+        double rotationZ = first.axisX * second.axisY - first.axisY * second.axisX;
+        final double rotationLength = Math.sqrt(rotationX * rotationX + rotationY * rotationY + rotationZ * rotationZ);
+        if (thetaO >= Math.PI || rotationLength == 0) {
+            return new double[]{0, 0, 1, -1};
+        }
+        rotationX /= rotationLength;
+        rotationY /= rotationLength;
+        rotationZ /= rotationLength;
+        // Rodrigues' rotation of the first axis by thetaO - thetaFirst around the rotation axis, which is perpendicular to it
+        final double angle = thetaO - thetaFirst;
+        final double cos = Math.cos(angle);
+        final double sin = Math.sin(angle);
+        return new double[]{
+                first.axisX * cos + (rotationY * first.axisZ - rotationZ * first.axisY) * sin,
+                first.axisY * cos + (rotationZ * first.axisX - rotationX * first.axisZ) * sin,
+                first.axisZ * cos + (rotationX * first.axisY - rotationY * first.axisX) * sin,
+                Math.cos(thetaO)};
+    }
+
+    /**
+     * Estimate of the light the cluster sends to a point. Zero only when no emitter in the cluster can light the point.
+     *
+     * @param pointX  x of the point receiving light
+     * @param pointY  y of the point
+     * @param pointZ  z of the point
+     * @param normalX x of the unit surface normal at the point, all of the normal 0 for points in a medium
+     * @param normalY y of the normal
+     * @param normalZ z of the normal
+     * @return importance of the cluster for the point
+     */
+    double importance(final double pointX, final double pointY, final double pointZ, final double normalX, final double normalY, final double normalZ) {
+        final double centerX = (minX + maxX) / 2;
+        final double centerY = (minY + maxY) / 2;
+        final double centerZ = (minZ + maxZ) / 2;
+        final double toPointX = pointX - centerX;
+        final double toPointY = pointY - centerY;
+        final double toPointZ = pointZ - centerZ;
+        final double distanceSquared = toPointX * toPointX + toPointY * toPointY + toPointZ * toPointZ;
+        final double radiusSquared = (maxX - centerX) * (maxX - centerX) + (maxY - centerY) * (maxY - centerY) + (maxZ - centerZ) * (maxZ - centerZ);
+        // Points inside the cluster would get an unbounded importance, clamp the distance to half the diagonal
+        final double clampedDistanceSquared = Math.max(distanceSquared, Math.sqrt(radiusSquared));
+
+        // Angle between the cone axis and the direction to the point
+        final double distance = Math.sqrt(distanceSquared);
+        double cosThetaW = distance == 0 ? 1 : (axisX * toPointX + axisY * toPointY + axisZ * toPointZ) / distance;
+        if (twoSided) {
+            cosThetaW = Math.abs(cosThetaW);
+        }
+        final double sinThetaW = safeSqrt(1 - cosThetaW * cosThetaW);
+
+        // Angle the bounding sphere of the cluster takes up as seen from the point, everything when the point is inside
+        final double cosThetaB = distanceSquared < radiusSquared ? -1 : safeSqrt(1 - radiusSquared / distanceSquared);
+        final double sinThetaB = safeSqrt(1 - cosThetaB * cosThetaB);
+        final double sinThetaO = safeSqrt(1 - cosThetaO * cosThetaO);
+
+        // Smallest angle between a normal in the cone and a direction to the point, i.e. thetaW - thetaO - thetaB clamped at 0
+        final double cosThetaX = cosSubtractClamped(sinThetaW, cosThetaW, sinThetaO, cosThetaO);
+        final double sinThetaX = sinSubtractClamped(sinThetaW, cosThetaW, sinThetaO, cosThetaO);
+        final double cosThetaPrime = cosSubtractClamped(sinThetaX, cosThetaX, sinThetaB, cosThetaB);
+        if (cosThetaPrime <= cosThetaE) {
+            return 0;
+        }
+        double importance = power * cosThetaPrime / clampedDistanceSquared;
+
+        // A surface takes light in by the cosine to its normal, bounded by the smallest angle to a direction to the cluster.
+        // Either side of the surface counts, which side the material takes light from is up to the material
+        if (normalX != 0 || normalY != 0 || normalZ != 0) {
+            final double cosThetaI = distance == 0 ? 1 : Math.abs(normalX * toPointX + normalY * toPointY + normalZ * toPointZ) / distance;
+            final double sinThetaI = safeSqrt(1 - cosThetaI * cosThetaI);
+            importance *= cosSubtractClamped(sinThetaI, cosThetaI, sinThetaB, cosThetaB);
+        }
+        return importance;
+    }
+
+    /**
+     * Measure of how much solid angle the normal cone and emission spread over, weighs the surface area of a cluster when
+     * choosing where to split.
+     *
+     * @return orientation measure of the bounds
+     */
+    double orientationMeasure() {
+        final double thetaO = safeAcos(cosThetaO);
+        final double thetaE = safeAcos(cosThetaE);
+        final double thetaW = Math.min(thetaO + thetaE, Math.PI);
+        final double sinThetaO = safeSqrt(1 - cosThetaO * cosThetaO);
+        return 2 * Math.PI * (1 - cosThetaO)
+                + Math.PI / 2 * (2 * thetaW * sinThetaO - Math.cos(thetaO - 2 * thetaW) - 2 * thetaO * sinThetaO + cosThetaO);
+    }
+
+    // cos(max(0, a - b)) from the sines and cosines of a and b
+    private static double cosSubtractClamped(final double sinA, final double cosA, final double sinB, final double cosB) {
+        if (cosA > cosB) {
+            return 1;
+        }
+        return cosA * cosB + sinA * sinB;
+    }
+
+    // sin(max(0, a - b)) from the sines and cosines of a and b
+    private static double sinSubtractClamped(final double sinA, final double cosA, final double sinB, final double cosB) {
+        if (cosA > cosB) {
+            return 0;
+        }
+        return sinA * cosB - cosA * sinB;
+    }
+
+    static double safeSqrt(final double value) {
+        return Math.sqrt(Math.max(0, value));
+    }
+
+    static double safeAcos(final double value) {
+        return Math.acos(Math.max(-1, Math.min(1, value)));
+    }
+}
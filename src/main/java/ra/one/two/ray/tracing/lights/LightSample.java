@@ -0,0 +1,19 @@
+package ra.one.two.ray.tracing.lights;
+
+/**
+ * Caller owned result of sampling a light from a shading point, reused for every sample taken from a thread.
+ */
+public class LightSample {
+    // Unit direction from the shading point towards the sampled point on the light
+    public double directionX;
+    public double directionY;
+    public double directionZ;
+    // Distance to the sampled point along the direction, infinite for lights at infinity
+    public double distance;
+    // Probability density of having sampled this direction, per unit solid angle
+    public double pdf;
+    // Radiance arriving from the light along the direction
+    public double radianceRed;
+    public double radianceGreen;
+    public double radianceBlue;
+}
@@ -0,0 +1,294 @@
+package ra.one.two.ray.tracing.lights;
+
+import ra.one.two.ray.tracing.materials.Material;
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.textures.TextureCoordinates;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounding volume hierarchy over the emitters of a scene, clustered by position, normal cone and power. A shading point
+ * picks an emitter by walking down from the root and choosing between the two children at random in proportion to
+ * how much light each could send to the point, so picking costs the depth of the tree and bright nearby emitters
+ * facing the point are picked far more often than the rest.
+ * <p>
+ * Splits are picked with the surface area orientation heuristic of Conty Estevez and Kulla, as in Pharr, Jakob and
+ * Humphreys "Physically Based Rendering" 4th edition 12.6.3.
+ */
+public class LightTree {
+    // Buckets the centroids are sorted into along each axis when looking for the cheapest split
+    private static final int SPLIT_BUCKETS = 12;
+
+    private final Emitter[] emitters;
+    // Nodes in depth first order, the first child of an interior node is the node right after it. A tree over n emitters
+    // has 2n - 1 nodes
+    private final LightBounds[] nodeBounds;
+    // Second child of an interior node, or the emitter of a leaf
+    private final int[] nodeSecondChildOrEmitter;
+    private final boolean[] nodeIsLeaf;
+    private final int[] nodeParent;
+    private int nodeCount = 0;
+    // Leaf of every emitter, to walk back up to the root when working out the probability of picking it
+    private final int[] leafOfEmitter;
+    private final Map<Material, Integer> emitterOfMaterial = new IdentityHashMap<>();
+
+    /**
+     * @param emitters emitters to build over, emitters that emit nothing are left out as they can never be picked
+     */
+    public LightTree(final List<Emitter> emitters) {
+        final List<Emitter> emitting = new ArrayList<>();
+        for (final Emitter emitter : emitters) {
+            if (emitter.lightBounds().power > 0) {
+                emitting.add(emitter);
+            }
+        }
+        this.emitters = emitting.toArray(new Emitter[0]);
+        this.leafOfEmitter = new int[this.emitters.length];
+        final int maxNodes = Math.max(0, 2 * this.emitters.length - 1);
+        this.nodeBounds = new LightBounds[maxNodes];
+        this.nodeSecondChildOrEmitter = new int[maxNodes];
+        this.nodeIsLeaf = new boolean[maxNodes];
+        this.nodeParent = new int[maxNodes];
+        for (int i = 0; i < this.emitters.length; i++) {
+            if (emitterOfMaterial.put(this.emitters[i].getMaterial(), i) != null) {
+                throw new IllegalArgumentException("Emitters need a material of their own");
+            }
+        }
+        if (this.emitters.length > 0) {
+            final int[] order = new int[this.emitters.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            build(order, 0, order.length, -1);
+        }
+    }
+
+    public int size() {
+        return emitters.length;
+    }
+
+    /**
+     * @param material material of an object a ray hit
+     * @return whether the object is an emitter of this tree, i.e. light from it is also sampled directly
+     */
+    public boolean contains(final Material material) {
+        return emitterOfMaterial.containsKey(material);
+    }
+
+    /**
+     * Pick an emitter for a point and a direction towards it.
+     *
+     * @param point   point receiving light
+     * @param normal  unit surface normal at the point, the zero vector for points in a medium
+     * @param random0 uniform random number in [0, 1), picks the emitter
+     * @param random1 uniform random number in [0, 1), picks the direction
+     * @param random2 uniform random number in [0, 1), picks the direction
+     * @param sample  receives the direction, the distance just past the emitter and the probability density of the
+     *                direction, which includes the probability of picking the emitter
+     * @return the emitter picked, null when no emitter can light the point
+     */
+    public Emitter sample(final Vec3 point, final Vec3 normal, final double random0, final double random1, final double random2, final LightSample sample) {
+        if (emitters.length == 0) {
+            return null;
+        }
+        final double pointX = point.getXComponent();
+        final double pointY = point.getYComponent();
+        final double pointZ = point.getZComponent();
+        final double normalX = normal.getXComponent();
+        final double normalY = normal.getYComponent();
+        final double normalZ = normal.getZComponent();
+        double random = random0;
+        double probability = 1;
+        int node = 0;
+        while (!nodeIsLeaf[node]) {
+            final int firstChild = node + 1;
+            final int secondChild = nodeSecondChildOrEmitter[node];
+            final double firstImportance = nodeBounds[firstChild].importance(pointX, pointY, pointZ, normalX, normalY, normalZ);
+            final double secondImportance = nodeBounds[secondChild].importance(pointX, pointY, pointZ, normalX, normalY, normalZ);
+            if (firstImportance == 0 && secondImportance == 0) {
+                return null;
+            }
+            final double firstProbability = firstImportance / (firstImportance + secondImportance);
+            // Reuse the random number for the next level, stretched back out to [0, 1)
+            if (random < firstProbability) {
+                node = firstChild;
+                probability *= firstProbability;
+                random = Math.min(random / firstProbability, Math.nextDown(1.0));
+            } else {
+                node = secondChild;
+                probability *= 1 - firstProbability;
+                random = Math.min((random - firstProbability) / (1 - firstProbability), Math.nextDown(1.0));
+            }
+        }
+        // A single emitter never gets compared against another one, make sure it can light the point at all
+        if (node == 0 && nodeBounds[0].importance(pointX, pointY, pointZ, normalX, normalY, normalZ) == 0) {
+            return null;
+        }
+        final Emitter emitter = emitters[nodeSecondChildOrEmitter[node]];
+        emitter.sample(pointX, pointY, pointZ, random1, random2, sample);
+        sample.pdf *= probability;
+        return emitter;
+    }
+
+    /**
+     * Probability density per unit solid angle with which sample picks the direction from a point to a point on the
+     * emitter with a material.
+     *
+     * @param point    point receiving light
+     * @param normal   unit surface normal at the point, the zero vector for points in a medium
+     * @param material material of the emitter, 0 is returned for materials of objects not in the tree
+     * @param hit      point on the emitter
+     * @return probability density of the direction
+     */
+    public double pdf(final Vec3 point, final Vec3 normal, final Material material, final Vec3 hit) {
+        final Integer emitterIndex = emitterOfMaterial.get(material);
+        if (emitterIndex == null) {
+            return 0;
+        }
+        final double pointX = point.getXComponent();
+        final double pointY = point.getYComponent();
+        final double pointZ = point.getZComponent();
+        final double normalX = normal.getXComponent();
+        final double normalY = normal.getYComponent();
+        final double normalZ = normal.getZComponent();
+        double probability = 1;
+        int node = leafOfEmitter[emitterIndex];
+        if (node == 0 && nodeBounds[0].importance(pointX, pointY, pointZ, normalX, normalY, normalZ) == 0) {
+            return 0;
+        }
+        while (node != 0) {
+            final int parent = nodeParent[node];
+            final double firstImportance = nodeBounds[parent + 1].importance(pointX, pointY, pointZ, normalX, normalY, normalZ);
+            final double secondImportance = nodeBounds[nodeSecondChildOrEmitter[parent]].importance(pointX, pointY, pointZ, normalX, normalY, normalZ);
+            final double importance = node == parent + 1 ? firstImportance : secondImportance;
+            if (importance == 0) {
+                return 0;
+            }
+            probability *= importance / (firstImportance + secondImportance);
+            node = parent;
+        }
+        return probability * emitters[emitterIndex].pdf(pointX, pointY, pointZ, hit.getXComponent(), hit.getYComponent(), hit.getZComponent());
+    }
+
+    // Build the subtree over order[start, end) and return its root
+    private int build(final int[] order, final int start, final int end, final int parent) {
+        final int node = nodeCount++;
+        nodeParent[node] = parent;
+        if (end - start == 1) {
+            nodeBounds[node] = emitters[order[start]].lightBounds();
+            nodeSecondChildOrEmitter[node] = order[start];
+            nodeIsLeaf[node] = true;
+            leafOfEmitter[order[start]] = node;
+            return node;
+        }
+
+        LightBounds bounds = null;
+        final double[] centroidMin = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        final double[] centroidMax = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = start; i < end; i++) {
+            final LightBounds emitterBounds = emitters[order[i]].lightBounds();
+            bounds = LightBounds.union(bounds, emitterBounds);
+            for (int axis = 0; axis < 3; axis++) {
+                centroidMin[axis] = Math.min(centroidMin[axis], emitterBounds.centroid(axis));
+                centroidMax[axis] = Math.max(centroidMax[axis], emitterBounds.centroid(axis));
+            }
+        }
+        nodeBounds[node] = bounds;
+
+        final int middle = split(order, start, end, bounds, centroidMin, centroidMax);
+        build(order, start, middle, node);
+        nodeSecondChildOrEmitter[node] = build(order, middle, end, node);
+        return node;
+    }
+
+    // Partition order[start, end) at the cheapest bucket boundary and return where the second half starts
+    private int split(final int[] order, final int start, final int end, final LightBounds bounds, final double[] centroidMin, final double[] centroidMax) {
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestAxis = -1;
+        int bestBucket = -1;
+        double maxExtent = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            maxExtent = Math.max(maxExtent, bounds.extent(axis));
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            final double centroidExtent = centroidMax[axis] - centroidMin[axis];
+            if (centroidExtent <= 0) {
+                continue;
+            }
+            final LightBounds[] buckets = new LightBounds[SPLIT_BUCKETS];
+            for (int i = start; i < end; i++) {
+                final LightBounds emitterBounds = emitters[order[i]].lightBounds();
+                final int bucket = bucketOf(emitterBounds.centroid(axis), centroidMin[axis], centroidExtent);
+                buckets[bucket] = LightBounds.union(buckets[bucket], emitterBounds);
+            }
+            // Thin clusters along the axis would otherwise look cheap to split across it
+            final double regularization = bounds.extent(axis) > 0 ? maxExtent / bounds.extent(axis) : 1;
+            for (int bucket = 0; bucket < SPLIT_BUCKETS - 1; bucket++) {
+                LightBounds below = null;
+                LightBounds above = null;
+                for (int i = 0; i <= bucket; i++) {
+                    below = LightBounds.union(below, buckets[i]);
+                }
+                for (int i = bucket + 1; i < SPLIT_BUCKETS; i++) {
+                    above = LightBounds.union(above, buckets[i]);
+                }
+                if (below == null || above == null) {
+                    continue;
+                }
+                final double cost = regularization * (cost(below) + cost(above));
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestBucket = bucket;
+                }
+            }
+        }
+
+        if (bestAxis < 0) {
+            // All centroids in one place, any split is as good as another
+            return (start + end) / 2;
+        }
+        int middle = start;
+        for (int i = start; i < end; i++) {
+            final int bucket = bucketOf(emitters[order[i]].lightBounds().centroid(bestAxis), centroidMin[bestAxis], centroidMax[bestAxis] - centroidMin[bestAxis]);
+            if (bucket <= bestBucket) {
+                final int swap = order[i];
+                order[i] = order[middle];
+                order[middle] = swap;
+                middle++;
+            }
+        }
+        return middle;
+    }
+
+    private static int bucketOf(final double centroid, final double centroidMin, final double centroidExtent) {
+        return Math.min(SPLIT_BUCKETS - 1, (int) (SPLIT_BUCKETS * (centroid - centroidMin) / centroidExtent));
+    }
+
+    private static double cost(final LightBounds bounds) {
+        return bounds.power * bounds.orientationMeasure() * bounds.surfaceArea();
+    }
+
+    /**
+     * Average luminance a material emits, over a grid of texture coordinates at a point. Only used to weigh emitters
+     * against each other, so it does not need to be exact, but it must not be zero for a material that emits somewhere.
+     *
+     * @param material material of the emitter
+     * @param point    point the texture is evaluated at, for textures that depend on it
+     * @return average emitted luminance
+     */
+    static double emittedLuminance(final Material material, final Vec3 point) {
+        final int gridSize = 4;
+        double luminance = 0;
+        for (int u = 0; u < gridSize; u++) {
+            for (int v = 0; v < gridSize; v++) {
+                final Vec3 emitted = material.emitted(new TextureCoordinates((u + 0.5) / gridSize, (v + 0.5) / gridSize), point);
+                luminance += 0.2126 * emitted.getXComponent() + 0.7152 * emitted.getYComponent() + 0.0722 * emitted.getZComponent();
+            }
+        }
+        return luminance / (gridSize * gridSize);
+    }
+}
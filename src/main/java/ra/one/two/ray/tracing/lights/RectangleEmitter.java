@@ -0,0 +1,102 @@
+package ra.one.two.ray.tracing.lights;
+
+import lombok.Getter;
+import ra.one.two.ray.tracing.materials.Material;
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+
+/**
+ * An emissive axis aligned rectangle, emitting from both faces like the rectangle primitives do. Points are picked
+ * uniformly over its area.
+ */
+public class RectangleEmitter implements Emitter {
+    // Axis the rectangle is perpendicular to, and the two axes it spans, 0 is x, 1 is y and 2 is z
+    private final int normalAxis;
+    private final int firstAxis;
+    private final int secondAxis;
+    private final double bottomFirst;
+    private final double bottomSecond;
+    private final double topFirst;
+    private final double topSecond;
+    // Coordinate along the normal axis
+    private final double k;
+    @Getter
+    private final Material material;
+    private final LightBounds lightBounds;
+
+    /**
+     * @param normalAxis   axis the rectangle is perpendicular to, 2 for xy_rect, 1 for xz_rect and 0 for yz_rect
+     * @param firstAxis    axis of the first coordinate of the corners
+     * @param secondAxis   axis of the second coordinate of the corners
+     * @param bottomFirst  first coordinate of the bottom corner
+     * @param bottomSecond second coordinate of the bottom corner
+     * @param topFirst     first coordinate of the top corner
+     * @param topSecond    second coordinate of the top corner
+     * @param k            coordinate along the normal axis
+     * @param material     emissive material of the rectangle
+     */
+    public RectangleEmitter(final int normalAxis, final int firstAxis, final int secondAxis, final double bottomFirst, final double bottomSecond,
+                            final double topFirst, final double topSecond, final double k, final Material material) {
+        this.normalAxis = normalAxis;
+        this.firstAxis = firstAxis;
+        this.secondAxis = secondAxis;
+        this.bottomFirst = bottomFirst;
+        this.bottomSecond = bottomSecond;
+        this.topFirst = topFirst;
+        this.topSecond = topSecond;
+        this.k = k;
+        this.material = material;
+
+        final double[] min = new double[3];
+        final double[] max = new double[3];
+        final double[] normal = new double[3];
+        min[firstAxis] = bottomFirst;
+        max[firstAxis] = topFirst;
+        min[secondAxis] = bottomSecond;
+        max[secondAxis] = topSecond;
+        min[normalAxis] = k;
+        max[normalAxis] = k;
+        normal[normalAxis] = 1;
+        final Vec3 center = new Vec3((min[0] + max[0]) / 2, (min[1] + max[1]) / 2, (min[2] + max[2]) / 2);
+        // Both faces emit, so power is twice that of a one sided emitter of the same area
+        this.lightBounds = new LightBounds(min[0], min[1], min[2], max[0], max[1], max[2],
+                2 * Math.PI * area() * LightTree.emittedLuminance(material, center), normal[0], normal[1], normal[2], 1, 0, true);
+    }
+
+    private double area() {
+        return (topFirst - bottomFirst) * (topSecond - bottomSecond);
+    }
+
+    @Override
+    public LightBounds lightBounds() {
+        return lightBounds;
+    }
+
+    @Override
+    public void sample(final double pointX, final double pointY, final double pointZ, final double random1, final double random2, final LightSample sample) {
+        final double[] onRectangle = new double[3];
+        onRectangle[firstAxis] = bottomFirst + random1 * (topFirst - bottomFirst);
+        onRectangle[secondAxis] = bottomSecond + random2 * (topSecond - bottomSecond);
+        onRectangle[normalAxis] = k;
+        final double toPointX = onRectangle[0] - pointX;
+        final double toPointY = onRectangle[1] - pointY;
+        final double toPointZ = onRectangle[2] - pointZ;
+        final double distance = Math.sqrt(toPointX * toPointX + toPointY * toPointY + toPointZ * toPointZ);
+        sample.directionX = toPointX / distance;
+        sample.directionY = toPointY / distance;
+        sample.directionZ = toPointZ / distance;
+        sample.distance = distance * (1 + 1e-6) + 1e-9;
+        sample.pdf = pdf(pointX, pointY, pointZ, onRectangle[0], onRectangle[1], onRectangle[2]);
+    }
+
+    @Override
+    public double pdf(final double pointX, final double pointY, final double pointZ, final double hitX, final double hitY, final double hitZ) {
+        final double toHitX = hitX - pointX;
+        final double toHitY = hitY - pointY;
+        final double toHitZ = hitZ - pointZ;
+        final double distanceSquared = toHitX * toHitX + toHitY * toHitY + toHitZ * toHitZ;
+        final double alongNormal = normalAxis == 0 ? toHitX : normalAxis == 1 ? toHitY : toHitZ;
+        // Uniform over the area, turned into a density per solid angle by distance squared over the cosine at the surface
+        final double cosine = Math.abs(alongNormal) / Math.sqrt(distanceSquared);
+        return cosine == 0 ? 0 : distanceSquared / (cosine * area());
+    }
+}
@@ -0,0 +1,108 @@
+package ra.one.two.ray.tracing.lights;
+
+import lombok.Getter;
+import ra.one.two.ray.tracing.materials.Material;
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+
+/**
+ * An emissive sphere. From outside, directions are picked uniformly in the cone the sphere takes up as seen from the
+ * point, from inside points are picked uniformly on its surface.
+ */
+public class SphereEmitter implements Emitter {
+    private final Vec3 center;
+    private final double radius;
+    @Getter
+    private final Material material;
+    private final LightBounds lightBounds;
+
+    public SphereEmitter(final Vec3 center, final double radius, final Material material) {
+        this.center = center;
+        this.radius = radius;
+        this.material = material;
+        final double area = 4 * Math.PI * radius * radius;
+        // Emits from every point of the surface, along the outward normal and everything up to 90 degrees from it
+        this.lightBounds = new LightBounds(center.getXComponent() - radius, center.getYComponent() - radius, center.getZComponent() - radius,
+                center.getXComponent() + radius, center.getYComponent() + radius, center.getZComponent() + radius,
+                Math.PI * area * LightTree.emittedLuminance(material, center), 0, 0, 1, -1, 0, false);
+    }
+
+    @Override
+    public LightBounds lightBounds() {
+        return lightBounds;
+    }
+
+    @Override
+    public void sample(final double pointX, final double pointY, final double pointZ, final double random1, final double random2, final LightSample sample) {
+        final double toCenterX = center.getXComponent() - pointX;
+        final double toCenterY = center.getYComponent() - pointY;
+        final double toCenterZ = center.getZComponent() - pointZ;
+        final double distanceSquared = toCenterX * toCenterX + toCenterY * toCenterY + toCenterZ * toCenterZ;
+        final double phi = 2 * Math.PI * random2;
+
+        if (distanceSquared <= radius * radius) {
+            final double cosTheta = 1 - 2 * random1;
+            final double sinTheta = LightBounds.safeSqrt(1 - cosTheta * cosTheta);
+            final double toSurfaceX = toCenterX + radius * sinTheta * Math.cos(phi);
+            final double toSurfaceY = toCenterY + radius * sinTheta * Math.sin(phi);
+            final double toSurfaceZ = toCenterZ + radius * cosTheta;
+            final double distance = Math.sqrt(toSurfaceX * toSurfaceX + toSurfaceY * toSurfaceY + toSurfaceZ * toSurfaceZ);
+            sample.directionX = toSurfaceX / distance;
+            sample.directionY = toSurfaceY / distance;
+            sample.directionZ = toSurfaceZ / distance;
+            sample.distance = distance * (1 + 1e-6) + 1e-9;
+            sample.pdf = pdf(pointX, pointY, pointZ, pointX + toSurfaceX, pointY + toSurfaceY, pointZ + toSurfaceZ);
+            return;
+        }
+
+        final double distance = Math.sqrt(distanceSquared);
+        final double oneMinusCosThetaMax = oneMinusCosThetaMax(distanceSquared);
+        final double cosTheta = 1 - random1 * oneMinusCosThetaMax;
+        final double sinTheta = LightBounds.safeSqrt(1 - cosTheta * cosTheta);
+        // Orthonormal basis around the direction to the center
+        final double wX = toCenterX / distance;
+        final double wY = toCenterY / distance;
+        final double wZ = toCenterZ / distance;
+        final double sign = Math.copySign(1.0, wZ);
+        final double a = -1 / (sign + wZ);
+        final double b = wX * wY * a;
+        final double uX = 1 + sign * wX * wX * a;
+        final double uY = sign * b;
+        final double uZ = -sign * wX;
+        final double vX = b;
+        final double vY = sign + wY * wY * a;
+        final double vZ = -wY;
+        final double alongU = sinTheta * Math.cos(phi);
+        final double alongV = sinTheta * Math.sin(phi);
+        sample.directionX = uX * alongU + vX * alongV + wX * cosTheta;
+        sample.directionY = uY * alongU + vY * alongV + wY * cosTheta;
+        sample.directionZ = uZ * alongU + vZ * alongV + wZ * cosTheta;
+        // The near side of the sphere, which is the side the direction hits, is closer than the center
+        sample.distance = distance;
+        sample.pdf = 1 / (2 * Math.PI * oneMinusCosThetaMax);
+    }
+
+    @Override
+    public double pdf(final double pointX, final double pointY, final double pointZ, final double hitX, final double hitY, final double hitZ) {
+        final double toCenterX = center.getXComponent() - pointX;
+        final double toCenterY = center.getYComponent() - pointY;
+        final double toCenterZ = center.getZComponent() - pointZ;
+        final double distanceSquared = toCenterX * toCenterX + toCenterY * toCenterY + toCenterZ * toCenterZ;
+        if (distanceSquared > radius * radius) {
+            return 1 / (2 * Math.PI * oneMinusCosThetaMax(distanceSquared));
+        }
+        // Uniform over the area, turned into a density per solid angle by distance squared over the cosine at the surface
+        final double toHitX = hitX - pointX;
+        final double toHitY = hitY - pointY;
+        final double toHitZ = hitZ - pointZ;
+        final double hitDistanceSquared = toHitX * toHitX + toHitY * toHitY + toHitZ * toHitZ;
+        final double cosine = Math.abs((hitX - center.getXComponent()) * toHitX + (hitY - center.getYComponent()) * toHitY
+                + (hitZ - center.getZComponent()) * toHitZ) / (radius * Math.sqrt(hitDistanceSquared));
+        return cosine == 0 ? 0 : hitDistanceSquared / (cosine * 4 * Math.PI * radius * radius);
+    }
+
+    // 1 - cos of the half angle of the cone the sphere takes up, as sin^2 / (1 + cos) which keeps its digits for far spheres
+    private double oneMinusCosThetaMax(final double distanceSquared) {
+        final double sinThetaMaxSquared = radius * radius / distanceSquared;
+        return sinThetaMaxSquared / (1 + LightBounds.safeSqrt(1 - sinThetaMaxSquared));
+    }
+}
@@ -1,10 +1,13 @@
 package ra.one.two.ray.tracing.materials;
 
 import lombok.AllArgsConstructor;
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
 import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 import ra.one.two.ray.tracing.rayhit.HitRecord;
 import ra.one.two.ray.tracing.rayhit.ScatterResult;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
+import ra.one.two.ray.tracing.textures.TextureCoordinates;
 
 @AllArgsConstructor
 public class Dielectric implements Material {
@@ -13,26 +16,57 @@ public class Dielectric implements Material {
 
     @Override
     public ScatterResult scatter(final Ray rayIn, final HitRecord record) {
+        final ShadingContext context = new ShadingContext();
+        return context.toScatterResult(scatter(rayIn, record, context), rayIn.getRayFireTime());
+    }
+
+    @Override
+    public boolean scatter(final Ray rayIn, final HitRecord record, final ShadingContext context) {
 
         final double refractiveIndexIncidenceOverRefractiveIndexTransmission = record.isFrontFace() ? (1.0 / refractiveIndex) : refractiveIndex;
-        final Vec3 unitIncidenceRayDirection = Vec3.unitVector(rayIn.getDirection());
+        final Vec3 direction = rayIn.getDirection();
+        final Vec3 normal = record.getNormal();
+        final double length = direction.length();
+        final double unitX = direction.getXComponent() / length;
+        final double unitY = direction.getYComponent() / length;
+        final double unitZ = direction.getZComponent() / length;
+        final double normalX = normal.getXComponent();
+        final double normalY = normal.getYComponent();
+        final double normalZ = normal.getZComponent();
+        final double incidenceAlongNormal = unitX * normalX + unitY * normalY + unitZ * normalZ;
         // get cos (angle of incidence)
-        final double cosTheta = Math.min(Vec3.dot(unitIncidenceRayDirection.negative(), record.getNormal()), 1.0);
+        final double cosTheta = Math.min(-incidenceAlongNormal, 1.0);
         final double sinTheta = Math.sqrt(1.0 - cosTheta * cosTheta);
-        // Check for total internal reflection
-        if (refractiveIndexIncidenceOverRefractiveIndexTransmission * sinTheta > 1.0) {
-            final Vec3 reflected = Vec3.reflect(unitIncidenceRayDirection, record.getNormal());
-            return new ScatterResult(new Vec3(1.0), new Ray(record.getRayHitLocationOnHittableObject(), reflected, rayIn.getRayFireTime()));
+        // Glass absorbs nothing
+        context.setAttenuation(1.0, 1.0, 1.0);
+        // Reflect on total internal reflection, otherwise with the probability given by the schlick approximation
+        if (refractiveIndexIncidenceOverRefractiveIndexTransmission * sinTheta > 1.0
+                || SeedableRandom.nextDouble() < schlick(cosTheta, refractiveIndexIncidenceOverRefractiveIndexTransmission)) {
+            // Same as Vec3.reflect, the incident direction minus twice its part along the normal
+            final double twiceAlongNormal = 2 * incidenceAlongNormal;
+            context.setScatteredRay(record.getRayHitLocationOnHittableObject(),
+                    unitX - twiceAlongNormal * normalX, unitY - twiceAlongNormal * normalY, unitZ - twiceAlongNormal * normalZ);
+            return true;
         }
-        // There is a probability associated with reflection vs refraction, we can estimate that with schlick approximation
-        final double reflectProbability = schlick(cosTheta, refractiveIndexIncidenceOverRefractiveIndexTransmission);
-        // Check on random if this ray can be reflected
-        if (Math.random() < reflectProbability) {
-            final Vec3 reflected = Vec3.reflect(unitIncidenceRayDirection, record.getNormal());
-            return new ScatterResult(new Vec3(1.0), new Ray(record.getRayHitLocationOnHittableObject(), reflected, rayIn.getRayFireTime()));
-        }
-        final Vec3 refracted = Vec3.refract(unitIncidenceRayDirection, record.getNormal(), refractiveIndexIncidenceOverRefractiveIndexTransmission);
-        return new ScatterResult(new Vec3(1.0), new Ray(record.getRayHitLocationOnHittableObject(), refracted, rayIn.getRayFireTime()));
+        // Same as Vec3.refract, the part perpendicular to the normal scaled by the refractive index ratio, and the part
+        // along the normal that makes the refracted direction unit length
+        final double perpendicularX = refractiveIndexIncidenceOverRefractiveIndexTransmission * (unitX - incidenceAlongNormal * normalX);
+        final double perpendicularY = refractiveIndexIncidenceOverRefractiveIndexTransmission * (unitY - incidenceAlongNormal * normalY);
+        final double perpendicularZ = refractiveIndexIncidenceOverRefractiveIndexTransmission * (unitZ - incidenceAlongNormal * normalZ);
+        final double alongNormal = -Math.sqrt(Math.abs(1.0 - (perpendicularX * perpendicularX + perpendicularY * perpendicularY + perpendicularZ * perpendicularZ)));
+        context.setScatteredRay(record.getRayHitLocationOnHittableObject(),
+                perpendicularX + alongNormal * normalX, perpendicularY + alongNormal * normalY, perpendicularZ + alongNormal * normalZ);
+        return true;
+    }
+
+    @Override
+    public double scatteringPdf(final Ray rayIn, final HitRecord record, final double directionX, final double directionY, final double directionZ) {
+        return 0;
+    }
+
+    @Override
+    public void emitted(final TextureCoordinates textureCoordinates, final Vec3 point, final ShadingContext context) {
+        context.setColor(0, 0, 0);
     }
 
     // Read https://en.wikipedia.org/wiki/Schlick%27s_approximation
@@ -1,15 +1,18 @@
 package ra.one.two.ray.tracing.materials;
 
 import lombok.AllArgsConstructor;
+import lombok.Getter;
 import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 import ra.one.two.ray.tracing.rayhit.HitRecord;
 import ra.one.two.ray.tracing.rayhit.ScatterResult;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
 import ra.one.two.ray.tracing.textures.SolidColorTexture;
 import ra.one.two.ray.tracing.textures.Texture;
 import ra.one.two.ray.tracing.textures.TextureCoordinates;
 
 @AllArgsConstructor
+@Getter
 public class DiffuseLight implements Material {
 
     private final Texture emitTexture;
@@ -23,8 +26,19 @@ public class DiffuseLight implements Material {
         return emitTexture.value(textureCoordinates, point);
     }
 
+    @Override
+    public void emitted(final TextureCoordinates textureCoordinates, final Vec3 point, final ShadingContext context) {
+        emitTexture.value(textureCoordinates, point, context);
+    }
+
     @Override
     public ScatterResult scatter(Ray rayIn, HitRecord record) {
         return new ScatterResult(null, null);
     }
+
+    @Override
+    public boolean scatter(Ray rayIn, HitRecord record, ShadingContext context) {
+        // Lights only emit, they absorb everything that hits them
+        return false;
+    }
 }
@@ -1,12 +1,15 @@
 package ra.one.two.ray.tracing.materials;
 
 import lombok.AllArgsConstructor;
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
 import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 import ra.one.two.ray.tracing.rayhit.HitRecord;
 import ra.one.two.ray.tracing.rayhit.ScatterResult;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
 import ra.one.two.ray.tracing.textures.SolidColorTexture;
 import ra.one.two.ray.tracing.textures.Texture;
+import ra.one.two.ray.tracing.textures.TextureCoordinates;
 
 @AllArgsConstructor
 public class Isotropic implements Material {
@@ -19,8 +22,40 @@ public class Isotropic implements Material {
 
     @Override
     public ScatterResult scatter(Ray rayIn, HitRecord record) {
-        final Ray scattered = new Ray(record.getRayHitLocationOnHittableObject(), Vec3.randomInUnitSphere(), rayIn.getRayFireTime());
-        final Vec3 attenuation = albedo.value(record.getTextureCoordinatesAtHitLocation(), record.getRayHitLocationOnHittableObject());
-        return new ScatterResult(attenuation, scattered);
+        final ShadingContext context = new ShadingContext();
+        return context.toScatterResult(scatter(rayIn, record, context), rayIn.getRayFireTime());
+    }
+
+    @Override
+    public boolean scatter(Ray rayIn, HitRecord record, ShadingContext context) {
+        // A random direction in the unit sphere, drawn the same way as Vec3.randomInUnitSphere
+        double x;
+        double y;
+        double z;
+        do {
+            x = SeedableRandom.nextDouble() * 2 - 1;
+            y = SeedableRandom.nextDouble() * 2 - 1;
+            z = SeedableRandom.nextDouble() * 2 - 1;
+        } while (x * x + y * y + z * z >= 1);
+        context.setScatteredRay(record.getRayHitLocationOnHittableObject(), x, y, z);
+        albedo.value(record.getTextureCoordinatesAtHitLocation(), record.getRayHitLocationOnHittableObject(), context);
+        context.setAttenuation(context.color[0], context.color[1], context.color[2]);
+        return true;
+    }
+
+    @Override
+    public double scatteringPdf(Ray rayIn, HitRecord record, Vec3 scatteredDirection) {
+        // Every direction is equally likely, one over the solid angle of the whole sphere
+        return 1 / (4 * Math.PI);
+    }
+
+    @Override
+    public double scatteringPdf(Ray rayIn, HitRecord record, double directionX, double directionY, double directionZ) {
+        return 1 / (4 * Math.PI);
+    }
+
+    @Override
+    public void emitted(TextureCoordinates textureCoordinates, Vec3 point, ShadingContext context) {
+        context.setColor(0, 0, 0);
     }
 }
@@ -1,12 +1,15 @@
 package ra.one.two.ray.tracing.materials;
 
 
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
 import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 import ra.one.two.ray.tracing.rayhit.HitRecord;
 import ra.one.two.ray.tracing.rayhit.ScatterResult;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
 import ra.one.two.ray.tracing.textures.SolidColorTexture;
 import ra.one.two.ray.tracing.textures.Texture;
+import ra.one.two.ray.tracing.textures.TextureCoordinates;
 
 public class Lambertian implements Material {
 
@@ -27,12 +30,46 @@ public class Lambertian implements Material {
 
     @Override
     public ScatterResult scatter(final Ray rayIn, final HitRecord record) {
+        final ShadingContext context = new ShadingContext();
+        return context.toScatterResult(scatter(rayIn, record, context), rayIn.getRayFireTime());
+    }
+
+    @Override
+    public boolean scatter(final Ray rayIn, final HitRecord record, final ShadingContext context) {
         // Excerpt from the original book
         // "For Lambertian It can either scatter always and attenuate by its reflectance R, or it can scatter with no attenuation but absorb the fraction 1−R
         // Note we could just as well only scatter with some probability p and have attenuation be albedo/p."
         // Note: Something seem off about it as we are not actually attenuating color or absorbing the rays, need to check with the author
-        final Vec3 scatterDirection = Vec3.add(record.getNormal(), Vec3.randomUnitVector());
-        return new ScatterResult(albedo.value(record.getTextureCoordinatesAtHitLocation(), record.getRayHitLocationOnHittableObject()),
-                new Ray(record.getRayHitLocationOnHittableObject(), scatterDirection, rayIn.getRayFireTime()));
+        // Scatter along the normal plus a random unit vector, drawn the same way as Vec3.randomUnitVector
+        final double azimuthalAngle = SeedableRandom.nextDouble() * 2 * Math.PI;
+        final double randomZCoordinate = SeedableRandom.nextDouble() * 2 - 1;
+        final double radiusOfDiscCutIntoASphereAtChosenZ = Math.sqrt(1 - randomZCoordinate * randomZCoordinate);
+        final Vec3 normal = record.getNormal();
+        context.setScatteredRay(record.getRayHitLocationOnHittableObject(),
+                normal.getXComponent() + radiusOfDiscCutIntoASphereAtChosenZ * Math.cos(azimuthalAngle),
+                normal.getYComponent() + radiusOfDiscCutIntoASphereAtChosenZ * Math.sin(azimuthalAngle),
+                normal.getZComponent() + randomZCoordinate);
+        albedo.value(record.getTextureCoordinatesAtHitLocation(), record.getRayHitLocationOnHittableObject(), context);
+        context.setAttenuation(context.color[0], context.color[1], context.color[2]);
+        return true;
+    }
+
+    @Override
+    public double scatteringPdf(final Ray rayIn, final HitRecord record, final Vec3 scatteredDirection) {
+        return scatteringPdf(rayIn, record, scatteredDirection.getXComponent(), scatteredDirection.getYComponent(), scatteredDirection.getZComponent());
+    }
+
+    @Override
+    public double scatteringPdf(final Ray rayIn, final HitRecord record, final double directionX, final double directionY, final double directionZ) {
+        // normal + random unit vector is distributed proportional to cos theta with the normal, normalising gives cos theta / pi
+        final Vec3 normal = record.getNormal();
+        final double cosine = (normal.getXComponent() * directionX + normal.getYComponent() * directionY + normal.getZComponent() * directionZ)
+                / Math.sqrt(directionX * directionX + directionY * directionY + directionZ * directionZ);
+        return cosine < 0 ? 0 : cosine / Math.PI;
+    }
+
+    @Override
+    public void emitted(final TextureCoordinates textureCoordinates, final Vec3 point, final ShadingContext context) {
+        context.setColor(0, 0, 0);
     }
 }
@@ -4,6 +4,7 @@ import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 import ra.one.two.ray.tracing.rayhit.HitRecord;
 import ra.one.two.ray.tracing.rayhit.ScatterResult;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
 import ra.one.two.ray.tracing.textures.TextureCoordinates;
 
 // Different types of material interact with input ray differently and scatter it differently
@@ -17,7 +18,72 @@ public interface Material {
      */
     ScatterResult scatter(final Ray rayIn, final HitRecord record);
 
+    /**
+     * Same as scatter but writes the attenuation and the scattered ray into the context instead of allocating them.
+     * Materials should override this, the default adapts the scatter returning a ScatterResult.
+     *
+     * @param rayIn   input ray
+     * @param record  record where the ray hit an object
+     * @param context receives the attenuation, and the scattered ray when the ray scattered
+     * @return whether the ray scattered, false when it was absorbed
+     */
+    default boolean scatter(final Ray rayIn, final HitRecord record, final ShadingContext context) {
+        final ScatterResult scatterResult = scatter(rayIn, record);
+        final Ray scatteredRay = scatterResult.getScatteredRay();
+        if (scatteredRay == null) {
+            return false;
+        }
+        final Vec3 attenuation = scatterResult.getColorFromObjectHit();
+        context.setAttenuation(attenuation.getXComponent(), attenuation.getYComponent(), attenuation.getZComponent());
+        context.setScatteredRay(scatteredRay.getOrigin(), scatteredRay.getDirection().getXComponent(), scatteredRay.getDirection().getYComponent(),
+                scatteredRay.getDirection().getZComponent());
+        return true;
+    }
+
+    /**
+     * Probability density per unit solid angle with which scatter sends the ray in the given direction.
+     * Materials that scatter into a single direction like mirrors and glass return 0, for the others
+     * attenuation * scatteringPdf is the amount of light from the direction reflected towards the incoming ray,
+     * which is what lets us sample lights directly and weigh that against scattering (multiple importance sampling).
+     *
+     * @param rayIn              input ray
+     * @param record             record where the ray hit an object
+     * @param scatteredDirection direction to evaluate, need not be unit length
+     * @return probability density of scattering in the direction
+     */
+    default double scatteringPdf(final Ray rayIn, final HitRecord record, final Vec3 scatteredDirection) {
+        return 0;
+    }
+
+    /**
+     * Same as scatteringPdf with the direction as its components, so callers need not allocate a Vec3 for it.
+     * Materials should override this, the default adapts the one taking a Vec3.
+     *
+     * @param rayIn      input ray
+     * @param record     record where the ray hit an object
+     * @param directionX x of the direction to evaluate, need not be unit length
+     * @param directionY y of the direction
+     * @param directionZ z of the direction
+     * @return probability density of scattering in the direction
+     */
+    default double scatteringPdf(final Ray rayIn, final HitRecord record, final double directionX, final double directionY, final double directionZ) {
+        return scatteringPdf(rayIn, record, new Vec3(directionX, directionY, directionZ));
+    }
+
     default Vec3 emitted(final TextureCoordinates textureCoordinates, final Vec3 point) {
         return new Vec3(0);
     }
+
+    /**
+     * Same as emitted but writes the emitted color into the context. Materials should override this,
+     * the default adapts the emitted returning a Vec3.
+     *
+     * @param textureCoordinates texture coordinates of the point
+     * @param point              point on the surface
+     * @param context            receives the emitted color in its color
+     */
+    default void emitted(final TextureCoordinates textureCoordinates, final Vec3 point, final ShadingContext context) {
+        final Vec3 emitted = emitted(textureCoordinates, point);
+        context.setColor(emitted.getXComponent(), emitted.getYComponent(), emitted.getZComponent());
+    }
 }
@@ -1,10 +1,13 @@
 package ra.one.two.ray.tracing.materials;
 
 
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
 import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 import ra.one.two.ray.tracing.rayhit.HitRecord;
 import ra.one.two.ray.tracing.rayhit.ScatterResult;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
+import ra.one.two.ray.tracing.textures.TextureCoordinates;
 
 public class Metal implements Material {
 
@@ -24,10 +27,46 @@ public class Metal implements Material {
 
     @Override
     public ScatterResult scatter(final Ray rayIn, final HitRecord record) {
+        final ShadingContext context = new ShadingContext();
+        return context.toScatterResult(scatter(rayIn, record, context), rayIn.getRayFireTime());
+    }
+
+    @Override
+    public boolean scatter(final Ray rayIn, final HitRecord record, final ShadingContext context) {
         // Get a unit vector in the direction of reflection
-        final Vec3 reflected = Vec3.reflect(Vec3.unitVector(rayIn.getDirection()), record.getNormal());
-        // Get the reflected ray with direction slightly randomized based upon the fuzz factor
-        final Ray scattered = new Ray(record.getRayHitLocationOnHittableObject(), reflected.add(Vec3.randomInUnitSphere().scaleUp(fuzz)), rayIn.getRayFireTime());
-        return new ScatterResult(albedo, Vec3.dot(scattered.getDirection(), record.getNormal()) > 0 ? scattered : null);
+        final Vec3 direction = rayIn.getDirection();
+        final Vec3 normal = record.getNormal();
+        final double length = direction.length();
+        final double unitX = direction.getXComponent() / length;
+        final double unitY = direction.getYComponent() / length;
+        final double unitZ = direction.getZComponent() / length;
+        final double twiceAlongNormal = 2 * (unitX * normal.getXComponent() + unitY * normal.getYComponent() + unitZ * normal.getZComponent());
+        // Randomize the reflected direction slightly based upon the fuzz factor, by a random vector in the unit sphere
+        // drawn the same way as Vec3.randomInUnitSphere
+        double x;
+        double y;
+        double z;
+        do {
+            x = SeedableRandom.nextDouble() * 2 - 1;
+            y = SeedableRandom.nextDouble() * 2 - 1;
+            z = SeedableRandom.nextDouble() * 2 - 1;
+        } while (x * x + y * y + z * z >= 1);
+        final double scatteredX = unitX - twiceAlongNormal * normal.getXComponent() + fuzz * x;
+        final double scatteredY = unitY - twiceAlongNormal * normal.getYComponent() + fuzz * y;
+        final double scatteredZ = unitZ - twiceAlongNormal * normal.getZComponent() + fuzz * z;
+        context.setAttenuation(albedo.getXComponent(), albedo.getYComponent(), albedo.getZComponent());
+        context.setScatteredRay(record.getRayHitLocationOnHittableObject(), scatteredX, scatteredY, scatteredZ);
+        // Fuzz may push the ray below the surface, it is absorbed then
+        return scatteredX * normal.getXComponent() + scatteredY * normal.getYComponent() + scatteredZ * normal.getZComponent() > 0;
+    }
+
+    @Override
+    public double scatteringPdf(final Ray rayIn, final HitRecord record, final double directionX, final double directionY, final double directionZ) {
+        return 0;
+    }
+
+    @Override
+    public void emitted(final TextureCoordinates textureCoordinates, final Vec3 point, final ShadingContext context) {
+        context.setColor(0, 0, 0);
     }
 }
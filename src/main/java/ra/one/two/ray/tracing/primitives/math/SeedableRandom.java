@@ -0,0 +1,60 @@
+package ra.one.two.ray.tracing.primitives.math;
+
+/**
+ * Random numbers for sampling, from a SplitMix64 generator per thread.
+ * Math.random has every thread compare and swap one shared seed, which render threads fight over on every sample.
+ * Here threads never touch each other's state, and a thread can be seeded before a piece of work so that the work
+ * comes out the same no matter which thread ends up doing it. Threads that are never seeded start from the clock.
+ */
+public final class SeedableRandom {
+    // Odd constant of SplitMix64, the fractional part of the golden ratio
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    // A one element array so the state can be advanced without boxing or a second lookup
+    private static final ThreadLocal<long[]> STATES = ThreadLocal.withInitial(
+            () -> new long[]{mix(System.nanoTime() ^ Thread.currentThread().getId() * GOLDEN_GAMMA)});
+
+    private SeedableRandom() {
+    }
+
+    /**
+     * @return uniformly distributed number in [0, 1)
+     */
+    public static double nextDouble() {
+        final long[] state = STATES.get();
+        state[0] += GOLDEN_GAMMA;
+        // Top 53 bits, as many as a double has
+        return (mix(state[0]) >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Restart the generator of the calling thread.
+     *
+     * @param seed seed, see seedFor for combining several values into one
+     */
+    public static void seed(final long seed) {
+        STATES.get()[0] = seed;
+    }
+
+    /**
+     * Seed for one piece of work, e.g. one tile of one pass. Different inputs give unrelated sequences.
+     *
+     * @param seed   seed of the whole render
+     * @param first  first value identifying the piece of work
+     * @param second second value identifying the piece of work
+     * @param third  third value identifying the piece of work
+     * @return the seed
+     */
+    public static long seedFor(final long seed, final long first, final long second, final long third) {
+        long hash = mix(seed + GOLDEN_GAMMA);
+        hash = mix(hash ^ (first + GOLDEN_GAMMA));
+        hash = mix(hash ^ (second + 2 * GOLDEN_GAMMA));
+        return mix(hash ^ (third + 3 * GOLDEN_GAMMA));
+    }
+
+    // Finalizer of SplitMix64, a bijection that spreads every input bit over the whole output
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+}
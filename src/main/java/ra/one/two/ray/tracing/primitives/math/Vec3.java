@@ -64,6 +64,21 @@ public class Vec3 {
         return zComponent;
     }
 
+    /**
+     * Set all 3 coordinates of this vector
+     *
+     * @param xComponent x coordinate value to set
+     * @param yComponent y coordinate value to set
+     * @param zComponent z coordinate value to set
+     * @return this after the coordinates are set.
+     */
+    public Vec3 set(final double xComponent, final double yComponent, final double zComponent) {
+        this.xComponent = xComponent;
+        this.yComponent = yComponent;
+        this.zComponent = zComponent;
+        return this;
+    }
+
     /**
      * Add the provided vector to this
      *
@@ -274,7 +289,7 @@ public class Vec3 {
      * @return a random vector.
      */
     public static Vec3 random() {
-        return new Vec3(Math.random(), Math.random(), Math.random());
+        return new Vec3(SeedableRandom.nextDouble(), SeedableRandom.nextDouble(), SeedableRandom.nextDouble());
     }
 
     /**
@@ -285,7 +300,7 @@ public class Vec3 {
      * @return a new random vector with coordinate values b/w provided limits
      */
     public static Vec3 random(double min, double max) {
-        return new Vec3(Math.random() * (max - min) + min, Math.random() * (max - min) + min, Math.random() * (max - min) + min);
+        return new Vec3(SeedableRandom.nextDouble() * (max - min) + min, SeedableRandom.nextDouble() * (max - min) + min, SeedableRandom.nextDouble() * (max - min) + min);
     }
 
     /**
@@ -312,10 +327,10 @@ public class Vec3 {
     public static Vec3 randomUnitVector() {
         // Get a random azimuthal angle in 0 to 2 pi
         // see https://en.wikipedia.org/wiki/Spherical_coordinate_system#Cartesian_coordinates
-        final double azimuthalAngle = Math.random() * 2 * Math.PI;
+        final double azimuthalAngle = SeedableRandom.nextDouble() * 2 * Math.PI;
         // Get a random z coordinate b/w -1 and 1, serves as a way to get random polar angle
         // as z = r cos theta where r is radius of sphere and theta is polar angle in this case its 1 so z = cos theta
-        final double randomZCoordinate = Math.random() * 2 - 1;
+        final double randomZCoordinate = SeedableRandom.nextDouble() * 2 - 1;
         // Get the radius of circle at the current z coordinate which is r sin theta and since r is 1 its just sin theta
         // which is sqrt of 1 - cos theta * cos theta
         final double radiusOfDiscCutIntoASphereAtChosenZ = Math.sqrt(1 - randomZCoordinate * randomZCoordinate);
@@ -341,7 +356,7 @@ public class Vec3 {
      */
     public static Vec3 randomInUnitDisk() {
         while (true) {
-            Vec3 randomVectorInUnitSquareOnXYAxis = new Vec3(Math.random() * 2 - 1, Math.random() * 2 - 1, 0);
+            Vec3 randomVectorInUnitSquareOnXYAxis = new Vec3(SeedableRandom.nextDouble() * 2 - 1, SeedableRandom.nextDouble() * 2 - 1, 0);
             if (randomVectorInUnitSquareOnXYAxis.lengthSquared() >= 1) continue;
             return randomVectorInUnitSquareOnXYAxis;
         }
@@ -2,72 +2,199 @@ package ra.one.two.ray.tracing.primitives.noise;
 
 import ra.one.two.ray.tracing.primitives.math.Vec3;
 
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.Random;
 
+/**
+ * Gradient noise, see https://en.wikipedia.org/wiki/Perlin_noise.
+ * Everything is kept in flat primitive tables so that evaluating the noise does not allocate,
+ * procedural textures evaluate it for several octaves on every hit so it shows up as a shading hotspot otherwise.
+ */
 public class Perlin {
     private static final int POINT_COUNT = 256;
-    private final double randomDouble[] = new double[POINT_COUNT];
-    private final int permX[] = new int[POINT_COUNT];
-    private final int permY[] = new int[POINT_COUNT];
-    private final int permZ[] = new int[POINT_COUNT];
-    private final Vec3[] randomVector = new Vec3[POINT_COUNT];
+    private static final int POINT_MASK = POINT_COUNT - 1;
+    // gradient of the lattice point with hash h is (gradients[3h], gradients[3h + 1], gradients[3h + 2])
+    private final double[] gradients = new double[3 * POINT_COUNT];
+    private final int[] permX = new int[POINT_COUNT];
+    private final int[] permY = new int[POINT_COUNT];
+    private final int[] permZ = new int[POINT_COUNT];
 
     public Perlin() {
+        this(new Random());
+    }
+
+    /**
+     * Noise with reproducible tables, two instances created with the same seed produce the same noise.
+     *
+     * @param seed seed for the random gradients and permutations
+     */
+    public Perlin(final long seed) {
+        this(new Random(seed));
+    }
+
+    private Perlin(final Random random) {
         for (int i = 0; i < POINT_COUNT; i++) {
-            randomDouble[i] = Math.random();
-            permX[i] = i;
-            permY[i] = i;
-            permZ[i] = i;
-            randomVector[i] = Vec3.random(-1, 1);
+            // Random vectors in the [-1, 1] cube, same as Vec3.random(-1, 1)
+            gradients[3 * i] = random.nextDouble() * 2 - 1;
+            gradients[3 * i + 1] = random.nextDouble() * 2 - 1;
+            gradients[3 * i + 2] = random.nextDouble() * 2 - 1;
+        }
+        generatePermutation(permX, random);
+        generatePermutation(permY, random);
+        generatePermutation(permZ, random);
+    }
+
+    // Fisher Yates shuffle of 0..n-1. Note Collections.shuffle(Arrays.asList(int[])) shuffles a list with the array as its
+    // only element, which left the permutations as the identity.
+    private static void generatePermutation(final int[] permutation, final Random random) {
+        for (int i = 0; i < permutation.length; i++) {
+            permutation[i] = i;
+        }
+        for (int i = permutation.length - 1; i > 0; i--) {
+            final int target = random.nextInt(i + 1);
+            final int temp = permutation[i];
+            permutation[i] = permutation[target];
+            permutation[target] = temp;
         }
-        Collections.shuffle(Arrays.asList(permX));
-        Collections.shuffle(Arrays.asList(permY));
-        Collections.shuffle(Arrays.asList(permZ));
     }
 
     public double noise(final Vec3 point) {
-        double u = point.getXComponent() - Math.floor(point.getXComponent());
-        double v = point.getYComponent() - Math.floor(point.getYComponent());
-        double w = point.getZComponent() - Math.floor(point.getZComponent());
+        return noise(point.getXComponent(), point.getYComponent(), point.getZComponent());
+    }
 
-        double uu = u * u * (3 - 2 * u);
-        double vv = v * v * (3 - 2 * v);
-        double ww = w * w * (3 - 2 * w);
+    /**
+     * Noise value at a point, lies roughly between -1 and 1.
+     *
+     * @param x x coordinate of the point
+     * @param y y coordinate of the point
+     * @param z z coordinate of the point
+     * @return noise at the point
+     */
+    public double noise(final double x, final double y, final double z) {
+        final double floorX = Math.floor(x);
+        final double floorY = Math.floor(y);
+        final double floorZ = Math.floor(z);
+        final double u = x - floorX;
+        final double v = y - floorY;
+        final double w = z - floorZ;
 
-        int i = (int) Math.floor(point.getXComponent());
-        int j = (int) Math.floor(point.getYComponent());
-        int k = (int) Math.floor(point.getZComponent());
+        // Hermite cubic smoothing of the interpolation weights
+        final double uu = u * u * (3 - 2 * u);
+        final double vv = v * v * (3 - 2 * v);
+        final double ww = w * w * (3 - 2 * w);
 
-        double accum = 0.0;
-        // Perform trilinear interpolation
-        for (int di = 0; di < 2; di++) {
-            for (int dj = 0; dj < 2; dj++) {
-                for (int dk = 0; dk < 2; dk++) {
-                    accum += (di * uu + (1 - di) * (1 - uu)) * (dj * vv + (1 - dj) * (1 - vv)) * (dk * ww + (1 - dk) * (1 - ww))
-                            * Vec3.dot(randomVector[permX[(i + di) & 255] ^ permY[(j + dj) & 255] ^ permZ[(k + dk) & 255]], new Vec3(u - di, v - dj, w - dk));
-                }
-            }
-        }
+        final int i = (int) floorX;
+        final int j = (int) floorY;
+        final int k = (int) floorZ;
+        final int x0 = permX[i & POINT_MASK];
+        final int x1 = permX[(i + 1) & POINT_MASK];
+        final int y0 = permY[j & POINT_MASK];
+        final int y1 = permY[(j + 1) & POINT_MASK];
+        final int z0 = permZ[k & POINT_MASK];
+        final int z1 = permZ[(k + 1) & POINT_MASK];
 
-        return accum;
-//        int i = (int)(4*point.getXComponent()) & 255;
-//        int j = (int)(4*point.getYComponent()) & 255;
-//        int k = (int)(4*point.getZComponent()) & 255;
-//
-//        return randomDouble[permX[i] ^ permY[j] ^ permZ[k]];
+        // Dot product of the gradient at each of the 8 lattice corners with the vector from that corner to the point
+        final double c000 = gradientDot(x0 ^ y0 ^ z0, u, v, w);
+        final double c100 = gradientDot(x1 ^ y0 ^ z0, u - 1, v, w);
+        final double c010 = gradientDot(x0 ^ y1 ^ z0, u, v - 1, w);
+        final double c110 = gradientDot(x1 ^ y1 ^ z0, u - 1, v - 1, w);
+        final double c001 = gradientDot(x0 ^ y0 ^ z1, u, v, w - 1);
+        final double c101 = gradientDot(x1 ^ y0 ^ z1, u - 1, v, w - 1);
+        final double c011 = gradientDot(x0 ^ y1 ^ z1, u, v - 1, w - 1);
+        final double c111 = gradientDot(x1 ^ y1 ^ z1, u - 1, v - 1, w - 1);
+
+        // Perform trilinear interpolation, first along x then y then z
+        final double c00 = c000 + uu * (c100 - c000);
+        final double c10 = c010 + uu * (c110 - c010);
+        final double c01 = c001 + uu * (c101 - c001);
+        final double c11 = c011 + uu * (c111 - c011);
+        final double c0 = c00 + vv * (c10 - c00);
+        final double c1 = c01 + vv * (c11 - c01);
+        return c0 + ww * (c1 - c0);
     }
 
     public double turbulence(final Vec3 point, final int depth) {
+        return turbulence(point.getXComponent(), point.getYComponent(), point.getZComponent(), depth);
+    }
+
+    /**
+     * Absolute value of the fractal brownian motion at a point.
+     *
+     * @param x     x coordinate of the point
+     * @param y     y coordinate of the point
+     * @param z     z coordinate of the point
+     * @param depth number of octaves to sum up
+     * @return turbulence at the point
+     */
+    public double turbulence(final double x, final double y, final double z, final int depth) {
+        return Math.abs(fractalBrownianMotion(x, y, z, depth));
+    }
+
+    /**
+     * Sum of depth octaves of noise where each octave has double the frequency and half the weight of the previous one.
+     *
+     * @param x     x coordinate of the point
+     * @param y     y coordinate of the point
+     * @param z     z coordinate of the point
+     * @param depth number of octaves to sum up
+     * @return fractal brownian motion at the point
+     */
+    public double fractalBrownianMotion(final double x, final double y, final double z, final int depth) {
         double accum = 0.0;
         double weight = 1.0;
-        Vec3 tempPoint = Vec3.multiply(point, 1);
+        double frequency = 1.0;
         for (int i = 0; i < depth; i++) {
-            accum += weight * noise(tempPoint);
+            accum += weight * noise(frequency * x, frequency * y, frequency * z);
             weight *= 0.5;
-            tempPoint.scaleUp(2);
+            frequency *= 2;
+        }
+        return accum;
+    }
+
+    /**
+     * Noise for many points at once, the points are passed as separate coordinate arrays.
+     *
+     * @param xs     x coordinates of the points
+     * @param ys     y coordinates of the points
+     * @param zs     z coordinates of the points
+     * @param count  number of points to evaluate, starting from index 0
+     * @param output receives the noise of point i at index i
+     */
+    public void noise(final double[] xs, final double[] ys, final double[] zs, final int count, final double[] output) {
+        for (int i = 0; i < count; i++) {
+            output[i] = noise(xs[i], ys[i], zs[i]);
         }
+    }
+
+    /**
+     * Turbulence for many points at once, octave by octave so that the tables stay hot for the whole batch.
+     *
+     * @param xs     x coordinates of the points
+     * @param ys     y coordinates of the points
+     * @param zs     z coordinates of the points
+     * @param count  number of points to evaluate, starting from index 0
+     * @param depth  number of octaves to sum up
+     * @param output receives the turbulence of point i at index i
+     */
+    public void turbulence(final double[] xs, final double[] ys, final double[] zs, final int count, final int depth, final double[] output) {
+        for (int i = 0; i < count; i++) {
+            output[i] = 0;
+        }
+        double weight = 1.0;
+        double frequency = 1.0;
+        for (int octave = 0; octave < depth; octave++) {
+            for (int i = 0; i < count; i++) {
+                output[i] += weight * noise(frequency * xs[i], frequency * ys[i], frequency * zs[i]);
+            }
+            weight *= 0.5;
+            frequency *= 2;
+        }
+        for (int i = 0; i < count; i++) {
+            output[i] = Math.abs(output[i]);
+        }
+    }
 
-        return Math.abs(accum);
+    private double gradientDot(final int hash, final double dx, final double dy, final double dz) {
+        final int index = 3 * hash;
+        return gradients[index] * dx + gradients[index + 1] * dy + gradients[index + 2] * dz;
     }
 }
@@ -5,25 +5,33 @@ import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 import ra.one.two.ray.tracing.rayhit.AxisAlignedBoundingBox;
 import ra.one.two.ray.tracing.rayhit.HitRecord;
-import ra.one.two.ray.tracing.rayhit.HittableList;
+import ra.one.two.ray.tracing.rayhit.PrimitiveBuckets;
+import ra.one.two.ray.tracing.rayhit.RayInterval;
+
+import java.util.List;
 
 public class Box implements Hittable {
 
-    private final HittableList sides = new HittableList();
+    // Two sides of each rectangle class, grouped so the hit loop over them calls each class directly
+    private final PrimitiveBuckets sides;
     private final Vec3 bottomCorner;
     private final Vec3 topCorner;
     private final Material material;
+    // The box is its own axis aligned bounding box, the slab test on it gives entry and exit in one go
+    private final AxisAlignedBoundingBox bounds;
 
     public Box(final Vec3 bottomCorner, final Vec3 topCorner, final Material material) {
         this.material = material;
         this.bottomCorner = bottomCorner;
         this.topCorner = topCorner;
-        sides.getHittableList().add(new XYPlaneRectangle(bottomCorner.getXComponent(), bottomCorner.getYComponent(), topCorner.getXComponent(), topCorner.getYComponent(), bottomCorner.getZComponent(), material));
-        sides.getHittableList().add(new XYPlaneRectangle(bottomCorner.getXComponent(), bottomCorner.getYComponent(), topCorner.getXComponent(), topCorner.getYComponent(), topCorner.getZComponent(), material));
-        sides.getHittableList().add(new XZPlaneRectangle(bottomCorner.getXComponent(), bottomCorner.getZComponent(), topCorner.getXComponent(), topCorner.getZComponent(), bottomCorner.getYComponent(), material));
-        sides.getHittableList().add(new XZPlaneRectangle(bottomCorner.getXComponent(), bottomCorner.getZComponent(), topCorner.getXComponent(), topCorner.getZComponent(), topCorner.getYComponent(), material));
-        sides.getHittableList().add(new YZPlaneRectangle(bottomCorner.getZComponent(), bottomCorner.getYComponent(), topCorner.getZComponent(), topCorner.getYComponent(), bottomCorner.getXComponent(), material));
-        sides.getHittableList().add(new YZPlaneRectangle(bottomCorner.getZComponent(), bottomCorner.getYComponent(), topCorner.getZComponent(), topCorner.getYComponent(), topCorner.getXComponent(), material));
+        this.bounds = new AxisAlignedBoundingBox(bottomCorner, topCorner);
+        sides = new PrimitiveBuckets(List.of(
+                new XYPlaneRectangle(bottomCorner.getXComponent(), bottomCorner.getYComponent(), topCorner.getXComponent(), topCorner.getYComponent(), bottomCorner.getZComponent(), material),
+                new XYPlaneRectangle(bottomCorner.getXComponent(), bottomCorner.getYComponent(), topCorner.getXComponent(), topCorner.getYComponent(), topCorner.getZComponent(), material),
+                new XZPlaneRectangle(bottomCorner.getXComponent(), bottomCorner.getZComponent(), topCorner.getXComponent(), topCorner.getZComponent(), bottomCorner.getYComponent(), material),
+                new XZPlaneRectangle(bottomCorner.getXComponent(), bottomCorner.getZComponent(), topCorner.getXComponent(), topCorner.getZComponent(), topCorner.getYComponent(), material),
+                new YZPlaneRectangle(bottomCorner.getZComponent(), bottomCorner.getYComponent(), topCorner.getZComponent(), topCorner.getYComponent(), bottomCorner.getXComponent(), material),
+                new YZPlaneRectangle(bottomCorner.getZComponent(), bottomCorner.getYComponent(), topCorner.getZComponent(), topCorner.getYComponent(), topCorner.getXComponent(), material)));
     }
 
     @Override
@@ -31,6 +39,16 @@ public class Box implements Hittable {
         return sides.hit(ray, tMin, tMax, hitRecord);
     }
 
+    @Override
+    public boolean occluded(Ray ray, double tMin, double tMax) {
+        return sides.occluded(ray, tMin, tMax);
+    }
+
+    @Override
+    public boolean hitInterval(Ray ray, double tMin, double tMax, RayInterval interval) {
+        return bounds.intersectionInterval(ray, tMin, tMax, interval);
+    }
+
     @Override
     public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
         return new AxisAlignedBoundingBox(bottomCorner, topCorner);
@@ -3,6 +3,7 @@ package ra.one.two.ray.tracing.primitives.objects;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 import ra.one.two.ray.tracing.rayhit.AxisAlignedBoundingBox;
 import ra.one.two.ray.tracing.rayhit.HitRecord;
+import ra.one.two.ray.tracing.rayhit.RayInterval;
 
 /**
  * Any class implementing this is hittable by a ray and must define a hit method.
@@ -20,6 +21,21 @@ public interface Hittable {
      */
     boolean hit(final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord);
 
+    /**
+     * Check whether anything of this object blocks the ray between tMin and tMax. Unlike hit this may stop at the first
+     * hit found rather than the closest one, and works out nothing about the hit, no normal, texture coordinates or
+     * material. Meant for shadow rays, which only need to know if the way is clear. Objects should override this,
+     * the default falls back to a closest hit query.
+     *
+     * @param ray  ray that we check for hits.
+     * @param tMin minimum scale by which the ray must extend before we start checking for collisions.
+     * @param tMax maximum scale by which the ray can be extended
+     * @return boolean that indicates whether something blocks the ray between tMin and tMax
+     */
+    default boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        return hit(ray, tMin, tMax, new HitRecord());
+    }
+
     /**
      * Create a bounding box around the Hittable object to check if some ray can in fact hit the object.
      *
@@ -29,4 +45,38 @@ public interface Hittable {
      * may return null as not all primitives will have bounding boxes like infinite place
      */
     AxisAlignedBoundingBox boundingBox(final double tStart, final double tEnd);
+
+    /**
+     * Find the ray extension scales at which the ray enters and then leaves this object, treating the object as a closed boundary.
+     * The interval is not clipped to tMin and tMax, they are only used to reject the query early when the ray is inside
+     * the object for none of the range we care about. Objects that can solve for both crossings at once should override this,
+     * the default falls back to two closest hit queries.
+     *
+     * @param ray      ray that we check for the crossings.
+     * @param tMin     minimum scale of the range we care about.
+     * @param tMax     maximum scale of the range we care about.
+     * @param interval caller owned record that receives the entry and exit scales
+     * @return boolean that indicates whether the ray is inside the object somewhere between tMin and tMax
+     */
+    default boolean hitInterval(final Ray ray, final double tMin, final double tMax, final RayInterval interval) {
+        final HitRecord scratchHitRecord = interval.getScratchHitRecord();
+        if (!hit(ray, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, scratchHitRecord)) {
+            return false;
+        }
+        final double entryRayExtension = scratchHitRecord.getRayExtensionScale();
+        // No point looking for the exit if the ray only enters past the furthest point we care about
+        if (entryRayExtension >= tMax) {
+            return false;
+        }
+        if (!hit(ray, entryRayExtension + 0.0001, Double.POSITIVE_INFINITY, scratchHitRecord)) {
+            return false;
+        }
+        final double exitRayExtension = scratchHitRecord.getRayExtensionScale();
+        if (exitRayExtension <= tMin) {
+            return false;
+        }
+        interval.setEntryRayExtension(entryRayExtension);
+        interval.setExitRayExtension(exitRayExtension);
+        return true;
+    }
 }
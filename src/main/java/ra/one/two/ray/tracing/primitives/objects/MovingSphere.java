@@ -6,6 +6,7 @@ import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 import ra.one.two.ray.tracing.rayhit.AxisAlignedBoundingBox;
 import ra.one.two.ray.tracing.rayhit.HitRecord;
+import ra.one.two.ray.tracing.rayhit.RayInterval;
 
 @AllArgsConstructor
 public class MovingSphere implements Hittable {
@@ -43,6 +44,46 @@ public class MovingSphere implements Hittable {
         return false;
     }
 
+    @Override
+    // same as stationary sphere occlusion just that the center is now offset by time
+    public boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        final Vec3 originToCenter = Vec3.subtract(ray.getOrigin(), getCenter(ray.getRayFireTime()));
+        final double a = ray.getDirection().lengthSquared();
+        final double halfB = Vec3.dot(originToCenter, ray.getDirection());
+        final double c = originToCenter.lengthSquared() - radius * radius;
+        final double quarterDiscriminant = halfB * halfB - a * c;
+        if (quarterDiscriminant <= 0) {
+            return false;
+        }
+        final double root = Math.sqrt(quarterDiscriminant);
+        final double firstRoot = (-halfB - root) / a;
+        final double secondRoot = (-halfB + root) / a;
+        return (firstRoot < tMax && firstRoot > tMin) || (secondRoot < tMax && secondRoot > tMin);
+    }
+
+    @Override
+    // same as stationary sphere interval just that the center is now offset by time
+    public boolean hitInterval(final Ray ray, final double tMin, final double tMax, final RayInterval interval) {
+        final Vec3 center = getCenter(ray.getRayFireTime());
+        final Vec3 originToCenter = Vec3.subtract(ray.getOrigin(), center);
+        final double a = ray.getDirection().lengthSquared();
+        final double halfB = Vec3.dot(originToCenter, ray.getDirection());
+        final double c = originToCenter.lengthSquared() - radius * radius;
+        final double quarterDiscriminant = halfB * halfB - a * c;
+        if (quarterDiscriminant <= 0) {
+            return false;
+        }
+        final double root = Math.sqrt(quarterDiscriminant);
+        final double entryRayExtension = (-halfB - root) / a;
+        final double exitRayExtension = (-halfB + root) / a;
+        if (entryRayExtension >= tMax || exitRayExtension <= tMin) {
+            return false;
+        }
+        interval.setEntryRayExtension(entryRayExtension);
+        interval.setExitRayExtension(exitRayExtension);
+        return true;
+    }
+
     @Override
     public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
         final AxisAlignedBoundingBox startBox = new AxisAlignedBoundingBox(new Vec3(-radius).add(getCenter(tStart)), new Vec3(radius).add(getCenter(tStart)));
@@ -5,6 +5,7 @@ import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 import ra.one.two.ray.tracing.rayhit.AxisAlignedBoundingBox;
 import ra.one.two.ray.tracing.rayhit.HitRecord;
+import ra.one.two.ray.tracing.rayhit.RayInterval;
 import ra.one.two.ray.tracing.textures.TextureCoordinates;
 
 public class Sphere implements Hittable {
@@ -61,6 +62,46 @@ public class Sphere implements Hittable {
         return false;
     }
 
+    @Override
+    public boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        // Same quadratic as hit, either root in range will do
+        final Vec3 originToCenter = Vec3.subtract(ray.getOrigin(), center);
+        final double a = ray.getDirection().lengthSquared();
+        final double halfB = Vec3.dot(originToCenter, ray.getDirection());
+        final double c = originToCenter.lengthSquared() - radius * radius;
+        final double quarterDiscriminant = halfB * halfB - a * c;
+        if (quarterDiscriminant <= 0) {
+            return false;
+        }
+        final double root = Math.sqrt(quarterDiscriminant);
+        final double firstRoot = (-halfB - root) / a;
+        final double secondRoot = (-halfB + root) / a;
+        return (firstRoot < tMax && firstRoot > tMin) || (secondRoot < tMax && secondRoot > tMin);
+    }
+
+    @Override
+    public boolean hitInterval(final Ray ray, final double tMin, final double tMax, final RayInterval interval) {
+        // Same quadratic as hit, but both roots are the answer here: the smaller one is where the ray enters the sphere
+        // and the larger one is where it leaves.
+        final Vec3 originToCenter = Vec3.subtract(ray.getOrigin(), center);
+        final double a = ray.getDirection().lengthSquared();
+        final double halfB = Vec3.dot(originToCenter, ray.getDirection());
+        final double c = originToCenter.lengthSquared() - radius * radius;
+        final double quarterDiscriminant = halfB * halfB - a * c;
+        if (quarterDiscriminant <= 0) {
+            return false;
+        }
+        final double root = Math.sqrt(quarterDiscriminant);
+        final double entryRayExtension = (-halfB - root) / a;
+        final double exitRayExtension = (-halfB + root) / a;
+        if (entryRayExtension >= tMax || exitRayExtension <= tMin) {
+            return false;
+        }
+        interval.setEntryRayExtension(entryRayExtension);
+        interval.setExitRayExtension(exitRayExtension);
+        return true;
+    }
+
     @Override
     public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
         return new AxisAlignedBoundingBox(new Vec3(-radius).add(center), new Vec3(radius).add(center));
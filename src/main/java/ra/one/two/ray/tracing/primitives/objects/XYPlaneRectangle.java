@@ -42,6 +42,17 @@ public class XYPlaneRectangle implements Hittable {
         return true;
     }
 
+    @Override
+    public boolean occluded(Ray ray, double tMin, double tMax) {
+        double t = (k - ray.getOrigin().getZComponent()) / ray.getDirection().getZComponent();
+        if (t < tMin || t > tMax) {
+            return false;
+        }
+        double x = ray.getOrigin().getXComponent() + t * ray.getDirection().getXComponent();
+        double y = ray.getOrigin().getYComponent() + t * ray.getDirection().getYComponent();
+        return !(x < bottomX || x > topX || y < bottomY || y > topY);
+    }
+
     @Override
     public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
         return new AxisAlignedBoundingBox(new Vec3(bottomX, bottomY, k - 0.0001), new Vec3(topX, topY, k + 0.0001));
@@ -42,6 +42,17 @@ public class XZPlaneRectangle implements Hittable{
         return true;
     }
 
+    @Override
+    public boolean occluded(Ray ray, double tMin, double tMax) {
+        double t = (k - ray.getOrigin().getYComponent()) / ray.getDirection().getYComponent();
+        if (t < tMin || t > tMax) {
+            return false;
+        }
+        double x = ray.getOrigin().getXComponent() + t * ray.getDirection().getXComponent();
+        double z = ray.getOrigin().getZComponent() + t * ray.getDirection().getZComponent();
+        return !(x < bottomX || x > topX || z < bottomZ || z > topZ);
+    }
+
     @Override
     public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
         return new AxisAlignedBoundingBox(new Vec3(bottomX, k - 0.0001, bottomZ ), new Vec3(topX, k + 0.0001, topZ));
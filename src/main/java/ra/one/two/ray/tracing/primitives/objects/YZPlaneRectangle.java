@@ -42,6 +42,17 @@ public class YZPlaneRectangle implements Hittable{
         return true;
     }
 
+    @Override
+    public boolean occluded(Ray ray, double tMin, double tMax) {
+        double t = (k - ray.getOrigin().getXComponent()) / ray.getDirection().getXComponent();
+        if (t < tMin || t > tMax) {
+            return false;
+        }
+        double z = ray.getOrigin().getZComponent() + t * ray.getDirection().getZComponent();
+        double y = ray.getOrigin().getYComponent() + t * ray.getDirection().getYComponent();
+        return !(z < bottomZ || z > topZ || y < bottomY || y > topY);
+    }
+
     @Override
     public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
         return new AxisAlignedBoundingBox(new Vec3(k - 0.0001, bottomY, bottomZ), new Vec3(k + 0.0001, topY, topZ));
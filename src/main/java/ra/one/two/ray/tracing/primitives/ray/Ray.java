@@ -12,7 +12,7 @@ import ra.one.two.ray.tracing.primitives.math.Vec3;
 public class Ray {
     private final Vec3 origin;
     private final Vec3 direction;
-    private final double rayFireTime;
+    private double rayFireTime;
 
     public Ray() {
         origin = new Vec3();
@@ -20,6 +20,28 @@ public class Ray {
         rayFireTime = 0;
     }
 
+    /**
+     * This method points the ray somewhere else, so a loop tracing many rays one after the other can reuse one ray
+     * instead of allocating one per ray. The origin and direction are set in place, whoever holds on to them sees the
+     * new values.
+     *
+     * @param originX    x coordinate of the new origin
+     * @param originY    y coordinate of the new origin
+     * @param originZ    z coordinate of the new origin
+     * @param directionX x component of the new direction
+     * @param directionY y component of the new direction
+     * @param directionZ z component of the new direction
+     * @param time       time the ray is fired at
+     * @return this ray after it is set
+     */
+    public Ray set(final double originX, final double originY, final double originZ, final double directionX, final double directionY,
+                   final double directionZ, final double time) {
+        origin.set(originX, originY, originZ);
+        direction.set(directionX, directionY, directionZ);
+        rayFireTime = time;
+        return this;
+    }
+
     /**
      * This method returns position of a ray at a given parameter t
      * All rays can be represented as P(t) = A + tB where P is the Position on the line,
@@ -0,0 +1,76 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import lombok.Getter;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
+
+import java.util.List;
+
+/**
+ * Structure over the primitives of a group that lets a ray skip the primitives nowhere near it. Which one is fastest
+ * depends on the primitives: a hierarchy adapts to any distribution, a grid traverses dense and evenly spread primitives
+ * quickest and a kd-tree tends to win on static scenes with large primitives of very different sizes. A quantized
+ * hierarchy trades a little arithmetic for a fraction of the memory, for groups too big to fit the cache otherwise.
+ * The scene file picks one per group, see {@link Kind}.
+ */
+public interface Accelerator extends Hittable {
+    /**
+     * @return number of nodes, or cells for a grid, the structure is made of
+     */
+    int getNodeCount();
+
+    /**
+     * @return approximate bytes the structure takes on top of the primitives themselves
+     */
+    long getMemoryBytes();
+
+    /**
+     * Accelerators a group can be built with, by the keyword the scene format names them by.
+     */
+    enum Kind {
+        BVH("bvh"),
+        QUANTIZED_BVH("quantized_bvh"),
+        GRID("grid"),
+        KD_TREE("kd_tree");
+
+        @Getter
+        private final String keyword;
+
+        Kind(final String keyword) {
+            this.keyword = keyword;
+        }
+
+        /**
+         * @param keyword name of the accelerator in a scene file
+         * @return the accelerator with the name, null if there is none
+         */
+        public static Kind forKeyword(final String keyword) {
+            for (final Kind kind : values()) {
+                if (kind.keyword.equals(keyword)) {
+                    return kind;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Build an accelerator of this kind.
+         *
+         * @param primitives primitives to build over, all of them need a bounding box
+         * @param startTime  start time the bounding boxes need to cover
+         * @param endTime    end time the bounding boxes need to cover
+         * @return the accelerator over the primitives
+         */
+        public Accelerator build(final List<Hittable> primitives, final double startTime, final double endTime) {
+            switch (this) {
+                case QUANTIZED_BVH:
+                    return new QuantizedBoundingVolumeHierarchy(primitives, startTime, endTime);
+                case GRID:
+                    return new UniformGrid(primitives, startTime, endTime);
+                case KD_TREE:
+                    return new KdTree(primitives, startTime, endTime);
+                default:
+                    return new FlattenedBoundingVolumeHierarchy(primitives, startTime, endTime);
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import ra.one.two.ray.tracing.animation.KeyframeTrack;
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+
+/**
+ * RotateY whose angle in degrees follows a keyframe track, evaluated at the time the ray was fired.
+ */
+public class AnimatedRotateY implements Hittable {
+    private final KeyframeTrack angleTrack;
+    private final Hittable rotationTarget;
+
+    public AnimatedRotateY(final KeyframeTrack angleTrack, final Hittable rotationTarget) {
+        if (angleTrack.getDimension() != 1) {
+            throw new IllegalArgumentException("Angle track needs 1 component, got " + angleTrack.getDimension());
+        }
+        this.angleTrack = angleTrack;
+        this.rotationTarget = rotationTarget;
+    }
+
+    @Override
+    public boolean hit(Ray ray, double tMin, double tMax, HitRecord hitRecord) {
+        final double radians = Math.toRadians(angleTrack.value(ray.getRayFireTime(), 0));
+        final double sinTheta = Math.sin(radians);
+        final double cosTheta = Math.cos(radians);
+        final Ray rotatedRay = rotateRay(ray, sinTheta, cosTheta);
+
+        if (!rotationTarget.hit(rotatedRay, tMin, tMax, hitRecord)) {
+            return false;
+        }
+
+        final Vec3 location = hitRecord.getRayHitLocationOnHittableObject();
+        final Vec3 normal = hitRecord.getNormal();
+        hitRecord.setRayHitLocationOnHittableObject(new Vec3(cosTheta * location.getXComponent() + sinTheta * location.getZComponent(),
+                location.getYComponent(), -sinTheta * location.getXComponent() + cosTheta * location.getZComponent()));
+        hitRecord.setFaceNormal(rotatedRay, new Vec3(cosTheta * normal.getXComponent() + sinTheta * normal.getZComponent(),
+                normal.getYComponent(), -sinTheta * normal.getXComponent() + cosTheta * normal.getZComponent()));
+
+        return true;
+    }
+
+    @Override
+    public boolean occluded(Ray ray, double tMin, double tMax) {
+        final double radians = Math.toRadians(angleTrack.value(ray.getRayFireTime(), 0));
+        return rotationTarget.occluded(rotateRay(ray, Math.sin(radians), Math.cos(radians)), tMin, tMax);
+    }
+
+    @Override
+    public boolean hitInterval(Ray ray, double tMin, double tMax, RayInterval interval) {
+        final double radians = Math.toRadians(angleTrack.value(ray.getRayFireTime(), 0));
+        return rotationTarget.hitInterval(rotateRay(ray, Math.sin(radians), Math.cos(radians)), tMin, tMax, interval);
+    }
+
+    @Override
+    public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
+        final AxisAlignedBoundingBox box = rotationTarget.boundingBox(tStart, tEnd);
+        if (box == null) {
+            return null;
+        }
+        final double minAngle = angleTrack.min(tStart, tEnd, 0);
+        final double maxAngle = angleTrack.max(tStart, tEnd, 0);
+        if (minAngle == maxAngle) {
+            final double radians = Math.toRadians(minAngle);
+            return RotateY.rotatedBoundingBox(box, Math.sin(radians), Math.cos(radians));
+        }
+        // Rotating during the interval, the corners sweep arcs around the y axis. Bound them by the circle through the
+        // corner furthest from the axis rather than tracing the arcs.
+        double radiusSquared = 0;
+        for (final double x : new double[]{box.getMin().getXComponent(), box.getMax().getXComponent()}) {
+            for (final double z : new double[]{box.getMin().getZComponent(), box.getMax().getZComponent()}) {
+                radiusSquared = Math.max(radiusSquared, x * x + z * z);
+            }
+        }
+        final double radius = Math.sqrt(radiusSquared);
+        return new AxisAlignedBoundingBox(new Vec3(-radius, box.getMin().getYComponent(), -radius), new Vec3(radius, box.getMax().getYComponent(), radius));
+    }
+
+    private static Ray rotateRay(final Ray ray, final double sinTheta, final double cosTheta) {
+        final Vec3 origin = ray.getOrigin();
+        final Vec3 direction = ray.getDirection();
+        return new Ray(new Vec3(cosTheta * origin.getXComponent() - sinTheta * origin.getZComponent(), origin.getYComponent(), sinTheta * origin.getXComponent() + cosTheta * origin.getZComponent()),
+                new Vec3(cosTheta * direction.getXComponent() - sinTheta * direction.getZComponent(), direction.getYComponent(), sinTheta * direction.getXComponent() + cosTheta * direction.getZComponent()),
+                ray.getRayFireTime());
+    }
+}
@@ -0,0 +1,67 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import ra.one.two.ray.tracing.animation.KeyframeTrack;
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+
+/**
+ * Translate whose offset follows a keyframe track. The offset is evaluated at the time the ray was fired so objects
+ * moving during the shutter interval come out motion blurred, like MovingSphere.
+ */
+public class AnimatedTranslate implements Hittable {
+    private final KeyframeTrack offsetTrack;
+    private final Hittable translationTarget;
+
+    public AnimatedTranslate(final KeyframeTrack offsetTrack, final Hittable translationTarget) {
+        if (offsetTrack.getDimension() != 3) {
+            throw new IllegalArgumentException("Offset track needs 3 components, got " + offsetTrack.getDimension());
+        }
+        this.offsetTrack = offsetTrack;
+        this.translationTarget = translationTarget;
+    }
+
+    @Override
+    public boolean hit(Ray ray, double tMin, double tMax, HitRecord hitRecord) {
+        final Vec3 offset = offsetAt(ray.getRayFireTime());
+        final Ray movedRay = new Ray(Vec3.subtract(ray.getOrigin(), offset), ray.getDirection(), ray.getRayFireTime());
+        if (!translationTarget.hit(movedRay, tMin, tMax, hitRecord)) {
+            return false;
+        }
+
+        hitRecord.getRayHitLocationOnHittableObject().add(offset);
+        hitRecord.setFaceNormal(movedRay, hitRecord.getNormal());
+
+        return true;
+    }
+
+    @Override
+    public boolean occluded(Ray ray, double tMin, double tMax) {
+        final Ray movedRay = new Ray(Vec3.subtract(ray.getOrigin(), offsetAt(ray.getRayFireTime())), ray.getDirection(), ray.getRayFireTime());
+        return translationTarget.occluded(movedRay, tMin, tMax);
+    }
+
+    @Override
+    public boolean hitInterval(Ray ray, double tMin, double tMax, RayInterval interval) {
+        final Ray movedRay = new Ray(Vec3.subtract(ray.getOrigin(), offsetAt(ray.getRayFireTime())), ray.getDirection(), ray.getRayFireTime());
+        return translationTarget.hitInterval(movedRay, tMin, tMax, interval);
+    }
+
+    @Override
+    public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
+        final AxisAlignedBoundingBox boundingBoxUntranslated = translationTarget.boundingBox(tStart, tEnd);
+        if (boundingBoxUntranslated == null) {
+            return null;
+        }
+        // Sweep the box over every offset the track takes during the interval
+        final Vec3 min = boundingBoxUntranslated.getMin();
+        final Vec3 max = boundingBoxUntranslated.getMax();
+        return new AxisAlignedBoundingBox(
+                new Vec3(min.getXComponent() + offsetTrack.min(tStart, tEnd, 0), min.getYComponent() + offsetTrack.min(tStart, tEnd, 1), min.getZComponent() + offsetTrack.min(tStart, tEnd, 2)),
+                new Vec3(max.getXComponent() + offsetTrack.max(tStart, tEnd, 0), max.getYComponent() + offsetTrack.max(tStart, tEnd, 1), max.getZComponent() + offsetTrack.max(tStart, tEnd, 2)));
+    }
+
+    private Vec3 offsetAt(final double time) {
+        return new Vec3(offsetTrack.value(time, 0), offsetTrack.value(time, 1), offsetTrack.value(time, 2));
+    }
+}
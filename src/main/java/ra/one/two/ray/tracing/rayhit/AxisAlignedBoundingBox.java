@@ -81,4 +81,44 @@ public class AxisAlignedBoundingBox {
         // If t exists for all dimensions then we say that the bounding box hit is possible
         return new AxisAlignedBoundingBoxHitResult(minExtension, maxExtension);
     }
+
+    /**
+     * Slab test that reports where the ray enters and leaves the box, unlike hit the reported scales are not clipped
+     * to the input range, the range is only used to reject rays that are inside the box for none of it.
+     *
+     * @param ray                  ray to intersect with the box
+     * @param rayExtensionScaleMin minimum scale of the range we care about
+     * @param rayExtensionScaleMax maximum scale of the range we care about
+     * @param interval             caller owned record that receives the entry and exit scales
+     * @return whether the ray is inside the box somewhere in the input range
+     */
+    public boolean intersectionInterval(final Ray ray, final double rayExtensionScaleMin, final double rayExtensionScaleMax, final RayInterval interval) {
+        double entryRayExtension = Double.NEGATIVE_INFINITY;
+        double exitRayExtension = Double.POSITIVE_INFINITY;
+        for (int axis = 0; axis < 3; axis++) {
+            final double inverseDirection = 1.0 / component(ray.getDirection(), axis);
+            double rayExtensionMin = (component(min, axis) - component(ray.getOrigin(), axis)) * inverseDirection;
+            double rayExtensionMax = (component(max, axis) - component(ray.getOrigin(), axis)) * inverseDirection;
+            if (inverseDirection < 0.0) {
+                final double temp = rayExtensionMin;
+                rayExtensionMin = rayExtensionMax;
+                rayExtensionMax = temp;
+            }
+            entryRayExtension = rayExtensionMin > entryRayExtension ? rayExtensionMin : entryRayExtension;
+            exitRayExtension = rayExtensionMax < exitRayExtension ? rayExtensionMax : exitRayExtension;
+            if (exitRayExtension <= entryRayExtension) {
+                return false;
+            }
+        }
+        if (entryRayExtension >= rayExtensionScaleMax || exitRayExtension <= rayExtensionScaleMin) {
+            return false;
+        }
+        interval.setEntryRayExtension(entryRayExtension);
+        interval.setExitRayExtension(exitRayExtension);
+        return true;
+    }
+
+    private static double component(final Vec3 vector, final int axis) {
+        return axis == 0 ? vector.getXComponent() : axis == 1 ? vector.getYComponent() : vector.getZComponent();
+    }
 }
@@ -1,12 +1,12 @@
 package ra.one.two.ray.tracing.rayhit;
 
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
 import ra.one.two.ray.tracing.primitives.objects.Hittable;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.ThreadLocalRandom;
 
 public class BoundingVolumeHeirarchyNode implements Hittable {
 
@@ -19,7 +19,7 @@ public class BoundingVolumeHeirarchyNode implements Hittable {
     }
 
     public BoundingVolumeHeirarchyNode(final List<Hittable> hittableList, final double startTime, final double endTime) {
-        final int randomAxis = ThreadLocalRandom.current().nextInt(0, 3);
+        final int randomAxis = (int) (SeedableRandom.nextDouble() * 3);
         final Comparator<Hittable> comparator = (randomAxis == 0) ? getBoxXComparator() : (randomAxis == 1) ? getBoxYComparator() : getBoxZComparator();
         Collections.sort(hittableList, comparator);
         if (hittableList.size() == 1) {
@@ -49,6 +49,9 @@ public class BoundingVolumeHeirarchyNode implements Hittable {
 
     @Override
     public boolean hit(final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord) {
+        if (TraversalStatistics.ENABLED) {
+            TraversalStatistics.countNodeVisited();
+        }
         final AxisAlignedBoundingBoxHitResult axisAlignedBoundingBoxHitResult = boundingBox.hit(ray, tMin, tMax);
         if (axisAlignedBoundingBoxHitResult == null) {
             return false;
@@ -59,6 +62,19 @@ public class BoundingVolumeHeirarchyNode implements Hittable {
         return hitLeft || hitRight;
     }
 
+    @Override
+    public boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        if (TraversalStatistics.ENABLED) {
+            TraversalStatistics.countNodeVisited();
+        }
+        final AxisAlignedBoundingBoxHitResult axisAlignedBoundingBoxHitResult = boundingBox.hit(ray, tMin, tMax);
+        if (axisAlignedBoundingBoxHitResult == null) {
+            return false;
+        }
+        return left.occluded(ray, axisAlignedBoundingBoxHitResult.getMinRayExtension(), axisAlignedBoundingBoxHitResult.getMaxRayExtension())
+                || right.occluded(ray, axisAlignedBoundingBoxHitResult.getMinRayExtension(), axisAlignedBoundingBoxHitResult.getMaxRayExtension());
+    }
+
     @Override
     public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
         return boundingBox;
@@ -2,12 +2,15 @@ package ra.one.two.ray.tracing.rayhit;
 
 import ra.one.two.ray.tracing.materials.Isotropic;
 import ra.one.two.ray.tracing.materials.Material;
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
 import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.objects.Hittable;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 import ra.one.two.ray.tracing.textures.Texture;
 
 public class ConstantMedium implements Hittable {
+    private static final ThreadLocal<RayInterval> SCRATCH_INTERVAL = ThreadLocal.withInitial(RayInterval::new);
+
     private final double negativeInverseDensity;
     private final Hittable mediumBoundary;
     private final Material phaseFunction;
@@ -26,26 +29,40 @@ public class ConstantMedium implements Hittable {
 
     @Override
     public boolean hit(final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord) {
-
-        final HitRecord hitRecord1 = new HitRecord();
-        final HitRecord hitRecord2 = new HitRecord();
-
-        // Check if ray can hit object anywhere
-        if (!mediumBoundary.hit(ray, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, hitRecord1)) {
+        final double hitRayExtension = sampleCollision(ray, tMin, tMax);
+        if (Double.isNaN(hitRayExtension)) {
             return false;
         }
 
-        // Check if ray can hit object again on extension from the point of previous intersection,
-        // basically checking if ray is coming from outside and is inside the medium boundary
-        if (!mediumBoundary.hit(ray, hitRecord1.getRayExtensionScale() + 0.0001, Double.POSITIVE_INFINITY, hitRecord2)) {
-            return false;
+        hitRecord.setRayExtensionScale(hitRayExtension);
+        hitRecord.setRayHitLocationOnHittableObject(ray.at(hitRecord.getRayExtensionScale()));
+        hitRecord.setNormal(new Vec3()); // no surface, light sampling goes by the zero normal
+        hitRecord.setFrontFace(true); // also arbitrary
+        hitRecord.setMaterialOfObjectHit(phaseFunction);
+
+        return true;
+    }
+
+    @Override
+    // The ray is blocked when it scatters inside the medium, sampled the same way as for hit
+    public boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        return !Double.isNaN(sampleCollision(ray, tMin, tMax));
+    }
+
+    // Ray extension scale at which the ray collides with a particle of the medium, NaN when it gets through
+    private double sampleCollision(final Ray ray, final double tMin, final double tMax) {
+        // Find where the ray enters and leaves the boundary in a single query instead of two unbounded closest hit queries,
+        // the interval record is reused by every hit made from this thread.
+        final RayInterval interval = SCRATCH_INTERVAL.get();
+        if (!mediumBoundary.hitInterval(ray, tMin, tMax, interval)) {
+            return Double.NaN;
         }
 
-        double firstHitRayExtension = hitRecord1.getRayExtensionScale() < tMin ? tMin : hitRecord1.getRayExtensionScale();
-        final double secondHitRayExtension = hitRecord2.getRayExtensionScale() > tMax ? tMax : hitRecord2.getRayExtensionScale();
+        double firstHitRayExtension = interval.getEntryRayExtension() < tMin ? tMin : interval.getEntryRayExtension();
+        final double secondHitRayExtension = interval.getExitRayExtension() > tMax ? tMax : interval.getExitRayExtension();
 
         if (firstHitRayExtension >= secondHitRayExtension) {
-            return false;
+            return Double.NaN;
         }
 
         if (firstHitRayExtension < 0) {
@@ -54,19 +71,12 @@ public class ConstantMedium implements Hittable {
 
         final var rayLength = ray.getDirection().length();
         final var distanceInsideBoundary = (secondHitRayExtension - firstHitRayExtension) * rayLength;
-        final var hitDistance = negativeInverseDensity * Math.log(Math.random());
+        final var hitDistance = negativeInverseDensity * Math.log(SeedableRandom.nextDouble());
 
         if (hitDistance > distanceInsideBoundary) {
-            return false;
+            return Double.NaN;
         }
-
-        hitRecord.setRayExtensionScale(firstHitRayExtension + hitDistance / rayLength);
-        hitRecord.setRayHitLocationOnHittableObject(ray.at(hitRecord.getRayExtensionScale()));
-        hitRecord.setNormal(new Vec3(1, 0, 0)); // arbitrary
-        hitRecord.setFrontFace(true); // also arbitrary
-        hitRecord.setMaterialOfObjectHit(phaseFunction);
-
-        return true;
+        return firstHitRayExtension + hitDistance / rayLength;
     }
 
     @Override
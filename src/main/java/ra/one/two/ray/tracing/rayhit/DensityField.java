@@ -0,0 +1,27 @@
+package ra.one.two.ray.tracing.rayhit;
+
+/**
+ * Density of a participating medium that varies through space. Densities are in the same units as the density of
+ * a {@link ConstantMedium} i.e. the expected number of collisions per unit distance travelled.
+ */
+public interface DensityField {
+    /**
+     * Density of the medium at a point, takes the coordinates as is so that free flight sampling does not have to
+     * allocate a vector for every tentative collision.
+     *
+     * @param x x coordinate of the point
+     * @param y y coordinate of the point
+     * @param z z coordinate of the point
+     * @return non negative density at the point
+     */
+    double density(final double x, final double y, final double z);
+
+    /**
+     * Upper bound of the density anywhere in a box. Delta and ratio tracking are only unbiased if no point of the box
+     * is denser than this, so it has to hold everywhere and not just where the field was sampled.
+     *
+     * @param box box to bound the density in
+     * @return a density no point inside the box exceeds
+     */
+    double maxDensity(final AxisAlignedBoundingBox box);
+}
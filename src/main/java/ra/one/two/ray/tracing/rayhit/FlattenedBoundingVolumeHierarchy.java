@@ -0,0 +1,511 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy laid out in flat primitive arrays instead of a tree of node objects.
+ * Nodes are stored depth first so the left child of a node is the node right after it, and only the index of the right
+ * child needs storing. Traversal is a loop with an explicit stack, taken from the per thread TraversalStack so a ray
+ * allocates nothing, that visits the child nearer to the ray origin first and tightens tMax as hits are found. Since the layout is nothing but arrays it can be written out as is and loaded
+ * back without rebuilding, see {@link Layout}.
+ * <p>
+ * Node bounds are stored as floats rounded outwards, which halves the bounds, the bulk of every node, and lets twice
+ * as many nodes share the cache during traversal. Rounding outwards only ever grows a box, so no ray that hits the
+ * exact box misses the stored one. The slab test reads the floats but does its arithmetic in double, the same as the
+ * ray, so it needs no epsilon of its own; primitives are still intersected in double.
+ * <p>
+ * When primitives move, refit recomputes the node bounds for a time window while keeping the tree as built. Refitted
+ * bounds are kept per window and picked by the time the ray was fired, so the bounds of the next frame of an animation
+ * can be refitted while the current frame is still rendering with its own.
+ */
+public class FlattenedBoundingVolumeHierarchy implements Accelerator {
+    // Leaves hold at most this many primitives
+    private static final int MAX_PRIMITIVES_IN_LEAF = 2;
+    // Max depth of the traversal stack, median splits halve the primitive count at every level so this is plenty
+    private static final int TRAVERSAL_STACK_SIZE = 64;
+
+    private final Layout layout;
+    // Primitives in leaf order, leaf nodes reference a contiguous run of them
+    private final Hittable[] orderedPrimitives;
+    // The same primitives grouped by class, leaves hit them through this so the calls are not made through the interface
+    private final PrimitiveBuckets orderedPrimitiveBuckets;
+    // Replaced, never modified, so traversal can read it without locking
+    private volatile RefittedBounds[] refittedBounds = new RefittedBounds[0];
+
+    /**
+     * Build a hierarchy over the primitives, splitting at the median centroid along the axis where the centroids spread the most.
+     *
+     * @param primitives primitives to build over, all of them need a bounding box
+     * @param startTime  start time the bounding boxes need to cover
+     * @param endTime    end time the bounding boxes need to cover
+     */
+    public FlattenedBoundingVolumeHierarchy(final List<Hittable> primitives, final double startTime, final double endTime) {
+        this(Builder.build(primitives, startTime, endTime), primitives);
+    }
+
+    /**
+     * Recreate a hierarchy from a layout built earlier over the same primitives, without rebuilding it.
+     *
+     * @param layout     layout built over the primitives
+     * @param primitives primitives in the order they were in when the layout was built
+     */
+    public FlattenedBoundingVolumeHierarchy(final Layout layout, final List<Hittable> primitives) {
+        this.layout = layout;
+        final int[] primitiveOrder = layout.getPrimitiveOrder();
+        if (primitiveOrder.length != primitives.size()) {
+            throw new IllegalArgumentException("Layout was built over " + primitiveOrder.length + " primitives, got " + primitives.size());
+        }
+        orderedPrimitives = new Hittable[primitiveOrder.length];
+        for (int i = 0; i < primitiveOrder.length; i++) {
+            orderedPrimitives[i] = primitives.get(primitiveOrder[i]);
+        }
+        orderedPrimitiveBuckets = new PrimitiveBuckets(Arrays.asList(orderedPrimitives));
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Build the layout of a hierarchy without the hierarchy, for structures derived from it.
+     *
+     * @param primitives primitives to build over, all of them need a bounding box
+     * @param startTime  start time the bounding boxes need to cover
+     * @param endTime    end time the bounding boxes need to cover
+     * @return layout over the primitives
+     */
+    static Layout buildLayout(final List<Hittable> primitives, final double startTime, final double endTime) {
+        return Builder.build(primitives, startTime, endTime);
+    }
+
+    @Override
+    public int getNodeCount() {
+        return layout.getNodeCount();
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        // Node bounds, offsets, counts and split axes, then the primitive order and the primitives in leaf order
+        return (long) layout.getNodeCount() * (6 * Float.BYTES + 2 * Integer.BYTES + 1)
+                + (long) orderedPrimitives.length * (Integer.BYTES + Long.BYTES);
+    }
+
+    @Override
+    public boolean hit(final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord) {
+        final float[] nodeBounds = nodeBoundsAt(ray.getRayFireTime());
+        final int[] nodeOffsets = layout.nodeOffsets;
+        final int[] nodePrimitiveCounts = layout.nodePrimitiveCounts;
+        final byte[] nodeSplitAxes = layout.nodeSplitAxes;
+
+        final double originX = ray.getOrigin().getXComponent();
+        final double originY = ray.getOrigin().getYComponent();
+        final double originZ = ray.getOrigin().getZComponent();
+        final double inverseX = 1.0 / ray.getDirection().getXComponent();
+        final double inverseY = 1.0 / ray.getDirection().getYComponent();
+        final double inverseZ = 1.0 / ray.getDirection().getZComponent();
+
+        final TraversalStack traversalStack = TraversalStack.forCurrentThread();
+        final int stackBase = traversalStack.reserve(TRAVERSAL_STACK_SIZE);
+        final int[] stack = traversalStack.nodes;
+        int stackSize = stackBase;
+        int node = 0;
+        double closestSoFar = tMax;
+        boolean hasRayHitSomething = false;
+        try {
+            while (true) {
+                if (TraversalStatistics.ENABLED) {
+                    TraversalStatistics.countNodeVisited();
+                }
+                if (slabTest(nodeBounds, node, originX, originY, originZ, inverseX, inverseY, inverseZ, tMin, closestSoFar)) {
+                    final int primitiveCount = nodePrimitiveCounts[node];
+                    if (primitiveCount > 0) {
+                        final int firstPrimitive = nodeOffsets[node];
+                        for (int i = firstPrimitive; i < firstPrimitive + primitiveCount; i++) {
+                            if (orderedPrimitiveBuckets.hit(i, ray, tMin, closestSoFar, hitRecord)) {
+                                hasRayHitSomething = true;
+                                closestSoFar = hitRecord.getRayExtensionScale();
+                            }
+                        }
+                    } else {
+                        // Visit the child on the side the ray comes from first, the far one waits on the stack
+                        final int axis = nodeSplitAxes[node];
+                        final double inverseDirection = axis == 0 ? inverseX : axis == 1 ? inverseY : inverseZ;
+                        if (inverseDirection < 0) {
+                            stack[stackSize++] = node + 1;
+                            node = nodeOffsets[node];
+                        } else {
+                            stack[stackSize++] = nodeOffsets[node];
+                            node = node + 1;
+                        }
+                        continue;
+                    }
+                }
+                if (stackSize == stackBase) {
+                    break;
+                }
+                node = stack[--stackSize];
+            }
+        } finally {
+            traversalStack.release(stackBase);
+        }
+        return hasRayHitSomething;
+    }
+
+    @Override
+    // Same traversal as hit without tightening tMax, and the first primitive blocking the ray ends it
+    public boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        final float[] nodeBounds = nodeBoundsAt(ray.getRayFireTime());
+        final int[] nodeOffsets = layout.nodeOffsets;
+        final int[] nodePrimitiveCounts = layout.nodePrimitiveCounts;
+        final byte[] nodeSplitAxes = layout.nodeSplitAxes;
+
+        final double originX = ray.getOrigin().getXComponent();
+        final double originY = ray.getOrigin().getYComponent();
+        final double originZ = ray.getOrigin().getZComponent();
+        final double inverseX = 1.0 / ray.getDirection().getXComponent();
+        final double inverseY = 1.0 / ray.getDirection().getYComponent();
+        final double inverseZ = 1.0 / ray.getDirection().getZComponent();
+
+        final TraversalStack traversalStack = TraversalStack.forCurrentThread();
+        final int stackBase = traversalStack.reserve(TRAVERSAL_STACK_SIZE);
+        final int[] stack = traversalStack.nodes;
+        int stackSize = stackBase;
+        int node = 0;
+        try {
+            while (true) {
+                if (TraversalStatistics.ENABLED) {
+                    TraversalStatistics.countNodeVisited();
+                }
+                if (slabTest(nodeBounds, node, originX, originY, originZ, inverseX, inverseY, inverseZ, tMin, tMax)) {
+                    final int primitiveCount = nodePrimitiveCounts[node];
+                    if (primitiveCount > 0) {
+                        final int firstPrimitive = nodeOffsets[node];
+                        for (int i = firstPrimitive; i < firstPrimitive + primitiveCount; i++) {
+                            if (orderedPrimitiveBuckets.occluded(i, ray, tMin, tMax)) {
+                                return true;
+                            }
+                        }
+                    } else {
+                        // Near child first still pays, blockers near the origin are found before the far side is opened
+                        final int axis = nodeSplitAxes[node];
+                        final double inverseDirection = axis == 0 ? inverseX : axis == 1 ? inverseY : inverseZ;
+                        if (inverseDirection < 0) {
+                            stack[stackSize++] = node + 1;
+                            node = nodeOffsets[node];
+                        } else {
+                            stack[stackSize++] = nodeOffsets[node];
+                            node = node + 1;
+                        }
+                        continue;
+                    }
+                }
+                if (stackSize == stackBase) {
+                    return false;
+                }
+                node = stack[--stackSize];
+            }
+        } finally {
+            traversalStack.release(stackBase);
+        }
+    }
+
+    @Override
+    public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
+        for (final RefittedBounds refit : refittedBounds) {
+            if (refit.timeStart == tStart && refit.timeEnd == tEnd) {
+                return boxAt(refit.nodeBounds, 0);
+            }
+        }
+        // Not refitted for this window, the bounds stored in the layout may be for another one so go to the primitives
+        final float[] bounds = emptyBounds();
+        for (final Hittable primitive : orderedPrimitives) {
+            include(bounds, 0, primitive.boundingBox(tStart, tEnd));
+        }
+        return boxAt(bounds, 0);
+    }
+
+    /**
+     * Recompute the node bounds for a time window, bottom up from the bounding boxes of the primitives and keeping the tree
+     * as it is. Rays fired inside the window use these bounds from then on. Nested hierarchies have to be refitted for the
+     * same window first, so refit in the order the hierarchies were built in.
+     *
+     * @param timeStart start of the window, usually when the shutter of a frame opens
+     * @param timeEnd   end of the window, usually when the shutter of a frame closes
+     */
+    public void refit(final double timeStart, final double timeEnd) {
+        final int[] nodeOffsets = layout.nodeOffsets;
+        final int[] nodePrimitiveCounts = layout.nodePrimitiveCounts;
+        final int nodeCount = layout.getNodeCount();
+        final float[] nodeBounds = new float[6 * nodeCount];
+        // Children come after their parent in depth first order, walking backwards visits them first
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            resetBounds(nodeBounds, node);
+            final int primitiveCount = nodePrimitiveCounts[node];
+            if (primitiveCount > 0) {
+                for (int i = nodeOffsets[node]; i < nodeOffsets[node] + primitiveCount; i++) {
+                    include(nodeBounds, node, orderedPrimitives[i].boundingBox(timeStart, timeEnd));
+                }
+            } else {
+                includeNode(nodeBounds, node, node + 1);
+                includeNode(nodeBounds, node, nodeOffsets[node]);
+            }
+        }
+        synchronized (this) {
+            final RefittedBounds[] current = refittedBounds;
+            final RefittedBounds[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = new RefittedBounds(timeStart, timeEnd, nodeBounds);
+            refittedBounds = updated;
+        }
+    }
+
+    /**
+     * Drop refitted bounds no ray will be fired in anymore.
+     *
+     * @param time windows that end before this time are dropped
+     */
+    public synchronized void retireRefitsEndingBefore(final double time) {
+        refittedBounds = Arrays.stream(refittedBounds).filter(refit -> refit.timeEnd >= time).toArray(RefittedBounds[]::new);
+    }
+
+    // Bounds of a window the time falls in, or the bounds the hierarchy was built with
+    private float[] nodeBoundsAt(final double time) {
+        for (final RefittedBounds refit : refittedBounds) {
+            if (time >= refit.timeStart && time <= refit.timeEnd) {
+                return refit.nodeBounds;
+            }
+        }
+        return layout.nodeBounds;
+    }
+
+    private static float[] emptyBounds() {
+        final float[] bounds = new float[6];
+        resetBounds(bounds, 0);
+        return bounds;
+    }
+
+    private static void resetBounds(final float[] nodeBounds, final int node) {
+        for (int axis = 0; axis < 3; axis++) {
+            nodeBounds[6 * node + axis] = Float.POSITIVE_INFINITY;
+            nodeBounds[6 * node + 3 + axis] = Float.NEGATIVE_INFINITY;
+        }
+    }
+
+    private static void include(final float[] nodeBounds, final int node, final AxisAlignedBoundingBox box) {
+        final int index = 6 * node;
+        nodeBounds[index] = Math.min(nodeBounds[index], roundDown(box.getMin().getXComponent()));
+        nodeBounds[index + 1] = Math.min(nodeBounds[index + 1], roundDown(box.getMin().getYComponent()));
+        nodeBounds[index + 2] = Math.min(nodeBounds[index + 2], roundDown(box.getMin().getZComponent()));
+        nodeBounds[index + 3] = Math.max(nodeBounds[index + 3], roundUp(box.getMax().getXComponent()));
+        nodeBounds[index + 4] = Math.max(nodeBounds[index + 4], roundUp(box.getMax().getYComponent()));
+        nodeBounds[index + 5] = Math.max(nodeBounds[index + 5], roundUp(box.getMax().getZComponent()));
+    }
+
+    // Largest float not above the value, a plain cast rounds to nearest and may land above it
+    private static float roundDown(final double value) {
+        final float rounded = (float) value;
+        return rounded > value ? Math.nextDown(rounded) : rounded;
+    }
+
+    // Smallest float not below the value
+    private static float roundUp(final double value) {
+        final float rounded = (float) value;
+        return rounded < value ? Math.nextUp(rounded) : rounded;
+    }
+
+    private static void includeNode(final float[] nodeBounds, final int node, final int child) {
+        for (int axis = 0; axis < 3; axis++) {
+            nodeBounds[6 * node + axis] = Math.min(nodeBounds[6 * node + axis], nodeBounds[6 * child + axis]);
+            nodeBounds[6 * node + 3 + axis] = Math.max(nodeBounds[6 * node + 3 + axis], nodeBounds[6 * child + 3 + axis]);
+        }
+    }
+
+    private static AxisAlignedBoundingBox boxAt(final float[] nodeBounds, final int node) {
+        final int index = 6 * node;
+        return new AxisAlignedBoundingBox(new Vec3(nodeBounds[index], nodeBounds[index + 1], nodeBounds[index + 2]),
+                new Vec3(nodeBounds[index + 3], nodeBounds[index + 4], nodeBounds[index + 5]));
+    }
+
+    // Same slab test as AxisAlignedBoundingBox.hit but on the flat bounds and without allocating a result, float to
+    // double is exact so the rounded out box is tested as is
+    private static boolean slabTest(final float[] nodeBounds, final int node,
+                                    final double originX, final double originY, final double originZ,
+                                    final double inverseX, final double inverseY, final double inverseZ,
+                                    final double tMin, final double tMax) {
+        final int index = 6 * node;
+        double near = (nodeBounds[index] - originX) * inverseX;
+        double far = (nodeBounds[index + 3] - originX) * inverseX;
+        double entry = Math.max(tMin, Math.min(near, far));
+        double exit = Math.min(tMax, Math.max(near, far));
+        near = (nodeBounds[index + 1] - originY) * inverseY;
+        far = (nodeBounds[index + 4] - originY) * inverseY;
+        entry = Math.max(entry, Math.min(near, far));
+        exit = Math.min(exit, Math.max(near, far));
+        near = (nodeBounds[index + 2] - originZ) * inverseZ;
+        far = (nodeBounds[index + 5] - originZ) * inverseZ;
+        entry = Math.max(entry, Math.min(near, far));
+        exit = Math.min(exit, Math.max(near, far));
+        return entry <= exit;
+    }
+
+    /**
+     * Everything about the hierarchy except the primitives themselves, node n has its bounds as min x, y, z then max x, y, z
+     * at 6 * n, rounded outwards to float. Leaves have a positive primitive count and their offset is their first primitive in leaf order,
+     * interior nodes have a count of 0 and their offset is the index of their right child.
+     * Primitive i in leaf order is primitive primitiveOrder[i] of the list the hierarchy was built from.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Layout {
+        private final float[] nodeBounds;
+        private final int[] nodeOffsets;
+        private final int[] nodePrimitiveCounts;
+        private final byte[] nodeSplitAxes;
+        private final int[] primitiveOrder;
+
+        public int getNodeCount() {
+            return nodeOffsets.length;
+        }
+    }
+
+    @AllArgsConstructor
+    private static class RefittedBounds {
+        private final double timeStart;
+        private final double timeEnd;
+        private final float[] nodeBounds;
+    }
+
+    // Top down median split builder working on primitive indices
+    private static class Builder {
+        private final double[] primitiveBounds;
+        private final double[] centroids;
+        private final int[] order;
+        private final double[] nodeBounds;
+        private final int[] nodeOffsets;
+        private final int[] nodePrimitiveCounts;
+        private final byte[] nodeSplitAxes;
+        private int nodeCount = 0;
+
+        private Builder(final List<Hittable> primitives, final double startTime, final double endTime) {
+            final int count = primitives.size();
+            if (count == 0) {
+                throw new IllegalArgumentException("Can not build a bounding volume hierarchy over no primitives");
+            }
+            primitiveBounds = new double[6 * count];
+            centroids = new double[3 * count];
+            order = new int[count];
+            for (int i = 0; i < count; i++) {
+                final AxisAlignedBoundingBox box = primitives.get(i).boundingBox(startTime, endTime);
+                if (box == null) {
+                    throw new IllegalArgumentException("Primitive " + i + " has no bounding box and can not go in a bounding volume hierarchy");
+                }
+                primitiveBounds[6 * i] = box.getMin().getXComponent();
+                primitiveBounds[6 * i + 1] = box.getMin().getYComponent();
+                primitiveBounds[6 * i + 2] = box.getMin().getZComponent();
+                primitiveBounds[6 * i + 3] = box.getMax().getXComponent();
+                primitiveBounds[6 * i + 4] = box.getMax().getYComponent();
+                primitiveBounds[6 * i + 5] = box.getMax().getZComponent();
+                for (int axis = 0; axis < 3; axis++) {
+                    centroids[3 * i + axis] = 0.5 * (primitiveBounds[6 * i + axis] + primitiveBounds[6 * i + 3 + axis]);
+                }
+                order[i] = i;
+            }
+            // A binary tree with leaves of at least one primitive has fewer than 2n nodes
+            final int maxNodes = 2 * count;
+            nodeBounds = new double[6 * maxNodes];
+            nodeOffsets = new int[maxNodes];
+            nodePrimitiveCounts = new int[maxNodes];
+            nodeSplitAxes = new byte[maxNodes];
+        }
+
+        static Layout build(final List<Hittable> primitives, final double startTime, final double endTime) {
+            final Builder builder = new Builder(primitives, startTime, endTime);
+            builder.buildNode(0, primitives.size());
+            final int nodeCount = builder.nodeCount;
+            final float[] nodeBounds = new float[6 * nodeCount];
+            for (int i = 0; i < nodeBounds.length; i++) {
+                // Min then max for every node
+                nodeBounds[i] = i % 6 < 3 ? roundDown(builder.nodeBounds[i]) : roundUp(builder.nodeBounds[i]);
+            }
+            return new Layout(nodeBounds, Arrays.copyOf(builder.nodeOffsets, nodeCount),
+                    Arrays.copyOf(builder.nodePrimitiveCounts, nodeCount), Arrays.copyOf(builder.nodeSplitAxes, nodeCount), builder.order);
+        }
+
+        private int buildNode(final int begin, final int end) {
+            final int node = nodeCount++;
+            final int boundsIndex = 6 * node;
+            for (int axis = 0; axis < 3; axis++) {
+                nodeBounds[boundsIndex + axis] = Double.POSITIVE_INFINITY;
+                nodeBounds[boundsIndex + 3 + axis] = Double.NEGATIVE_INFINITY;
+            }
+            final double[] centroidMin = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+            final double[] centroidMax = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+            for (int i = begin; i < end; i++) {
+                final int primitive = order[i];
+                for (int axis = 0; axis < 3; axis++) {
+                    nodeBounds[boundsIndex + axis] = Math.min(nodeBounds[boundsIndex + axis], primitiveBounds[6 * primitive + axis]);
+                    nodeBounds[boundsIndex + 3 + axis] = Math.max(nodeBounds[boundsIndex + 3 + axis], primitiveBounds[6 * primitive + 3 + axis]);
+                    centroidMin[axis] = Math.min(centroidMin[axis], centroids[3 * primitive + axis]);
+                    centroidMax[axis] = Math.max(centroidMax[axis], centroids[3 * primitive + axis]);
+                }
+            }
+
+            if (end - begin <= MAX_PRIMITIVES_IN_LEAF) {
+                nodeOffsets[node] = begin;
+                nodePrimitiveCounts[node] = end - begin;
+                return node;
+            }
+
+            int splitAxis = 0;
+            for (int axis = 1; axis < 3; axis++) {
+                if (centroidMax[axis] - centroidMin[axis] > centroidMax[splitAxis] - centroidMin[splitAxis]) {
+                    splitAxis = axis;
+                }
+            }
+            final int middle = (begin + end) >>> 1;
+            selectNth(begin, end, middle, splitAxis);
+
+            nodeSplitAxes[node] = (byte) splitAxis;
+            buildNode(begin, middle);
+            nodeOffsets[node] = buildNode(middle, end);
+            return node;
+        }
+
+        // Quickselect, afterwards order[nth] has the centroid it would have if sorted and is split from the smaller and larger ones
+        private void selectNth(int begin, int end, final int nth, final int axis) {
+            while (end - begin > 1) {
+                final double pivot = centroids[3 * order[(begin + end) >>> 1] + axis];
+                int low = begin;
+                int high = end - 1;
+                while (low <= high) {
+                    while (centroids[3 * order[low] + axis] < pivot) {
+                        low++;
+                    }
+                    while (centroids[3 * order[high] + axis] > pivot) {
+                        high--;
+                    }
+                    if (low <= high) {
+                        final int temp = order[low];
+                        order[low] = order[high];
+                        order[high] = temp;
+                        low++;
+                        high--;
+                    }
+                }
+                if (nth <= high) {
+                    end = high + 1;
+                } else if (nth >= low) {
+                    begin = low;
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+}
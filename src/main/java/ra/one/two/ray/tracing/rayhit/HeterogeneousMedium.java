@@ -0,0 +1,171 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import ra.one.two.ray.tracing.materials.Isotropic;
+import ra.one.two.ray.tracing.materials.Material;
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+import ra.one.two.ray.tracing.textures.Texture;
+
+/**
+ * A participating medium whose density varies through space. Free flight distances can not be sampled directly
+ * like in {@link ConstantMedium}, instead we use delta tracking: tentative collisions are sampled against a majorant
+ * density that is at least the real density and each one is accepted with probability density / majorant.
+ * The majorant is looked up from a coarse {@link MajorantGrid} so thin regions are skipped with large steps.
+ * See Novák et al. "Monte Carlo Methods for Volumetric Light Transport Simulation" for the details.
+ */
+public class HeterogeneousMedium implements Hittable {
+    // Default number of majorant grid cells along each axis
+    public static final int DEFAULT_MAJORANT_GRID_RESOLUTION = 16;
+
+    private static final ThreadLocal<TrackingScratch> SCRATCH = ThreadLocal.withInitial(TrackingScratch::new);
+
+    private final Hittable mediumBoundary;
+    private final DensityField densityField;
+    private final MajorantGrid majorantGrid;
+    private final Material phaseFunction;
+
+    public HeterogeneousMedium(final Hittable mediumBoundary, final DensityField densityField, final int majorantGridResolution, final Texture texture) {
+        this(mediumBoundary, densityField, majorantGridResolution, new Isotropic(texture));
+    }
+
+    public HeterogeneousMedium(final Hittable mediumBoundary, final DensityField densityField, final Vec3 color) {
+        this(mediumBoundary, densityField, DEFAULT_MAJORANT_GRID_RESOLUTION, new Isotropic(color));
+    }
+
+    private HeterogeneousMedium(final Hittable mediumBoundary, final DensityField densityField, final int majorantGridResolution, final Material phaseFunction) {
+        final AxisAlignedBoundingBox bounds = mediumBoundary.boundingBox(0, 1);
+        if (bounds == null) {
+            throw new IllegalArgumentException("Heterogeneous medium needs a bounded boundary to build its majorant grid over");
+        }
+        this.mediumBoundary = mediumBoundary;
+        this.densityField = densityField;
+        this.majorantGrid = new MajorantGrid(bounds, majorantGridResolution, densityField);
+        this.phaseFunction = phaseFunction;
+    }
+
+    @Override
+    public boolean hit(final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord) {
+        final double rayExtension = sampleCollision(ray, tMin, tMax);
+        if (Double.isNaN(rayExtension)) {
+            return false;
+        }
+        hitRecord.setRayExtensionScale(rayExtension);
+        hitRecord.setRayHitLocationOnHittableObject(ray.at(rayExtension));
+        hitRecord.setNormal(new Vec3()); // no surface, light sampling goes by the zero normal
+        hitRecord.setFrontFace(true); // also arbitrary
+        hitRecord.setMaterialOfObjectHit(phaseFunction);
+        return true;
+    }
+
+    @Override
+    // The ray is blocked when delta tracking finds a real collision, a single yes or no sample of the transmittance
+    public boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        return !Double.isNaN(sampleCollision(ray, tMin, tMax));
+    }
+
+    // Ray extension scale of the first real collision found by delta tracking, NaN when the ray gets through
+    private double sampleCollision(final Ray ray, final double tMin, final double tMax) {
+        final TrackingScratch scratch = SCRATCH.get();
+        if (!clipToBoundary(ray, tMin, tMax, scratch)) {
+            return Double.NaN;
+        }
+
+        // Delta tracking, walk the majorant grid and sample tentative collisions in each cell.
+        // Since free flight distances are memoryless we can restart sampling at each cell boundary with the new majorant.
+        final double rayLength = ray.getDirection().length();
+        final MajorantGrid.Traversal traversal = scratch.traversal;
+        while (majorantGrid.nextSegment(traversal)) {
+            final double majorant = traversal.majorant;
+            if (majorant <= 0) {
+                continue;
+            }
+            double rayExtension = traversal.segmentStart;
+            while (true) {
+                rayExtension -= Math.log(1 - SeedableRandom.nextDouble()) / (majorant * rayLength);
+                if (rayExtension >= traversal.segmentEnd) {
+                    break;
+                }
+                // A real collision with probability density / majorant, otherwise a null collision and we keep going
+                if (SeedableRandom.nextDouble() * majorant < densityAt(ray, rayExtension)) {
+                    return rayExtension;
+                }
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Estimate the fraction of light that makes it through the medium along the ray between tMin and tMax with ratio tracking.
+     * Instead of stopping at the first real collision like delta tracking, every tentative collision scales the estimate
+     * by the probability of it being a null collision, which gives a lower variance answer for shadow rays.
+     *
+     * @param ray  ray along which we want the transmittance
+     * @param tMin minimum ray extension scale
+     * @param tMax maximum ray extension scale
+     * @return unbiased estimate of the transmittance, between 0 and 1
+     */
+    public double transmittance(final Ray ray, final double tMin, final double tMax) {
+        final TrackingScratch scratch = SCRATCH.get();
+        if (!clipToBoundary(ray, tMin, tMax, scratch)) {
+            return 1.0;
+        }
+
+        final double rayLength = ray.getDirection().length();
+        final MajorantGrid.Traversal traversal = scratch.traversal;
+        double transmittance = 1.0;
+        while (majorantGrid.nextSegment(traversal)) {
+            final double majorant = traversal.majorant;
+            if (majorant <= 0) {
+                continue;
+            }
+            double rayExtension = traversal.segmentStart;
+            while (true) {
+                rayExtension -= Math.log(1 - SeedableRandom.nextDouble()) / (majorant * rayLength);
+                if (rayExtension >= traversal.segmentEnd) {
+                    break;
+                }
+                transmittance *= Math.max(0, 1 - densityAt(ray, rayExtension) / majorant);
+                if (transmittance == 0) {
+                    return 0;
+                }
+            }
+        }
+        return transmittance;
+    }
+
+    @Override
+    public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
+        return mediumBoundary.boundingBox(tStart, tEnd);
+    }
+
+    // Find the part of [tMin, tMax] inside the boundary and start a grid walk over it
+    private boolean clipToBoundary(final Ray ray, final double tMin, final double tMax, final TrackingScratch scratch) {
+        if (!mediumBoundary.hitInterval(ray, tMin, tMax, scratch.interval)) {
+            return false;
+        }
+        double entryRayExtension = Math.max(tMin, scratch.interval.getEntryRayExtension());
+        final double exitRayExtension = Math.min(tMax, scratch.interval.getExitRayExtension());
+        if (entryRayExtension >= exitRayExtension) {
+            return false;
+        }
+        if (entryRayExtension < 0) {
+            entryRayExtension = 0;
+        }
+        majorantGrid.startTraversal(ray, entryRayExtension, exitRayExtension, scratch.traversal);
+        return true;
+    }
+
+    private double densityAt(final Ray ray, final double rayExtension) {
+        return densityField.density(ray.getOrigin().getXComponent() + rayExtension * ray.getDirection().getXComponent(),
+                ray.getOrigin().getYComponent() + rayExtension * ray.getDirection().getYComponent(),
+                ray.getOrigin().getZComponent() + rayExtension * ray.getDirection().getZComponent());
+    }
+
+    // Per thread records reused by every tracking query
+    private static class TrackingScratch {
+        private final RayInterval interval = new RayInterval();
+        private final MajorantGrid.Traversal traversal = new MajorantGrid.Traversal();
+    }
+}
@@ -41,6 +41,17 @@ public class HittableList implements Hittable {
         return hasRayHitSomething;
     }
 
+    @Override
+    // Any object in the list blocking the ray will do, so stop at the first one
+    public boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        for (int i = 0; i < hittableList.size(); i++) {
+            if (hittableList.get(i).occluded(ray, tMin, tMax)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
         if (hittableList.isEmpty()) {
@@ -0,0 +1,361 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Kd-tree over the bounding boxes of its primitives, split by the surface area heuristic as in Pharr, Jakob and
+ * Humphreys "Physically Based Rendering" 3rd edition 4.4. Splitting space rather than primitives means the children of
+ * a node never overlap, so traversal visits them front to back and stops at the first one holding a hit, and the
+ * heuristic cuts empty space off big primitives early. It tends to beat a hierarchy on static scenes of large
+ * primitives, at the price of a slower build and primitives that straddle a split going into both children.
+ * <p>
+ * Nodes are stored depth first like {@link FlattenedBoundingVolumeHierarchy}, the child below the split right after
+ * its parent. The tree is built for one time window and not refitted.
+ */
+public class KdTree implements Accelerator {
+    // Costs the heuristic weighs, relative to each other only
+    private static final double INTERSECTION_COST = 80;
+    private static final double TRAVERSAL_COST = 1;
+    // Share of the cost knocked off splits that leave one side empty, cutting off empty space pays off
+    private static final double EMPTY_BONUS = 0.5;
+    private static final int MAX_PRIMITIVES_IN_LEAF = 1;
+    // Splits worse than not splitting allowed on the way down a branch before it is made a leaf
+    private static final int MAX_BAD_REFINES = 3;
+    private static final int TRAVERSAL_STACK_SIZE = 64;
+    private static final byte LEAF = 3;
+
+    private final double[] bounds;
+    // Split axis of every node, LEAF for leaves
+    private final byte[] nodeSplitAxes;
+    private final double[] nodeSplitPositions;
+    // Interior nodes: index of the child above the split. Leaves: their first primitive in leafPrimitives
+    private final int[] nodeOffsets;
+    private final int[] nodePrimitiveCounts;
+    private final int[] leafPrimitives;
+    private final PrimitiveBuckets primitiveBuckets;
+
+    /**
+     * @param primitives primitives to build over, all of them need a bounding box
+     * @param startTime  start time the bounding boxes need to cover
+     * @param endTime    end time the bounding boxes need to cover
+     */
+    public KdTree(final List<Hittable> primitives, final double startTime, final double endTime) {
+        final Builder builder = new Builder(primitives, startTime, endTime);
+        bounds = builder.bounds;
+        nodeSplitAxes = Arrays.copyOf(builder.nodeSplitAxes, builder.nodeCount);
+        nodeSplitPositions = Arrays.copyOf(builder.nodeSplitPositions, builder.nodeCount);
+        nodeOffsets = Arrays.copyOf(builder.nodeOffsets, builder.nodeCount);
+        nodePrimitiveCounts = Arrays.copyOf(builder.nodePrimitiveCounts, builder.nodeCount);
+        leafPrimitives = Arrays.copyOf(builder.leafPrimitives, builder.leafPrimitiveCount);
+        primitiveBuckets = new PrimitiveBuckets(primitives);
+    }
+
+    @Override
+    public int getNodeCount() {
+        return nodeSplitAxes.length;
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        // Split axes, positions, offsets and counts of the nodes, the primitive lists of the leaves, then the primitives themselves
+        return (long) nodeSplitAxes.length * (1 + Double.BYTES + 2 * Integer.BYTES) + (long) leafPrimitives.length * Integer.BYTES
+                + (long) primitiveBuckets.size() * Long.BYTES;
+    }
+
+    @Override
+    public boolean hit(final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord) {
+        return traverse(ray, tMin, tMax, hitRecord);
+    }
+
+    @Override
+    public boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        return traverse(ray, tMin, tMax, null);
+    }
+
+    // Visit the nodes along the ray front to back, closest hit into the hit record, or the first hit at all when there is no record
+    private boolean traverse(final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord) {
+        final double[] origin = {ray.getOrigin().getXComponent(), ray.getOrigin().getYComponent(), ray.getOrigin().getZComponent()};
+        final double[] direction = {ray.getDirection().getXComponent(), ray.getDirection().getYComponent(), ray.getDirection().getZComponent()};
+
+        // Part of the ray inside the tree
+        double entry = tMin;
+        double exit = tMax;
+        for (int axis = 0; axis < 3; axis++) {
+            final double inverse = 1.0 / direction[axis];
+            final double near = (bounds[axis] - origin[axis]) * inverse;
+            final double far = (bounds[3 + axis] - origin[axis]) * inverse;
+            entry = Math.max(entry, Math.min(near, far));
+            exit = Math.min(exit, Math.max(near, far));
+        }
+        if (!(entry <= exit)) {
+            return false;
+        }
+
+        final int[] stackNodes = new int[TRAVERSAL_STACK_SIZE];
+        final double[] stackEntries = new double[TRAVERSAL_STACK_SIZE];
+        final double[] stackExits = new double[TRAVERSAL_STACK_SIZE];
+        int stackSize = 0;
+        int node = 0;
+        double nodeEntry = entry;
+        double nodeExit = exit;
+        double closestSoFar = tMax;
+        boolean hasRayHitSomething = false;
+        while (true) {
+            // Nodes are visited front to back, once the closest hit comes before a node nothing further on can be closer
+            if (closestSoFar < nodeEntry) {
+                break;
+            }
+            if (TraversalStatistics.ENABLED) {
+                TraversalStatistics.countNodeVisited();
+            }
+            final int axis = nodeSplitAxes[node];
+            if (axis != LEAF) {
+                final double split = nodeSplitPositions[node];
+                final double planeDistance = (split - origin[axis]) / direction[axis];
+                // Child on the side of the split the ray starts on comes first
+                final boolean belowFirst = origin[axis] < split || (origin[axis] == split && direction[axis] <= 0);
+                final int firstChild = belowFirst ? node + 1 : nodeOffsets[node];
+                final int secondChild = belowFirst ? nodeOffsets[node] : node + 1;
+                if (direction[axis] == 0 || planeDistance > nodeExit || planeDistance <= 0) {
+                    node = firstChild;
+                } else if (planeDistance < nodeEntry) {
+                    node = secondChild;
+                } else {
+                    stackNodes[stackSize] = secondChild;
+                    stackEntries[stackSize] = planeDistance;
+                    stackExits[stackSize] = nodeExit;
+                    stackSize++;
+                    node = firstChild;
+                    nodeExit = planeDistance;
+                }
+                continue;
+            }
+            final int firstPrimitive = nodeOffsets[node];
+            for (int i = firstPrimitive; i < firstPrimitive + nodePrimitiveCounts[node]; i++) {
+                final int primitive = leafPrimitives[i];
+                if (hitRecord == null) {
+                    if (primitiveBuckets.occluded(primitive, ray, tMin, tMax)) {
+                        return true;
+                    }
+                } else if (primitiveBuckets.hit(primitive, ray, tMin, closestSoFar, hitRecord)) {
+                    hasRayHitSomething = true;
+                    closestSoFar = hitRecord.getRayExtensionScale();
+                }
+            }
+            if (stackSize == 0) {
+                break;
+            }
+            stackSize--;
+            node = stackNodes[stackSize];
+            nodeEntry = stackEntries[stackSize];
+            nodeExit = stackExits[stackSize];
+        }
+        return hasRayHitSomething;
+    }
+
+    @Override
+    public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
+        return new AxisAlignedBoundingBox(new Vec3(bounds[0], bounds[1], bounds[2]), new Vec3(bounds[3], bounds[4], bounds[5]));
+    }
+
+    // Top down builder, tries every primitive box edge along an axis as the split and keeps the cheapest by the heuristic
+    private static class Builder {
+        private final double[] primitiveBounds;
+        private final double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        // Box edges along an axis sorted by position, see edge for how one is packed into a long
+        private final long[] edges;
+        private byte[] nodeSplitAxes = new byte[64];
+        private double[] nodeSplitPositions = new double[64];
+        private int[] nodeOffsets = new int[64];
+        private int[] nodePrimitiveCounts = new int[64];
+        private int nodeCount = 0;
+        private int[] leafPrimitives = new int[64];
+        private int leafPrimitiveCount = 0;
+
+        private Builder(final List<Hittable> primitives, final double startTime, final double endTime) {
+            final int count = primitives.size();
+            if (count == 0) {
+                throw new IllegalArgumentException("Can not build a kd-tree over no primitives");
+            }
+            primitiveBounds = new double[6 * count];
+            final int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                final AxisAlignedBoundingBox box = primitives.get(i).boundingBox(startTime, endTime);
+                if (box == null) {
+                    throw new IllegalArgumentException("Primitive " + i + " has no bounding box and can not go in a kd-tree");
+                }
+                primitiveBounds[6 * i] = box.getMin().getXComponent();
+                primitiveBounds[6 * i + 1] = box.getMin().getYComponent();
+                primitiveBounds[6 * i + 2] = box.getMin().getZComponent();
+                primitiveBounds[6 * i + 3] = box.getMax().getXComponent();
+                primitiveBounds[6 * i + 4] = box.getMax().getYComponent();
+                primitiveBounds[6 * i + 5] = box.getMax().getZComponent();
+                for (int axis = 0; axis < 3; axis++) {
+                    bounds[axis] = Math.min(bounds[axis], primitiveBounds[6 * i + axis]);
+                    bounds[3 + axis] = Math.max(bounds[3 + axis], primitiveBounds[6 * i + 3 + axis]);
+                }
+                all[i] = i;
+            }
+            edges = new long[2 * count];
+            final int maxDepth = (int) Math.round(8 + 1.3 * Math.log(count) / Math.log(2));
+            buildNode(bounds.clone(), all, count, maxDepth, 0);
+        }
+
+        private void buildNode(final double[] nodeBounds, final int[] primitives, final int count, final int depth, int badRefines) {
+            final int node = nodeCount++;
+            ensureNodeCapacity();
+            if (count <= MAX_PRIMITIVES_IN_LEAF || depth == 0) {
+                makeLeaf(node, primitives, count);
+                return;
+            }
+
+            final double[] extent = {nodeBounds[3] - nodeBounds[0], nodeBounds[4] - nodeBounds[1], nodeBounds[5] - nodeBounds[2]};
+            final double inverseTotalArea = 1 / (2 * (extent[0] * extent[1] + extent[1] * extent[2] + extent[2] * extent[0]));
+            final double leafCost = INTERSECTION_COST * count;
+            int bestAxis = -1;
+            double bestPosition = 0;
+            double bestCost = Double.POSITIVE_INFINITY;
+            int axis = extent[0] > extent[1] && extent[0] > extent[2] ? 0 : extent[1] > extent[2] ? 1 : 2;
+            // Try the axis the node is longest along first, the others only if it has no edge inside the node
+            for (int retries = 0; retries < 3 && bestAxis == -1; retries++, axis = (axis + 1) % 3) {
+                final int edgeCount = sortEdges(primitives, count, axis);
+                final int otherAxis = (axis + 1) % 3;
+                final int lastAxis = (axis + 2) % 3;
+                int below = 0;
+                int above = count;
+                for (int i = 0; i < edgeCount; i++) {
+                    final boolean upper = isUpper(edges[i]);
+                    final double position = edgePosition(edges[i], axis);
+                    if (upper) {
+                        above--;
+                    }
+                    if (position > nodeBounds[axis] && position < nodeBounds[3 + axis]) {
+                        final double belowArea = 2 * (extent[otherAxis] * extent[lastAxis] + (position - nodeBounds[axis]) * (extent[otherAxis] + extent[lastAxis]));
+                        final double aboveArea = 2 * (extent[otherAxis] * extent[lastAxis] + (nodeBounds[3 + axis] - position) * (extent[otherAxis] + extent[lastAxis]));
+                        final double bonus = below == 0 || above == 0 ? EMPTY_BONUS : 0;
+                        final double cost = TRAVERSAL_COST
+                                + INTERSECTION_COST * (1 - bonus) * (belowArea * inverseTotalArea * below + aboveArea * inverseTotalArea * above);
+                        if (cost < bestCost) {
+                            bestCost = cost;
+                            bestAxis = axis;
+                            bestPosition = position;
+                        }
+                    }
+                    if (!upper) {
+                        below++;
+                    }
+                }
+            }
+            if (bestCost > leafCost) {
+                badRefines++;
+            }
+            if ((bestCost > 4 * leafCost && count < 16) || bestAxis == -1 || badRefines == MAX_BAD_REFINES) {
+                makeLeaf(node, primitives, count);
+                return;
+            }
+
+            // Primitives starting below the split go below, those ending above it go above, straddling ones go to both.
+            // One lying flat in the split plane goes below, that child reaches up to the plane
+            final int[] belowPrimitives = new int[count];
+            final int[] abovePrimitives = new int[count];
+            int belowCount = 0;
+            int aboveCount = 0;
+            for (int i = 0; i < count; i++) {
+                final int primitive = primitives[i];
+                final double lower = primitiveBounds[6 * primitive + bestAxis];
+                final double upper = primitiveBounds[6 * primitive + 3 + bestAxis];
+                if (lower < bestPosition || (lower == bestPosition && upper == bestPosition)) {
+                    belowPrimitives[belowCount++] = primitive;
+                }
+                if (upper > bestPosition) {
+                    abovePrimitives[aboveCount++] = primitive;
+                }
+            }
+
+            nodeSplitAxes[node] = (byte) bestAxis;
+            nodeSplitPositions[node] = bestPosition;
+            final double[] belowBounds = nodeBounds.clone();
+            belowBounds[3 + bestAxis] = bestPosition;
+            final double[] aboveBounds = nodeBounds.clone();
+            aboveBounds[bestAxis] = bestPosition;
+            buildNode(belowBounds, belowPrimitives, belowCount, depth - 1, badRefines);
+            nodeOffsets[node] = nodeCount;
+            buildNode(aboveBounds, abovePrimitives, aboveCount, depth - 1, badRefines);
+        }
+
+        // Sort the lower and upper box edges of the primitives along an axis into edges, lower before upper at the same
+        // position. The packed edges sort as plain longs by their position rounded to float, then lower before upper.
+        // Positions that round to the same float can still be out of order, a pass of insertion sort on the exact
+        // positions fixes those up and costs next to nothing on an array that is sorted all but a few neighbours
+        private int sortEdges(final int[] primitives, final int count, final int axis) {
+            for (int i = 0; i < count; i++) {
+                final int primitive = primitives[i];
+                edges[2 * i] = edge(primitiveBounds[6 * primitive + axis], false, primitive);
+                edges[2 * i + 1] = edge(primitiveBounds[6 * primitive + 3 + axis], true, primitive);
+            }
+            final int edgeCount = 2 * count;
+            Arrays.sort(edges, 0, edgeCount);
+            for (int i = 1; i < edgeCount; i++) {
+                final long edge = edges[i];
+                final double position = edgePosition(edge, axis);
+                int j = i;
+                while (j > 0 && isAfter(edges[j - 1], position, edge, axis)) {
+                    edges[j] = edges[j - 1];
+                    j--;
+                }
+                edges[j] = edge;
+            }
+            return edgeCount;
+        }
+
+        // Position rounded to float in the high 32 bits, flipped so that signed longs order the same as the floats,
+        // then 1 for an upper edge and 0 for a lower one, then the primitive in the low 31 bits
+        private static long edge(final double position, final boolean upper, final int primitive) {
+            final int floatBits = Float.floatToIntBits((float) position);
+            final int sortableBits = floatBits ^ ((floatBits >> 31) & Integer.MAX_VALUE);
+            return ((long) sortableBits << 32) | (upper ? 1L << 31 : 0) | primitive;
+        }
+
+        private static boolean isUpper(final long edge) {
+            return (edge & (1L << 31)) != 0;
+        }
+
+        // Whether the edge sorts after another edge at the given position, exactly rather than by the rounded position
+        private boolean isAfter(final long edge, final double otherPosition, final long otherEdge, final int axis) {
+            final double position = edgePosition(edge, axis);
+            return position > otherPosition || (position == otherPosition && isUpper(edge) && !isUpper(otherEdge));
+        }
+
+        private double edgePosition(final long edge, final int axis) {
+            final int primitive = (int) (edge & Integer.MAX_VALUE);
+            return primitiveBounds[6 * primitive + (isUpper(edge) ? 3 : 0) + axis];
+        }
+
+        private void makeLeaf(final int node, final int[] primitives, final int count) {
+            nodeSplitAxes[node] = LEAF;
+            nodeOffsets[node] = leafPrimitiveCount;
+            nodePrimitiveCounts[node] = count;
+            if (leafPrimitiveCount + count > leafPrimitives.length) {
+                leafPrimitives = Arrays.copyOf(leafPrimitives, Math.max(2 * leafPrimitives.length, leafPrimitiveCount + count));
+            }
+            System.arraycopy(primitives, 0, leafPrimitives, leafPrimitiveCount, count);
+            leafPrimitiveCount += count;
+        }
+
+        private void ensureNodeCapacity() {
+            if (nodeCount > nodeSplitAxes.length) {
+                final int capacity = 2 * nodeSplitAxes.length;
+                nodeSplitAxes = Arrays.copyOf(nodeSplitAxes, capacity);
+                nodeSplitPositions = Arrays.copyOf(nodeSplitPositions, capacity);
+                nodeOffsets = Arrays.copyOf(nodeOffsets, capacity);
+                nodePrimitiveCounts = Arrays.copyOf(nodePrimitiveCounts, capacity);
+            }
+        }
+    }
+}
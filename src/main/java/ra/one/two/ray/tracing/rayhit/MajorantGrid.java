@@ -0,0 +1,154 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+
+/**
+ * A coarse grid over the bounds of a heterogeneous medium where each cell stores an upper bound (majorant) of the
+ * density inside it. Delta and ratio tracking sample tentative collisions against the majorant, a tight majorant
+ * per cell means few rejected collisions in the thin parts of the medium and so few density lookups.
+ * Rays walk the cells with a 3D digital differential analyzer, see Amanatides and Woo,
+ * "A Fast Voxel Traversal Algorithm for Ray Tracing".
+ */
+public class MajorantGrid {
+    private final double minX;
+    private final double minY;
+    private final double minZ;
+    private final double cellSizeX;
+    private final double cellSizeY;
+    private final double cellSizeZ;
+    private final int resolution;
+    // majorant of the cell (i, j, k) lives at i + resolution * (j + resolution * k)
+    private final double[] majorants;
+
+    /**
+     * Build the grid from the bound the density field gives for each cell.
+     *
+     * @param bounds       bounds of the medium, the grid covers exactly this box
+     * @param resolution   number of cells along each axis
+     * @param densityField density to bound
+     */
+    public MajorantGrid(final AxisAlignedBoundingBox bounds, final int resolution, final DensityField densityField) {
+        this.resolution = resolution;
+        minX = bounds.getMin().getXComponent();
+        minY = bounds.getMin().getYComponent();
+        minZ = bounds.getMin().getZComponent();
+        cellSizeX = (bounds.getMax().getXComponent() - minX) / resolution;
+        cellSizeY = (bounds.getMax().getYComponent() - minY) / resolution;
+        cellSizeZ = (bounds.getMax().getZComponent() - minZ) / resolution;
+        majorants = new double[resolution * resolution * resolution];
+        for (int k = 0; k < resolution; k++) {
+            for (int j = 0; j < resolution; j++) {
+                for (int i = 0; i < resolution; i++) {
+                    final Vec3 cellMin = new Vec3(minX + i * cellSizeX, minY + j * cellSizeY, minZ + k * cellSizeZ);
+                    final Vec3 cellMax = new Vec3(minX + (i + 1) * cellSizeX, minY + (j + 1) * cellSizeY, minZ + (k + 1) * cellSizeZ);
+                    majorants[i + resolution * (j + resolution * k)] = densityField.maxDensity(new AxisAlignedBoundingBox(cellMin, cellMax));
+                }
+            }
+        }
+    }
+
+    /**
+     * Set up a walk through the cells the ray passes between tStart and tEnd.
+     *
+     * @param ray       ray to walk along
+     * @param tStart    ray extension scale to start the walk at, should lie inside the grid bounds
+     * @param tEnd      ray extension scale to end the walk at
+     * @param traversal caller owned state of the walk
+     */
+    public void startTraversal(final Ray ray, final double tStart, final double tEnd, final Traversal traversal) {
+        traversal.segmentEnd = tStart;
+        traversal.tEnd = tEnd;
+        traversal.done = tStart >= tEnd;
+
+        final double directionX = ray.getDirection().getXComponent();
+        final double directionY = ray.getDirection().getYComponent();
+        final double directionZ = ray.getDirection().getZComponent();
+        final double originX = ray.getOrigin().getXComponent();
+        final double originY = ray.getOrigin().getYComponent();
+        final double originZ = ray.getOrigin().getZComponent();
+
+        // Cell the walk starts in, clamped as round off can put a point on the boundary just outside the grid
+        traversal.cellX = cellIndex((originX + tStart * directionX - minX) / cellSizeX);
+        traversal.cellY = cellIndex((originY + tStart * directionY - minY) / cellSizeY);
+        traversal.cellZ = cellIndex((originZ + tStart * directionZ - minZ) / cellSizeZ);
+
+        // For each axis find the scale at which the ray crosses into the next cell and how much the scale grows per cell.
+        traversal.stepX = directionX > 0 ? 1 : -1;
+        traversal.stepY = directionY > 0 ? 1 : -1;
+        traversal.stepZ = directionZ > 0 ? 1 : -1;
+        traversal.tNextX = directionX == 0 ? Double.POSITIVE_INFINITY : (minX + (traversal.cellX + (directionX > 0 ? 1 : 0)) * cellSizeX - originX) / directionX;
+        traversal.tNextY = directionY == 0 ? Double.POSITIVE_INFINITY : (minY + (traversal.cellY + (directionY > 0 ? 1 : 0)) * cellSizeY - originY) / directionY;
+        traversal.tNextZ = directionZ == 0 ? Double.POSITIVE_INFINITY : (minZ + (traversal.cellZ + (directionZ > 0 ? 1 : 0)) * cellSizeZ - originZ) / directionZ;
+        traversal.tDeltaX = directionX == 0 ? Double.POSITIVE_INFINITY : Math.abs(cellSizeX / directionX);
+        traversal.tDeltaY = directionY == 0 ? Double.POSITIVE_INFINITY : Math.abs(cellSizeY / directionY);
+        traversal.tDeltaZ = directionZ == 0 ? Double.POSITIVE_INFINITY : Math.abs(cellSizeZ / directionZ);
+    }
+
+    /**
+     * Move the walk to the next cell the ray passes through.
+     *
+     * @param traversal state of the walk, on return it holds the span of the ray inside the cell and the cell majorant
+     * @return false once the walk has passed tEnd or left the grid
+     */
+    public boolean nextSegment(final Traversal traversal) {
+        if (traversal.done) {
+            return false;
+        }
+        traversal.segmentStart = traversal.segmentEnd;
+        traversal.majorant = majorants[traversal.cellX + resolution * (traversal.cellY + resolution * traversal.cellZ)];
+
+        // Step along the axis whose cell boundary the ray crosses first
+        if (traversal.tNextX <= traversal.tNextY && traversal.tNextX <= traversal.tNextZ) {
+            traversal.segmentEnd = traversal.tNextX;
+            traversal.cellX += traversal.stepX;
+            traversal.tNextX += traversal.tDeltaX;
+        } else if (traversal.tNextY <= traversal.tNextZ) {
+            traversal.segmentEnd = traversal.tNextY;
+            traversal.cellY += traversal.stepY;
+            traversal.tNextY += traversal.tDeltaY;
+        } else {
+            traversal.segmentEnd = traversal.tNextZ;
+            traversal.cellZ += traversal.stepZ;
+            traversal.tNextZ += traversal.tDeltaZ;
+        }
+
+        if (traversal.segmentEnd >= traversal.tEnd) {
+            traversal.segmentEnd = traversal.tEnd;
+            traversal.done = true;
+        } else if (traversal.cellX < 0 || traversal.cellX >= resolution || traversal.cellY < 0 || traversal.cellY >= resolution
+                || traversal.cellZ < 0 || traversal.cellZ >= resolution) {
+            traversal.done = true;
+        }
+        return true;
+    }
+
+    private int cellIndex(final double cellCoordinate) {
+        return Math.min(resolution - 1, Math.max(0, (int) Math.floor(cellCoordinate)));
+    }
+
+    /**
+     * State of a walk through the grid, one instance is reused by every walk made from a thread.
+     */
+    public static class Traversal {
+        // Span of the ray inside the current cell and the majorant of that cell
+        double segmentStart;
+        double segmentEnd;
+        double majorant;
+
+        private double tEnd;
+        private boolean done;
+        private int cellX;
+        private int cellY;
+        private int cellZ;
+        private int stepX;
+        private int stepY;
+        private int stepZ;
+        private double tNextX;
+        private double tNextY;
+        private double tNextZ;
+        private double tDeltaX;
+        private double tDeltaY;
+        private double tDeltaZ;
+    }
+}
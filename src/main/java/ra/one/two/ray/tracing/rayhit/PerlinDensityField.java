@@ -0,0 +1,43 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import ra.one.two.ray.tracing.primitives.noise.Perlin;
+
+/**
+ * Smoke like density, the turbulence of perlin noise scaled to lie between 0 and the max density.
+ */
+public class PerlinDensityField implements DensityField {
+    private final Perlin perlinNoise;
+    private final double maxDensity;
+    // frequency of the noise, larger values give smaller puffs
+    private final double scale;
+    // number of octaves of noise summed up by turbulence
+    private final int turbulenceDepth;
+
+    public PerlinDensityField(final double maxDensity, final double scale, final int turbulenceDepth) {
+        this(maxDensity, scale, turbulenceDepth, new Perlin());
+    }
+
+    public PerlinDensityField(final double maxDensity, final double scale, final int turbulenceDepth, final long seed) {
+        this(maxDensity, scale, turbulenceDepth, new Perlin(seed));
+    }
+
+    private PerlinDensityField(final double maxDensity, final double scale, final int turbulenceDepth, final Perlin perlinNoise) {
+        this.perlinNoise = perlinNoise;
+        this.maxDensity = maxDensity;
+        this.scale = scale;
+        this.turbulenceDepth = turbulenceDepth;
+    }
+
+    @Override
+    public double density(final double x, final double y, final double z) {
+        final double turbulence = perlinNoise.turbulence(scale * x, scale * y, scale * z, turbulenceDepth);
+        return maxDensity * Math.min(1.0, turbulence);
+    }
+
+    @Override
+    // Every octave can reach its largest value somewhere in a box the size of a grid cell and those already add up
+    // to more than the clamp, so the clamp is the only bound that holds everywhere
+    public double maxDensity(final AxisAlignedBoundingBox box) {
+        return maxDensity;
+    }
+}
@@ -0,0 +1,315 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import ra.one.two.ray.tracing.primitives.objects.Box;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
+import ra.one.two.ray.tracing.primitives.objects.MovingSphere;
+import ra.one.two.ray.tracing.primitives.objects.Sphere;
+import ra.one.two.ray.tracing.primitives.objects.XYPlaneRectangle;
+import ra.one.two.ray.tracing.primitives.objects.XZPlaneRectangle;
+import ra.one.two.ray.tracing.primitives.objects.YZPlaneRectangle;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+
+import java.util.List;
+
+/**
+ * Primitives grouped by their concrete class into one array per class. A loop over a HittableList calls hit through the
+ * interface and the call site sees every kind of primitive in the scene, which the JIT can not inline. Here every loop
+ * only sees one class, so its hit call is monomorphic and gets inlined.
+ * <p>
+ * Primitives also keep the position they were given in, as a bucket and an index into it, so a hierarchy leaf can hit
+ * the primitive at a position through {@link #hit(int, Ray, double, double, HitRecord)} without going through the interface.
+ * Only exact classes are bucketed, subclasses and every other hittable go to a bucket hit through the interface.
+ */
+public class PrimitiveBuckets implements Hittable {
+    private static final byte SPHERE = 0;
+    private static final byte MOVING_SPHERE = 1;
+    private static final byte BOX = 2;
+    private static final byte XY_RECTANGLE = 3;
+    private static final byte XZ_RECTANGLE = 4;
+    private static final byte YZ_RECTANGLE = 5;
+    private static final byte OTHER = 6;
+    private static final int BUCKET_COUNT = 7;
+
+    private final Sphere[] spheres;
+    private final MovingSphere[] movingSpheres;
+    private final Box[] boxes;
+    private final XYPlaneRectangle[] xyRectangles;
+    private final XZPlaneRectangle[] xzRectangles;
+    private final YZPlaneRectangle[] yzRectangles;
+    private final Hittable[] others;
+    // Bucket and index in the bucket of every primitive, by the position it was given in
+    private final byte[] bucketOfPrimitive;
+    private final int[] indexOfPrimitive;
+
+    /**
+     * @param primitives primitives to group, positions in this list are the positions hit(int, ...) takes
+     */
+    public PrimitiveBuckets(final List<? extends Hittable> primitives) {
+        final int[] bucketSizes = new int[BUCKET_COUNT];
+        bucketOfPrimitive = new byte[primitives.size()];
+        indexOfPrimitive = new int[primitives.size()];
+        for (int i = 0; i < primitives.size(); i++) {
+            final byte bucket = bucketOf(primitives.get(i));
+            bucketOfPrimitive[i] = bucket;
+            indexOfPrimitive[i] = bucketSizes[bucket]++;
+        }
+
+        spheres = new Sphere[bucketSizes[SPHERE]];
+        movingSpheres = new MovingSphere[bucketSizes[MOVING_SPHERE]];
+        boxes = new Box[bucketSizes[BOX]];
+        xyRectangles = new XYPlaneRectangle[bucketSizes[XY_RECTANGLE]];
+        xzRectangles = new XZPlaneRectangle[bucketSizes[XZ_RECTANGLE]];
+        yzRectangles = new YZPlaneRectangle[bucketSizes[YZ_RECTANGLE]];
+        others = new Hittable[bucketSizes[OTHER]];
+        for (int i = 0; i < primitives.size(); i++) {
+            final Hittable primitive = primitives.get(i);
+            final int index = indexOfPrimitive[i];
+            switch (bucketOfPrimitive[i]) {
+                case SPHERE:
+                    spheres[index] = (Sphere) primitive;
+                    break;
+                case MOVING_SPHERE:
+                    movingSpheres[index] = (MovingSphere) primitive;
+                    break;
+                case BOX:
+                    boxes[index] = (Box) primitive;
+                    break;
+                case XY_RECTANGLE:
+                    xyRectangles[index] = (XYPlaneRectangle) primitive;
+                    break;
+                case XZ_RECTANGLE:
+                    xzRectangles[index] = (XZPlaneRectangle) primitive;
+                    break;
+                case YZ_RECTANGLE:
+                    yzRectangles[index] = (YZPlaneRectangle) primitive;
+                    break;
+                default:
+                    others[index] = primitive;
+            }
+        }
+    }
+
+    // Exact class only, a subclass may override hit and would be called as the class it extends
+    private static byte bucketOf(final Hittable primitive) {
+        final Class<?> type = primitive.getClass();
+        if (type == Sphere.class) {
+            return SPHERE;
+        } else if (type == MovingSphere.class) {
+            return MOVING_SPHERE;
+        } else if (type == Box.class) {
+            return BOX;
+        } else if (type == XYPlaneRectangle.class) {
+            return XY_RECTANGLE;
+        } else if (type == XZPlaneRectangle.class) {
+            return XZ_RECTANGLE;
+        } else if (type == YZPlaneRectangle.class) {
+            return YZ_RECTANGLE;
+        }
+        return OTHER;
+    }
+
+    public int size() {
+        return bucketOfPrimitive.length;
+    }
+
+    /**
+     * Hit test the primitive at a position, calling the hit method of its class directly.
+     *
+     * @param primitive position of the primitive in the list the buckets were built from
+     * @param ray       ray to test
+     * @param tMin      minimum ray extension scale
+     * @param tMax      maximum ray extension scale
+     * @param hitRecord filled in when the ray hits the primitive
+     * @return whether the ray hits the primitive between tMin and tMax
+     */
+    public boolean hit(final int primitive, final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord) {
+        if (TraversalStatistics.ENABLED) {
+            TraversalStatistics.countPrimitivesTested(1);
+        }
+        final int index = indexOfPrimitive[primitive];
+        switch (bucketOfPrimitive[primitive]) {
+            case SPHERE:
+                return spheres[index].hit(ray, tMin, tMax, hitRecord);
+            case MOVING_SPHERE:
+                return movingSpheres[index].hit(ray, tMin, tMax, hitRecord);
+            case BOX:
+                return boxes[index].hit(ray, tMin, tMax, hitRecord);
+            case XY_RECTANGLE:
+                return xyRectangles[index].hit(ray, tMin, tMax, hitRecord);
+            case XZ_RECTANGLE:
+                return xzRectangles[index].hit(ray, tMin, tMax, hitRecord);
+            case YZ_RECTANGLE:
+                return yzRectangles[index].hit(ray, tMin, tMax, hitRecord);
+            default:
+                return others[index].hit(ray, tMin, tMax, hitRecord);
+        }
+    }
+
+    /**
+     * Occlusion test of the primitive at a position, calling the occluded method of its class directly.
+     *
+     * @param primitive position of the primitive in the list the buckets were built from
+     * @param ray       ray to test
+     * @param tMin      minimum ray extension scale
+     * @param tMax      maximum ray extension scale
+     * @return whether the primitive blocks the ray between tMin and tMax
+     */
+    public boolean occluded(final int primitive, final Ray ray, final double tMin, final double tMax) {
+        if (TraversalStatistics.ENABLED) {
+            TraversalStatistics.countPrimitivesTested(1);
+        }
+        final int index = indexOfPrimitive[primitive];
+        switch (bucketOfPrimitive[primitive]) {
+            case SPHERE:
+                return spheres[index].occluded(ray, tMin, tMax);
+            case MOVING_SPHERE:
+                return movingSpheres[index].occluded(ray, tMin, tMax);
+            case BOX:
+                return boxes[index].occluded(ray, tMin, tMax);
+            case XY_RECTANGLE:
+                return xyRectangles[index].occluded(ray, tMin, tMax);
+            case XZ_RECTANGLE:
+                return xzRectangles[index].occluded(ray, tMin, tMax);
+            case YZ_RECTANGLE:
+                return yzRectangles[index].occluded(ray, tMin, tMax);
+            default:
+                return others[index].occluded(ray, tMin, tMax);
+        }
+    }
+
+    @Override
+    // Closest hit over all buckets, one loop per bucket so each loop has a single receiver class
+    public boolean hit(final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord) {
+        if (TraversalStatistics.ENABLED) {
+            TraversalStatistics.countPrimitivesTested(size());
+        }
+        double closestSoFar = tMax;
+        boolean hasRayHitSomething = false;
+        for (final Sphere sphere : spheres) {
+            if (sphere.hit(ray, tMin, closestSoFar, hitRecord)) {
+                hasRayHitSomething = true;
+                closestSoFar = hitRecord.getRayExtensionScale();
+            }
+        }
+        for (final MovingSphere movingSphere : movingSpheres) {
+            if (movingSphere.hit(ray, tMin, closestSoFar, hitRecord)) {
+                hasRayHitSomething = true;
+                closestSoFar = hitRecord.getRayExtensionScale();
+            }
+        }
+        for (final Box box : boxes) {
+            if (box.hit(ray, tMin, closestSoFar, hitRecord)) {
+                hasRayHitSomething = true;
+                closestSoFar = hitRecord.getRayExtensionScale();
+            }
+        }
+        for (final XYPlaneRectangle rectangle : xyRectangles) {
+            if (rectangle.hit(ray, tMin, closestSoFar, hitRecord)) {
+                hasRayHitSomething = true;
+                closestSoFar = hitRecord.getRayExtensionScale();
+            }
+        }
+        for (final XZPlaneRectangle rectangle : xzRectangles) {
+            if (rectangle.hit(ray, tMin, closestSoFar, hitRecord)) {
+                hasRayHitSomething = true;
+                closestSoFar = hitRecord.getRayExtensionScale();
+            }
+        }
+        for (final YZPlaneRectangle rectangle : yzRectangles) {
+            if (rectangle.hit(ray, tMin, closestSoFar, hitRecord)) {
+                hasRayHitSomething = true;
+                closestSoFar = hitRecord.getRayExtensionScale();
+            }
+        }
+        for (final Hittable other : others) {
+            if (other.hit(ray, tMin, closestSoFar, hitRecord)) {
+                hasRayHitSomething = true;
+                closestSoFar = hitRecord.getRayExtensionScale();
+            }
+        }
+        return hasRayHitSomething;
+    }
+
+    @Override
+    // First blocker found in any bucket, one loop per bucket like hit
+    public boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        if (TraversalStatistics.ENABLED) {
+            // One primitive at a time, so only the primitives tested before the blocker are counted
+            for (int i = 0; i < size(); i++) {
+                if (occluded(i, ray, tMin, tMax)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (final Sphere sphere : spheres) {
+            if (sphere.occluded(ray, tMin, tMax)) {
+                return true;
+            }
+        }
+        for (final MovingSphere movingSphere : movingSpheres) {
+            if (movingSphere.occluded(ray, tMin, tMax)) {
+                return true;
+            }
+        }
+        for (final Box box : boxes) {
+            if (box.occluded(ray, tMin, tMax)) {
+                return true;
+            }
+        }
+        for (final XYPlaneRectangle rectangle : xyRectangles) {
+            if (rectangle.occluded(ray, tMin, tMax)) {
+                return true;
+            }
+        }
+        for (final XZPlaneRectangle rectangle : xzRectangles) {
+            if (rectangle.occluded(ray, tMin, tMax)) {
+                return true;
+            }
+        }
+        for (final YZPlaneRectangle rectangle : yzRectangles) {
+            if (rectangle.occluded(ray, tMin, tMax)) {
+                return true;
+            }
+        }
+        for (final Hittable other : others) {
+            if (other.occluded(ray, tMin, tMax)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
+        AxisAlignedBoundingBox outputBoundingBox = null;
+        for (int i = 0; i < size(); i++) {
+            final AxisAlignedBoundingBox primitiveBoundingBox = primitive(i).boundingBox(tStart, tEnd);
+            if (primitiveBoundingBox == null) {
+                return null;
+            }
+            outputBoundingBox = outputBoundingBox == null ? primitiveBoundingBox : AxisAlignedBoundingBox.surroundingBox(outputBoundingBox, primitiveBoundingBox);
+        }
+        return outputBoundingBox;
+    }
+
+    private Hittable primitive(final int primitive) {
+        final int index = indexOfPrimitive[primitive];
+        switch (bucketOfPrimitive[primitive]) {
+            case SPHERE:
+                return spheres[index];
+            case MOVING_SPHERE:
+                return movingSpheres[index];
+            case BOX:
+                return boxes[index];
+            case XY_RECTANGLE:
+                return xyRectangles[index];
+            case XZ_RECTANGLE:
+                return xzRectangles[index];
+            case YZ_RECTANGLE:
+                return yzRectangles[index];
+            default:
+                return others[index];
+        }
+    }
+}
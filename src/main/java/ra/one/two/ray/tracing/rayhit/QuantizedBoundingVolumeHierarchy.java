@@ -0,0 +1,326 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy with four children per node and the child boxes quantized to 8 bits per coordinate, for
+ * scenes where memory and cache misses limit rendering before arithmetic does. A node is 16 ints, 64 bytes, so about
+ * one cache line holds what a binary hierarchy spreads over three nodes:
+ * <pre>
+ * 0-2   origin of the node grid, min x, y, z as float bits
+ * 3-5   size of a grid step along x, y, z as float bits
+ * 6-8   min x, y, z of the children in grid steps, one byte per child, child c in bits 8c to 8c + 7
+ * 9-11  max x, y, z of the children in grid steps, packed the same way
+ * 12-15 children, the index of a node or for a leaf -1 - (first primitive * 8 + primitive count), EMPTY for none
+ * </pre>
+ * A child box is origin + steps * step size, with the min rounded down and the max rounded up to whole steps, so it
+ * only ever grows. The build checks every coordinate with the same double arithmetic the traversal does and moves it
+ * out a step if rounding would put it inside the exact box, so no ray hitting a primitive misses its quantized box.
+ * <p>
+ * Built by collapsing the binary hierarchy of {@link FlattenedBoundingVolumeHierarchy}, every node takes in the
+ * largest grandchildren until it has four children. The hierarchy is built for one time window and not refitted.
+ */
+public class QuantizedBoundingVolumeHierarchy implements Accelerator {
+    private static final int NODE_INTS = 16;
+    private static final int WIDTH = 4;
+    private static final int ORIGIN = 0;
+    private static final int STEP = 3;
+    private static final int CHILD_MIN = 6;
+    private static final int CHILD_MAX = 9;
+    private static final int CHILDREN = 12;
+    private static final int EMPTY = Integer.MIN_VALUE;
+    private static final int STEPS = 255;
+    // Wide nodes are at most about half as deep as the binary ones, and a node pushes at most three children
+    private static final int TRAVERSAL_STACK_SIZE = 128;
+
+    private final int[] nodes;
+    private final int nodeCount;
+    private final AxisAlignedBoundingBox bounds;
+    // Primitives in leaf order, leaves reference a contiguous run of them
+    private final PrimitiveBuckets orderedPrimitiveBuckets;
+
+    /**
+     * @param primitives primitives to build over, all of them need a bounding box
+     * @param startTime  start time the bounding boxes need to cover
+     * @param endTime    end time the bounding boxes need to cover
+     */
+    public QuantizedBoundingVolumeHierarchy(final List<Hittable> primitives, final double startTime, final double endTime) {
+        final FlattenedBoundingVolumeHierarchy.Layout layout = FlattenedBoundingVolumeHierarchy.buildLayout(primitives, startTime, endTime);
+        final Builder builder = new Builder(layout);
+        builder.buildNode(0);
+        nodes = Arrays.copyOf(builder.nodes, builder.nodeCount * NODE_INTS);
+        nodeCount = builder.nodeCount;
+        final float[] binaryBounds = layout.getNodeBounds();
+        bounds = new AxisAlignedBoundingBox(new Vec3(binaryBounds[0], binaryBounds[1], binaryBounds[2]), new Vec3(binaryBounds[3], binaryBounds[4], binaryBounds[5]));
+
+        final int[] primitiveOrder = layout.getPrimitiveOrder();
+        final List<Hittable> orderedPrimitives = new ArrayList<>(primitiveOrder.length);
+        for (final int primitive : primitiveOrder) {
+            orderedPrimitives.add(primitives.get(primitive));
+        }
+        orderedPrimitiveBuckets = new PrimitiveBuckets(orderedPrimitives);
+    }
+
+    @Override
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        // The nodes, then the primitives in leaf order
+        return (long) nodes.length * Integer.BYTES + (long) orderedPrimitiveBuckets.size() * Long.BYTES;
+    }
+
+    @Override
+    public boolean hit(final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord) {
+        final double originX = ray.getOrigin().getXComponent();
+        final double originY = ray.getOrigin().getYComponent();
+        final double originZ = ray.getOrigin().getZComponent();
+        final double inverseX = 1.0 / ray.getDirection().getXComponent();
+        final double inverseY = 1.0 / ray.getDirection().getYComponent();
+        final double inverseZ = 1.0 / ray.getDirection().getZComponent();
+
+        final TraversalStack traversalStack = TraversalStack.forCurrentThread();
+        final int stackBase = traversalStack.reserve(TRAVERSAL_STACK_SIZE);
+        final int[] stackChildren = traversalStack.nodes;
+        final double[] stackEntries = traversalStack.distances;
+        stackChildren[stackBase] = 0;
+        stackEntries[stackBase] = tMin;
+        int stackSize = stackBase + 1;
+        double closestSoFar = tMax;
+        boolean hasRayHitSomething = false;
+        try {
+            while (stackSize > stackBase) {
+                stackSize--;
+                final int child = stackChildren[stackSize];
+                // Pushed before a closer hit was found further along
+                if (stackEntries[stackSize] > closestSoFar) {
+                    continue;
+                }
+                if (child < 0) {
+                    final int leaf = -1 - child;
+                    for (int i = leaf >>> 3; i < (leaf >>> 3) + (leaf & 7); i++) {
+                        if (orderedPrimitiveBuckets.hit(i, ray, tMin, closestSoFar, hitRecord)) {
+                            hasRayHitSomething = true;
+                            closestSoFar = hitRecord.getRayExtensionScale();
+                        }
+                    }
+                    continue;
+                }
+
+                if (TraversalStatistics.ENABLED) {
+                    TraversalStatistics.countNodeVisited();
+                }
+                // Children the ray passes through, pushed sorted far to near so the nearest ends up on top of the stack
+                stackSize += hitChildren(child, originX, originY, originZ, inverseX, inverseY, inverseZ, tMin, closestSoFar, stackChildren, stackEntries, stackSize);
+            }
+        } finally {
+            traversalStack.release(stackBase);
+        }
+        return hasRayHitSomething;
+    }
+
+    @Override
+    public boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        final double originX = ray.getOrigin().getXComponent();
+        final double originY = ray.getOrigin().getYComponent();
+        final double originZ = ray.getOrigin().getZComponent();
+        final double inverseX = 1.0 / ray.getDirection().getXComponent();
+        final double inverseY = 1.0 / ray.getDirection().getYComponent();
+        final double inverseZ = 1.0 / ray.getDirection().getZComponent();
+
+        final TraversalStack traversalStack = TraversalStack.forCurrentThread();
+        final int stackBase = traversalStack.reserve(TRAVERSAL_STACK_SIZE);
+        final int[] stackChildren = traversalStack.nodes;
+        final double[] stackEntries = traversalStack.distances;
+        stackChildren[stackBase] = 0;
+        int stackSize = stackBase + 1;
+        try {
+            while (stackSize > stackBase) {
+                final int child = stackChildren[--stackSize];
+                if (child < 0) {
+                    final int leaf = -1 - child;
+                    for (int i = leaf >>> 3; i < (leaf >>> 3) + (leaf & 7); i++) {
+                        if (orderedPrimitiveBuckets.occluded(i, ray, tMin, tMax)) {
+                            return true;
+                        }
+                    }
+                    continue;
+                }
+                if (TraversalStatistics.ENABLED) {
+                    TraversalStatistics.countNodeVisited();
+                }
+                // Near ones first still pays, blockers near the origin are found before the far side is opened
+                stackSize += hitChildren(child, originX, originY, originZ, inverseX, inverseY, inverseZ, tMin, tMax, stackChildren, stackEntries, stackSize);
+            }
+        } finally {
+            traversalStack.release(stackBase);
+        }
+        return false;
+    }
+
+    // Slab test of the ray against every child box of a node, the children hit go into hitChildren from index first on,
+    // sorted by their entry distance from far to near. Returns how many were hit
+    private int hitChildren(final int node, final double originX, final double originY, final double originZ,
+                            final double inverseX, final double inverseY, final double inverseZ, final double tMin, final double tMax,
+                            final int[] hitChildren, final double[] hitEntries, final int first) {
+        final int base = node * NODE_INTS;
+        final double gridX = Float.intBitsToFloat(nodes[base + ORIGIN]);
+        final double gridY = Float.intBitsToFloat(nodes[base + ORIGIN + 1]);
+        final double gridZ = Float.intBitsToFloat(nodes[base + ORIGIN + 2]);
+        final double stepX = Float.intBitsToFloat(nodes[base + STEP]);
+        final double stepY = Float.intBitsToFloat(nodes[base + STEP + 1]);
+        final double stepZ = Float.intBitsToFloat(nodes[base + STEP + 2]);
+        final int minX = nodes[base + CHILD_MIN];
+        final int minY = nodes[base + CHILD_MIN + 1];
+        final int minZ = nodes[base + CHILD_MIN + 2];
+        final int maxX = nodes[base + CHILD_MAX];
+        final int maxY = nodes[base + CHILD_MAX + 1];
+        final int maxZ = nodes[base + CHILD_MAX + 2];
+        int hitCount = 0;
+        for (int c = 0; c < WIDTH; c++) {
+            final int child = nodes[base + CHILDREN + c];
+            if (child == EMPTY) {
+                break;
+            }
+            final int shift = 8 * c;
+            double near = (gridX + ((minX >>> shift) & 0xFF) * stepX - originX) * inverseX;
+            double far = (gridX + ((maxX >>> shift) & 0xFF) * stepX - originX) * inverseX;
+            double entry = Math.max(tMin, Math.min(near, far));
+            double exit = Math.min(tMax, Math.max(near, far));
+            near = (gridY + ((minY >>> shift) & 0xFF) * stepY - originY) * inverseY;
+            far = (gridY + ((maxY >>> shift) & 0xFF) * stepY - originY) * inverseY;
+            entry = Math.max(entry, Math.min(near, far));
+            exit = Math.min(exit, Math.max(near, far));
+            near = (gridZ + ((minZ >>> shift) & 0xFF) * stepZ - originZ) * inverseZ;
+            far = (gridZ + ((maxZ >>> shift) & 0xFF) * stepZ - originZ) * inverseZ;
+            entry = Math.max(entry, Math.min(near, far));
+            exit = Math.min(exit, Math.max(near, far));
+            if (entry <= exit) {
+                // Insertion sort, at most four of them
+                int i = first + hitCount++;
+                while (i > first && hitEntries[i - 1] < entry) {
+                    hitChildren[i] = hitChildren[i - 1];
+                    hitEntries[i] = hitEntries[i - 1];
+                    i--;
+                }
+                hitChildren[i] = child;
+                hitEntries[i] = entry;
+            }
+        }
+        return hitCount;
+    }
+
+    @Override
+    public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
+        return bounds;
+    }
+
+    // Collapses the binary layout into wide nodes top down, depth first
+    private static class Builder {
+        private final float[] binaryBounds;
+        private final int[] binaryOffsets;
+        private final int[] binaryPrimitiveCounts;
+        private int[] nodes = new int[64 * NODE_INTS];
+        private int nodeCount = 0;
+
+        private Builder(final FlattenedBoundingVolumeHierarchy.Layout layout) {
+            binaryBounds = layout.getNodeBounds();
+            binaryOffsets = layout.getNodeOffsets();
+            binaryPrimitiveCounts = layout.getNodePrimitiveCounts();
+        }
+
+        private int buildNode(final int binaryNode) {
+            // Open up the largest interior child until there are four children or only leaves
+            final List<Integer> children = new ArrayList<>(WIDTH);
+            children.add(binaryNode);
+            while (children.size() < WIDTH) {
+                int largest = -1;
+                for (int i = 0; i < children.size(); i++) {
+                    if (!isLeaf(children.get(i)) && (largest < 0 || surfaceArea(children.get(i)) > surfaceArea(children.get(largest)))) {
+                        largest = i;
+                    }
+                }
+                if (largest < 0) {
+                    break;
+                }
+                final int opened = children.remove(largest);
+                children.add(opened + 1);
+                children.add(binaryOffsets[opened]);
+            }
+
+            final int node = nodeCount++;
+            if (nodeCount * NODE_INTS > nodes.length) {
+                nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+            }
+            final int base = node * NODE_INTS;
+            for (int axis = 0; axis < 3; axis++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (final int child : children) {
+                    min = Math.min(min, binaryBounds[6 * child + axis]);
+                    max = Math.max(max, binaryBounds[6 * child + 3 + axis]);
+                }
+                // The binary bounds are floats already, so the min is exact as the grid origin
+                final float origin = (float) min;
+                float step = (float) ((max - min) / STEPS);
+                while (origin + STEPS * (double) step < max) {
+                    step = Math.nextUp(step);
+                }
+                nodes[base + ORIGIN + axis] = Float.floatToRawIntBits(origin);
+                nodes[base + STEP + axis] = Float.floatToRawIntBits(step);
+                for (int c = 0; c < children.size(); c++) {
+                    final int child = children.get(c);
+                    nodes[base + CHILD_MIN + axis] |= quantizeDown(binaryBounds[6 * child + axis], origin, step) << (8 * c);
+                    nodes[base + CHILD_MAX + axis] |= quantizeUp(binaryBounds[6 * child + 3 + axis], origin, step) << (8 * c);
+                }
+            }
+            Arrays.fill(nodes, base + CHILDREN, base + CHILDREN + WIDTH, EMPTY);
+            for (int c = 0; c < children.size(); c++) {
+                final int child = children.get(c);
+                final int reference = isLeaf(child)
+                        ? -1 - (binaryOffsets[child] * 8 + binaryPrimitiveCounts[child])
+                        : buildNode(child);
+                // Building the child may have grown the array, write through the field
+                nodes[base + CHILDREN + c] = reference;
+            }
+            return node;
+        }
+
+        private boolean isLeaf(final int binaryNode) {
+            return binaryPrimitiveCounts[binaryNode] > 0;
+        }
+
+        private double surfaceArea(final int binaryNode) {
+            final double x = binaryBounds[6 * binaryNode + 3] - binaryBounds[6 * binaryNode];
+            final double y = binaryBounds[6 * binaryNode + 4] - binaryBounds[6 * binaryNode + 1];
+            final double z = binaryBounds[6 * binaryNode + 5] - binaryBounds[6 * binaryNode + 2];
+            return 2 * (x * y + y * z + z * x);
+        }
+
+        // Steps from the origin to a min coordinate, rounded down until the traversal's double arithmetic lands at or below it
+        private static int quantizeDown(final double value, final float origin, final float step) {
+            int steps = step == 0 ? 0 : Math.max(0, Math.min(STEPS, (int) Math.floor((value - origin) / step)));
+            while (steps > 0 && origin + steps * (double) step > value) {
+                steps--;
+            }
+            return steps;
+        }
+
+        // Steps from the origin to a max coordinate, rounded up until the traversal's double arithmetic lands at or above it
+        private static int quantizeUp(final double value, final float origin, final float step) {
+            int steps = step == 0 ? 0 : Math.max(0, Math.min(STEPS, (int) Math.ceil((value - origin) / step)));
+            while (steps < STEPS && origin + steps * (double) step < value) {
+                steps++;
+            }
+            return steps;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Caller owned record of the span of ray extension scales over which a ray is inside a closed object.
+ * Participating media use this to find where a ray enters and leaves their boundary with a single query,
+ * the same instance is reused for every query made from a thread so there is nothing to allocate per hit.
+ */
+public class RayInterval {
+
+    // the parameter t of P(t) = Origin + t * Direction at which the ray enters the object
+    @Getter
+    @Setter
+    private double entryRayExtension;
+
+    // the parameter t of P(t) = Origin + t * Direction at which the ray leaves the object
+    @Getter
+    @Setter
+    private double exitRayExtension;
+
+    // Objects that can only answer closest hit queries find the interval with two hits, they record those here.
+    @Getter
+    private final HitRecord scratchHitRecord = new HitRecord();
+}
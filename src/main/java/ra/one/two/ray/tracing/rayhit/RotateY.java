@@ -7,7 +7,6 @@ import ra.one.two.ray.tracing.primitives.ray.Ray;
 public class RotateY implements Hittable {
     private final double angle;
     private final Hittable rotationTarget;
-    private final AxisAlignedBoundingBox boundingBoxAfterRotation;
     private final double sinTheta;
     private final double cosTheta;
 
@@ -17,39 +16,12 @@ public class RotateY implements Hittable {
         final double radians = Math.toRadians(angle);
         sinTheta = Math.sin(radians);
         cosTheta = Math.cos(radians);
-        final AxisAlignedBoundingBox boundingBoxWithoutRotation = rotationTarget.boundingBox(0, 1);
-
-        Vec3 min = new Vec3(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
-        Vec3 max = new Vec3(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
-
-        for (int i = 0; i < 2; i++) {
-            for (int j = 0; j < 2; j++) {
-                for (int k = 0; k < 2; k++) {
-                    final double x = i * boundingBoxWithoutRotation.getMax().getXComponent() + (1 - i) * boundingBoxWithoutRotation.getMin().getXComponent();
-                    final double y = j * boundingBoxWithoutRotation.getMax().getYComponent() + (1 - j) * boundingBoxWithoutRotation.getMin().getYComponent();
-                    final double z = k * boundingBoxWithoutRotation.getMax().getZComponent() + (1 - k) * boundingBoxWithoutRotation.getMin().getZComponent();
-                    final double newx = cosTheta * x + sinTheta * z;
-                    final double newz = -sinTheta * x + cosTheta * z;
-                    min = new Vec3(Math.min(min.getXComponent(), newx), y, Math.min(min.getZComponent(), newz));
-                    max = new Vec3(Math.max(max.getXComponent(), newx), y, Math.max(max.getZComponent(), newz));
-                }
-            }
-        }
-
-        boundingBoxAfterRotation = new AxisAlignedBoundingBox(min, max);
     }
 
     @Override
     public boolean hit(Ray ray, double tMin, double tMax, HitRecord hitRecord) {
 
-        double rotatedRayOriginX = cosTheta * ray.getOrigin().getXComponent() - sinTheta * ray.getOrigin().getZComponent();
-        double rotatedRayOriginZ = sinTheta * ray.getOrigin().getXComponent() + cosTheta * ray.getOrigin().getZComponent();
-
-        double rotatedRayDirectionX = cosTheta * ray.getDirection().getXComponent() - sinTheta * ray.getDirection().getZComponent();
-        double rotatedRayDirectionZ = sinTheta * ray.getDirection().getXComponent() + cosTheta * ray.getDirection().getZComponent();
-
-        final Ray rotatedRay = new Ray(new Vec3(rotatedRayOriginX, ray.getOrigin().getYComponent(), rotatedRayOriginZ),
-                new Vec3(rotatedRayDirectionX, ray.getDirection().getYComponent(), rotatedRayDirectionZ), ray.getRayFireTime());
+        final Ray rotatedRay = rotateRay(ray);
 
         if (!rotationTarget.hit(rotatedRay, tMin, tMax, hitRecord)) {
             return false;
@@ -67,8 +39,62 @@ public class RotateY implements Hittable {
         return true;
     }
 
+    @Override
+    public boolean occluded(Ray ray, double tMin, double tMax) {
+        // Nothing to rotate back without a hit record, only the ray is rotated
+        return rotationTarget.occluded(rotateRay(ray), tMin, tMax);
+    }
+
+    @Override
+    public boolean hitInterval(Ray ray, double tMin, double tMax, RayInterval interval) {
+        // Rotating the ray does not change its parametrisation so the interval is the same as for the rotated ray
+        return rotationTarget.hitInterval(rotateRay(ray), tMin, tMax, interval);
+    }
+
     @Override
     public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
-        return boundingBoxAfterRotation;
+        final AxisAlignedBoundingBox boundingBoxWithoutRotation = rotationTarget.boundingBox(tStart, tEnd);
+        return boundingBoxWithoutRotation == null ? null : rotatedBoundingBox(boundingBoxWithoutRotation, sinTheta, cosTheta);
+    }
+
+    /**
+     * Box around a box rotated about the y axis, i.e. around its 8 rotated corners.
+     *
+     * @param box      box to rotate
+     * @param sinTheta sine of the rotation angle
+     * @param cosTheta cosine of the rotation angle
+     * @return box around the rotated box
+     */
+    static AxisAlignedBoundingBox rotatedBoundingBox(final AxisAlignedBoundingBox box, final double sinTheta, final double cosTheta) {
+        double minX = Double.POSITIVE_INFINITY;
+        double minZ = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxZ = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < 2; i++) {
+            for (int k = 0; k < 2; k++) {
+                final double x = i * box.getMax().getXComponent() + (1 - i) * box.getMin().getXComponent();
+                final double z = k * box.getMax().getZComponent() + (1 - k) * box.getMin().getZComponent();
+                // Inverse of the rotation applied to rays in rotateRay, this takes object space to world space
+                final double newx = cosTheta * x + sinTheta * z;
+                final double newz = -sinTheta * x + cosTheta * z;
+                minX = Math.min(minX, newx);
+                maxX = Math.max(maxX, newx);
+                minZ = Math.min(minZ, newz);
+                maxZ = Math.max(maxZ, newz);
+            }
+        }
+        // Rotation about y leaves y alone
+        return new AxisAlignedBoundingBox(new Vec3(minX, box.getMin().getYComponent(), minZ), new Vec3(maxX, box.getMax().getYComponent(), maxZ));
+    }
+
+    private Ray rotateRay(final Ray ray) {
+        double rotatedRayOriginX = cosTheta * ray.getOrigin().getXComponent() - sinTheta * ray.getOrigin().getZComponent();
+        double rotatedRayOriginZ = sinTheta * ray.getOrigin().getXComponent() + cosTheta * ray.getOrigin().getZComponent();
+
+        double rotatedRayDirectionX = cosTheta * ray.getDirection().getXComponent() - sinTheta * ray.getDirection().getZComponent();
+        double rotatedRayDirectionZ = sinTheta * ray.getDirection().getXComponent() + cosTheta * ray.getDirection().getZComponent();
+
+        return new Ray(new Vec3(rotatedRayOriginX, ray.getOrigin().getYComponent(), rotatedRayOriginZ),
+                new Vec3(rotatedRayDirectionX, ray.getDirection().getYComponent(), rotatedRayDirectionZ), ray.getRayFireTime());
     }
 }
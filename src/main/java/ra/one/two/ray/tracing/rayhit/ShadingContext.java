@@ -0,0 +1,75 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+
+/**
+ * Record that materials and textures write their results into instead of returning new objects, so shading a hit
+ * allocates nothing. Takes the place of ScatterResult and of the colors returned by Texture.value and Material.emitted.
+ * There is one per thread, see forCurrentThread, and every call made with it overwrites what the previous call wrote,
+ * so callers copy out what they need before shading the next hit.
+ */
+public class ShadingContext {
+    private static final ThreadLocal<ShadingContext> CONTEXTS = ThreadLocal.withInitial(ShadingContext::new);
+
+    // Set by Material.scatter, the color the scattered light is multiplied by, red, green and blue
+    public final double[] attenuation = new double[3];
+    // Set by Material.scatter when the ray scattered, the ray leaving the hit. The direction need not be unit length
+    public double scatteredOriginX;
+    public double scatteredOriginY;
+    public double scatteredOriginZ;
+    public double scatteredDirectionX;
+    public double scatteredDirectionY;
+    public double scatteredDirectionZ;
+    // Set by Texture.value and Material.emitted, red, green and blue
+    public final double[] color = new double[3];
+
+    /**
+     * @return the context of the calling thread
+     */
+    public static ShadingContext forCurrentThread() {
+        return CONTEXTS.get();
+    }
+
+    public void setAttenuation(final double red, final double green, final double blue) {
+        attenuation[0] = red;
+        attenuation[1] = green;
+        attenuation[2] = blue;
+    }
+
+    public void setColor(final double red, final double green, final double blue) {
+        color[0] = red;
+        color[1] = green;
+        color[2] = blue;
+    }
+
+    public void setScatteredRay(final Vec3 origin, final double directionX, final double directionY, final double directionZ) {
+        scatteredOriginX = origin.getXComponent();
+        scatteredOriginY = origin.getYComponent();
+        scatteredOriginZ = origin.getZComponent();
+        scatteredDirectionX = directionX;
+        scatteredDirectionY = directionY;
+        scatteredDirectionZ = directionZ;
+    }
+
+    /**
+     * What the context holds after a scatter call, for the materials to hand out through the scatter returning a
+     * ScatterResult.
+     *
+     * @param scattered   whether scatter reported the ray scattered
+     * @param rayFireTime time of the ray that was scattered
+     * @return attenuation and scattered ray, the ray is null when the ray was absorbed
+     */
+    public ScatterResult toScatterResult(final boolean scattered, final double rayFireTime) {
+        return new ScatterResult(new Vec3(attenuation[0], attenuation[1], attenuation[2]), scattered ? scatteredRay(rayFireTime) : null);
+    }
+
+    /**
+     * @param rayFireTime time of the ray that was scattered
+     * @return the scattered ray as a Ray, for callers tracing it further
+     */
+    public Ray scatteredRay(final double rayFireTime) {
+        return new Ray(new Vec3(scatteredOriginX, scatteredOriginY, scatteredOriginZ),
+                new Vec3(scatteredDirectionX, scatteredDirectionY, scatteredDirectionZ), rayFireTime);
+    }
+}
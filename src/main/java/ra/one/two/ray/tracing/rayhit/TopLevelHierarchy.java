@@ -0,0 +1,122 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import lombok.Getter;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Acceleration structure over the top level objects of a world. Objects with a bounding box go into a hierarchy, so the
+ * cost of a ray grows with the log of the object count instead of linearly. Objects without a bounding box, and objects
+ * about as big as the whole scene like a fog sphere around everything, would be hit by every ray anyway and only blow up
+ * the boxes of the hierarchy, so they stay in a short list tested after the hierarchy with tMax tightened to its hit.
+ * A world of only a few bounded objects is faster to loop over than to traverse, those go into the list as well.
+ */
+public class TopLevelHierarchy implements Hittable {
+    // Objects whose box has at least this share of the surface area of the box around all bounded objects stay out of the hierarchy
+    private static final double SCENE_SIZED_SURFACE_AREA_FRACTION = 0.5;
+    // Fewer bounded objects than this are looped over with the large ones, the traversal would cost more than it saves.
+    // The nine objects of the built in scene trace camera rays about a third faster looped over than in a hierarchy
+    private static final int MIN_OBJECTS_IN_HIERARCHY = 16;
+
+    /**
+     * Hierarchy over the bounded objects, null when there are too few of them. Animated scenes refit it after the
+     * hierarchies of the groups it contains.
+     */
+    @Getter
+    private final FlattenedBoundingVolumeHierarchy hierarchy;
+    // Objects without a box or about as big as the scene, plus the bounded ones when there are too few of them for a
+    // hierarchy. Few enough that a loop over them is fine
+    private final PrimitiveBuckets listedObjects;
+
+    /**
+     * @param objects   top level objects of the world
+     * @param startTime start time the bounding boxes need to cover
+     * @param endTime   end time the bounding boxes need to cover
+     */
+    public TopLevelHierarchy(final List<? extends Hittable> objects, final double startTime, final double endTime) {
+        // A fog sphere around everything would make the box of all objects as big as itself and nothing else would look
+        // scene sized next to it. So the objects scene sized next to all bounded objects are set aside first, then the
+        // scene is the box of the rest and what is scene sized next to that is set aside as well
+        final List<Hittable> boundedObjects = new ArrayList<>();
+        final List<Hittable> otherObjects = new ArrayList<>();
+        for (final Hittable object : objects) {
+            if (object.boundingBox(startTime, endTime) == null) {
+                otherObjects.add(object);
+            } else {
+                boundedObjects.add(object);
+            }
+        }
+        for (int pass = 0; pass < 2 && !boundedObjects.isEmpty(); pass++) {
+            AxisAlignedBoundingBox sceneBox = null;
+            for (final Hittable object : boundedObjects) {
+                final AxisAlignedBoundingBox box = object.boundingBox(startTime, endTime);
+                sceneBox = sceneBox == null ? box : AxisAlignedBoundingBox.surroundingBox(sceneBox, box);
+            }
+            final double sceneSizedSurfaceArea = SCENE_SIZED_SURFACE_AREA_FRACTION * surfaceArea(sceneBox);
+            for (final Iterator<Hittable> iterator = boundedObjects.iterator(); iterator.hasNext(); ) {
+                final Hittable object = iterator.next();
+                if (surfaceArea(object.boundingBox(startTime, endTime)) >= sceneSizedSurfaceArea) {
+                    otherObjects.add(object);
+                    iterator.remove();
+                }
+            }
+        }
+        if (boundedObjects.size() < MIN_OBJECTS_IN_HIERARCHY) {
+            otherObjects.addAll(boundedObjects);
+            this.hierarchy = null;
+        } else {
+            this.hierarchy = new FlattenedBoundingVolumeHierarchy(boundedObjects, startTime, endTime);
+        }
+        this.listedObjects = new PrimitiveBuckets(otherObjects);
+    }
+
+    private static double surfaceArea(final AxisAlignedBoundingBox box) {
+        final double x = box.getMax().getXComponent() - box.getMin().getXComponent();
+        final double y = box.getMax().getYComponent() - box.getMin().getYComponent();
+        final double z = box.getMax().getZComponent() - box.getMin().getZComponent();
+        return 2 * (x * y + y * z + z * x);
+    }
+
+    /**
+     * @return number of top level objects looped over rather than kept in the hierarchy
+     */
+    public int getListedObjectCount() {
+        return listedObjects.size();
+    }
+
+    @Override
+    public boolean hit(final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord) {
+        double closestSoFar = tMax;
+        boolean hasRayHitSomething = false;
+        if (hierarchy != null && hierarchy.hit(ray, tMin, closestSoFar, hitRecord)) {
+            hasRayHitSomething = true;
+            closestSoFar = hitRecord.getRayExtensionScale();
+        }
+        if (listedObjects.hit(ray, tMin, closestSoFar, hitRecord)) {
+            hasRayHitSomething = true;
+        }
+        return hasRayHitSomething;
+    }
+
+    @Override
+    public boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        return (hierarchy != null && hierarchy.occluded(ray, tMin, tMax)) || listedObjects.occluded(ray, tMin, tMax);
+    }
+
+    @Override
+    public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
+        final AxisAlignedBoundingBox listedObjectsBox = listedObjects.size() == 0 ? null : listedObjects.boundingBox(tStart, tEnd);
+        if (listedObjects.size() > 0 && listedObjectsBox == null) {
+            return null;
+        }
+        if (hierarchy == null) {
+            return listedObjectsBox;
+        }
+        final AxisAlignedBoundingBox hierarchyBox = hierarchy.boundingBox(tStart, tEnd);
+        return listedObjectsBox == null ? hierarchyBox : AxisAlignedBoundingBox.surroundingBox(hierarchyBox, listedObjectsBox);
+    }
+}
@@ -23,12 +23,25 @@ public class Translate implements Hittable {
         return true;
     }
 
+    @Override
+    public boolean occluded(Ray ray, double tMin, double tMax) {
+        return translationTarget.occluded(new Ray(Vec3.subtract(ray.getOrigin(), offset), ray.getDirection(), ray.getRayFireTime()), tMin, tMax);
+    }
+
+    @Override
+    public boolean hitInterval(Ray ray, double tMin, double tMax, RayInterval interval) {
+        // Moving the ray does not change its parametrisation so the interval is the same as for the moved ray
+        final Ray movedRay = new Ray(Vec3.subtract(ray.getOrigin(), offset), ray.getDirection(), ray.getRayFireTime());
+        return translationTarget.hitInterval(movedRay, tMin, tMax, interval);
+    }
+
     @Override
     public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
         final AxisAlignedBoundingBox boundingBoxUntranslate = translationTarget.boundingBox(tStart, tEnd);
         if (boundingBoxUntranslate == null) {
             return null;
         }
-        return new AxisAlignedBoundingBox(boundingBoxUntranslate.getMin().add(offset), boundingBoxUntranslate.getMax().add(offset));
+        // Static add, the target may hand out its own corners e.g. Box does
+        return new AxisAlignedBoundingBox(Vec3.add(boundingBoxUntranslate.getMin(), offset), Vec3.add(boundingBoxUntranslate.getMax(), offset));
     }
 }
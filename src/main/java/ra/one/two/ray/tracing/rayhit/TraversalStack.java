@@ -0,0 +1,48 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import java.util.Arrays;
+
+/**
+ * Per thread scratch stack the hierarchies traverse with, so tracing a ray allocates no stack. Hierarchies nest, a
+ * primitive of one can be another, so a traversal takes its part above whatever the traversals around it hold and gives
+ * it back when done. Growing replaces the arrays, a traversal keeps using the arrays it started with and the ones
+ * around it still have their entries in theirs.
+ */
+final class TraversalStack {
+    private static final int INITIAL_SIZE = 512;
+    private static final ThreadLocal<TraversalStack> STACKS = ThreadLocal.withInitial(TraversalStack::new);
+
+    // Node or child entries of the traversals in progress
+    int[] nodes = new int[INITIAL_SIZE];
+    // Entry distances along the ray, for traversals that keep them next to the nodes
+    double[] distances = new double[INITIAL_SIZE];
+    private int top = 0;
+
+    private TraversalStack() {
+    }
+
+    static TraversalStack forCurrentThread() {
+        return STACKS.get();
+    }
+
+    /**
+     * Take entries above the ones in use, read the arrays after this call.
+     *
+     * @param size number of entries the traversal needs
+     * @return index of the first entry taken, pass it to release when the traversal is done
+     */
+    int reserve(final int size) {
+        final int base = top;
+        top += size;
+        if (top > nodes.length) {
+            final int grownSize = Math.max(2 * nodes.length, top);
+            nodes = Arrays.copyOf(nodes, grownSize);
+            distances = Arrays.copyOf(distances, grownSize);
+        }
+        return base;
+    }
+
+    void release(final int base) {
+        top = base;
+    }
+}
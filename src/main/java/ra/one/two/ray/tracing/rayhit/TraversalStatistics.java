@@ -0,0 +1,39 @@
+package ra.one.two.ray.tracing.rayhit;
+
+/**
+ * Per thread count of the work intersecting rays takes: nodes visited, grid cells for a grid, and primitives tested.
+ * The cost heatmaps read it before and after each pixel. Counting only happens when the system property
+ * traversal.statistics is true as this class loads, ENABLED is then a constant the JIT folds the counting away on, so
+ * a normal render does not pay for it.
+ */
+public final class TraversalStatistics {
+    public static final boolean ENABLED = Boolean.getBoolean("traversal.statistics");
+
+    // Nodes visited and primitives tested by each thread
+    private static final ThreadLocal<long[]> COUNTS = ThreadLocal.withInitial(() -> new long[2]);
+
+    private TraversalStatistics() {
+    }
+
+    static void countNodeVisited() {
+        COUNTS.get()[0]++;
+    }
+
+    static void countPrimitivesTested(final int primitives) {
+        COUNTS.get()[1] += primitives;
+    }
+
+    /**
+     * @return nodes visited by the calling thread so far, always 0 unless counting is enabled
+     */
+    public static long getNodesVisitedByCurrentThread() {
+        return COUNTS.get()[0];
+    }
+
+    /**
+     * @return primitives tested by the calling thread so far, always 0 unless counting is enabled
+     */
+    public static long getPrimitivesTestedByCurrentThread() {
+        return COUNTS.get()[1];
+    }
+}
@@ -0,0 +1,279 @@
+package ra.one.two.ray.tracing.rayhit;
+
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid over the bounding box of its primitives, every cell listing the primitives whose bounding box overlaps it.
+ * A ray walks the cells it passes through in order with the 3D-DDA of Amanatides and Woo "A Fast Voxel Traversal
+ * Algorithm for Ray Tracing", so there is no tree to descend and the walk stops at the first cell that holds a hit.
+ * Works best for many primitives of about the same size spread evenly, e.g. a floor of boxes or a particle set, and
+ * worst for a few big primitives with small ones clustered somewhere.
+ * <p>
+ * A primitive can sit in several cells and is tested again in every one of them, a hit in a cell further along is kept
+ * but only ends the walk once the walk gets to that cell. The grid is built for one time window and not refitted.
+ */
+public class UniformGrid implements Accelerator {
+    // Cells per primitive the resolution aims for, Pharr, Jakob and Humphreys suggest about 3
+    private static final double CELLS_PER_PRIMITIVE = 3;
+    private static final int MAX_RESOLUTION = 128;
+
+    private final double minX;
+    private final double minY;
+    private final double minZ;
+    private final double maxX;
+    private final double maxY;
+    private final double maxZ;
+    private final int resolutionX;
+    private final int resolutionY;
+    private final int resolutionZ;
+    private final double cellSizeX;
+    private final double cellSizeY;
+    private final double cellSizeZ;
+    // Primitives of cell c are cellPrimitives[cellStarts[c]] up to cellPrimitives[cellStarts[c + 1]], cells in x then y then z order
+    private final int[] cellStarts;
+    private final int[] cellPrimitives;
+    private final PrimitiveBuckets primitiveBuckets;
+
+    /**
+     * @param primitives primitives to build over, all of them need a bounding box
+     * @param startTime  start time the bounding boxes need to cover
+     * @param endTime    end time the bounding boxes need to cover
+     */
+    public UniformGrid(final List<Hittable> primitives, final double startTime, final double endTime) {
+        final int count = primitives.size();
+        if (count == 0) {
+            throw new IllegalArgumentException("Can not build a grid over no primitives");
+        }
+        final double[] primitiveBounds = new double[6 * count];
+        final double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < count; i++) {
+            final AxisAlignedBoundingBox box = primitives.get(i).boundingBox(startTime, endTime);
+            if (box == null) {
+                throw new IllegalArgumentException("Primitive " + i + " has no bounding box and can not go in a grid");
+            }
+            primitiveBounds[6 * i] = box.getMin().getXComponent();
+            primitiveBounds[6 * i + 1] = box.getMin().getYComponent();
+            primitiveBounds[6 * i + 2] = box.getMin().getZComponent();
+            primitiveBounds[6 * i + 3] = box.getMax().getXComponent();
+            primitiveBounds[6 * i + 4] = box.getMax().getYComponent();
+            primitiveBounds[6 * i + 5] = box.getMax().getZComponent();
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[axis] = Math.min(bounds[axis], primitiveBounds[6 * i + axis]);
+                bounds[3 + axis] = Math.max(bounds[3 + axis], primitiveBounds[6 * i + 3 + axis]);
+            }
+        }
+        minX = bounds[0];
+        minY = bounds[1];
+        minZ = bounds[2];
+        maxX = bounds[3];
+        maxY = bounds[4];
+        maxZ = bounds[5];
+
+        // Cubic cells, as many as CELLS_PER_PRIMITIVE per primitive. A flat group has no volume, it is divided by its area
+        // instead, and a thin line of primitives by its length
+        final double extentX = maxX - minX;
+        final double extentY = maxY - minY;
+        final double extentZ = maxZ - minZ;
+        final double largestExtent = Math.max(extentX, Math.max(extentY, extentZ));
+        double measure = 1;
+        int dimensions = 0;
+        for (final double extent : new double[]{extentX, extentY, extentZ}) {
+            if (extent > largestExtent * 1e-3) {
+                measure *= extent;
+                dimensions++;
+            }
+        }
+        final double cellsPerUnitLength = dimensions == 0 ? 0 : Math.pow(CELLS_PER_PRIMITIVE * count / measure, 1.0 / dimensions);
+        resolutionX = resolution(extentX, cellsPerUnitLength);
+        resolutionY = resolution(extentY, cellsPerUnitLength);
+        resolutionZ = resolution(extentZ, cellsPerUnitLength);
+        cellSizeX = extentX / resolutionX;
+        cellSizeY = extentY / resolutionY;
+        cellSizeZ = extentZ / resolutionZ;
+
+        // Count the primitives of every cell first, then fill them in at the offsets the counts give
+        final int cellCount = resolutionX * resolutionY * resolutionZ;
+        cellStarts = new int[cellCount + 1];
+        final int[] cellRanges = new int[6 * count];
+        for (int i = 0; i < count; i++) {
+            cellRanges[6 * i] = cellIndex(primitiveBounds[6 * i], minX, cellSizeX, resolutionX);
+            cellRanges[6 * i + 1] = cellIndex(primitiveBounds[6 * i + 1], minY, cellSizeY, resolutionY);
+            cellRanges[6 * i + 2] = cellIndex(primitiveBounds[6 * i + 2], minZ, cellSizeZ, resolutionZ);
+            cellRanges[6 * i + 3] = cellIndex(primitiveBounds[6 * i + 3], minX, cellSizeX, resolutionX);
+            cellRanges[6 * i + 4] = cellIndex(primitiveBounds[6 * i + 4], minY, cellSizeY, resolutionY);
+            cellRanges[6 * i + 5] = cellIndex(primitiveBounds[6 * i + 5], minZ, cellSizeZ, resolutionZ);
+            for (int z = cellRanges[6 * i + 2]; z <= cellRanges[6 * i + 5]; z++) {
+                for (int y = cellRanges[6 * i + 1]; y <= cellRanges[6 * i + 4]; y++) {
+                    for (int x = cellRanges[6 * i]; x <= cellRanges[6 * i + 3]; x++) {
+                        cellStarts[cell(x, y, z) + 1]++;
+                    }
+                }
+            }
+        }
+        for (int cell = 0; cell < cellCount; cell++) {
+            cellStarts[cell + 1] += cellStarts[cell];
+        }
+        cellPrimitives = new int[cellStarts[cellCount]];
+        final int[] cellFill = Arrays.copyOf(cellStarts, cellCount);
+        for (int i = 0; i < count; i++) {
+            for (int z = cellRanges[6 * i + 2]; z <= cellRanges[6 * i + 5]; z++) {
+                for (int y = cellRanges[6 * i + 1]; y <= cellRanges[6 * i + 4]; y++) {
+                    for (int x = cellRanges[6 * i]; x <= cellRanges[6 * i + 3]; x++) {
+                        cellPrimitives[cellFill[cell(x, y, z)]++] = i;
+                    }
+                }
+            }
+        }
+        primitiveBuckets = new PrimitiveBuckets(primitives);
+    }
+
+    private static int resolution(final double extent, final double cellsPerUnitLength) {
+        return (int) Math.max(1, Math.min(MAX_RESOLUTION, Math.round(extent * cellsPerUnitLength)));
+    }
+
+    // Cell along one axis holding a coordinate, coordinates outside the grid go to the cell at that end
+    private static int cellIndex(final double coordinate, final double min, final double cellSize, final int resolution) {
+        if (cellSize == 0) {
+            return 0;
+        }
+        return Math.max(0, Math.min(resolution - 1, (int) ((coordinate - min) / cellSize)));
+    }
+
+    private int cell(final int x, final int y, final int z) {
+        return x + resolutionX * (y + resolutionY * z);
+    }
+
+    @Override
+    public int getNodeCount() {
+        return resolutionX * resolutionY * resolutionZ;
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        // Cell starts, the primitive lists of the cells, then the primitives themselves
+        return (long) cellStarts.length * Integer.BYTES + (long) cellPrimitives.length * Integer.BYTES + (long) primitiveBuckets.size() * Long.BYTES;
+    }
+
+    @Override
+    public boolean hit(final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord) {
+        return traverse(ray, tMin, tMax, hitRecord);
+    }
+
+    @Override
+    public boolean occluded(final Ray ray, final double tMin, final double tMax) {
+        return traverse(ray, tMin, tMax, null);
+    }
+
+    // Walk the cells along the ray, closest hit into the hit record, or the first hit at all when there is no record
+    private boolean traverse(final Ray ray, final double tMin, final double tMax, final HitRecord hitRecord) {
+        final double originX = ray.getOrigin().getXComponent();
+        final double originY = ray.getOrigin().getYComponent();
+        final double originZ = ray.getOrigin().getZComponent();
+        final double directionX = ray.getDirection().getXComponent();
+        final double directionY = ray.getDirection().getYComponent();
+        final double directionZ = ray.getDirection().getZComponent();
+        final double inverseX = 1.0 / directionX;
+        final double inverseY = 1.0 / directionY;
+        final double inverseZ = 1.0 / directionZ;
+
+        // Part of the ray inside the grid
+        double near = (minX - originX) * inverseX;
+        double far = (maxX - originX) * inverseX;
+        double entry = Math.max(tMin, Math.min(near, far));
+        double exit = Math.min(tMax, Math.max(near, far));
+        near = (minY - originY) * inverseY;
+        far = (maxY - originY) * inverseY;
+        entry = Math.max(entry, Math.min(near, far));
+        exit = Math.min(exit, Math.max(near, far));
+        near = (minZ - originZ) * inverseZ;
+        far = (maxZ - originZ) * inverseZ;
+        entry = Math.max(entry, Math.min(near, far));
+        exit = Math.min(exit, Math.max(near, far));
+        if (!(entry <= exit)) {
+            return false;
+        }
+
+        // Cell the ray enters the grid in, and the distance along the ray to the next cell boundary on every axis
+        int x = cellIndex(originX + entry * directionX, minX, cellSizeX, resolutionX);
+        int y = cellIndex(originY + entry * directionY, minY, cellSizeY, resolutionY);
+        int z = cellIndex(originZ + entry * directionZ, minZ, cellSizeZ, resolutionZ);
+        final int stepX = directionX < 0 ? -1 : 1;
+        final int stepY = directionY < 0 ? -1 : 1;
+        final int stepZ = directionZ < 0 ? -1 : 1;
+        final int endX = directionX < 0 ? -1 : resolutionX;
+        final int endY = directionY < 0 ? -1 : resolutionY;
+        final int endZ = directionZ < 0 ? -1 : resolutionZ;
+        double nextX = nextCrossing(originX, directionX, inverseX, minX, cellSizeX, x);
+        double nextY = nextCrossing(originY, directionY, inverseY, minY, cellSizeY, y);
+        double nextZ = nextCrossing(originZ, directionZ, inverseZ, minZ, cellSizeZ, z);
+        final double deltaX = directionX == 0 ? Double.POSITIVE_INFINITY : cellSizeX * Math.abs(inverseX);
+        final double deltaY = directionY == 0 ? Double.POSITIVE_INFINITY : cellSizeY * Math.abs(inverseY);
+        final double deltaZ = directionZ == 0 ? Double.POSITIVE_INFINITY : cellSizeZ * Math.abs(inverseZ);
+
+        double closestSoFar = tMax;
+        boolean hasRayHitSomething = false;
+        while (true) {
+            final int cell = cell(x, y, z);
+            if (TraversalStatistics.ENABLED) {
+                TraversalStatistics.countNodeVisited();
+            }
+            for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+                final int primitive = cellPrimitives[i];
+                if (hitRecord == null) {
+                    if (primitiveBuckets.occluded(primitive, ray, tMin, tMax)) {
+                        return true;
+                    }
+                } else if (primitiveBuckets.hit(primitive, ray, tMin, closestSoFar, hitRecord)) {
+                    hasRayHitSomething = true;
+                    closestSoFar = hitRecord.getRayExtensionScale();
+                }
+            }
+            // Step over the nearest cell boundary, unless the closest hit comes before it or the ray leaves the grid there
+            final double cellExit = Math.min(nextX, Math.min(nextY, nextZ));
+            if (closestSoFar <= cellExit || cellExit > exit) {
+                break;
+            }
+            if (nextX == cellExit) {
+                x += stepX;
+                if (x == endX) {
+                    break;
+                }
+                nextX += deltaX;
+            } else if (nextY == cellExit) {
+                y += stepY;
+                if (y == endY) {
+                    break;
+                }
+                nextY += deltaY;
+            } else {
+                z += stepZ;
+                if (z == endZ) {
+                    break;
+                }
+                nextZ += deltaZ;
+            }
+        }
+        return hasRayHitSomething;
+    }
+
+    // Distance along the ray to where it leaves the cell along one axis, infinite when it runs parallel to the axis
+    private static double nextCrossing(final double origin, final double direction, final double inverse, final double min,
+                                       final double cellSize, final int cell) {
+        if (direction == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        final double boundary = min + (direction < 0 ? cell : cell + 1) * cellSize;
+        return (boundary - origin) * inverse;
+    }
+
+    @Override
+    public AxisAlignedBoundingBox boundingBox(double tStart, double tEnd) {
+        return new AxisAlignedBoundingBox(new Vec3(minX, minY, minZ), new Vec3(maxX, maxY, maxZ));
+    }
+}
@@ -0,0 +1,130 @@
+package ra.one.two.ray.tracing.regression;
+
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+import ra.one.two.ray.tracing.rayhit.Accelerator;
+import ra.one.two.ray.tracing.rayhit.AxisAlignedBoundingBox;
+import ra.one.two.ray.tracing.rayhit.HitRecord;
+import ra.one.two.ray.tracing.scene.description.CompiledScene;
+import ra.one.two.ray.tracing.scene.description.SceneCache;
+import ra.one.two.ray.tracing.scene.description.SceneCompiler;
+import ra.one.two.ray.tracing.scene.description.SceneDescription;
+import ra.one.two.ray.tracing.scene.description.SceneParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Builds every kind of accelerator over every group of a scene and reports build time, node count, memory and rays
+ * per second, so the scene file can name the fastest accelerator for each group. Rays are fired from all around the
+ * bounding box of a group into it, the same rays for every accelerator, and only the group is intersected, not the
+ * rest of the scene. An accelerator that hits a different number of rays than the hierarchy is reported, they should
+ * all agree.
+ * <p>
+ * Usage: AcceleratorComparison &lt;scene file&gt; [--rays COUNT] [--seed SEED]
+ */
+public class AcceleratorComparison {
+    private static final int DEFAULT_RAY_COUNT = 200_000;
+    // Passes over the rays before the measured one, so the JIT has compiled the traversal
+    private static final int WARM_UP_PASSES = 3;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: AcceleratorComparison <scene file> [--rays COUNT] [--seed SEED]");
+            System.exit(1);
+        }
+        int rayCount = DEFAULT_RAY_COUNT;
+        long seed = 1;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--rays":
+                    rayCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        final Path sceneFile = Path.of(args[0]);
+        final SceneDescription description = SceneParser.parse(Files.readString(sceneFile), sceneFile.toAbsolutePath().getParent());
+        final SceneCompiler compiler = new SceneCompiler(description, new SceneCache(), null);
+        final CompiledScene scene = compiler.compile();
+        // The window the scene compiler builds accelerators other than bvh for, from the first shutter opening to the last closing
+        final double startTime = scene.getCameraAnimation().shutterOpenAt(0);
+        final double endTime = scene.getCameraAnimation().shutterCloseAt((scene.getFrameCount() - 1) / scene.getFramesPerSecond());
+
+        System.out.println(String.format("%-18s %10s %-13s %10s %10s %12s %12s %10s", "group", "primitives", "accel", "build ms", "nodes", "memory KiB", "rays/s", "hits"));
+        for (final Map.Entry<String, List<Hittable>> group : compiler.getGroupMembers().entrySet()) {
+            final Ray[] rays = raysInto(group.getValue(), rayCount, new Random(seed), startTime, endTime);
+            long hierarchyHits = -1;
+            for (final Accelerator.Kind kind : Accelerator.Kind.values()) {
+                // Build once to warm up, the build measured is the second one
+                kind.build(group.getValue(), startTime, endTime);
+                final long buildStart = System.nanoTime();
+                final Accelerator accelerator = kind.build(group.getValue(), startTime, endTime);
+                final double buildMilliseconds = (System.nanoTime() - buildStart) / 1e6;
+
+                for (int pass = 0; pass < WARM_UP_PASSES; pass++) {
+                    trace(accelerator, rays);
+                }
+                final long traceStart = System.nanoTime();
+                final long hits = trace(accelerator, rays);
+                final double raysPerSecond = rays.length / ((System.nanoTime() - traceStart) / 1e9);
+                if (kind == Accelerator.Kind.BVH) {
+                    hierarchyHits = hits;
+                }
+                System.out.println(String.format("%-18s %10d %-13s %10.2f %10d %12.1f %12.0f %10d%s", group.getKey(), group.getValue().size(),
+                        kind.getKeyword(), buildMilliseconds, accelerator.getNodeCount(), accelerator.getMemoryBytes() / 1024.0, raysPerSecond, hits,
+                        hits == hierarchyHits ? "" : "  MISMATCH: the hierarchy hit " + hierarchyHits));
+            }
+        }
+    }
+
+    // Rays from a sphere around the bounding box of the primitives to random points inside the box
+    private static Ray[] raysInto(final List<Hittable> primitives, final int count, final Random random, final double startTime, final double endTime) {
+        AxisAlignedBoundingBox box = null;
+        for (final Hittable primitive : primitives) {
+            final AxisAlignedBoundingBox primitiveBox = primitive.boundingBox(startTime, endTime);
+            box = box == null ? primitiveBox : AxisAlignedBoundingBox.surroundingBox(box, primitiveBox);
+        }
+        final Vec3 min = box.getMin();
+        final Vec3 max = box.getMax();
+        final double centerX = (min.getXComponent() + max.getXComponent()) / 2;
+        final double centerY = (min.getYComponent() + max.getYComponent()) / 2;
+        final double centerZ = (min.getZComponent() + max.getZComponent()) / 2;
+        final double radius = Math.sqrt(Math.pow(max.getXComponent() - centerX, 2) + Math.pow(max.getYComponent() - centerY, 2)
+                + Math.pow(max.getZComponent() - centerZ, 2)) * 2;
+        final Ray[] rays = new Ray[count];
+        for (int i = 0; i < count; i++) {
+            // Uniform direction on the sphere from a uniform z and angle around it
+            final double z = 2 * random.nextDouble() - 1;
+            final double angle = 2 * Math.PI * random.nextDouble();
+            final double ring = Math.sqrt(1 - z * z);
+            final Vec3 origin = new Vec3(centerX + radius * ring * Math.cos(angle), centerY + radius * ring * Math.sin(angle), centerZ + radius * z);
+            final Vec3 target = new Vec3(min.getXComponent() + random.nextDouble() * (max.getXComponent() - min.getXComponent()),
+                    min.getYComponent() + random.nextDouble() * (max.getYComponent() - min.getYComponent()),
+                    min.getZComponent() + random.nextDouble() * (max.getZComponent() - min.getZComponent()));
+            rays[i] = new Ray(origin, Vec3.subtract(target, origin), startTime + random.nextDouble() * (endTime - startTime));
+        }
+        return rays;
+    }
+
+    private static long trace(final Accelerator accelerator, final Ray[] rays) {
+        final HitRecord hitRecord = new HitRecord();
+        long hits = 0;
+        for (final Ray ray : rays) {
+            if (accelerator.hit(ray, 0.001, Double.POSITIVE_INFINITY, hitRecord)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,306 @@
+package ra.one.two.ray.tracing.regression;
+
+import lombok.AllArgsConstructor;
+import ra.one.two.ray.tracing.scene.Framebuffer;
+import ra.one.two.ray.tracing.scene.PixelRenderer;
+import ra.one.two.ray.tracing.scene.ProgressiveRenderer;
+import ra.one.two.ray.tracing.scene.description.CompiledScene;
+import ra.one.two.ray.tracing.scene.description.SceneLoader;
+import ra.one.two.ray.tracing.textures.HdrImage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Renders the canonical scenes listed in a suite file with fixed seeds and checks them against stored reference images,
+ * so performance work that changes the image, or slows rendering down, does not go unnoticed.
+ * For every scene it reports rays traced per second, how long the render took to get within the target RMSE of the
+ * reference and the RMSE after all samples. A scene fails when its RMSE is above the max RMSE of the suite file, or its
+ * rays per second dropped more than the allowed slowdown below the baseline. Throughput depends on the machine, so the
+ * baseline is a local file written by the first run and by --update-baseline, not something checked in.
+ * The RMSE limits of the suite file come from --calibrate, which renders every scene with several seeds and reports the
+ * spread of its RMSE, so a limit is set by how much the noise varies instead of by a single lucky or unlucky run.
+ * <p>
+ * Usage: RegressionSuite &lt;suite file&gt; [--baseline FILE] [--max-slowdown FRACTION] [--update-baseline]
+ * [--update-references SAMPLES] [--calibrate SEEDS]
+ */
+public class RegressionSuite {
+    // Samples per pixel of the render every scene gets before it is measured, so the JIT has compiled the hot paths
+    private static final int WARM_UP_SAMPLES = 2;
+    private static final double DEFAULT_MAX_SLOWDOWN = 0.2;
+    // Standard deviations of the RMSE over seeds the max RMSE suggested by --calibrate lies above the mean
+    private static final double MAX_RMSE_DEVIATIONS = 3;
+    // Target RMSE suggested by --calibrate as a multiple of the max RMSE, reached partway through the render
+    private static final double TARGET_RMSE_FACTOR = 1.5;
+    private static final String REFERENCE_SUFFIX = ".reference.hdr";
+    private static final ProgressiveRenderer.SnapshotListener NO_SNAPSHOTS = (pass, samplesPerPixel, complete, framebuffer) -> {
+    };
+
+    private final Path suiteFile;
+    private final ExecutorService renderExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+    public RegressionSuite(final Path suiteFile) {
+        this.suiteFile = suiteFile.toAbsolutePath();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: RegressionSuite <suite file> [--baseline FILE] [--max-slowdown FRACTION] [--update-baseline]"
+                    + " [--update-references SAMPLES] [--calibrate SEEDS]");
+            System.exit(1);
+        }
+        Path baselineFile = null;
+        double maxSlowdown = DEFAULT_MAX_SLOWDOWN;
+        boolean updateBaseline = false;
+        int referenceSamples = 0;
+        int calibrationSeeds = 0;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--baseline":
+                    baselineFile = Path.of(args[++i]);
+                    break;
+                case "--max-slowdown":
+                    maxSlowdown = Double.parseDouble(args[++i]);
+                    break;
+                case "--update-baseline":
+                    updateBaseline = true;
+                    break;
+                case "--update-references":
+                    referenceSamples = Integer.parseInt(args[++i]);
+                    break;
+                case "--calibrate":
+                    calibrationSeeds = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        final RegressionSuite suite = new RegressionSuite(Path.of(args[0]));
+        try {
+            if (referenceSamples > 0) {
+                suite.renderReferences(referenceSamples);
+                return;
+            }
+            if (calibrationSeeds > 0) {
+                suite.calibrate(calibrationSeeds);
+                return;
+            }
+            final boolean passed = suite.run(baselineFile, maxSlowdown, updateBaseline);
+            if (!passed) {
+                System.exit(1);
+            }
+        } finally {
+            suite.renderExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Render every scene and check it.
+     *
+     * @param baselineFile   rays per second of every scene from an earlier run, null to not check throughput
+     * @param maxSlowdown    fraction by which rays per second may drop below the baseline
+     * @param updateBaseline replace the baseline with the rays per second of this run
+     * @return true if every scene passed
+     * @throws IOException          if a scene, a reference image or the baseline can not be read
+     * @throws InterruptedException if interrupted while rendering
+     */
+    public boolean run(final Path baselineFile, final double maxSlowdown, final boolean updateBaseline) throws IOException, InterruptedException {
+        final Properties baseline = new Properties();
+        final boolean haveBaseline = baselineFile != null && Files.isRegularFile(baselineFile) && !updateBaseline;
+        if (haveBaseline) {
+            try (InputStream input = Files.newInputStream(baselineFile)) {
+                baseline.load(input);
+            }
+        }
+
+        boolean passed = true;
+        System.out.println(String.format("%-18s %12s %12s %14s %10s %10s  %s", "scene", "rays/s", "baseline", "time to RMSE", "RMSE", "max RMSE", "result"));
+        for (final SuiteEntry entry : readSuite()) {
+            final HdrImage reference = HdrImage.read(referenceFile(entry));
+            final CompiledScene scene = load(entry);
+            render(scene, WARM_UP_SAMPLES, entry.seed, NO_SNAPSHOTS);
+
+            final long raysBefore = PixelRenderer.getRaysTraced();
+            final long start = System.nanoTime();
+            final long[] timeToTarget = {-1};
+            final Framebuffer framebuffer = render(scene, entry.samples, entry.seed, (pass, samplesPerPixel, complete, image) -> {
+                if (timeToTarget[0] < 0 && rootMeanSquareError(image, reference) <= entry.targetRmse) {
+                    timeToTarget[0] = System.nanoTime() - start;
+                }
+            });
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            final double raysPerSecond = (PixelRenderer.getRaysTraced() - raysBefore) / seconds;
+            final double rmse = rootMeanSquareError(framebuffer, reference);
+
+            final List<String> failures = new ArrayList<>();
+            if (rmse > entry.maxRmse) {
+                failures.add("image changed");
+            }
+            final String baselineValue = baseline.getProperty(entry.name + ".raysPerSecond");
+            if (baselineValue != null && raysPerSecond < Double.parseDouble(baselineValue) * (1 - maxSlowdown)) {
+                failures.add("slower than baseline");
+            }
+            if (!haveBaseline) {
+                baseline.setProperty(entry.name + ".raysPerSecond", Long.toString(Math.round(raysPerSecond)));
+            }
+            passed &= failures.isEmpty();
+            System.out.println(String.format("%-18s %12.0f %12s %14s %10.5f %10.5f  %s", entry.name, raysPerSecond,
+                    baselineValue == null ? "-" : baselineValue, timeToTarget[0] < 0 ? "not reached" : (timeToTarget[0] / 1_000_000) + " ms",
+                    rmse, entry.maxRmse, failures.isEmpty() ? "ok" : "FAILED: " + String.join(", ", failures)));
+        }
+
+        if (baselineFile != null && !haveBaseline) {
+            Files.createDirectories(baselineFile.toAbsolutePath().getParent());
+            try (OutputStream output = Files.newOutputStream(baselineFile)) {
+                baseline.store(output, "Rays per second of the regression suite scenes on this machine");
+            }
+            System.out.println("Wrote throughput baseline " + baselineFile);
+        }
+        return passed;
+    }
+
+    /**
+     * Render the reference image of every scene, with a seed other than the one the suite renders with so the
+     * reference does not share its noise with the images checked against it.
+     *
+     * @param samplesPerPixel samples per pixel of the references, many more than the suite renders with
+     * @throws IOException          if a scene can not be loaded or a reference image can not be written
+     * @throws InterruptedException if interrupted while rendering
+     */
+    public void renderReferences(final int samplesPerPixel) throws IOException, InterruptedException {
+        for (final SuiteEntry entry : readSuite()) {
+            final long start = System.currentTimeMillis();
+            render(load(entry), samplesPerPixel, ~entry.seed, NO_SNAPSHOTS).toHdrImage().write(referenceFile(entry));
+            System.out.println("Rendered reference of " + entry.name + " in " + (System.currentTimeMillis() - start) / 1000 + " s");
+        }
+    }
+
+    /**
+     * Render every scene with the seed of the suite file and the ones after it, and report the mean and standard
+     * deviation of its RMSE with the max RMSE and target RMSE they suggest. The integrator draws its random numbers in
+     * its own order, so calibrate with and without -Drender.wavefront=true and keep the larger limits.
+     *
+     * @param seeds number of seeds to render every scene with, the seed of the suite file is the first
+     * @throws IOException          if a scene or a reference image can not be read
+     * @throws InterruptedException if interrupted while rendering
+     */
+    public void calibrate(final int seeds) throws IOException, InterruptedException {
+        System.out.println(String.format("%-18s %10s %10s %10s %10s %12s %12s", "scene", "lowest", "highest", "mean", "deviation",
+                "max RMSE", "target RMSE"));
+        for (final SuiteEntry entry : readSuite()) {
+            final HdrImage reference = HdrImage.read(referenceFile(entry));
+            final CompiledScene scene = load(entry);
+            double min = Double.POSITIVE_INFINITY;
+            double max = 0;
+            double sum = 0;
+            double squareSum = 0;
+            for (int i = 0; i < seeds; i++) {
+                final double rmse = rootMeanSquareError(render(scene, entry.samples, entry.seed + i, NO_SNAPSHOTS), reference);
+                min = Math.min(min, rmse);
+                max = Math.max(max, rmse);
+                sum += rmse;
+                squareSum += rmse * rmse;
+            }
+            final double mean = sum / seeds;
+            // Sample standard deviation, 0 for a single seed
+            final double deviation = seeds > 1 ? Math.sqrt(Math.max(0, (squareSum - seeds * mean * mean) / (seeds - 1))) : 0;
+            final double maxRmse = mean + MAX_RMSE_DEVIATIONS * deviation;
+            System.out.println(String.format("%-18s %10.5f %10.5f %10.5f %10.5f %12.5f %12.5f", entry.name, min, max, mean, deviation,
+                    maxRmse, TARGET_RMSE_FACTOR * maxRmse));
+        }
+    }
+
+    private Framebuffer render(final CompiledScene scene, final int samplesPerPixel, final long seed,
+                               final ProgressiveRenderer.SnapshotListener listener) throws InterruptedException {
+        final ProgressiveRenderer renderer = new ProgressiveRenderer(scene, renderExecutor, ProgressiveRenderer.DEFAULT_TILE_SIZE, seed);
+        return renderer.render(samplesPerPixel, ProgressiveRenderer.NO_DEADLINE, listener);
+    }
+
+    // The scene at the resolution of the suite file, the camera only depends on the aspect ratio which stays the same
+    private CompiledScene load(final SuiteEntry entry) throws IOException {
+        final CompiledScene scene = SceneLoader.load(suiteFile.resolveSibling(entry.sceneFile));
+        if ((double) scene.getImageWidth() / scene.getImageHeight() != (double) entry.width / entry.height) {
+            throw new IOException(entry.name + " is " + scene.getImageWidth() + " x " + scene.getImageHeight()
+                    + ", the suite can only scale it without changing the aspect ratio");
+        }
+        return new CompiledScene(scene.getCamera(), scene.getWorld(), entry.width, entry.height, entry.samples, scene.getMaxDepth(),
+                scene.getBackgroundColor(), scene.getEnvironmentLight(), scene.getLightTree(), scene.getFrameCount(), scene.getFramesPerSecond(),
+                scene.getCameraAnimation(), scene.getHierarchies(), scene.getContentHash());
+    }
+
+    private Path referenceFile(final SuiteEntry entry) {
+        return suiteFile.resolveSibling(entry.name + REFERENCE_SUFFIX);
+    }
+
+    private List<SuiteEntry> readSuite() throws IOException {
+        final List<SuiteEntry> entries = new ArrayList<>();
+        for (final String line : Files.readAllLines(suiteFile)) {
+            final String content = line.replaceAll("#.*", "").trim();
+            if (content.isEmpty()) {
+                continue;
+            }
+            final String[] columns = content.split("\\s+");
+            if (columns.length != 8) {
+                throw new IOException("Suite line needs 8 columns: " + line);
+            }
+            entries.add(new SuiteEntry(columns[0], columns[1], Integer.parseInt(columns[2]), Integer.parseInt(columns[3]),
+                    Integer.parseInt(columns[4]), Long.parseLong(columns[5]), Double.parseDouble(columns[6]), Double.parseDouble(columns[7])));
+        }
+        return entries;
+    }
+
+    /**
+     * Root mean square error of the image against the reference, on the gamma corrected values that end up in an 8 bit
+     * image. Comparing linear radiance would let a few pixels of a bright light outweigh everything else.
+     *
+     * @param framebuffer image to compare
+     * @param reference   reference of the same size
+     * @return the error, 0 for identical images
+     */
+    static double rootMeanSquareError(final Framebuffer framebuffer, final HdrImage reference) {
+        if (framebuffer.getWidth() != reference.getWidth() || framebuffer.getHeight() != reference.getHeight()) {
+            throw new IllegalArgumentException("Reference is " + reference.getWidth() + " x " + reference.getHeight()
+                    + ", image is " + framebuffer.getWidth() + " x " + framebuffer.getHeight());
+        }
+        final FloatBuffer referenceRgb = reference.getRgb();
+        final double[] rgb = new double[3];
+        double squaredErrorSum = 0;
+        for (int y = 0; y < framebuffer.getHeight(); y++) {
+            for (int x = 0; x < framebuffer.getWidth(); x++) {
+                framebuffer.meanRadiance(x, y, rgb);
+                final int index = 3 * (x + y * framebuffer.getWidth());
+                for (int channel = 0; channel < 3; channel++) {
+                    final double error = display(rgb[channel]) - display(referenceRgb.get(index + channel));
+                    squaredErrorSum += error * error;
+                }
+            }
+        }
+        return Math.sqrt(squaredErrorSum / referenceRgb.capacity());
+    }
+
+    private static double display(final double linear) {
+        return Math.min(1, Math.max(0, Math.sqrt(linear)));
+    }
+
+    @AllArgsConstructor
+    private static class SuiteEntry {
+        private final String name;
+        private final String sceneFile;
+        private final int width;
+        private final int height;
+        private final int samples;
+        private final long seed;
+        private final double targetRmse;
+        private final double maxRmse;
+    }
+}
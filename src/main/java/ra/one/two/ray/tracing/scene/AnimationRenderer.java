@@ -0,0 +1,146 @@
+package ra.one.two.ray.tracing.scene;
+
+import ra.one.two.ray.tracing.rayhit.FlattenedBoundingVolumeHierarchy;
+import ra.one.two.ray.tracing.scene.description.CompiledScene;
+import ra.one.two.ray.tracing.scene.description.SceneLoader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders the frames of an animated scene to numbered PNG files. The scene is loaded and its hierarchies built once,
+ * every frame after that only refits the hierarchy bounds for its shutter interval and places the camera.
+ * Frames go through a three stage pipeline: while frame N renders, frame N + 1 is being set up on one thread and
+ * frame N - 1 is being encoded on another, so a frame costs about its render time.
+ */
+public class AnimationRenderer {
+    private final CompiledScene scene;
+    private final Path outputDirectory;
+    private final ExecutorService renderExecutor;
+    private final ExecutorService updateExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService encodeExecutor = Executors.newSingleThreadExecutor();
+
+    public AnimationRenderer(final CompiledScene scene, final Path outputDirectory, final int renderThreads) {
+        if (scene.getCameraAnimation() == null) {
+            throw new IllegalArgumentException("Animations need a scene loaded from a scene file");
+        }
+        this.scene = scene;
+        this.outputDirectory = outputDirectory;
+        this.renderExecutor = Executors.newFixedThreadPool(renderThreads);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 2) {
+            System.err.println("Usage: AnimationRenderer <scene file> <output directory>");
+            System.exit(1);
+        }
+        final CompiledScene scene = SceneLoader.load(Path.of(args[0]));
+        final Path outputDirectory = Files.createDirectories(Path.of(args[1]));
+        final long start = System.currentTimeMillis();
+        new AnimationRenderer(scene, outputDirectory, Runtime.getRuntime().availableProcessors()).render();
+        System.err.println(scene.getFrameCount() + " frames in " + (System.currentTimeMillis() - start) / 1000 + " s");
+    }
+
+    /**
+     * Render every frame of the scene and write them out as frame_0000.png, frame_0001.png and so on.
+     *
+     * @throws IOException          if a frame can not be written
+     * @throws InterruptedException if interrupted while waiting for a frame
+     */
+    public void render() throws IOException, InterruptedException {
+        try {
+            CompletableFuture<Camera> nextFrame = CompletableFuture.supplyAsync(() -> prepareFrame(0), updateExecutor);
+            CompletableFuture<Void> encoding = CompletableFuture.completedFuture(null);
+            for (int frame = 0; frame < scene.getFrameCount(); frame++) {
+                final Camera camera = nextFrame.join();
+                // Set up the next frame while this one renders, the refitted bounds are for its own shutter interval so
+                // rays of this frame do not see them
+                final int followingFrame = frame + 1;
+                if (followingFrame < scene.getFrameCount()) {
+                    nextFrame = CompletableFuture.supplyAsync(() -> prepareFrame(followingFrame), updateExecutor);
+                }
+
+                final Framebuffer framebuffer = renderFrame(camera);
+                retireFramesBefore(followingFrame);
+
+                final int encodedFrame = frame;
+                encoding = encoding.thenRunAsync(() -> writeFrame(encodedFrame, framebuffer), encodeExecutor);
+            }
+            encoding.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        } finally {
+            renderExecutor.shutdown();
+            updateExecutor.shutdown();
+            encodeExecutor.shutdown();
+        }
+    }
+
+    private double frameStart(final int frame) {
+        return frame / scene.getFramesPerSecond();
+    }
+
+    // Refit every hierarchy for the shutter interval of the frame, nested ones first, and place the camera
+    private Camera prepareFrame(final int frame) {
+        final double frameStart = frameStart(frame);
+        final double shutterOpen = scene.getCameraAnimation().shutterOpenAt(frameStart);
+        final double shutterClose = scene.getCameraAnimation().shutterCloseAt(frameStart);
+        for (final FlattenedBoundingVolumeHierarchy hierarchy : scene.getHierarchies()) {
+            hierarchy.refit(shutterOpen, shutterClose);
+        }
+        return scene.getCameraAnimation().cameraAt(frameStart);
+    }
+
+    private void retireFramesBefore(final int frame) {
+        final double shutterOpen = scene.getCameraAnimation().shutterOpenAt(frameStart(frame));
+        for (final FlattenedBoundingVolumeHierarchy hierarchy : scene.getHierarchies()) {
+            hierarchy.retireRefitsEndingBefore(shutterOpen);
+        }
+    }
+
+    private Framebuffer renderFrame(final Camera camera) throws InterruptedException {
+        final int imageWidth = scene.getImageWidth();
+        final int imageHeight = scene.getImageHeight();
+        final Framebuffer framebuffer = new Framebuffer(imageWidth, imageHeight);
+        // One task per row, a task per pixel as in RenderDriver would have to be waited on pixel by pixel
+        final List<Future<?>> rows = new ArrayList<>(imageHeight);
+        for (int pixelRowIndex = imageHeight - 1; pixelRowIndex >= 0; --pixelRowIndex) {
+            final int row = pixelRowIndex;
+            rows.add(renderExecutor.submit(() -> {
+                for (int pixelColumnIndex = 0; pixelColumnIndex < imageWidth; ++pixelColumnIndex) {
+                    new PixelRenderer(camera, scene.getWorld(), scene.getMaxDepth(), row, pixelColumnIndex, scene.getSamplesPerPixel(),
+                            framebuffer, scene.getBackgroundColor(), scene.getEnvironmentLight(), scene.getLightTree()).run();
+                }
+            }));
+        }
+        for (final Future<?> row : rows) {
+            try {
+                row.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Rendering a row failed", e.getCause());
+            }
+        }
+        return framebuffer;
+    }
+
+    private void writeFrame(final int frame, final Framebuffer framebuffer) {
+        try {
+            framebuffer.write(outputDirectory.resolve(String.format("frame_%04d.png", frame)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,25 +1,87 @@
 package ra.one.two.ray.tracing.scene;
 
+import lombok.Getter;
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
 import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 
+/**
+ * Generates the rays fired into the scene. Everything a ray needs is worked out when the camera is made and kept as
+ * plain numbers, so a ray costs a few multiply adds plus random numbers for the lens and the time, and only when the
+ * lens has an aperture or the shutter is open for a while. Rays for many samples can be written straight into a
+ * {@link RayPacket} without any object per ray.
+ */
 public class Camera {
+    // Rays getRay fills in one at a time, one per thread since cameras are shared by the render threads
+    private static final ThreadLocal<RayPacket> SINGLE_RAY = ThreadLocal.withInitial(() -> new RayPacket(1));
 
+    /**
+     * How positions on the image map to rays, by the keyword the scene format names them by.
+     */
+    public enum Projection {
+        // Rays from a point, or from a lens when there is an aperture, through the viewport
+        PERSPECTIVE("perspective"),
+        // Parallel rays from the viewport itself, the field of view gives the size the viewport has at the focus distance
+        ORTHOGRAPHIC("orthographic"),
+        // Equidistant fisheye, the angle to the view direction grows with the distance from the image center and is
+        // half the field of view at the top and bottom edges. Lenses are not modelled, the aperture is ignored
+        FISHEYE("fisheye");
+
+        @Getter
+        private final String keyword;
+
+        Projection(final String keyword) {
+            this.keyword = keyword;
+        }
+
+        /**
+         * @param keyword name of the projection in a scene file
+         * @return the projection with the name, null if there is none
+         */
+        public static Projection forKeyword(final String keyword) {
+            for (final Projection projection : values()) {
+                if (projection.keyword.equals(keyword)) {
+                    return projection;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final Projection projection;
     // Camera origin
-    private final Vec3 cameraOrigin;
-    // Lower left corner of the viewport
-    private final Vec3 lowerLeftCorner;
-    private final Vec3 horizontal;
-    private final Vec3 vertical;
+    private final double originX;
+    private final double originY;
+    private final double originZ;
+    // Lower left corner of the viewport, relative to the origin so a pinhole ray direction is one multiply add per axis away
+    private final double lowerLeftX;
+    private final double lowerLeftY;
+    private final double lowerLeftZ;
+    private final double horizontalX;
+    private final double horizontalY;
+    private final double horizontalZ;
+    private final double verticalX;
+    private final double verticalY;
+    private final double verticalZ;
+    // Camera basis, u to the right, v up and w backwards from the view direction
+    private final double uX;
+    private final double uY;
+    private final double uZ;
+    private final double vX;
+    private final double vY;
+    private final double vZ;
+    private final double wX;
+    private final double wY;
+    private final double wZ;
     private final double lensRadius;
-    private final Vec3 u;
-    private final Vec3 v;
-    private final Vec3 w;
-    private double timeStart = 0;
-    private double timeEnd = 0;
+    private final double focusDistance;
+    private final double aspectRatio;
+    private final double halfFieldOfViewInRadians;
+    private final double timeStart;
+    private final double timeEnd;
 
     /**
-     * Constructor for camera.
+     * Constructor for a perspective camera.
      *
      * @param lookFrom                     the location the camera should be present at
      * @param lookAt                       the location we want camera to look at
@@ -41,6 +103,35 @@ public class Camera {
             final double focusDistance,
             final double timeStart,
             final double timeEnd) {
+        this(lookFrom, lookAt, upDirectionUnitVector, verticalFieldOfViewInDegrees, aspect_ratio, aperture, focusDistance, timeStart, timeEnd,
+                Projection.PERSPECTIVE);
+    }
+
+    /**
+     * Constructor for camera.
+     *
+     * @param lookFrom                     the location the camera should be present at
+     * @param lookAt                       the location we want camera to look at
+     * @param upDirectionUnitVector        a unit vector telling camera what up direction is
+     * @param verticalFieldOfViewInDegrees field of View of Camera, basically till what angle can camera see from its viewport.
+     * @param aspect_ratio                 aspect ration of the camera viewport
+     * @param aperture                     diameter of camera lens
+     * @param focusDistance                distance to focus camera at
+     * @param timeStart                    start time of the image capture, shutter opens
+     * @param timeEnd                      end time of the image capture, shutter closes
+     * @param projection                   how positions on the image map to rays
+     */
+    public Camera(
+            final Vec3 lookFrom,
+            final Vec3 lookAt,
+            final Vec3 upDirectionUnitVector,
+            final double verticalFieldOfViewInDegrees,
+            final double aspect_ratio,
+            final double aperture,
+            final double focusDistance,
+            final double timeStart,
+            final double timeEnd,
+            final Projection projection) {
         final double cameraFieldOfViewInRadians = Math.toRadians(verticalFieldOfViewInDegrees);
         // When the camera is at origin viewport midpoint lies on z axis at z = - focusDistance plane.
         // Now that the camera moves, viewport moves with it still separated by distance focusDistance away.
@@ -53,20 +144,43 @@ public class Camera {
         // Get unit vector in direction to look at from the position to look from.
         // Get unit vectors in the plane orthogonal to this vector which is our camera's plane
         // These vectors will be the same for viewport as well since
-        w = Vec3.unitVector(Vec3.subtract(lookFrom, lookAt));
-        u = Vec3.unitVector(Vec3.cross(upDirectionUnitVector, w));
-        v = Vec3.cross(w, u);
-
-        cameraOrigin = lookFrom;
+        final Vec3 w = Vec3.unitVector(Vec3.subtract(lookFrom, lookAt));
+        final Vec3 u = Vec3.unitVector(Vec3.cross(upDirectionUnitVector, w));
+        final Vec3 v = Vec3.cross(w, u);
 
         // Vectors on viewport (since its a parallel plane to camera plane) in horizontal and vertical direction.
-        horizontal = Vec3.multiply(u, viewportWidth);
-        vertical = Vec3.multiply(v, viewportHeight);
-        // Lower left corner is viewportLocation - horizontal/2 - vertical/2
-        // viewportLocation = cameraOrigin - w * focalLength
+        final Vec3 horizontal = Vec3.multiply(u, viewportWidth);
+        final Vec3 vertical = Vec3.multiply(v, viewportHeight);
+        // Lower left corner is viewportLocation - horizontal/2 - vertical/2, viewportLocation = cameraOrigin - w * focalLength.
+        // Kept relative to the camera origin
+        final Vec3 lowerLeftCorner = Vec3.divide(horizontal, -2).subtract(Vec3.divide(vertical, 2)).subtract(Vec3.multiply(w, focusDistance));
 
-        lowerLeftCorner = Vec3.subtract(cameraOrigin, Vec3.divide(horizontal, 2)).subtract(Vec3.divide(vertical, 2)).subtract(Vec3.multiply(w, focusDistance));
-        lensRadius = aperture / 2;
+        this.projection = projection;
+        originX = lookFrom.getXComponent();
+        originY = lookFrom.getYComponent();
+        originZ = lookFrom.getZComponent();
+        lowerLeftX = lowerLeftCorner.getXComponent();
+        lowerLeftY = lowerLeftCorner.getYComponent();
+        lowerLeftZ = lowerLeftCorner.getZComponent();
+        horizontalX = horizontal.getXComponent();
+        horizontalY = horizontal.getYComponent();
+        horizontalZ = horizontal.getZComponent();
+        verticalX = vertical.getXComponent();
+        verticalY = vertical.getYComponent();
+        verticalZ = vertical.getZComponent();
+        uX = u.getXComponent();
+        uY = u.getYComponent();
+        uZ = u.getZComponent();
+        vX = v.getXComponent();
+        vY = v.getYComponent();
+        vZ = v.getZComponent();
+        wX = w.getXComponent();
+        wY = w.getYComponent();
+        wZ = w.getZComponent();
+        lensRadius = projection == Projection.FISHEYE ? 0 : aperture / 2;
+        this.focusDistance = focusDistance;
+        aspectRatio = aspect_ratio;
+        halfFieldOfViewInRadians = cameraFieldOfViewInRadians / 2;
         this.timeStart = timeStart;
         this.timeEnd = timeEnd;
     }
@@ -86,13 +200,133 @@ public class Camera {
      * with a horizontal and vertical offset on the viewport place as requested in input.
      */
     Ray getRay(final double horizontalScaleOfViewportOffset, final double verticalScaleOfViewportOffset) {
-        // Get a random vector that lies inside a unit disc and scale up to lensRadius
-        final Vec3 randomDisk = Vec3.randomInUnitDisk().scaleUp(lensRadius);
-        // Get a random vector in a disc of radius equal to lensRadius in the camera plane and add camera origin to get the ray origin
-        final Vec3 rayOrigin = Vec3.multiply(u, randomDisk.getXComponent()).add(Vec3.multiply(v, randomDisk.getYComponent())).add(cameraOrigin);
-        // Return a ray that originates at a random point on the lens, that starts at the requests offset at a random time during the image capture.
-        return new Ray(rayOrigin,
-                Vec3.add(lowerLeftCorner, Vec3.multiply(horizontal, horizontalScaleOfViewportOffset)).add(Vec3.multiply(vertical, verticalScaleOfViewportOffset)).subtract(rayOrigin),
-                Math.random() * (timeEnd - timeStart) + timeStart);
+        final RayPacket packet = SINGLE_RAY.get();
+        writeRay(horizontalScaleOfViewportOffset, verticalScaleOfViewportOffset, packet, 0);
+        return packet.ray(0);
+    }
+
+    /**
+     * Generate the camera rays for samples of one pixel into a packet, each at a random position within the pixel.
+     * The corner of the pixel on the viewport is worked out once, a sample only adds its offset within the pixel.
+     *
+     * @param pixelColumnIndex column of the pixel, 0 is the left of the image
+     * @param pixelRowIndex    row of the pixel, 0 is the bottom of the image the way the camera counts v
+     * @param imageWidth       width of the image in pixels
+     * @param imageHeight      height of the image in pixels
+     * @param samples          number of rays to generate, the packet needs room for them after its size
+     * @param packet           receives the rays from its size on, the size grows by the number of samples
+     */
+    void generateRays(final int pixelColumnIndex, final int pixelRowIndex, final int imageWidth, final int imageHeight, final int samples,
+                      final RayPacket packet) {
+        // Viewport offset of a pixel step, the same one PixelRenderer divides by
+        final double columnStep = 1.0 / (imageWidth - 1);
+        final double rowStep = 1.0 / (imageHeight - 1);
+        final double pixelU = pixelColumnIndex * columnStep;
+        final double pixelV = pixelRowIndex * rowStep;
+        if (projection == Projection.PERSPECTIVE && lensRadius == 0) {
+            // Pinhole: every ray starts at the origin, the direction to the pixel corner plus the offsets of the sample
+            final double cornerX = lowerLeftX + horizontalX * pixelU + verticalX * pixelV;
+            final double cornerY = lowerLeftY + horizontalY * pixelU + verticalY * pixelV;
+            final double cornerZ = lowerLeftZ + horizontalZ * pixelU + verticalZ * pixelV;
+            final double stepHorizontalX = horizontalX * columnStep;
+            final double stepHorizontalY = horizontalY * columnStep;
+            final double stepHorizontalZ = horizontalZ * columnStep;
+            final double stepVerticalX = verticalX * rowStep;
+            final double stepVerticalY = verticalY * rowStep;
+            final double stepVerticalZ = verticalZ * rowStep;
+            for (int sample = 0; sample < samples; sample++) {
+                final double offsetU = SeedableRandom.nextDouble();
+                final double offsetV = SeedableRandom.nextDouble();
+                final int slot = packet.size++;
+                packet.originX[slot] = originX;
+                packet.originY[slot] = originY;
+                packet.originZ[slot] = originZ;
+                packet.directionX[slot] = cornerX + stepHorizontalX * offsetU + stepVerticalX * offsetV;
+                packet.directionY[slot] = cornerY + stepHorizontalY * offsetU + stepVerticalY * offsetV;
+                packet.directionZ[slot] = cornerZ + stepHorizontalZ * offsetU + stepVerticalZ * offsetV;
+                packet.time[slot] = shutterTime();
+            }
+            return;
+        }
+        for (int sample = 0; sample < samples; sample++) {
+            final double u = pixelU + SeedableRandom.nextDouble() * columnStep;
+            final double v = pixelV + SeedableRandom.nextDouble() * rowStep;
+            writeRay(u, v, packet, packet.size++);
+        }
+    }
+
+    // Ray through viewport offset (s, t) for any projection, written into a slot of the packet
+    private void writeRay(final double s, final double t, final RayPacket packet, final int slot) {
+        if (projection == Projection.FISHEYE) {
+            // Position relative to the image center, 1 at the top and bottom edges
+            final double x = (2 * s - 1) * aspectRatio;
+            final double y = 2 * t - 1;
+            final double radius = Math.sqrt(x * x + y * y);
+            final double angle = radius * halfFieldOfViewInRadians;
+            // Sine of the angle along the image direction of the position, split into the right and up parts
+            final double sideways = radius == 0 ? 0 : Math.sin(angle) / radius;
+            final double forwards = Math.cos(angle);
+            packet.originX[slot] = originX;
+            packet.originY[slot] = originY;
+            packet.originZ[slot] = originZ;
+            packet.directionX[slot] = sideways * (x * uX + y * vX) - forwards * wX;
+            packet.directionY[slot] = sideways * (x * uY + y * vY) - forwards * wY;
+            packet.directionZ[slot] = sideways * (x * uZ + y * vZ) - forwards * wZ;
+            packet.time[slot] = shutterTime();
+            return;
+        }
+
+        // Offset of the point on the lens the ray starts from, none for a pinhole
+        double lensX = 0;
+        double lensY = 0;
+        double lensZ = 0;
+        if (lensRadius > 0) {
+            // Shirley and Chiu's concentric mapping of the unit square onto the disk, two random numbers and no rejection
+            final double a = 2 * SeedableRandom.nextDouble() - 1;
+            final double b = 2 * SeedableRandom.nextDouble() - 1;
+            double diskX = 0;
+            double diskY = 0;
+            if (Math.abs(a) > Math.abs(b)) {
+                final double angle = Math.PI / 4 * (b / a);
+                diskX = a * lensRadius * Math.cos(angle);
+                diskY = a * lensRadius * Math.sin(angle);
+            } else if (b != 0) {
+                final double angle = Math.PI / 2 - Math.PI / 4 * (a / b);
+                diskX = b * lensRadius * Math.cos(angle);
+                diskY = b * lensRadius * Math.sin(angle);
+            }
+            lensX = uX * diskX + vX * diskY;
+            lensY = uY * diskX + vY * diskY;
+            lensZ = uZ * diskX + vZ * diskY;
+        }
+        // Point on the viewport the ray is focused on, relative to the camera origin
+        final double viewportX = lowerLeftX + horizontalX * s + verticalX * t;
+        final double viewportY = lowerLeftY + horizontalY * s + verticalY * t;
+        final double viewportZ = lowerLeftZ + horizontalZ * s + verticalZ * t;
+        if (projection == Projection.ORTHOGRAPHIC) {
+            // Starts on the camera plane straight behind the viewport point and heads along the view direction
+            final double planeX = viewportX + wX * focusDistance;
+            final double planeY = viewportY + wY * focusDistance;
+            final double planeZ = viewportZ + wZ * focusDistance;
+            packet.originX[slot] = originX + planeX + lensX;
+            packet.originY[slot] = originY + planeY + lensY;
+            packet.originZ[slot] = originZ + planeZ + lensZ;
+            packet.directionX[slot] = -wX * focusDistance - lensX;
+            packet.directionY[slot] = -wY * focusDistance - lensY;
+            packet.directionZ[slot] = -wZ * focusDistance - lensZ;
+        } else {
+            packet.originX[slot] = originX + lensX;
+            packet.originY[slot] = originY + lensY;
+            packet.originZ[slot] = originZ + lensZ;
+            packet.directionX[slot] = viewportX - lensX;
+            packet.directionY[slot] = viewportY - lensY;
+            packet.directionZ[slot] = viewportZ - lensZ;
+        }
+        packet.time[slot] = shutterTime();
+    }
+
+    // A random time while the shutter is open, no random number is drawn when it opens and closes at once
+    private double shutterTime() {
+        return timeEnd == timeStart ? timeStart : SeedableRandom.nextDouble() * (timeEnd - timeStart) + timeStart;
     }
 }
@@ -0,0 +1,216 @@
+package ra.one.two.ray.tracing.scene;
+
+import ra.one.two.ray.tracing.diagnostics.ImageWriteEvent;
+import ra.one.two.ray.tracing.textures.HdrImage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Accumulation buffer for an image. Every pixel holds the sum of the linear radiance of all samples taken for it and
+ * the number of those samples, so samples from any number of passes, tiles or machines can be added in any order and
+ * the pixel value is their mean. Row 0 is the top of the image.
+ * The buffer only ever holds linear radiance, tone mapping and gamma are applied when an 8 bit image is made from it,
+ * and toHdrImage or a .hdr or .pfm file keep the full range.
+ */
+public class Framebuffer {
+    /**
+     * How linear radiance is brought into the 0 to 1 range of an 8 bit image, before gamma correction.
+     */
+    public enum ToneMapping {
+        // Cut off at 1, what the renderer has always done
+        CLAMP,
+        // Reinhard's x / (1 + x) per channel, rolls highlights off instead of cutting them
+        REINHARD;
+
+        double map(final double linear) {
+            return this == CLAMP ? linear : linear / (1 + linear);
+        }
+    }
+
+    private final int width;
+    private final int height;
+    // red, green and blue sums of pixel (x, y) at 3 * (x + y * width) and the two indices after it
+    private final double[] radianceSums;
+    private final long[] sampleCounts;
+
+    public Framebuffer(final int width, final int height) {
+        this.width = width;
+        this.height = height;
+        this.radianceSums = new double[3 * width * height];
+        this.sampleCounts = new long[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Add the sums of a rectangle of pixels that all took the same number of samples.
+     *
+     * @param x               column of the left edge of the rectangle
+     * @param y               row of the top edge of the rectangle
+     * @param tileWidth       width of the rectangle
+     * @param tileHeight      height of the rectangle
+     * @param sums            radiance sums of the rectangle, laid out like the framebuffer but tileWidth wide
+     * @param samplesPerPixel number of samples each pixel of the rectangle took
+     */
+    public synchronized void addTile(final int x, final int y, final int tileWidth, final int tileHeight, final float[] sums, final int samplesPerPixel) {
+        for (int row = 0; row < tileHeight; row++) {
+            for (int column = 0; column < tileWidth; column++) {
+                final int pixel = (x + column) + (y + row) * width;
+                final int tileIndex = 3 * (column + row * tileWidth);
+                radianceSums[3 * pixel] += sums[tileIndex];
+                radianceSums[3 * pixel + 1] += sums[tileIndex + 1];
+                radianceSums[3 * pixel + 2] += sums[tileIndex + 2];
+                sampleCounts[pixel] += samplesPerPixel;
+            }
+        }
+    }
+
+    /**
+     * Add samples of a single pixel.
+     *
+     * @param x       column of the pixel
+     * @param y       row of the pixel, 0 is the top
+     * @param red     sum of the red radiance of the samples
+     * @param green   sum of the green radiance of the samples
+     * @param blue    sum of the blue radiance of the samples
+     * @param samples number of samples
+     */
+    public synchronized void addSamples(final int x, final int y, final double red, final double green, final double blue, final int samples) {
+        final int pixel = x + y * width;
+        radianceSums[3 * pixel] += red;
+        radianceSums[3 * pixel + 1] += green;
+        radianceSums[3 * pixel + 2] += blue;
+        sampleCounts[pixel] += samples;
+    }
+
+    public synchronized long getSampleCount(final int x, final int y) {
+        return sampleCounts[x + y * width];
+    }
+
+    /**
+     * Mean radiance of a pixel, black for pixels without samples.
+     *
+     * @param x   column of the pixel
+     * @param y   row of the pixel, 0 is the top
+     * @param rgb receives the red, green and blue at index 0, 1 and 2
+     */
+    public synchronized void meanRadiance(final int x, final int y, final double[] rgb) {
+        final int pixel = x + y * width;
+        final long samples = Math.max(1, sampleCounts[pixel]);
+        rgb[0] = radianceSums[3 * pixel] / samples;
+        rgb[1] = radianceSums[3 * pixel + 1] / samples;
+        rgb[2] = radianceSums[3 * pixel + 2] / samples;
+    }
+
+    /**
+     * 8 bit image of the mean radiance, clamped and gamma corrected by 2.
+     *
+     * @return the image
+     */
+    public BufferedImage toImage() {
+        return toImage(0, 0, width, height);
+    }
+
+    /**
+     * 8 bit image of the mean radiance.
+     *
+     * @param exposure    radiance is multiplied by this before tone mapping
+     * @param toneMapping how radiance is brought into range before gamma correction by 2
+     * @return the image
+     */
+    public BufferedImage toImage(final double exposure, final ToneMapping toneMapping) {
+        return toImage(0, 0, width, height, exposure, toneMapping);
+    }
+
+    /**
+     * 8 bit image of the mean radiance of a rectangle of the framebuffer, see toImage.
+     *
+     * @param x           column of the left edge of the rectangle
+     * @param y           row of the top edge of the rectangle
+     * @param imageWidth  width of the rectangle
+     * @param imageHeight height of the rectangle
+     * @return the image
+     */
+    public BufferedImage toImage(final int x, final int y, final int imageWidth, final int imageHeight) {
+        return toImage(x, y, imageWidth, imageHeight, 1, ToneMapping.CLAMP);
+    }
+
+    /**
+     * 8 bit image of the mean radiance of a rectangle of the framebuffer.
+     *
+     * @param x           column of the left edge of the rectangle
+     * @param y           row of the top edge of the rectangle
+     * @param imageWidth  width of the rectangle
+     * @param imageHeight height of the rectangle
+     * @param exposure    radiance is multiplied by this before tone mapping
+     * @param toneMapping how radiance is brought into range before gamma correction by 2
+     * @return the image
+     */
+    public synchronized BufferedImage toImage(final int x, final int y, final int imageWidth, final int imageHeight,
+                                              final double exposure, final ToneMapping toneMapping) {
+        final BufferedImage image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
+        final double[] rgb = new double[3];
+        for (int row = 0; row < imageHeight; row++) {
+            for (int column = 0; column < imageWidth; column++) {
+                meanRadiance(x + column, y + row, rgb);
+                image.setRGB(column, row, (toByte(toneMapping.map(exposure * rgb[0])) << 16)
+                        | (toByte(toneMapping.map(exposure * rgb[1])) << 8) | toByte(toneMapping.map(exposure * rgb[2])));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Mean radiance of every pixel at full range.
+     *
+     * @return the image
+     */
+    public synchronized HdrImage toHdrImage() {
+        final float[] rgb = new float[3 * width * height];
+        for (int pixel = 0; pixel < width * height; pixel++) {
+            final long samples = Math.max(1, sampleCounts[pixel]);
+            for (int channel = 0; channel < 3; channel++) {
+                rgb[3 * pixel + channel] = (float) (radianceSums[3 * pixel + channel] / samples);
+            }
+        }
+        return new HdrImage(width, height, rgb);
+    }
+
+    /**
+     * Write the image to a file, the format is picked from the file extension. .hdr and .pfm keep the full range of the
+     * radiance, anything else is written by ImageIO as an 8 bit image.
+     *
+     * @param path file to write
+     * @throws IOException if the file can not be written or ImageIO has no writer for the extension
+     */
+    public void write(final Path path) throws IOException {
+        final ImageWriteEvent event = new ImageWriteEvent();
+        event.begin();
+        final String fileName = path.getFileName().toString().toLowerCase();
+        final String format = fileName.substring(fileName.lastIndexOf('.') + 1);
+        if (format.equals("hdr") || format.equals("pfm")) {
+            toHdrImage().write(path);
+        } else if (!ImageIO.write(toImage(), format, path.toFile())) {
+            throw new IOException("No image writer for " + path);
+        }
+        event.path = path.toString();
+        event.format = format;
+        event.width = width;
+        event.height = height;
+        event.commit();
+    }
+
+    // Gamma correction by 2, then clamped into a byte
+    private static int toByte(final double linear) {
+        return (int) (Math.min(0.999, Math.max(0, Math.sqrt(linear))) * 255.999);
+    }
+}
@@ -0,0 +1,164 @@
+package ra.one.two.ray.tracing.scene;
+
+import ra.one.two.ray.tracing.rayhit.TraversalStatistics;
+import ra.one.two.ray.tracing.scene.description.CompiledScene;
+import ra.one.two.ray.tracing.scene.description.SceneLoader;
+import ra.one.two.ray.tracing.textures.HdrImage;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders a scene and maps where the time goes, per pixel: nodes visited, grid cells for a grid, primitives tested,
+ * path length and nanoseconds, each per sample. Every map is written as a false color PNG to look at and as a
+ * portable float map with the raw values, the value in all three channels, to compare or post-process. The image
+ * itself is written next to them as render.png to lay the maps over.
+ * <p>
+ * The false color runs from dark blue for nothing through green and yellow to red for the 99th percentile of the map,
+ * the few pixels above it are clamped so a handful of outliers do not wash out the rest. Nanoseconds include the
+ * counting itself, which costs about the same everywhere, so they show where time goes but run higher than a normal
+ * render.
+ * <p>
+ * Usage: HeatmapRenderer &lt;scene file&gt; &lt;output directory&gt; [samples per pixel]
+ */
+public class HeatmapRenderer {
+    // Maps written, by the name of their files
+    private static final String[] MAP_NAMES = {"nodes_visited", "primitive_tests", "path_length", "nanoseconds"};
+    // Colors the false color ramp passes through at equal steps, from no cost to the 99th percentile
+    private static final float[][] RAMP = {{0, 0, 0.25f}, {0, 0.45f, 1}, {0, 0.8f, 0.3f}, {1, 0.9f, 0}, {1, 0.1f, 0}};
+    private static final double CLAMP_PERCENTILE = 0.99;
+
+    private final CompiledScene scene;
+    private final int samplesPerPixel;
+    private final Framebuffer framebuffer;
+    // One array per map, pixel (x, y) at x + y * width with row 0 the top of the image
+    private final float[][] maps;
+
+    public HeatmapRenderer(final CompiledScene scene, final int samplesPerPixel) {
+        if (!TraversalStatistics.ENABLED) {
+            throw new IllegalStateException("Heatmaps need the system property traversal.statistics set to true before any ray is traced");
+        }
+        this.scene = scene;
+        this.samplesPerPixel = samplesPerPixel;
+        this.framebuffer = new Framebuffer(scene.getImageWidth(), scene.getImageHeight());
+        this.maps = new float[MAP_NAMES.length][scene.getImageWidth() * scene.getImageHeight()];
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: HeatmapRenderer <scene file> <output directory> [samples per pixel]");
+            System.exit(1);
+        }
+        // Has to be set before the statistics class loads, it is read once into a constant
+        System.setProperty("traversal.statistics", "true");
+        final CompiledScene scene = SceneLoader.load(Path.of(args[0]));
+        final Path outputDirectory = Files.createDirectories(Path.of(args[1]));
+        final int samplesPerPixel = args.length == 3 ? Integer.parseInt(args[2]) : scene.getSamplesPerPixel();
+        final HeatmapRenderer renderer = new HeatmapRenderer(scene, samplesPerPixel);
+        renderer.render(Runtime.getRuntime().availableProcessors());
+        renderer.write(outputDirectory);
+    }
+
+    /**
+     * Render every pixel and record what it cost.
+     *
+     * @param threads number of threads to render with
+     * @throws InterruptedException if interrupted while waiting for a row
+     */
+    public void render(final int threads) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> rows = new ArrayList<>(scene.getImageHeight());
+            for (int pixelRowIndex = scene.getImageHeight() - 1; pixelRowIndex >= 0; --pixelRowIndex) {
+                final int row = pixelRowIndex;
+                rows.add(executor.submit(() -> renderRow(row)));
+            }
+            for (final Future<?> row : rows) {
+                try {
+                    row.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Rendering a row failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // The counters are per thread and a row stays on one thread, so the difference around a pixel is its own cost
+    private void renderRow(final int pixelRowIndex) {
+        final int width = scene.getImageWidth();
+        final int y = scene.getImageHeight() - 1 - pixelRowIndex;
+        for (int pixelColumnIndex = 0; pixelColumnIndex < width; ++pixelColumnIndex) {
+            final long nodesBefore = TraversalStatistics.getNodesVisitedByCurrentThread();
+            final long testsBefore = TraversalStatistics.getPrimitivesTestedByCurrentThread();
+            final long segmentsBefore = PixelRenderer.getPathSegmentsTracedByCurrentThread();
+            final long start = System.nanoTime();
+            new PixelRenderer(scene.getCamera(), scene.getWorld(), scene.getMaxDepth(), pixelRowIndex, pixelColumnIndex, samplesPerPixel,
+                    framebuffer, scene.getBackgroundColor(), scene.getEnvironmentLight(), scene.getLightTree()).run();
+            final long nanoseconds = System.nanoTime() - start;
+            final int pixel = pixelColumnIndex + y * width;
+            maps[0][pixel] = (float) (TraversalStatistics.getNodesVisitedByCurrentThread() - nodesBefore) / samplesPerPixel;
+            maps[1][pixel] = (float) (TraversalStatistics.getPrimitivesTestedByCurrentThread() - testsBefore) / samplesPerPixel;
+            maps[2][pixel] = (float) (PixelRenderer.getPathSegmentsTracedByCurrentThread() - segmentsBefore) / samplesPerPixel;
+            maps[3][pixel] = (float) nanoseconds / samplesPerPixel;
+        }
+    }
+
+    /**
+     * Write the image as render.png and every map as a false color PNG and a portable float map, and print the mean,
+     * 99th percentile and maximum of each map.
+     *
+     * @param outputDirectory directory to write to
+     * @throws IOException if a file can not be written
+     */
+    public void write(final Path outputDirectory) throws IOException {
+        framebuffer.write(outputDirectory.resolve("render.png"));
+        final int width = scene.getImageWidth();
+        final int height = scene.getImageHeight();
+        for (int map = 0; map < maps.length; map++) {
+            final float[] values = maps[map];
+            final float[] sorted = values.clone();
+            Arrays.sort(sorted);
+            final float maximum = sorted[sorted.length - 1];
+            final float clamp = sorted[(int) (CLAMP_PERCENTILE * (sorted.length - 1))];
+            double sum = 0;
+            for (final float value : values) {
+                sum += value;
+            }
+            System.out.println(String.format("%-16s mean %12.1f  p99 %12.1f  max %12.1f", MAP_NAMES[map], sum / values.length, clamp, maximum));
+
+            final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            final float[] rgb = new float[3 * values.length];
+            for (int pixel = 0; pixel < values.length; pixel++) {
+                image.setRGB(pixel % width, pixel / width, falseColor(clamp > 0 ? values[pixel] / clamp : 0));
+                Arrays.fill(rgb, 3 * pixel, 3 * pixel + 3, values[pixel]);
+            }
+            ImageIO.write(image, "png", outputDirectory.resolve(MAP_NAMES[map] + ".png").toFile());
+            new HdrImage(width, height, rgb).write(outputDirectory.resolve(MAP_NAMES[map] + ".pfm"));
+        }
+    }
+
+    // Packed RGB of the ramp at a position from 0 to 1, clamped outside it
+    private static int falseColor(final double position) {
+        final double scaled = Math.min(Math.max(position, 0), 1) * (RAMP.length - 1);
+        final int stop = Math.min((int) scaled, RAMP.length - 2);
+        final double blend = scaled - stop;
+        int packed = 0;
+        for (int channel = 0; channel < 3; channel++) {
+            final double value = RAMP[stop][channel] + blend * (RAMP[stop + 1][channel] - RAMP[stop][channel]);
+            packed = (packed << 8) | (int) Math.round(255 * value);
+        }
+        return packed;
+    }
+}
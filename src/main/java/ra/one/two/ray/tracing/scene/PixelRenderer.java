@@ -1,25 +1,46 @@
 package ra.one.two.ray.tracing.scene;
 
 import lombok.AllArgsConstructor;
+import ra.one.two.ray.tracing.lights.Emitter;
+import ra.one.two.ray.tracing.lights.EnvironmentLight;
+import ra.one.two.ray.tracing.lights.LightSample;
+import ra.one.two.ray.tracing.lights.LightTree;
+import ra.one.two.ray.tracing.materials.Material;
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
 import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.ray.Ray;
 import ra.one.two.ray.tracing.rayhit.HitRecord;
 import ra.one.two.ray.tracing.rayhit.HittableList;
-import ra.one.two.ray.tracing.rayhit.ScatterResult;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
+
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class is responsible for calculating the color of a given pixel
  */
 @AllArgsConstructor
 public class PixelRenderer implements Runnable {
+    // Rays traced against the world, camera, bounce and shadow rays alike, one counter per thread that only that thread
+    // writes so a tile can tell how many rays it took. The second count is of the path segments alone, camera and
+    // bounce rays without the shadow rays. A counter goes away with its thread
+    private static final ThreadLocal<long[]> RAYS_TRACED = ThreadLocal.withInitial(() -> new long[2]);
+    // Rays traced by all threads, added to once per path rather than once per ray
+    private static final LongAdder TOTAL_RAYS_TRACED = new LongAdder();
+
     private final Camera camera;
     private final HittableList world;
     private final int depth;
+    // Row 0 is the bottom of the image, the way the camera counts v
     private final int pixelRowIndex;
     private final int pixelColumnIndex;
     private final int samplesPerPixel;
-    private final Vec3[][] renderedImage;
+    // Receives the radiance sum of the pixel
+    private final Framebuffer framebuffer;
     private final Vec3 backgroundColor;
+    // Light from an environment map for rays that escape the world, null to use the flat background color instead
+    private final EnvironmentLight environmentLight;
+    // Emitters to sample light from directly, null when there are none and emitters are only found by scattering into them
+    private final LightTree lightTree;
 
     /**
      * This function is responsible for calculating color for a given ray which was fired earlier for a given pixel in viewport
@@ -38,28 +59,182 @@ public class PixelRenderer implements Runnable {
         // (2) determine which objects the ray intersects, and
         // (3) compute a color for that intersection point.
 
-        if (depth <= 0) {
-            return new Vec3();
-        }
+        // The path is followed bounce by bounce. Throughput is the product of the attenuations of the bounces so far,
+        // what light is found along the path is scaled by it and added up, so a bounce allocates no colors
+        final ShadingContext shading = ShadingContext.forCurrentThread();
+        final LightSample lightSample = new LightSample();
+        final double[] radiance = new double[3];
+        final double[] environmentRadiance = new double[3];
+        final double[] throughput = {1, 1, 1};
+        final long[] raysTraced = RAYS_TRACED.get();
+        final long raysTracedBefore = raysTraced[0];
+        Ray pathRay = ray;
+        // Probability density with which the previous bounce scattered into the ray, 0 for camera rays and rays out of
+        // mirror like materials where lights were not sampled. The ray starts where the previous bounce was
+        double scatteringPdfOfRay = 0;
+        // Surface normal of the previous bounce, the light tree needs it to work out how likely it was to pick an
+        // emitter the ray hits
+        Vec3 normalAtRayOrigin = null;
+        for (int bounce = 0; bounce < depth; bounce++) {
+            // Check if our input ray hits something in the world
+            raysTraced[0]++;
+            raysTraced[1]++;
+            final HitRecord hitRecord = new HitRecord();
+            if (!world.hit(pathRay, 0.001, Double.POSITIVE_INFINITY, hitRecord)) {
+                if (environmentLight != null) {
+                    final Vec3 direction = pathRay.getDirection();
+                    environmentLight.radiance(direction.getXComponent(), direction.getYComponent(), direction.getZComponent(), environmentRadiance);
+                    // If the previous bounce also sampled the environment directly, this path competes with that one
+                    // and gets the share given by the power heuristic
+                    double weight = 1;
+                    if (scatteringPdfOfRay > 0) {
+                        final double lightPdf = environmentLight.pdf(direction.getXComponent(), direction.getYComponent(), direction.getZComponent());
+                        weight = powerHeuristic(scatteringPdfOfRay, lightPdf);
+                    }
+                    addScaled(radiance, throughput, environmentRadiance[0], environmentRadiance[1], environmentRadiance[2], weight);
+                } else {
+                    addScaled(radiance, throughput, backgroundColor.getXComponent(), backgroundColor.getYComponent(), backgroundColor.getZComponent(), 1);
+                }
+                break;
+            }
+
+            // If we find that it did indeed hit some objects in the world
+            final Material material = hitRecord.getMaterialOfObjectHit();
+            material.emitted(hitRecord.getTextureCoordinatesAtHitLocation(), hitRecord.getRayHitLocationOnHittableObject(), shading);
+            // Emitters in the light tree were also sampled directly from the previous bounce, like the environment
+            // this path gets the share of their light given by the power heuristic
+            double emittedWeight = 1;
+            if (scatteringPdfOfRay > 0 && lightTree != null && lightTree.contains(material)) {
+                final double lightPdf = lightTree.pdf(pathRay.getOrigin(), normalAtRayOrigin, material, hitRecord.getRayHitLocationOnHittableObject());
+                emittedWeight = powerHeuristic(scatteringPdfOfRay, lightPdf);
+            }
+            addScaled(radiance, throughput, shading.color[0], shading.color[1], shading.color[2], emittedWeight);
 
-        // Check if our input ray hits something in the world
-        final HitRecord hitRecord = new HitRecord();
-        final boolean hit = world.hit(ray, 0.001, Double.POSITIVE_INFINITY, hitRecord);
-        // If we find that it did indeed hit some objects in the world
-        if (hit) {
-            // scatter the ray from the objects it hit based on their material types.
-            final ScatterResult scatterResult = hitRecord.getMaterialOfObjectHit().scatter(ray, hitRecord);
-            final Vec3 emitted = hitRecord.getMaterialOfObjectHit().emitted(hitRecord.getTextureCoordinatesAtHitLocation(), hitRecord.getRayHitLocationOnHittableObject());
-            // If the ray gets scattered and absorbed.
-            if (scatterResult.getScatteredRay() != null) {
-                // Calculate the color of the pixel by the color retrieved from original ray scattering
-                // and attenuate (Hadamard product) the color with the color values we retrieve from interactions of scattered ray with the world
-                return Vec3.componentWiseMultiply(scatterResult.getColorFromObjectHit(), rayColor(scatterResult.getScatteredRay(), backgroundColor, world, depth - 1)).add(emitted);
+            // scatter the ray from the objects it hit based on their material types, unless it gets absorbed.
+            if (!material.scatter(pathRay, hitRecord, shading)) {
+                break;
+            }
+            // Light found past this hit is attenuated (Hadamard product) by the color of the material
+            throughput[0] *= shading.attenuation[0];
+            throughput[1] *= shading.attenuation[1];
+            throughput[2] *= shading.attenuation[2];
+            // Diffuse like materials also get light sampled directly from the environment and the emitters (next event estimation)
+            final double scatteringPdf = environmentLight == null && lightTree == null ? 0
+                    : material.scatteringPdf(pathRay, hitRecord, shading.scatteredDirectionX, shading.scatteredDirectionY, shading.scatteredDirectionZ);
+            // Taken out of the context before light sampling shades the emitter it reaches
+            final Ray scatteredRay = shading.scatteredRay(pathRay.getRayFireTime());
+            if (scatteringPdf > 0 && environmentLight != null) {
+                sampleEnvironmentLight(pathRay, hitRecord, material, throughput, world, lightSample, radiance);
+            }
+            if (scatteringPdf > 0 && lightTree != null) {
+                sampleEmitter(pathRay, hitRecord, material, throughput, world, lightSample, radiance);
             }
-            return emitted;
-        } else {
-            return backgroundColor;
+            pathRay = scatteredRay;
+            scatteringPdfOfRay = scatteringPdf;
+            normalAtRayOrigin = hitRecord.getNormal();
+        }
+        TOTAL_RAYS_TRACED.add(raysTraced[0] - raysTracedBefore);
+        return new Vec3(radiance[0], radiance[1], radiance[2]);
+    }
+
+    // Adds a color scaled by the throughput of the path and a weight to the radiance of the path
+    private static void addScaled(final double[] radiance, final double[] throughput, final double red, final double green, final double blue,
+                                  final double weight) {
+        radiance[0] += throughput[0] * red * weight;
+        radiance[1] += throughput[1] * green * weight;
+        radiance[2] += throughput[2] * blue * weight;
+    }
+
+    /**
+     * Light reaching the hit location straight from the environment, by sampling a direction from the environment light
+     * and checking nothing in the world blocks it. The sample is weighed by the power heuristic against the chance
+     * of the material scattering in the same direction, scaled by the throughput and added to the radiance.
+     */
+    private void sampleEnvironmentLight(final Ray ray, final HitRecord hitRecord, final Material material, final double[] throughput,
+                                        final HittableList world, final LightSample lightSample, final double[] radiance) {
+        environmentLight.sample(SeedableRandom.nextDouble(), SeedableRandom.nextDouble(), lightSample);
+        if (lightSample.pdf <= 0) {
+            return;
+        }
+        final double scatteringPdf = material.scatteringPdf(ray, hitRecord, lightSample.directionX, lightSample.directionY, lightSample.directionZ);
+        if (scatteringPdf <= 0) {
+            return;
+        }
+        final Vec3 lightDirection = new Vec3(lightSample.directionX, lightSample.directionY, lightSample.directionZ);
+        final Ray shadowRay = new Ray(hitRecord.getRayHitLocationOnHittableObject(), lightDirection, ray.getRayFireTime());
+        RAYS_TRACED.get()[0]++;
+        // Any blocker will do, no need for the closest one
+        if (world.occluded(shadowRay, 0.001, lightSample.distance)) {
+            return;
+        }
+        final double weight = powerHeuristic(lightSample.pdf, scatteringPdf) * scatteringPdf / lightSample.pdf;
+        addScaled(radiance, throughput, lightSample.radianceRed, lightSample.radianceGreen, lightSample.radianceBlue, weight);
+    }
+
+    /**
+     * Light reaching the hit location straight from an emitter picked from the light tree. The shadow ray has to reach
+     * the picked emitter, its material tells it apart from everything else, and the radiance is what the emitter gives
+     * off where the ray hits it. The sample is weighed by the power heuristic against the chance of the material
+     * scattering in the same direction, scaled by the throughput and added to the radiance.
+     */
+    private void sampleEmitter(final Ray ray, final HitRecord hitRecord, final Material material, final double[] throughput,
+                               final HittableList world, final LightSample lightSample, final double[] radiance) {
+        final Vec3 hitLocation = hitRecord.getRayHitLocationOnHittableObject();
+        final Emitter emitter = lightTree.sample(hitLocation, hitRecord.getNormal(), SeedableRandom.nextDouble(), SeedableRandom.nextDouble(),
+                SeedableRandom.nextDouble(), lightSample);
+        if (emitter == null || lightSample.pdf <= 0) {
+            return;
+        }
+        final double scatteringPdf = material.scatteringPdf(ray, hitRecord, lightSample.directionX, lightSample.directionY, lightSample.directionZ);
+        if (scatteringPdf <= 0) {
+            return;
         }
+        final Vec3 lightDirection = new Vec3(lightSample.directionX, lightSample.directionY, lightSample.directionZ);
+        final Ray shadowRay = new Ray(hitLocation, lightDirection, ray.getRayFireTime());
+        final HitRecord emitterHit = new HitRecord();
+        RAYS_TRACED.get()[0]++;
+        if (!world.hit(shadowRay, 0.001, lightSample.distance, emitterHit) || emitterHit.getMaterialOfObjectHit() != emitter.getMaterial()) {
+            return;
+        }
+        final ShadingContext shading = ShadingContext.forCurrentThread();
+        emitter.getMaterial().emitted(emitterHit.getTextureCoordinatesAtHitLocation(), emitterHit.getRayHitLocationOnHittableObject(), shading);
+        final double weight = powerHeuristic(lightSample.pdf, scatteringPdf) * scatteringPdf / lightSample.pdf;
+        addScaled(radiance, throughput, shading.color[0], shading.color[1], shading.color[2], weight);
+    }
+
+    /**
+     * @return number of rays traced by all threads since the program started, the difference of two calls gives the rays
+     * traced in between. Counts of threads still tracing may lag a little behind
+     */
+    public static long getRaysTraced() {
+        return TOTAL_RAYS_TRACED.sum();
+    }
+
+    /**
+     * @return number of rays traced by the calling thread since it started
+     */
+    public static long getRaysTracedByCurrentThread() {
+        return RAYS_TRACED.get()[0];
+    }
+
+    /**
+     * @return number of path segments, the camera and bounce rays without the shadow rays, traced by the calling thread
+     * since it started
+     */
+    public static long getPathSegmentsTracedByCurrentThread() {
+        return RAYS_TRACED.get()[1];
+    }
+
+    // Adds rays traced outside rayColor to the counter of the calling thread
+    static void countRaysTraced(final long rays) {
+        RAYS_TRACED.get()[0] += rays;
+        TOTAL_RAYS_TRACED.add(rays);
+    }
+
+    // Veach's power heuristic with exponent 2, the weight of a sample taken from the first strategy
+    static double powerHeuristic(final double pdf, final double otherPdf) {
+        final double pdfSquared = pdf * pdf;
+        return pdfSquared / (pdfSquared + otherPdf * otherPdf);
     }
 
     @Override
@@ -71,17 +246,17 @@ public class PixelRenderer implements Runnable {
         for (int s = 0; s < samplesPerPixel; ++s) {
             // offset for the pixel to right direction along the surface of viewport from the lower left corner.
             // we added a random number for using with multiple samples
-            final double u = (pixelColumnIndex + Math.random()) / (renderedImage[0].length - 1);
+            final double u = (pixelColumnIndex + SeedableRandom.nextDouble()) / (framebuffer.getWidth() - 1);
             // offset to get the pixel to top direction along the surface of viewport from the lower left corner.
-            final double v = (pixelRowIndex + Math.random()) / (renderedImage.length - 1);
+            final double v = (pixelRowIndex + SeedableRandom.nextDouble()) / (framebuffer.getHeight() - 1);
             // Get a ray in the direction of pixel
             final Ray ray = camera.getRay(u, v);
             // Calculate color at a given pixel
             pixelColor.add(this.rayColor(ray, backgroundColor, world, depth));
         }
-        // Get average pixel color and gamma correct by 2 i.e. raise to power 1/2
-        pixelColor.scaleDown(samplesPerPixel).pow(0.5).clamp(0, 0.999).scaleUp(255.999);
-        renderedImage[pixelRowIndex][pixelColumnIndex] = pixelColor;
+        // The framebuffer averages and gamma corrects when the image is written out, until then it keeps the full range
+        framebuffer.addSamples(pixelColumnIndex, framebuffer.getHeight() - 1 - pixelRowIndex,
+                pixelColor.getXComponent(), pixelColor.getYComponent(), pixelColor.getZComponent(), samplesPerPixel);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,190 @@
+package ra.one.two.ray.tracing.scene;
+
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
+import ra.one.two.ray.tracing.scene.description.CompiledScene;
+import ra.one.two.ray.tracing.scene.description.SceneLoader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders an image in full frame passes that double the samples of every pixel, 1, 2, 4, 8 and so on, into one
+ * framebuffer. A snapshot of the image is handed out after every pass, so a usable image exists after the first pass
+ * instead of only after the last sample.
+ * With a deadline the render stops soon after the time is up, even in the middle of a pass: tiles check the clock every
+ * few samples, and the pixels a cut pass did reach simply have more samples than the rest.
+ */
+public class ProgressiveRenderer {
+    public static final int DEFAULT_TILE_SIZE = 32;
+    // Samples per pixel a tile takes between looks at the clock. A chunk is never cut, so a render can run past its
+    // deadline by as long as a thread takes for this many samples of a whole tile: milliseconds for a simple scene,
+    // hundreds of milliseconds for a 32 by 32 tile of a heavy one. Fewer would bound it tighter but hand wavefront mode
+    // smaller batches
+    private static final int SAMPLES_BETWEEN_DEADLINE_CHECKS = 8;
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Receives the image after every pass.
+     */
+    public interface SnapshotListener {
+        /**
+         * @param pass            number of the pass, 0 for the first
+         * @param samplesPerPixel samples every pixel has at least, the pixels a pass cut by the deadline did reach
+         *                        have more
+         * @param complete        false if the deadline cut the pass short
+         * @param framebuffer     the image so far, only valid during the call
+         */
+        void passFinished(int pass, int samplesPerPixel, boolean complete, Framebuffer framebuffer);
+    }
+
+    private final CompiledScene scene;
+    private final TileRenderer tileRenderer;
+    private final ExecutorService renderExecutor;
+    private final int tileSize;
+    private final Framebuffer framebuffer;
+    // Seed of the render, null to leave the random numbers unseeded
+    private final Long seed;
+
+    public ProgressiveRenderer(final CompiledScene scene, final ExecutorService renderExecutor, final int tileSize) {
+        this(scene, renderExecutor, tileSize, null);
+    }
+
+    /**
+     * @param scene          scene to render
+     * @param renderExecutor pool the tiles are rendered on
+     * @param tileSize       width and height of the tiles
+     * @param seed           seed for the random numbers, the same seed renders the same image as long as no deadline
+     *                       cuts a pass short. Null to leave the random numbers unseeded
+     */
+    public ProgressiveRenderer(final CompiledScene scene, final ExecutorService renderExecutor, final int tileSize, final Long seed) {
+        this.scene = scene;
+        this.tileRenderer = new TileRenderer(scene);
+        this.renderExecutor = renderExecutor;
+        this.tileSize = tileSize;
+        this.framebuffer = new Framebuffer(scene.getImageWidth(), scene.getImageHeight());
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: ProgressiveRenderer <scene file> <output image> [--seconds N] [--samples N] [--tile-size N]");
+            System.exit(1);
+        }
+        final CompiledScene scene = SceneLoader.load(Path.of(args[0]));
+        final Path output = Path.of(args[1]).toAbsolutePath();
+        int targetSamples = scene.getSamplesPerPixel();
+        long seconds = 0;
+        int tileSize = DEFAULT_TILE_SIZE;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            final int value = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--seconds":
+                    seconds = value;
+                    break;
+                case "--samples":
+                    targetSamples = value;
+                    break;
+                case "--tile-size":
+                    tileSize = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        final long start = System.currentTimeMillis();
+        final long deadline = seconds > 0 ? start + seconds * 1000 : NO_DEADLINE;
+        final ExecutorService renderExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            new ProgressiveRenderer(scene, renderExecutor, tileSize).render(targetSamples, deadline, (pass, samplesPerPixel, complete, framebuffer) -> {
+                // Written next to the output and moved over it, a viewer watching the file never sees half an image
+                try {
+                    final Path snapshot = output.resolveSibling(".part-" + output.getFileName());
+                    framebuffer.write(snapshot);
+                    Files.move(snapshot, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    System.err.println("Could not write snapshot: " + e.getMessage());
+                }
+                System.err.println("Pass " + pass + ", " + samplesPerPixel + (complete ? "" : " or more") + " samples per pixel after "
+                        + (System.currentTimeMillis() - start) + " ms");
+            });
+        } finally {
+            renderExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Render passes until every pixel has the target number of samples or the deadline passes.
+     *
+     * @param targetSamplesPerPixel samples per pixel to stop at, the last pass only takes what is left to reach it
+     * @param deadline              time in milliseconds since the epoch to stop at, or NO_DEADLINE
+     * @param listener              receives the image after every pass
+     * @return the framebuffer holding the image
+     * @throws InterruptedException if interrupted while waiting for a pass
+     */
+    public Framebuffer render(final int targetSamplesPerPixel, final long deadline, final SnapshotListener listener) throws InterruptedException {
+        int samplesDone = 0;
+        for (int pass = 0; samplesDone < targetSamplesPerPixel && System.currentTimeMillis() < deadline; pass++) {
+            // 1 sample in the first pass, then as many as all passes before it so the count doubles
+            final int passSamples = Math.min(Math.max(1, samplesDone), targetSamplesPerPixel - samplesDone);
+            final boolean complete = renderPass(pass, passSamples, deadline);
+            samplesDone += passSamples;
+            listener.passFinished(pass, complete ? samplesDone : samplesDone - passSamples, complete, framebuffer);
+        }
+        return framebuffer;
+    }
+
+    public Framebuffer getFramebuffer() {
+        return framebuffer;
+    }
+
+    // Returns false if the deadline cut the pass short
+    private boolean renderPass(final int pass, final int passSamples, final long deadline) throws InterruptedException {
+        final List<Future<Boolean>> tiles = new ArrayList<>();
+        for (int y = 0; y < scene.getImageHeight(); y += tileSize) {
+            for (int x = 0; x < scene.getImageWidth(); x += tileSize) {
+                final int tileX = x;
+                final int tileY = y;
+                tiles.add(renderExecutor.submit(() -> renderTile(pass, tileX, tileY, passSamples, deadline)));
+            }
+        }
+        boolean complete = true;
+        for (final Future<Boolean> tile : tiles) {
+            try {
+                complete &= tile.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Rendering a tile failed", e.getCause());
+            }
+        }
+        return complete;
+    }
+
+    private boolean renderTile(final int pass, final int x, final int y, final int passSamples, final long deadline) {
+        final int width = Math.min(tileSize, scene.getImageWidth() - x);
+        final int height = Math.min(tileSize, scene.getImageHeight() - y);
+        final float[] sums = new float[3 * width * height];
+        for (int samplesDone = 0; samplesDone < passSamples; samplesDone += SAMPLES_BETWEEN_DEADLINE_CHECKS) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            final int samples = Math.min(SAMPLES_BETWEEN_DEADLINE_CHECKS, passSamples - samplesDone);
+            if (seed == null) {
+                tileRenderer.render(x, y, width, height, samples, sums);
+            } else {
+                // Every chunk of every tile and pass gets its own sequence, however the chunks are spread over threads
+                tileRenderer.render(x, y, width, height, samples, sums,
+                        SeedableRandom.seedFor(seed, pass, x + (long) y * scene.getImageWidth(), samplesDone));
+            }
+            framebuffer.addTile(x, y, width, height, sums, samples);
+        }
+        return true;
+    }
+}
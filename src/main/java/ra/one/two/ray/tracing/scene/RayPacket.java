@@ -0,0 +1,34 @@
+package ra.one.two.ray.tracing.scene;
+
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+
+/**
+ * Rays kept in parallel arrays, one per component, so many rays can be generated and read without an object per ray.
+ */
+class RayPacket {
+    final int capacity;
+    int size;
+    final double[] originX;
+    final double[] originY;
+    final double[] originZ;
+    final double[] directionX;
+    final double[] directionY;
+    final double[] directionZ;
+    final double[] time;
+
+    RayPacket(final int capacity) {
+        this.capacity = capacity;
+        originX = new double[capacity];
+        originY = new double[capacity];
+        originZ = new double[capacity];
+        directionX = new double[capacity];
+        directionY = new double[capacity];
+        directionZ = new double[capacity];
+        time = new double[capacity];
+    }
+
+    Ray ray(final int slot) {
+        return new Ray(new Vec3(originX[slot], originY[slot], originZ[slot]), new Vec3(directionX[slot], directionY[slot], directionZ[slot]), time[slot]);
+    }
+}
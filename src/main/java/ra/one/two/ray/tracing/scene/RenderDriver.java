@@ -1,11 +1,17 @@
 package ra.one.two.ray.tracing.scene;
 
+import ra.one.two.ray.tracing.diagnostics.HierarchyBuildEvent;
+import ra.one.two.ray.tracing.diagnostics.ImageWriteEvent;
+import ra.one.two.ray.tracing.diagnostics.SceneBuildEvent;
+import ra.one.two.ray.tracing.lights.EnvironmentLight;
 import ra.one.two.ray.tracing.materials.Dielectric;
 import ra.one.two.ray.tracing.materials.DiffuseLight;
 import ra.one.two.ray.tracing.materials.Lambertian;
 import ra.one.two.ray.tracing.materials.Metal;
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
 import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.objects.Box;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
 import ra.one.two.ray.tracing.primitives.objects.MovingSphere;
 import ra.one.two.ray.tracing.primitives.objects.Sphere;
 import ra.one.two.ray.tracing.primitives.objects.XZPlaneRectangle;
@@ -13,11 +19,21 @@ import ra.one.two.ray.tracing.rayhit.BoundingVolumeHeirarchyNode;
 import ra.one.two.ray.tracing.rayhit.ConstantMedium;
 import ra.one.two.ray.tracing.rayhit.HittableList;
 import ra.one.two.ray.tracing.rayhit.RotateY;
+import ra.one.two.ray.tracing.rayhit.TopLevelHierarchy;
 import ra.one.two.ray.tracing.rayhit.Translate;
-import ra.one.two.ray.tracing.textures.ImageTexture;
+import ra.one.two.ray.tracing.scene.description.AssetManager;
+import ra.one.two.ray.tracing.scene.description.CompiledScene;
+import ra.one.two.ray.tracing.scene.description.SceneLoader;
+import ra.one.two.ray.tracing.textures.BakedTexture;
 import ra.one.two.ray.tracing.textures.NoiseTexture;
+import ra.one.two.ray.tracing.textures.PendingTexture;
+import ra.one.two.ray.tracing.textures.Texture;
+import ra.one.two.ray.tracing.textures.TextureBrickCache;
 
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -42,6 +58,14 @@ public class RenderDriver {
     private static final int MAX_DEPTH = 50;
     // background color of the render
     private static final Vec3 BACKGROUND_COLOR = new Vec3();
+    // Equirectangular .hdr or .pfm environment map lighting the scene in place of the background color, unset for none
+    private static final String ENVIRONMENT_MAP_PATH = System.getProperty("environment.map");
+    // Multiplier for the radiance of the environment map
+    private static final double ENVIRONMENT_INTENSITY = Double.parseDouble(System.getProperty("environment.intensity", "1.0"));
+    // File the image is also written to, .hdr or .pfm keep the full range of the radiance, unset for none
+    private static final String OUTPUT_IMAGE_PATH = System.getProperty("output.image");
+    // Side of the square tiles the image is split into, one tile is one task for the render threads
+    private static final int TILE_SIZE = 32;
 
     // Camera
     // Camera position
@@ -56,25 +80,43 @@ public class RenderDriver {
     private static final double CAMERA_APERTURE = 0.0;
     public static final int VERTICAL_FIELD_OF_VIEW_IN_DEGREES = 40;
 
+    // Procedural textures
+    // Bake procedural textures into a lattice once instead of evaluating them at every hit, trades some blur for speed.
+    // Turned on with -Dbake.procedural.textures=true
+    private static final boolean BAKE_PROCEDURAL_TEXTURES = Boolean.getBoolean("bake.procedural.textures");
+    // Resolution of the baked lattice along the longest axis of the textured object
+    private static final int BAKED_TEXTURE_RESOLUTION = 512;
+    // Memory all baked textures together are allowed to hold on to
+    private static final long BAKED_TEXTURE_MEMORY_BUDGET_IN_BYTES = 256L * 1024 * 1024;
+
     public static void main(String[] args) throws InterruptedException, IOException {
 
         final long start = System.currentTimeMillis();
-        //Camera
-        final Camera camera = new Camera(LOOK_FROM, LOOK_AT, UP_VECTOR, VERTICAL_FIELD_OF_VIEW_IN_DEGREES, ASPECT_RATIO, CAMERA_APERTURE, DISTANCE_TO_FOCUS, 0, 1.0);
-
-        // World
-        final HittableList world = finalScene();
+        // Render the scene file given on the command line, or the built in final scene when there is none
+        final CompiledScene scene = args.length > 0 ? SceneLoader.load(Path.of(args[0])) : builtInScene();
+        final int imageWidth = scene.getImageWidth();
+        final int imageHeight = scene.getImageHeight();
+        System.err.println("Scene ready in " + (System.currentTimeMillis() - start) + " ms");
 
-        System.out.println("P3\n" + IMAGE_WIDTH + ' ' + IMAGE_HEIGHT + "\n255");
+        System.out.println("P3\n" + imageWidth + ' ' + imageHeight + "\n255");
 
         //creating a pool of 6 threads
         final ExecutorService executor = Executors.newFixedThreadPool(6);
-        final Vec3[][] renderedImage = new Vec3[IMAGE_HEIGHT][IMAGE_WIDTH];
+        final Framebuffer framebuffer = new Framebuffer(imageWidth, imageHeight);
+        final TileRenderer tileRenderer = new TileRenderer(scene);
 
-        // For each pixel in image calculate its color
-        for (int pixelRowIndex = IMAGE_HEIGHT - 1; pixelRowIndex >= 0; --pixelRowIndex) {
-            for (int pixelColumnIndex = 0; pixelColumnIndex < IMAGE_WIDTH; ++pixelColumnIndex) {
-                executor.execute(new PixelRenderer(camera, world, MAX_DEPTH, pixelRowIndex, pixelColumnIndex, SAMPLES_PER_PIXEL, renderedImage, BACKGROUND_COLOR));
+        // For each tile of the image, top row first, calculate the color of its pixels
+        for (int y = 0; y < imageHeight; y += TILE_SIZE) {
+            for (int x = 0; x < imageWidth; x += TILE_SIZE) {
+                final int tileX = x;
+                final int tileY = y;
+                final int tileWidth = Math.min(TILE_SIZE, imageWidth - x);
+                final int tileHeight = Math.min(TILE_SIZE, imageHeight - y);
+                executor.execute(() -> {
+                    final float[] sums = new float[3 * tileWidth * tileHeight];
+                    tileRenderer.render(tileX, tileY, tileWidth, tileHeight, scene.getSamplesPerPixel(), sums);
+                    framebuffer.addTile(tileX, tileY, tileWidth, tileHeight, sums, scene.getSamplesPerPixel());
+                });
             }
         }
 
@@ -82,19 +124,72 @@ public class RenderDriver {
         executor.shutdown();
         executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
 
-        // Finally we will write the color after dividing by numberOfSamples to get the average color.
-        for (int pixelRowIndex = IMAGE_HEIGHT - 1; pixelRowIndex >= 0; --pixelRowIndex) {
-            for (int pixelColumnIndex = 0; pixelColumnIndex < IMAGE_WIDTH; ++pixelColumnIndex) {
-                System.out.println(renderedImage[pixelRowIndex][pixelColumnIndex]);
+        // Finally we will write the average color of every pixel, gamma corrected, top row first.
+        final ImageWriteEvent writeEvent = new ImageWriteEvent();
+        writeEvent.begin();
+        final BufferedImage image = framebuffer.toImage();
+        for (int row = 0; row < imageHeight; ++row) {
+            for (int column = 0; column < imageWidth; ++column) {
+                final int rgb = image.getRGB(column, row);
+                System.out.println(((rgb >> 16) & 0xFF) + " " + ((rgb >> 8) & 0xFF) + " " + (rgb & 0xFF));
             }
         }
+        writeEvent.path = "standard output";
+        writeEvent.format = "ppm";
+        writeEvent.width = imageWidth;
+        writeEvent.height = imageHeight;
+        writeEvent.commit();
+        if (OUTPUT_IMAGE_PATH != null) {
+            framebuffer.write(Path.of(OUTPUT_IMAGE_PATH));
+        }
+
+        // From milliseconds so a small scene rendered in under a second does not divide by zero
+        final long millisToRender = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println(millisToRender / 1000);
+        System.out.println(1000L * imageHeight * imageWidth / millisToRender);
+    }
 
-        final long timeToRender = (System.currentTimeMillis() - start) / 1000;
-        System.out.println(timeToRender);
-        System.out.println(IMAGE_HEIGHT * IMAGE_WIDTH / timeToRender);
+    private static CompiledScene builtInScene() throws IOException {
+        // Same events as a scene file loaded by SceneLoader, so a recording of the built in scene shows where its time goes
+        final SceneBuildEvent event = new SceneBuildEvent();
+        event.begin();
+        final Camera camera = new Camera(LOOK_FROM, LOOK_AT, UP_VECTOR, VERTICAL_FIELD_OF_VIEW_IN_DEGREES, ASPECT_RATIO, CAMERA_APERTURE, DISTANCE_TO_FOCUS, 0, 1.0);
+        final EnvironmentLight environmentLight = ENVIRONMENT_MAP_PATH == null ? null : new EnvironmentLight(Path.of(ENVIRONMENT_MAP_PATH), ENVIRONMENT_INTENSITY);
+        // Top level objects through TopLevelHierarchy, the fog sphere and the ground are set aside and the nine objects
+        // left are too few for a hierarchy to pay, so this scene ends up looped over like a list
+        final List<Hittable> objects = finalScene().getHittableList();
+        final HierarchyBuildEvent hierarchyEvent = new HierarchyBuildEvent();
+        hierarchyEvent.begin();
+        final TopLevelHierarchy topLevelHierarchy = new TopLevelHierarchy(objects, 0, 1.0);
+        hierarchyEvent.group = "top level";
+        hierarchyEvent.accelerator = "bvh";
+        hierarchyEvent.primitiveCount = objects.size();
+        hierarchyEvent.nodeCount = topLevelHierarchy.getHierarchy() == null ? 0 : topLevelHierarchy.getHierarchy().getLayout().getNodeCount();
+        hierarchyEvent.commit();
+        final HittableList world = new HittableList();
+        world.getHittableList().add(topLevelHierarchy);
+        event.contentHash = "built in";
+        event.commit();
+        return new CompiledScene(camera, world, IMAGE_WIDTH, IMAGE_HEIGHT, SAMPLES_PER_PIXEL, MAX_DEPTH, BACKGROUND_COLOR, environmentLight, null,
+                1, 1, null, List.of(), null);
     }
 
-    private static HittableList finalScene() throws IOException {
+    // Hierarchy over a list of objects, recorded like the hierarchy of a group of a scene file
+    private static BoundingVolumeHeirarchyNode hierarchy(final String name, final HittableList objects) {
+        final HierarchyBuildEvent event = new HierarchyBuildEvent();
+        event.begin();
+        final int primitiveCount = objects.getHittableList().size();
+        final BoundingVolumeHeirarchyNode hierarchy = new BoundingVolumeHeirarchyNode(objects, 0, 1);
+        event.group = name;
+        event.accelerator = "bvh";
+        event.primitiveCount = primitiveCount;
+        // Split in halves down to one or two objects per node, so a node for every object but one
+        event.nodeCount = Math.max(1, primitiveCount - 1);
+        event.commit();
+        return hierarchy;
+    }
+
+    private static HittableList finalScene() {
         final HittableList boxes = new HittableList();
         var ground = new Lambertian(new Vec3(0.48, 0.83, 0.53));
         final int boxesPerSide = 20;
@@ -105,7 +200,7 @@ public class RenderDriver {
                 var z0 = -1000.0 + j*w;
                 var y0 = 0.0;
                 var x1 = x0 + w;
-                var y1 = Math.random()*100 + 1;
+                var y1 = SeedableRandom.nextDouble()*100 + 1;
                 var z1 = z0 + w;
 
                 boxes.getHittableList().add(new Box(new Vec3(x0,y0,z0), new Vec3(x1,y1,z1), ground));
@@ -114,7 +209,7 @@ public class RenderDriver {
 
         HittableList objects = new HittableList();
 
-        objects.getHittableList().add(new BoundingVolumeHeirarchyNode(boxes, 0, 1));
+        objects.getHittableList().add(hierarchy("ground boxes", boxes));
 
         DiffuseLight light = new DiffuseLight(new Vec3(7, 7, 7));
         objects.getHittableList().add(new XZPlaneRectangle(123, 147,423,  412, 554, light));
@@ -133,9 +228,15 @@ public class RenderDriver {
         boundary = new Sphere(new Vec3(0, 0, 0), 5000, new Dielectric(1.5));
         objects.getHittableList().add(new ConstantMedium(boundary, .0001, new Vec3(1,1,1)));
 
-        var emat = new Lambertian(new ImageTexture(RenderDriver.class.getResourceAsStream("/earthmap.jpg")));
+        // Decoded, or read from the asset cache, in the background while the rest of the scene is built
+        var emat = new Lambertian(new PendingTexture(new AssetManager(SceneLoader.DEFAULT_ASSET_CACHE_DIRECTORY).resourceTexture("/earthmap.jpg")));
         objects.getHittableList().add(new Sphere(new Vec3(400,200,400), 100, emat));
-        var pertext = new NoiseTexture(0.1);
+        Texture pertext = new NoiseTexture(0.1);
+        if (BAKE_PROCEDURAL_TEXTURES) {
+            final var textureCache = new TextureBrickCache(BAKED_TEXTURE_MEMORY_BUDGET_IN_BYTES);
+            final var sphereBounds = new Sphere(new Vec3(220, 280, 300), 80, null).boundingBox(0, 1);
+            pertext = new BakedTexture(pertext, sphereBounds, BAKED_TEXTURE_RESOLUTION, textureCache);
+        }
         objects.getHittableList().add(new Sphere(new Vec3(220,280,300), 80, new Lambertian(pertext)));
 
         HittableList boxes2 = new HittableList();
@@ -147,7 +248,7 @@ public class RenderDriver {
 
         objects.getHittableList().add(new Translate(
                 new Vec3(-100,270,395),
-                new RotateY(15, new BoundingVolumeHeirarchyNode(boxes2, 0.0, 1.0))
+                new RotateY(15, hierarchy("sphere cluster", boxes2))
         ));
 
         return objects;
@@ -0,0 +1,111 @@
+package ra.one.two.ray.tracing.scene;
+
+import ra.one.two.ray.tracing.diagnostics.TileRenderEvent;
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.scene.description.CompiledScene;
+
+/**
+ * Renders rectangles of an image into radiance sums, the unit of work handed out when an image is split up between
+ * threads or machines. Pixels are traced the same way PixelRenderer traces them, one path after the other, or in
+ * wavefront mode by WavefrontIntegrator, which traces all samples of the tile together bounce by bounce.
+ * Wavefront mode is on with -Drender.wavefront=true.
+ */
+public class TileRenderer {
+    private final CompiledScene scene;
+    // Only used for tracing, its pixel and image fields are not used
+    private final PixelRenderer tracer;
+    // null unless tiles are traced in wavefront mode
+    private final WavefrontIntegrator wavefrontIntegrator;
+
+    public TileRenderer(final CompiledScene scene) {
+        this(scene, Boolean.getBoolean("render.wavefront"));
+    }
+
+    /**
+     * @param scene     scene to render
+     * @param wavefront trace the samples of a tile together bounce by bounce instead of one path after the other
+     */
+    public TileRenderer(final CompiledScene scene, final boolean wavefront) {
+        this.scene = scene;
+        this.tracer = new PixelRenderer(scene.getCamera(), scene.getWorld(), scene.getMaxDepth(), 0, 0, 0, null,
+                scene.getBackgroundColor(), scene.getEnvironmentLight(), scene.getLightTree());
+        this.wavefrontIntegrator = wavefront ? new WavefrontIntegrator(scene) : null;
+    }
+
+    /**
+     * Trace samples for every pixel of a rectangle and add up their radiance, reproducibly: the same seed gives the same
+     * sums on any thread.
+     *
+     * @param x               column of the left edge of the rectangle
+     * @param y               row of the top edge of the rectangle, row 0 is the top of the image
+     * @param tileWidth       width of the rectangle
+     * @param tileHeight      height of the rectangle
+     * @param samplesPerPixel number of samples to take for every pixel
+     * @param sums            receives the sums, see the other render
+     * @param seed            seed for the random numbers of the samples, see SeedableRandom.seedFor
+     */
+    public void render(final int x, final int y, final int tileWidth, final int tileHeight, final int samplesPerPixel, final float[] sums,
+                       final long seed) {
+        SeedableRandom.seed(seed);
+        render(x, y, tileWidth, tileHeight, samplesPerPixel, sums);
+    }
+
+    /**
+     * Trace samples for every pixel of a rectangle and add up their radiance.
+     *
+     * @param x               column of the left edge of the rectangle
+     * @param y               row of the top edge of the rectangle, row 0 is the top of the image
+     * @param tileWidth       width of the rectangle
+     * @param tileHeight      height of the rectangle
+     * @param samplesPerPixel number of samples to take for every pixel
+     * @param sums            receives the red, green and blue sums of pixel (column, row) of the rectangle at
+     *                        3 * (column + row * tileWidth) and the two indices after it
+     */
+    public void render(final int x, final int y, final int tileWidth, final int tileHeight, final int samplesPerPixel, final float[] sums) {
+        final TileRenderEvent event = new TileRenderEvent();
+        event.begin();
+        final long raysBefore = PixelRenderer.getRaysTracedByCurrentThread();
+        if (wavefrontIntegrator != null) {
+            wavefrontIntegrator.render(x, y, tileWidth, tileHeight, samplesPerPixel, sums);
+        } else {
+            renderPathByPath(x, y, tileWidth, tileHeight, samplesPerPixel, sums);
+        }
+        if (event.shouldCommit()) {
+            event.x = x;
+            event.y = y;
+            event.width = tileWidth;
+            event.height = tileHeight;
+            event.samplesPerPixel = samplesPerPixel;
+            event.rays = PixelRenderer.getRaysTracedByCurrentThread() - raysBefore;
+            event.commit();
+        }
+    }
+
+    private void renderPathByPath(final int x, final int y, final int tileWidth, final int tileHeight, final int samplesPerPixel, final float[] sums) {
+        final int imageWidth = scene.getImageWidth();
+        final int imageHeight = scene.getImageHeight();
+        for (int row = 0; row < tileHeight; row++) {
+            // The camera has v = 0 at the bottom of the image
+            final int pixelRowIndex = imageHeight - 1 - (y + row);
+            for (int column = 0; column < tileWidth; column++) {
+                final int pixelColumnIndex = x + column;
+                double red = 0;
+                double green = 0;
+                double blue = 0;
+                for (int s = 0; s < samplesPerPixel; ++s) {
+                    final double u = (pixelColumnIndex + SeedableRandom.nextDouble()) / (imageWidth - 1);
+                    final double v = (pixelRowIndex + SeedableRandom.nextDouble()) / (imageHeight - 1);
+                    final Vec3 color = tracer.rayColor(scene.getCamera().getRay(u, v), scene.getBackgroundColor(), scene.getWorld(), scene.getMaxDepth());
+                    red += color.getXComponent();
+                    green += color.getYComponent();
+                    blue += color.getZComponent();
+                }
+                final int index = 3 * (column + row * tileWidth);
+                sums[index] = (float) red;
+                sums[index + 1] = (float) green;
+                sums[index + 2] = (float) blue;
+            }
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package ra.one.two.ray.tracing.scene;
+
+import ra.one.two.ray.tracing.lights.Emitter;
+import ra.one.two.ray.tracing.lights.EnvironmentLight;
+import ra.one.two.ray.tracing.lights.LightSample;
+import ra.one.two.ray.tracing.lights.LightTree;
+import ra.one.two.ray.tracing.materials.Material;
+import ra.one.two.ray.tracing.primitives.math.SeedableRandom;
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.ray.Ray;
+import ra.one.two.ray.tracing.rayhit.HitRecord;
+import ra.one.two.ray.tracing.rayhit.HittableList;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
+import ra.one.two.ray.tracing.scene.description.CompiledScene;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Traces the samples of a tile breadth first instead of one path at a time. A batch of paths goes through one stage
+ * after the other: camera rays are generated for all of them, all of them are intersected with the world, the hits are
+ * sorted by the class of the material hit and every material class is shaded in one run, the shadow rays of light
+ * sampling are traced together, and the paths that scattered are compacted into the queue of the next bounce.
+ * Each stage runs the same code over many paths in a row, so its code and the data it touches stay in the caches.
+ * <p>
+ * Paths and shadow rays live in queues of parallel arrays. Every thread rendering with the integrator allocates its
+ * queues once, along with a ray and a hit record for every slot, and reuses them for every tile and chunk of samples
+ * after that, so tracing allocates next to nothing per path. The result is the same estimate PixelRenderer computes,
+ * including light sampling of the environment and the light tree, but the random numbers are drawn in another order
+ * so the noise is different.
+ */
+public class WavefrontIntegrator {
+    // Paths traced together, enough to fill the caches with useful work while keeping the queues in a few megabytes
+    static final int MAX_PATHS_IN_FLIGHT = 1 << 14;
+    private static final double T_MIN = 0.001;
+
+    private final CompiledScene scene;
+    private final HittableList world;
+    private final EnvironmentLight environmentLight;
+    private final LightTree lightTree;
+    // Small number of each material class, the key hits are sorted by. Numbered as classes are met, a class value is
+    // read without a lock so threads sorting at the same time do not wait on each other
+    private final AtomicInteger materialClassCount = new AtomicInteger();
+    private final ClassValue<Integer> materialClassKeys = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(final Class<?> materialClass) {
+            return materialClassCount.incrementAndGet();
+        }
+    };
+    // Queues of the threads rendering with this integrator, replaced by larger ones when a tile needs more paths
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<>();
+
+    public WavefrontIntegrator(final CompiledScene scene) {
+        this.scene = scene;
+        this.world = scene.getWorld();
+        this.environmentLight = scene.getEnvironmentLight();
+        this.lightTree = scene.getLightTree();
+    }
+
+    /**
+     * Trace samples for every pixel of a rectangle and add up their radiance, see TileRenderer.
+     *
+     * @param x               column of the left edge of the rectangle
+     * @param y               row of the top edge of the rectangle, row 0 is the top of the image
+     * @param tileWidth       width of the rectangle
+     * @param tileHeight      height of the rectangle
+     * @param samplesPerPixel number of samples to take for every pixel
+     * @param sums            receives the red, green and blue sums of pixel (column, row) of the rectangle at
+     *                        3 * (column + row * tileWidth) and the two indices after it
+     */
+    public void render(final int x, final int y, final int tileWidth, final int tileHeight, final int samplesPerPixel, final float[] sums) {
+        final long pathCount = (long) tileWidth * tileHeight * samplesPerPixel;
+        final Workspace workspace = workspace((int) Math.min(MAX_PATHS_IN_FLIGHT, pathCount), 3 * tileWidth * tileHeight);
+        PathQueue paths = workspace.paths;
+        PathQueue survivors = workspace.survivors;
+        final ShadowQueue shadowRays = workspace.shadowRays;
+        final HitRecord[] hitRecords = workspace.hitRecords;
+        final int[] sortKeys = workspace.sortKeys;
+        final int[] shadingOrder = workspace.shadingOrder;
+        final double[] radiance = workspace.radiance;
+        Arrays.fill(radiance, 0, 3 * tileWidth * tileHeight, 0);
+
+        long nextPath = 0;
+        while (nextPath < pathCount) {
+            nextPath = generate(paths, nextPath, pathCount, x, y, tileWidth, samplesPerPixel);
+            for (int bounce = 0; bounce < scene.getMaxDepth() && paths.size > 0; bounce++) {
+                intersect(paths, hitRecords);
+                sortByMaterial(paths, hitRecords, sortKeys, shadingOrder);
+                survivors.size = 0;
+                shadowRays.size = 0;
+                shade(paths, hitRecords, shadingOrder, survivors, shadowRays, radiance, bounce + 1 < scene.getMaxDepth());
+                traceShadowRays(shadowRays, radiance);
+                // Survivors become the paths of the next bounce, the old queue is reused for the survivors after that
+                final PathQueue swap = paths;
+                paths = survivors;
+                survivors = swap;
+            }
+            paths.size = 0;
+        }
+        for (int i = 0; i < 3 * tileWidth * tileHeight; i++) {
+            sums[i] = (float) radiance[i];
+        }
+    }
+
+    // Queues of the current thread, large enough for the paths in flight and the radiance of the pixels of a tile
+    private Workspace workspace(final int capacity, final int radianceLength) {
+        Workspace workspace = workspaces.get();
+        if (workspace == null || workspace.paths.capacity < capacity || workspace.radiance.length < radianceLength) {
+            workspace = new Workspace(Math.max(capacity, workspace == null ? 0 : workspace.paths.capacity),
+                    Math.max(radianceLength, workspace == null ? 0 : workspace.radiance.length));
+            workspaces.set(workspace);
+        }
+        return workspace;
+    }
+
+    // Fill the queue with camera rays for the next paths, path p is sample p % samples of pixel p / samples of the tile
+    private long generate(final PathQueue paths, final long firstPath, final long pathCount, final int x, final int y, final int tileWidth,
+                          final int samplesPerPixel) {
+        final int imageWidth = scene.getImageWidth();
+        final int imageHeight = scene.getImageHeight();
+        final Camera camera = scene.getCamera();
+        long path = firstPath;
+        paths.size = 0;
+        while (path < pathCount && paths.size < paths.capacity) {
+            // The rest of the samples of the pixel in one packet, as many as fit
+            final int pixel = (int) (path / samplesPerPixel);
+            final int samples = (int) Math.min(samplesPerPixel - path % samplesPerPixel, paths.capacity - paths.size);
+            final int column = pixel % tileWidth;
+            final int row = pixel / tileWidth;
+            final int first = paths.size;
+            // The camera counts rows from the bottom of the image
+            camera.generateRays(x + column, imageHeight - 1 - (y + row), imageWidth, imageHeight, samples, paths);
+            for (int slot = first; slot < paths.size; slot++) {
+                paths.throughputRed[slot] = 1;
+                paths.throughputGreen[slot] = 1;
+                paths.throughputBlue[slot] = 1;
+                paths.pixel[slot] = pixel;
+                paths.scatteringPdf[slot] = 0;
+                paths.normalX[slot] = 0;
+                paths.normalY[slot] = 0;
+                paths.normalZ[slot] = 0;
+            }
+            path += samples;
+        }
+        return path;
+    }
+
+    private void intersect(final PathQueue paths, final HitRecord[] hitRecords) {
+        for (int i = 0; i < paths.size; i++) {
+            final HitRecord hitRecord = paths.hitRecords[i];
+            hitRecords[i] = world.hit(paths.ray(i), T_MIN, Double.POSITIVE_INFINITY, hitRecord) ? hitRecord : null;
+        }
+        PixelRenderer.countRaysTraced(paths.size);
+    }
+
+    // Counting sort of the paths by the class of the material they hit, misses first
+    private void sortByMaterial(final PathQueue paths, final HitRecord[] hitRecords, final int[] sortKeys, final int[] shadingOrder) {
+        int keyCount = 1;
+        for (int i = 0; i < paths.size; i++) {
+            sortKeys[i] = hitRecords[i] == null ? 0 : materialClassKeys.get(hitRecords[i].getMaterialOfObjectHit().getClass());
+            keyCount = Math.max(keyCount, sortKeys[i] + 1);
+        }
+        final int[] starts = new int[keyCount + 1];
+        for (int i = 0; i < paths.size; i++) {
+            starts[sortKeys[i] + 1]++;
+        }
+        for (int key = 0; key < keyCount; key++) {
+            starts[key + 1] += starts[key];
+        }
+        for (int i = 0; i < paths.size; i++) {
+            shadingOrder[starts[sortKeys[i]]++] = i;
+        }
+    }
+
+    private void shade(final PathQueue paths, final HitRecord[] hitRecords, final int[] shadingOrder, final PathQueue survivors,
+                       final ShadowQueue shadowRays, final double[] radiance, final boolean survivorsTraced) {
+        final double[] environmentRadiance = new double[3];
+        final LightSample lightSample = new LightSample();
+        final ShadingContext shading = ShadingContext.forCurrentThread();
+        for (int n = 0; n < paths.size; n++) {
+            final int i = shadingOrder[n];
+            final HitRecord hitRecord = hitRecords[i];
+            final int pixel = 3 * paths.pixel[i];
+            if (hitRecord == null) {
+                escape(paths, i, environmentRadiance);
+                radiance[pixel] += paths.throughputRed[i] * environmentRadiance[0];
+                radiance[pixel + 1] += paths.throughputGreen[i] * environmentRadiance[1];
+                radiance[pixel + 2] += paths.throughputBlue[i] * environmentRadiance[2];
+                continue;
+            }
+
+            final Ray ray = paths.ray(i);
+            final Material material = hitRecord.getMaterialOfObjectHit();
+            material.emitted(hitRecord.getTextureCoordinatesAtHitLocation(), hitRecord.getRayHitLocationOnHittableObject(), shading);
+            double emittedWeight = 1;
+            if (paths.scatteringPdf[i] > 0 && lightTree != null && lightTree.contains(material)) {
+                final double lightPdf = lightTree.pdf(ray.getOrigin(), new Vec3(paths.normalX[i], paths.normalY[i], paths.normalZ[i]),
+                        material, hitRecord.getRayHitLocationOnHittableObject());
+                emittedWeight = PixelRenderer.powerHeuristic(paths.scatteringPdf[i], lightPdf);
+            }
+            radiance[pixel] += paths.throughputRed[i] * shading.color[0] * emittedWeight;
+            radiance[pixel + 1] += paths.throughputGreen[i] * shading.color[1] * emittedWeight;
+            radiance[pixel + 2] += paths.throughputBlue[i] * shading.color[2] * emittedWeight;
+            if (!material.scatter(ray, hitRecord, shading)) {
+                continue;
+            }
+
+            final double throughputRed = paths.throughputRed[i] * shading.attenuation[0];
+            final double throughputGreen = paths.throughputGreen[i] * shading.attenuation[1];
+            final double throughputBlue = paths.throughputBlue[i] * shading.attenuation[2];
+            final double scatteringPdf = environmentLight == null && lightTree == null ? 0
+                    : material.scatteringPdf(ray, hitRecord, shading.scatteredDirectionX, shading.scatteredDirectionY, shading.scatteredDirectionZ);
+            if (survivorsTraced) {
+                final int slot = survivors.size++;
+                survivors.originX[slot] = shading.scatteredOriginX;
+                survivors.originY[slot] = shading.scatteredOriginY;
+                survivors.originZ[slot] = shading.scatteredOriginZ;
+                survivors.directionX[slot] = shading.scatteredDirectionX;
+                survivors.directionY[slot] = shading.scatteredDirectionY;
+                survivors.directionZ[slot] = shading.scatteredDirectionZ;
+                survivors.time[slot] = ray.getRayFireTime();
+                survivors.throughputRed[slot] = throughputRed;
+                survivors.throughputGreen[slot] = throughputGreen;
+                survivors.throughputBlue[slot] = throughputBlue;
+                survivors.pixel[slot] = paths.pixel[i];
+                survivors.scatteringPdf[slot] = scatteringPdf;
+                survivors.normalX[slot] = hitRecord.getNormal().getXComponent();
+                survivors.normalY[slot] = hitRecord.getNormal().getYComponent();
+                survivors.normalZ[slot] = hitRecord.getNormal().getZComponent();
+            }
+            if (scatteringPdf > 0 && environmentLight != null) {
+                sampleEnvironmentLight(ray, hitRecord, material, throughputRed, throughputGreen, throughputBlue, paths.pixel[i], lightSample, shadowRays);
+            }
+            if (scatteringPdf > 0 && lightTree != null) {
+                sampleEmitter(ray, hitRecord, material, throughputRed, throughputGreen, throughputBlue, paths.pixel[i], lightSample, shadowRays);
+            }
+        }
+    }
+
+    // Radiance of a path leaving the world, weighed against sampling the environment directly from the previous bounce
+    private void escape(final PathQueue paths, final int i, final double[] environmentRadiance) {
+        if (environmentLight == null) {
+            final Vec3 background = scene.getBackgroundColor();
+            environmentRadiance[0] = background.getXComponent();
+            environmentRadiance[1] = background.getYComponent();
+            environmentRadiance[2] = background.getZComponent();
+            return;
+        }
+        environmentLight.radiance(paths.directionX[i], paths.directionY[i], paths.directionZ[i], environmentRadiance);
+        if (paths.scatteringPdf[i] > 0) {
+            final double lightPdf = environmentLight.pdf(paths.directionX[i], paths.directionY[i], paths.directionZ[i]);
+            final double weight = PixelRenderer.powerHeuristic(paths.scatteringPdf[i], lightPdf);
+            environmentRadiance[0] *= weight;
+            environmentRadiance[1] *= weight;
+            environmentRadiance[2] *= weight;
+        }
+    }
+
+    // Queue a shadow ray towards a direction sampled from the environment, carrying the light it brings if not blocked
+    private void sampleEnvironmentLight(final Ray ray, final HitRecord hitRecord, final Material material, final double throughputRed,
+                                        final double throughputGreen, final double throughputBlue, final int pixel, final LightSample lightSample,
+                                        final ShadowQueue shadowRays) {
+        environmentLight.sample(SeedableRandom.nextDouble(), SeedableRandom.nextDouble(), lightSample);
+        if (lightSample.pdf <= 0) {
+            return;
+        }
+        final double scatteringPdf = material.scatteringPdf(ray, hitRecord, lightSample.directionX, lightSample.directionY, lightSample.directionZ);
+        if (scatteringPdf <= 0) {
+            return;
+        }
+        final double weight = PixelRenderer.powerHeuristic(lightSample.pdf, scatteringPdf) * scatteringPdf / lightSample.pdf;
+        shadowRays.add(hitRecord.getRayHitLocationOnHittableObject(), lightSample, ray.getRayFireTime(), pixel, null,
+                throughputRed * lightSample.radianceRed * weight, throughputGreen * lightSample.radianceGreen * weight,
+                throughputBlue * lightSample.radianceBlue * weight);
+    }
+
+    // Queue a shadow ray towards an emitter picked from the light tree, the emitted light is looked up where it lands
+    private void sampleEmitter(final Ray ray, final HitRecord hitRecord, final Material material, final double throughputRed,
+                               final double throughputGreen, final double throughputBlue, final int pixel, final LightSample lightSample,
+                               final ShadowQueue shadowRays) {
+        final Emitter emitter = lightTree.sample(hitRecord.getRayHitLocationOnHittableObject(), hitRecord.getNormal(), SeedableRandom.nextDouble(),
+                SeedableRandom.nextDouble(), SeedableRandom.nextDouble(), lightSample);
+        if (emitter == null || lightSample.pdf <= 0) {
+            return;
+        }
+        final double scatteringPdf = material.scatteringPdf(ray, hitRecord, lightSample.directionX, lightSample.directionY, lightSample.directionZ);
+        if (scatteringPdf <= 0) {
+            return;
+        }
+        final double weight = PixelRenderer.powerHeuristic(lightSample.pdf, scatteringPdf) * scatteringPdf / lightSample.pdf;
+        shadowRays.add(hitRecord.getRayHitLocationOnHittableObject(), lightSample, ray.getRayFireTime(), pixel, emitter.getMaterial(), throughputRed * weight, throughputGreen * weight, throughputBlue * weight);
+    }
+
+    private void traceShadowRays(final ShadowQueue shadowRays, final double[] radiance) {
+        final ShadingContext shading = ShadingContext.forCurrentThread();
+        final Ray shadowRay = shadowRays.ray;
+        final HitRecord hitRecord = shadowRays.hitRecord;
+        for (int i = 0; i < shadowRays.size; i++) {
+            shadowRay.set(shadowRays.originX[i], shadowRays.originY[i], shadowRays.originZ[i], shadowRays.directionX[i],
+                    shadowRays.directionY[i], shadowRays.directionZ[i], shadowRays.time[i]);
+            final Material emitterMaterial = shadowRays.emitterMaterial[i];
+            final int pixel = 3 * shadowRays.pixel[i];
+            if (emitterMaterial == null) {
+                // Any blocker will do, no need for the closest one
+                if (!world.occluded(shadowRay, T_MIN, shadowRays.distance[i])) {
+                    radiance[pixel] += shadowRays.contributionRed[i];
+                    radiance[pixel + 1] += shadowRays.contributionGreen[i];
+                    radiance[pixel + 2] += shadowRays.contributionBlue[i];
+                }
+                continue;
+            }
+            // Rays to an emitter have to find out what they hit first, it has to be the emitter they were sent to
+            if (world.hit(shadowRay, T_MIN, shadowRays.distance[i], hitRecord) && hitRecord.getMaterialOfObjectHit() == emitterMaterial) {
+                emitterMaterial.emitted(hitRecord.getTextureCoordinatesAtHitLocation(), hitRecord.getRayHitLocationOnHittableObject(), shading);
+                radiance[pixel] += shadowRays.contributionRed[i] * shading.color[0];
+                radiance[pixel + 1] += shadowRays.contributionGreen[i] * shading.color[1];
+                radiance[pixel + 2] += shadowRays.contributionBlue[i] * shading.color[2];
+            }
+        }
+        PixelRenderer.countRaysTraced(shadowRays.size);
+    }
+
+    // Paths of one bounce, one array per field so a stage reads only the fields it needs. The rays are the packet itself,
+    // camera rays are generated straight into it
+    private static final class PathQueue extends RayPacket {
+        // Ray and hit record of every slot, set again for whichever path is in the slot
+        private final Ray[] rays;
+        final HitRecord[] hitRecords;
+        // Product of the attenuations along the path so far
+        final double[] throughputRed;
+        final double[] throughputGreen;
+        final double[] throughputBlue;
+        // Pixel of the tile the path adds its radiance to
+        final int[] pixel;
+        // Density the previous bounce scattered into the ray with, 0 for camera rays and where lights were not sampled
+        final double[] scatteringPdf;
+        // Surface normal at the ray origin, 0 for camera rays and media
+        final double[] normalX;
+        final double[] normalY;
+        final double[] normalZ;
+
+        PathQueue(final int capacity) {
+            super(capacity);
+            throughputRed = new double[capacity];
+            throughputGreen = new double[capacity];
+            throughputBlue = new double[capacity];
+            pixel = new int[capacity];
+            scatteringPdf = new double[capacity];
+            normalX = new double[capacity];
+            normalY = new double[capacity];
+            normalZ = new double[capacity];
+            rays = new Ray[capacity];
+            hitRecords = new HitRecord[capacity];
+            for (int slot = 0; slot < capacity; slot++) {
+                rays[slot] = new Ray();
+                hitRecords[slot] = new HitRecord();
+            }
+        }
+
+        // The ray of the slot, only valid until the slot is read again
+        @Override
+        Ray ray(final int slot) {
+            return rays[slot].set(originX[slot], originY[slot], originZ[slot], directionX[slot], directionY[slot], directionZ[slot], time[slot]);
+        }
+    }
+
+    // Queues and scratch arrays of one thread, allocated once and reused for every tile it renders
+    private static final class Workspace {
+        final PathQueue paths;
+        final PathQueue survivors;
+        final ShadowQueue shadowRays;
+        // The hit record of the slot if the ray of the slot hit something, null if it missed
+        final HitRecord[] hitRecords;
+        final int[] sortKeys;
+        final int[] shadingOrder;
+        // Radiance sums of the pixels of the tile, laid out like the sums handed back
+        final double[] radiance;
+
+        Workspace(final int capacity, final int radianceLength) {
+            paths = new PathQueue(capacity);
+            survivors = new PathQueue(capacity);
+            // Every hit samples the environment and the light tree once at most
+            shadowRays = new ShadowQueue(2 * capacity);
+            hitRecords = new HitRecord[capacity];
+            sortKeys = new int[capacity];
+            shadingOrder = new int[capacity];
+            radiance = new double[radianceLength];
+        }
+    }
+
+    // Shadow rays of light samples, with the radiance they add to their pixel if they get through
+    private static final class ShadowQueue {
+        int size;
+        final double[] originX;
+        final double[] originY;
+        final double[] originZ;
+        final double[] directionX;
+        final double[] directionY;
+        final double[] directionZ;
+        final double[] time;
+        final double[] distance;
+        final int[] pixel;
+        // Emitter the ray was sent to, its emitted light scales the contribution. null for the environment, the
+        // contribution then already holds the light and the ray only has to get through
+        final Material[] emitterMaterial;
+        final double[] contributionRed;
+        final double[] contributionGreen;
+        final double[] contributionBlue;
+        // Ray and hit record the shadow rays are traced with, one after the other
+        final Ray ray = new Ray();
+        final HitRecord hitRecord = new HitRecord();
+
+        ShadowQueue(final int capacity) {
+            originX = new double[capacity];
+            originY = new double[capacity];
+            originZ = new double[capacity];
+            directionX = new double[capacity];
+            directionY = new double[capacity];
+            directionZ = new double[capacity];
+            time = new double[capacity];
+            distance = new double[capacity];
+            pixel = new int[capacity];
+            emitterMaterial = new Material[capacity];
+            contributionRed = new double[capacity];
+            contributionGreen = new double[capacity];
+            contributionBlue = new double[capacity];
+        }
+
+        // Shadow ray from origin along the direction of the light sample, as far as the sample is away
+        void add(final Vec3 origin, final LightSample lightSample, final double rayTime, final int rayPixel,
+                 final Material emitter, final double red, final double green, final double blue) {
+            final int slot = size++;
+            originX[slot] = origin.getXComponent();
+            originY[slot] = origin.getYComponent();
+            originZ[slot] = origin.getZComponent();
+            directionX[slot] = lightSample.directionX;
+            directionY[slot] = lightSample.directionY;
+            directionZ[slot] = lightSample.directionZ;
+            time[slot] = rayTime;
+            distance[slot] = lightSample.distance;
+            pixel[slot] = rayPixel;
+            emitterMaterial[slot] = emitter;
+            contributionRed[slot] = red;
+            contributionGreen[slot] = green;
+            contributionBlue[slot] = blue;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package ra.one.two.ray.tracing.scene.description;
+
+import ra.one.two.ray.tracing.diagnostics.TextureLoadEvent;
+import ra.one.two.ray.tracing.textures.HdrImage;
+import ra.one.two.ray.tracing.textures.ImageTexture;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads the image textures and environment maps of a scene, all of them in parallel from the moment the scene is
+ * parsed. Every file is read once, hashed, and decoded or taken from the asset cache if a file with the same contents
+ * was decoded before. Nothing waits for a load until its hash or its decoded data is asked for.
+ * <p>
+ * The asset cache holds one file per decoded asset named after the SHA-256 of the file it was decoded from, so editing
+ * one image decodes only that image again and scenes using the same image share its cache file. A cache file is a
+ * header followed by the raw texels, little endian like the machines this runs on. It is memory mapped and a texture
+ * copies a mip level out of the mapping the first time a ray looks it up, so a cached texture costs nothing to load and
+ * levels no ray looks up are never read from disk. Cache files are only ever replaced whole, never written in place, so a mapping stays
+ * valid while another load updates the cache.
+ */
+public class AssetManager {
+    private static final int MAGIC = 0x52544153; // RTAS
+    // Bump whenever the layout of the file or of anything stored in it changes
+    static final int VERSION = 3;
+    // Loads of every scene share these threads, daemons so a load nobody waits for does not keep the program running
+    private static final ExecutorService LOAD_EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        final Thread thread = new Thread(runnable, "asset-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private enum Kind {
+        IMAGE("image"),
+        ENVIRONMENT("environment");
+
+        private final String keyword;
+
+        Kind(final String keyword) {
+            this.keyword = keyword;
+        }
+    }
+
+    // Reads the whole contents of the file of an asset
+    private interface ContentReader {
+        byte[] read() throws IOException;
+    }
+
+    // Directory of the asset cache, null to always decode
+    private final Path cacheDirectory;
+    // Loads by the resolved path of their file, a file referred to twice is loaded once
+    private final Map<Path, Asset> assets = new LinkedHashMap<>();
+
+    /**
+     * Start loading every image texture and environment map of a scene.
+     *
+     * @param description    parsed scene
+     * @param cacheDirectory directory of the asset cache, created when needed, null to decode every asset
+     */
+    public AssetManager(final SceneDescription description, final Path cacheDirectory) {
+        this(cacheDirectory);
+        for (final SceneStatement statement : description.getStatements()) {
+            final Kind kind = "image".equals(statement.getKind()) ? Kind.IMAGE : "environment".equals(statement.getKind()) ? Kind.ENVIRONMENT : null;
+            if (kind != null) {
+                final Path path = description.resolve(statement.getReferences()[0]);
+                assets.computeIfAbsent(path, assetPath -> new Asset(assetPath.toString(), statement.getReferences()[0], kind, () -> Files.readAllBytes(assetPath)));
+            }
+        }
+    }
+
+    /**
+     * Asset manager for a scene built in code, it loads what it is asked for with {@link #resourceTexture}.
+     *
+     * @param cacheDirectory directory of the asset cache, created when needed, null to decode every asset
+     */
+    public AssetManager(final Path cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Start loading an image texture bundled as a class path resource, going through the asset cache like the image
+     * textures of a scene file.
+     *
+     * @param resource absolute name of the resource, e.g. /earthmap.jpg
+     * @return the load of the texture, done once it is decoded or read from the asset cache
+     */
+    public Future<ImageTexture> resourceTexture(final String resource) {
+        return new Asset("resource " + resource, resource, Kind.IMAGE, () -> {
+            try (InputStream stream = AssetManager.class.getResourceAsStream(resource)) {
+                if (stream == null) {
+                    throw new NoSuchFileException(resource);
+                }
+                return stream.readAllBytes();
+            }
+        }).decoded.thenApply(ImageTexture.class::cast);
+    }
+
+    /**
+     * @param path resolved path of an asset of the scene
+     * @return SHA-256 of the contents of the file, waiting for the file to be read
+     * @throws IOException if the file can not be read
+     */
+    public byte[] contentHash(final Path path) throws IOException {
+        return join(asset(path).contentHash);
+    }
+
+    /**
+     * @param path resolved path of an image texture of the scene
+     * @return the load of the texture, done once it is decoded or read from the asset cache
+     */
+    public Future<ImageTexture> imageTexture(final Path path) {
+        return asset(path).decoded.thenApply(ImageTexture.class::cast);
+    }
+
+    /**
+     * @param path resolved path of an environment map of the scene
+     * @return the environment map, waiting for it to be decoded or read from the asset cache
+     * @throws IOException if the file can not be read or decoded
+     */
+    public HdrImage environmentMap(final Path path) throws IOException {
+        return (HdrImage) join(asset(path).decoded);
+    }
+
+    /**
+     * @param contents contents of a file
+     * @return SHA-256 of the contents
+     */
+    static byte[] sha256(final byte[] contents) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(contents);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Asset asset(final Path path) {
+        final Asset asset = assets.get(path);
+        if (asset == null) {
+            throw new IllegalArgumentException("Not an asset of the scene: " + path);
+        }
+        return asset;
+    }
+
+    private static <T> T join(final CompletableFuture<T> load) throws IOException {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Decoded data of an asset, from the cache when it has it and decoded from the contents otherwise
+    private Object load(final Asset asset, final byte[] contents, final byte[] contentHash) {
+        final TextureLoadEvent event = new TextureLoadEvent();
+        event.begin();
+        final Path cacheFile = cacheDirectory == null ? null : cacheDirectory.resolve(hex(contentHash) + "." + asset.kind.keyword);
+        Object decoded = null;
+        if (cacheFile != null && Files.isRegularFile(cacheFile)) {
+            try {
+                decoded = read(cacheFile, asset.kind);
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable asset cache: " + e.getMessage());
+            }
+        }
+        event.fromCache = decoded != null;
+        if (decoded == null) {
+            try {
+                decoded = asset.kind == Kind.IMAGE ? new ImageTexture(new ByteArrayInputStream(contents))
+                        : HdrImage.read(new ByteArrayInputStream(contents), asset.source);
+            } catch (IOException e) {
+                throw new UncheckedIOException(new IOException("Could not decode " + asset.source + ": " + e.getMessage(), e));
+            }
+            if (cacheFile != null) {
+                // The cache only saves time, failing to write it must not fail the load
+                try {
+                    write(cacheFile, decoded);
+                } catch (IOException e) {
+                    System.err.println("Could not write asset cache " + cacheFile + ": " + e.getMessage());
+                }
+            }
+        }
+        event.path = asset.reference;
+        event.kind = asset.kind.keyword;
+        event.width = decoded instanceof ImageTexture ? ((ImageTexture) decoded).getWidth() : ((HdrImage) decoded).getWidth();
+        event.height = decoded instanceof ImageTexture ? ((ImageTexture) decoded).getHeight() : ((HdrImage) decoded).getHeight();
+        event.commit();
+        return decoded;
+    }
+
+    private static Object read(final Path cacheFile, final Kind kind) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            // The mapping outlives the channel, it is released once the texture using it is garbage
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != kind.ordinal()) {
+                throw new IOException("Not a " + kind.keyword + " asset cache of version " + VERSION + ": " + cacheFile);
+            }
+            if (kind == Kind.ENVIRONMENT) {
+                final int width = buffer.getInt();
+                final int height = buffer.getInt();
+                return new HdrImage(width, height, section(buffer, Float.BYTES * buffer.getInt()).asFloatBuffer());
+            }
+            final int levelCount = buffer.getInt();
+            final int[] levelWidths = new int[levelCount];
+            final int[] levelHeights = new int[levelCount];
+            final ShortBuffer[] levelTexels = new ShortBuffer[levelCount];
+            for (int level = 0; level < levelCount; level++) {
+                levelWidths[level] = buffer.getInt();
+                levelHeights[level] = buffer.getInt();
+                levelTexels[level] = section(buffer, Short.BYTES * buffer.getInt()).asShortBuffer();
+            }
+            return new ImageTexture(levelWidths, levelHeights, levelTexels);
+        } catch (RuntimeException e) {
+            // Truncated or otherwise damaged file
+            throw new IOException("Corrupt asset cache " + cacheFile, e);
+        }
+    }
+
+    // The next length bytes of the buffer as a buffer of their own, and the buffer moved past them. Throws if the file
+    // ends early, so a truncated file is caught here and not by a texture lookup reading past the end of the mapping
+    private static ByteBuffer section(final ByteBuffer buffer, final int length) {
+        final ByteBuffer section = buffer.slice().limit(length);
+        buffer.position(buffer.position() + length);
+        // A slice starts out big endian whatever the order of the buffer it is cut from
+        return section.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Written next to its final location and moved into place, so loads of other scenes never see a half written file
+    private static void write(final Path cacheFile, final Object decoded) throws IOException {
+        Files.createDirectories(cacheFile.getParent());
+        final Path temporaryFile = Files.createTempFile(cacheFile.getParent(), "asset", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES * 6).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION);
+                if (decoded instanceof HdrImage) {
+                    final HdrImage image = (HdrImage) decoded;
+                    final FloatBuffer rgb = image.getRgb().duplicate();
+                    header.putInt(Kind.ENVIRONMENT.ordinal()).putInt(image.getWidth()).putInt(image.getHeight()).putInt(rgb.capacity());
+                    writeFully(channel, header.flip());
+                    final ByteBuffer bytes = ByteBuffer.allocate(Float.BYTES * rgb.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+                    bytes.asFloatBuffer().put(rgb.clear());
+                    writeFully(channel, bytes);
+                } else {
+                    final ImageTexture texture = (ImageTexture) decoded;
+                    header.putInt(Kind.IMAGE.ordinal()).putInt(texture.getLevelCount());
+                    writeFully(channel, header.flip());
+                    for (int level = 0; level < texture.getLevelCount(); level++) {
+                        final ShortBuffer texels = texture.getLevelTexels(level);
+                        final ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES * 3 + Short.BYTES * texels.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+                        bytes.putInt(texture.getLevelWidth(level)).putInt(texture.getLevelHeight(level)).putInt(texels.capacity());
+                        bytes.asShortBuffer().put(texels);
+                        writeFully(channel, bytes.clear());
+                    }
+                }
+            }
+            Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    static String hex(final byte[] bytes) {
+        final StringBuilder hex = new StringBuilder();
+        for (final byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    // Reading, hashing and decoding of one file, each step starts as soon as the one before is done
+    private class Asset {
+        // Where the file comes from, for error messages
+        private final String source;
+        // Path as the scene wrote it, for the load events
+        private final String reference;
+        private final Kind kind;
+        private final CompletableFuture<byte[]> contentHash;
+        private final CompletableFuture<Object> decoded;
+
+        private Asset(final String source, final String reference, final Kind kind, final ContentReader reader) {
+            this.source = source;
+            this.reference = reference;
+            this.kind = kind;
+            final CompletableFuture<byte[]> contents = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return reader.read();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, LOAD_EXECUTOR);
+            contentHash = contents.thenApply(AssetManager::sha256);
+            decoded = contents.thenCombineAsync(contentHash, (bytes, hash) -> load(this, bytes, hash), LOAD_EXECUTOR);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package ra.one.two.ray.tracing.scene.description;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import ra.one.two.ray.tracing.animation.CameraAnimation;
+import ra.one.two.ray.tracing.lights.EnvironmentLight;
+import ra.one.two.ray.tracing.lights.LightTree;
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.rayhit.FlattenedBoundingVolumeHierarchy;
+import ra.one.two.ray.tracing.rayhit.HittableList;
+import ra.one.two.ray.tracing.scene.Camera;
+
+import java.util.List;
+
+/**
+ * A scene ready to render, the objects of a scene file turned into hittables along with its camera and render settings.
+ */
+@Getter
+@AllArgsConstructor
+public class CompiledScene {
+    private final Camera camera;
+    private final HittableList world;
+    private final int imageWidth;
+    private final int imageHeight;
+    private final int samplesPerPixel;
+    private final int maxDepth;
+    private final Vec3 backgroundColor;
+    // null when the scene has no environment map
+    private final EnvironmentLight environmentLight;
+    // Emitters light is sampled from directly, null when the scene has none
+    private final LightTree lightTree;
+    // Number of frames to render and how many of them make a second of scene time
+    private final int frameCount;
+    private final double framesPerSecond;
+    // Camera for any frame, camera is the one for the frame at time 0. null for scenes not loaded from a scene file
+    private final CameraAnimation cameraAnimation;
+    // Hierarchies of the groups in the scene in the order they were built, i.e. nested ones before the ones containing them
+    private final List<FlattenedBoundingVolumeHierarchy> hierarchies;
+    // SHA-256 of the scene file and everything it reads, processes that loaded the same scene have the same hash.
+    // null for scenes not loaded from a scene file
+    private final String contentHash;
+}
@@ -0,0 +1,127 @@
+package ra.one.two.ray.tracing.scene.description;
+
+import ra.one.two.ray.tracing.rayhit.FlattenedBoundingVolumeHierarchy;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The parts of a compiled scene that are slow to produce and belong to the scene alone: the bounding volume hierarchy
+ * of every group. Each one is keyed by the index of the statement it belongs to, counting statements in file order with
+ * group members right after their group. Decoded textures and environment maps are cached per file by AssetManager.
+ * The file is a header followed by the raw arrays, big endian, so reading it back is a memory map and bulk copies.
+ */
+public class SceneCache {
+    private static final int MAGIC = 0x52545343; // RTSC
+    // Bump whenever the layout of the file or of anything stored in it changes
+    static final int VERSION = 3;
+
+    private final Map<Integer, FlattenedBoundingVolumeHierarchy.Layout> hierarchyLayouts = new TreeMap<>();
+
+    public FlattenedBoundingVolumeHierarchy.Layout getHierarchyLayout(final int statementIndex) {
+        return hierarchyLayouts.get(statementIndex);
+    }
+
+    public void putHierarchyLayout(final int statementIndex, final FlattenedBoundingVolumeHierarchy.Layout layout) {
+        hierarchyLayouts.put(statementIndex, layout);
+    }
+
+    /**
+     * Read a cache file written by write.
+     *
+     * @param cacheFile file to read
+     * @return the cached scene parts
+     * @throws IOException if the file can not be read or was written by a different version
+     */
+    public static SceneCache read(final Path cacheFile) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a scene cache of version " + VERSION + ": " + cacheFile);
+            }
+            final SceneCache cache = new SceneCache();
+            final int hierarchyCount = buffer.getInt();
+            for (int i = 0; i < hierarchyCount; i++) {
+                final int statementIndex = buffer.getInt();
+                final int nodeCount = buffer.getInt();
+                final float[] nodeBounds = new float[6 * nodeCount];
+                buffer.asFloatBuffer().get(nodeBounds);
+                skip(buffer, Float.BYTES * nodeBounds.length);
+                final int[] nodeOffsets = readInts(buffer, nodeCount);
+                final int[] nodePrimitiveCounts = readInts(buffer, nodeCount);
+                final byte[] nodeSplitAxes = new byte[nodeCount];
+                buffer.get(nodeSplitAxes);
+                final int[] primitiveOrder = readInts(buffer, buffer.getInt());
+                cache.putHierarchyLayout(statementIndex, new FlattenedBoundingVolumeHierarchy.Layout(nodeBounds, nodeOffsets, nodePrimitiveCounts, nodeSplitAxes, primitiveOrder));
+            }
+            return cache;
+        } catch (RuntimeException e) {
+            // Truncated or otherwise damaged file
+            throw new IOException("Corrupt scene cache " + cacheFile, e);
+        }
+    }
+
+    /**
+     * Write the cache to a file. The file is written next to its final location and moved into place, so readers
+     * never see a half written cache.
+     *
+     * @param cacheFile file to write
+     * @throws IOException if the file can not be written
+     */
+    public void write(final Path cacheFile) throws IOException {
+        final Path temporaryFile = Files.createTempFile(cacheFile.toAbsolutePath().getParent(), "scene", ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile), 1 << 16))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(hierarchyLayouts.size());
+                for (final Map.Entry<Integer, FlattenedBoundingVolumeHierarchy.Layout> entry : hierarchyLayouts.entrySet()) {
+                    final FlattenedBoundingVolumeHierarchy.Layout layout = entry.getValue();
+                    output.writeInt(entry.getKey());
+                    output.writeInt(layout.getNodeCount());
+                    final ByteBuffer bounds = ByteBuffer.allocate(Float.BYTES * layout.getNodeBounds().length);
+                    bounds.asFloatBuffer().put(layout.getNodeBounds());
+                    output.write(bounds.array());
+                    writeInts(output, layout.getNodeOffsets());
+                    writeInts(output, layout.getNodePrimitiveCounts());
+                    output.write(layout.getNodeSplitAxes());
+                    output.writeInt(layout.getPrimitiveOrder().length);
+                    writeInts(output, layout.getPrimitiveOrder());
+                }
+            }
+            Files.move(temporaryFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private static int[] readInts(final ByteBuffer buffer, final int count) {
+        final int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        skip(buffer, Integer.BYTES * count);
+        return values;
+    }
+
+    private static void writeInts(final DataOutputStream output, final int[] values) throws IOException {
+        final ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES * values.length);
+        bytes.asIntBuffer().put(values);
+        output.write(bytes.array());
+    }
+
+    // Views like asIntBuffer do not move the position of the buffer they are made from
+    private static void skip(final ByteBuffer buffer, final int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+}
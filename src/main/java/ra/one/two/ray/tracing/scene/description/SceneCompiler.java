@@ -0,0 +1,507 @@
+package ra.one.two.ray.tracing.scene.description;
+
+import ra.one.two.ray.tracing.animation.CameraAnimation;
+import ra.one.two.ray.tracing.animation.KeyframeTrack;
+import ra.one.two.ray.tracing.diagnostics.HierarchyBuildEvent;
+import ra.one.two.ray.tracing.lights.Emitter;
+import ra.one.two.ray.tracing.lights.EnvironmentLight;
+import ra.one.two.ray.tracing.lights.LightTree;
+import ra.one.two.ray.tracing.lights.RectangleEmitter;
+import ra.one.two.ray.tracing.lights.SphereEmitter;
+import ra.one.two.ray.tracing.materials.Dielectric;
+import ra.one.two.ray.tracing.materials.DiffuseLight;
+import ra.one.two.ray.tracing.materials.Isotropic;
+import ra.one.two.ray.tracing.materials.Lambertian;
+import ra.one.two.ray.tracing.materials.Material;
+import ra.one.two.ray.tracing.materials.Metal;
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.primitives.objects.Box;
+import ra.one.two.ray.tracing.primitives.objects.Hittable;
+import ra.one.two.ray.tracing.primitives.objects.MovingSphere;
+import ra.one.two.ray.tracing.primitives.objects.Sphere;
+import ra.one.two.ray.tracing.primitives.objects.XYPlaneRectangle;
+import ra.one.two.ray.tracing.primitives.objects.XZPlaneRectangle;
+import ra.one.two.ray.tracing.primitives.objects.YZPlaneRectangle;
+import ra.one.two.ray.tracing.rayhit.Accelerator;
+import ra.one.two.ray.tracing.rayhit.AnimatedRotateY;
+import ra.one.two.ray.tracing.rayhit.AnimatedTranslate;
+import ra.one.two.ray.tracing.rayhit.ConstantMedium;
+import ra.one.two.ray.tracing.rayhit.FlattenedBoundingVolumeHierarchy;
+import ra.one.two.ray.tracing.rayhit.HeterogeneousMedium;
+import ra.one.two.ray.tracing.rayhit.HittableList;
+import ra.one.two.ray.tracing.rayhit.PerlinDensityField;
+import ra.one.two.ray.tracing.rayhit.RotateY;
+import ra.one.two.ray.tracing.rayhit.TopLevelHierarchy;
+import ra.one.two.ray.tracing.rayhit.Translate;
+import ra.one.two.ray.tracing.scene.Camera;
+import ra.one.two.ray.tracing.textures.CheckerTexture;
+import ra.one.two.ray.tracing.textures.NoiseTexture;
+import ra.one.two.ray.tracing.textures.PendingTexture;
+import ra.one.two.ray.tracing.textures.SolidColorTexture;
+import ra.one.two.ray.tracing.textures.Texture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Turns a parsed scene into hittables. Group hierarchies are taken from the cache when it has them, otherwise they are
+ * built and put into the cache so it can be written out afterwards. Image textures and the environment map come from
+ * the asset manager, image textures are not waited for.
+ */
+public class SceneCompiler {
+    private final SceneDescription description;
+    private final SceneCache cache;
+    private final AssetManager assets;
+    private final String contentHash;
+    private final Map<String, Texture> textures = new HashMap<>();
+    private final Map<String, Material> materials = new HashMap<>();
+    private final Map<String, Hittable> objects = new HashMap<>();
+    // Keys of animated transforms by the name of the transform, key statements sorted by time
+    private final Map<String, List<SceneStatement>> transformKeys = new TreeMap<>();
+    private final List<FlattenedBoundingVolumeHierarchy> hierarchies = new ArrayList<>();
+    // Emissive spheres and rectangles, lights are sampled from them directly if they end up in the world untransformed
+    private final Map<Hittable, Emitter> emitterOfObject = new IdentityHashMap<>();
+    // Placed members of every group, to find the emitters in groups
+    private final Map<Hittable, List<Hittable>> membersOfGroup = new IdentityHashMap<>();
+    // The same by the name the build events give the group, in the order the groups were built
+    private final Map<String, List<Hittable>> membersOfGroupByName = new LinkedHashMap<>();
+    // Objects another statement refers to, e.g. the target of a transform. They may be somewhere else than where they
+    // were declared, so they are not sampled as lights
+    private final Set<Hittable> referencedObjects = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Index of the statement being compiled, counted the same way SceneCache keys its entries
+    private int statementIndex = 0;
+
+    private int imageWidth = 400;
+    private int imageHeight = 400;
+    private int samplesPerPixel = 100;
+    private int maxDepth = 50;
+    private Vec3 backgroundColor = new Vec3();
+    private EnvironmentLight environmentLight = null;
+    private int frameCount = 1;
+    private double framesPerSecond = 24;
+    private SceneStatement cameraStatement = null;
+    private Camera.Projection projection = Camera.Projection.PERSPECTIVE;
+    private final List<SceneStatement> cameraKeys = new ArrayList<>();
+
+    /**
+     * @param description parsed scene
+     * @param cache       cached parts of the compiled scene, parts it lacks are added to it
+     * @param contentHash hash identifying the scene, passed on to the compiled scene
+     */
+    public SceneCompiler(final SceneDescription description, final SceneCache cache, final String contentHash) {
+        this(description, cache, new AssetManager(description, null), contentHash);
+    }
+
+    /**
+     * @param description parsed scene
+     * @param cache       cached parts of the compiled scene, parts it lacks are added to it
+     * @param assets      loads of the textures and environment map of the scene
+     * @param contentHash hash identifying the scene, passed on to the compiled scene
+     */
+    public SceneCompiler(final SceneDescription description, final SceneCache cache, final AssetManager assets, final String contentHash) {
+        this.description = description;
+        this.cache = cache;
+        this.assets = assets;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Compile the scene, a compiler compiles its scene once.
+     *
+     * @return the scene ready to render
+     * @throws IOException if a texture or the environment map can not be read or the scene refers to something it does not declare
+     */
+    public CompiledScene compile() throws IOException {
+        // Bounding boxes of moving objects have to cover the shutter interval, so settle the camera before building anything.
+        // Keys can come after what they animate so pick them up up front as well.
+        for (final SceneStatement statement : description.getStatements()) {
+            switch (statement.getKind()) {
+                case "camera":
+                    cameraStatement = statement;
+                    break;
+                case "camera_key":
+                    cameraKeys.add(statement);
+                    break;
+                case "frames":
+                    // Accelerators other than bvh are built once for the whole animation, so they need to know how long it is
+                    frameCount = positiveInteger(statement.getNumbers()[0], statement);
+                    framesPerSecond = statement.getNumbers()[1];
+                    if (framesPerSecond <= 0) {
+                        throw new SceneFormatException(statement.getLineNumber(), "frames per second must be positive, got " + framesPerSecond);
+                    }
+                    break;
+                case "translate_key":
+                case "rotate_y_key":
+                    transformKeys.computeIfAbsent(statement.getReferences()[0], name -> new ArrayList<>()).add(statement);
+                    break;
+                default:
+            }
+        }
+        if (cameraStatement == null) {
+            throw new SceneFormatException(1, "scene has no camera");
+        }
+        cameraKeys.sort(Comparator.comparingDouble(key -> key.getNumbers()[0]));
+        transformKeys.values().forEach(keys -> keys.sort(Comparator.comparingDouble(key -> key.getNumbers()[0])));
+
+        final List<Hittable> placedObjects = new ArrayList<>();
+        for (final SceneStatement statement : description.getStatements()) {
+            final int index = statementIndex++;
+            switch (statement.getCategory()) {
+                case SETTING:
+                    compileSetting(statement);
+                    break;
+                case TEXTURE:
+                    declare(textures, statement, compileTexture(statement));
+                    break;
+                case MATERIAL:
+                    declare(materials, statement, compileMaterial(statement));
+                    break;
+                case OBJECT:
+                    final Hittable object = compileObject(statement, index);
+                    declare(objects, statement, object);
+                    if (statement.isPlaced()) {
+                        placedObjects.add(object);
+                    }
+                    break;
+            }
+        }
+
+        for (final Map.Entry<String, List<SceneStatement>> keys : transformKeys.entrySet()) {
+            if (!objects.containsKey(keys.getKey())) {
+                throw new SceneFormatException(keys.getValue().get(0).getLineNumber(), "no object named " + keys.getKey() + " to animate");
+            }
+        }
+
+        // Top level objects in a hierarchy of their own, it contains the group hierarchies so it is refitted after them
+        final HierarchyBuildEvent event = new HierarchyBuildEvent();
+        event.begin();
+        final TopLevelHierarchy topLevelHierarchy = new TopLevelHierarchy(placedObjects, shutterOpen(), shutterClose());
+        if (topLevelHierarchy.getHierarchy() != null) {
+            hierarchies.add(topLevelHierarchy.getHierarchy());
+        }
+        event.group = "top level";
+        event.primitiveCount = placedObjects.size();
+        event.nodeCount = topLevelHierarchy.getHierarchy() == null ? 0 : topLevelHierarchy.getHierarchy().getLayout().getNodeCount();
+        event.commit();
+        final HittableList world = new HittableList();
+        world.getHittableList().add(topLevelHierarchy);
+        final List<Emitter> emitters = new ArrayList<>();
+        collectEmitters(placedObjects, emitters);
+        final LightTree lightTree = emitters.isEmpty() ? null : new LightTree(emitters);
+
+        final CameraAnimation cameraAnimation = new CameraAnimation(cameraTrack(), (double) imageWidth / imageHeight, shutterOpen(), shutterClose(), projection);
+        return new CompiledScene(cameraAnimation.cameraAt(0), world, imageWidth, imageHeight, samplesPerPixel, maxDepth, backgroundColor, environmentLight,
+                lightTree, frameCount, framesPerSecond, cameraAnimation, hierarchies, contentHash);
+    }
+
+    // Track of the camera keys, or a single key holding the camera statement when there are none
+    private KeyframeTrack cameraTrack() throws SceneFormatException {
+        final List<SceneStatement> keys = cameraKeys.isEmpty() ? List.of(cameraStatement) : cameraKeys;
+        // Keys have their time first, the camera statement has no time and its parameters start right away
+        final int skip = cameraKeys.isEmpty() ? 0 : 1;
+        final double[] times = new double[keys.size()];
+        final double[] values = new double[keys.size() * CameraAnimation.TRACK_DIMENSION];
+        for (int k = 0; k < keys.size(); k++) {
+            times[k] = cameraKeys.isEmpty() ? 0 : keys.get(k).getNumbers()[0];
+            System.arraycopy(keys.get(k).getNumbers(), skip, values, k * CameraAnimation.TRACK_DIMENSION, CameraAnimation.TRACK_DIMENSION);
+        }
+        return track(times, values, CameraAnimation.TRACK_DIMENSION, keys.get(0));
+    }
+
+    // Track of the keys of a transform, values of a key follow its name and time
+    private KeyframeTrack transformTrack(final SceneStatement transform, final String keyKind, final int dimension) throws SceneFormatException {
+        final List<SceneStatement> keys = transformKeys.get(transform.getName());
+        final double[] times = new double[keys.size()];
+        final double[] values = new double[keys.size() * dimension];
+        for (int k = 0; k < keys.size(); k++) {
+            final SceneStatement key = keys.get(k);
+            if (!key.getKind().equals(keyKind)) {
+                throw new SceneFormatException(key.getLineNumber(), transform.getName() + " is a " + transform.getKind() + ", it takes " + transform.getKind() + "_key keys");
+            }
+            times[k] = key.getNumbers()[0];
+            System.arraycopy(key.getNumbers(), 1, values, k * dimension, dimension);
+        }
+        return track(times, values, dimension, keys.get(0));
+    }
+
+    private static KeyframeTrack track(final double[] times, final double[] values, final int dimension, final SceneStatement firstKey) throws SceneFormatException {
+        try {
+            return new KeyframeTrack(times, values, dimension);
+        } catch (IllegalArgumentException e) {
+            throw new SceneFormatException(firstKey.getLineNumber(), e.getMessage());
+        }
+    }
+
+    private boolean isAnimated(final SceneStatement statement) {
+        return statement.getName() != null && transformKeys.containsKey(statement.getName());
+    }
+
+    private void compileSetting(final SceneStatement statement) throws IOException {
+        final double[] numbers = statement.getNumbers();
+        switch (statement.getKind()) {
+            case "resolution":
+                imageWidth = positiveInteger(numbers[0], statement);
+                imageHeight = positiveInteger(numbers[1], statement);
+                break;
+            case "samples":
+                samplesPerPixel = positiveInteger(numbers[0], statement);
+                break;
+            case "depth":
+                maxDepth = positiveInteger(numbers[0], statement);
+                break;
+            case "background":
+                backgroundColor = vector(numbers, 0);
+                break;
+            case "environment":
+                // The light distribution is built from the map right away, so this waits for it to load
+                environmentLight = new EnvironmentLight(assets.environmentMap(description.resolve(statement.getReferences()[0])), numbers[0]);
+                break;
+            case "projection":
+                projection = Camera.Projection.forKeyword(statement.getReferences()[0]);
+                if (projection == null) {
+                    throw new SceneFormatException(statement.getLineNumber(), "unknown projection " + statement.getReferences()[0] + ", use one of "
+                            + Arrays.stream(Camera.Projection.values()).map(Camera.Projection::getKeyword).collect(Collectors.joining(", ")));
+                }
+                break;
+            default:
+                // camera, keys and frames, already picked up
+        }
+    }
+
+    private Texture compileTexture(final SceneStatement statement) throws SceneFormatException {
+        final double[] numbers = statement.getNumbers();
+        switch (statement.getKind()) {
+            case "solid":
+                return new SolidColorTexture(vector(numbers, 0));
+            case "checker":
+                return new CheckerTexture(texture(statement, 0), texture(statement, 1));
+            case "noise":
+                return new NoiseTexture(numbers[0], (long) numbers[1]);
+            case "image":
+                // Still loading in the background, the first ray to look it up waits for it if it has to
+                return new PendingTexture(assets.imageTexture(description.resolve(statement.getReferences()[0])));
+            default:
+                throw new SceneFormatException(statement.getLineNumber(), "unknown texture " + statement.getKind());
+        }
+    }
+
+    private Material compileMaterial(final SceneStatement statement) throws SceneFormatException {
+        final double[] numbers = statement.getNumbers();
+        switch (statement.getKind()) {
+            case "lambertian":
+                return new Lambertian(texture(statement, 0));
+            case "metal":
+                return new Metal(vector(numbers, 0), numbers[3]);
+            case "dielectric":
+                return new Dielectric(numbers[0]);
+            case "diffuse_light":
+                return new DiffuseLight(texture(statement, 0));
+            case "isotropic":
+                return new Isotropic(texture(statement, 0));
+            default:
+                throw new SceneFormatException(statement.getLineNumber(), "unknown material " + statement.getKind());
+        }
+    }
+
+    private Hittable compileObject(final SceneStatement statement, final int index) throws IOException {
+        final double[] numbers = statement.getNumbers();
+        switch (statement.getKind()) {
+            case "sphere": {
+                final Material material = ownMaterialIfEmissive(material(statement, 0));
+                final Sphere sphere = new Sphere(vector(numbers, 0), numbers[3], material);
+                if (material instanceof DiffuseLight) {
+                    emitterOfObject.put(sphere, new SphereEmitter(vector(numbers, 0), numbers[3], material));
+                }
+                return sphere;
+            }
+            case "moving_sphere":
+                return new MovingSphere(vector(numbers, 0), vector(numbers, 3), numbers[6], numbers[7], numbers[8], material(statement, 0));
+            case "box":
+                return new Box(vector(numbers, 0), vector(numbers, 3), material(statement, 0));
+            case "xy_rect":
+                return compileRectangle(statement, 2, 0, 1);
+            case "xz_rect":
+                return compileRectangle(statement, 1, 0, 2);
+            case "yz_rect":
+                return compileRectangle(statement, 0, 2, 1);
+            case "translate":
+                return isAnimated(statement)
+                        ? new AnimatedTranslate(transformTrack(statement, "translate_key", 3), object(statement, 0))
+                        : new Translate(vector(numbers, 0), object(statement, 0));
+            case "rotate_y":
+                return isAnimated(statement)
+                        ? new AnimatedRotateY(transformTrack(statement, "rotate_y_key", 1), object(statement, 0))
+                        : new RotateY(numbers[0], object(statement, 0));
+            case "constant_medium":
+                return new ConstantMedium(object(statement, 0), numbers[0], texture(statement, 1));
+            case "perlin_medium":
+                final PerlinDensityField densityField = new PerlinDensityField(numbers[0], numbers[1], (int) numbers[2], (long) numbers[3]);
+                return new HeterogeneousMedium(object(statement, 0), densityField, HeterogeneousMedium.DEFAULT_MAJORANT_GRID_RESOLUTION, texture(statement, 1));
+            case "group":
+                return compileGroup(statement, index);
+            default:
+                if (isAnimated(statement)) {
+                    throw new SceneFormatException(statement.getLineNumber(), "only translate and rotate_y can be animated with keys");
+                }
+                throw new SceneFormatException(statement.getLineNumber(), "unknown object " + statement.getKind());
+        }
+    }
+
+    /**
+     * @param statement  rectangle statement
+     * @param normalAxis axis the rectangle is perpendicular to, 0 is x, 1 is y and 2 is z
+     * @param firstAxis  axis of the first coordinate of the corners
+     * @param secondAxis axis of the second coordinate of the corners
+     */
+    private Hittable compileRectangle(final SceneStatement statement, final int normalAxis, final int firstAxis, final int secondAxis) throws SceneFormatException {
+        final double[] numbers = statement.getNumbers();
+        final Material material = ownMaterialIfEmissive(material(statement, 0));
+        final Hittable rectangle = normalAxis == 2 ? new XYPlaneRectangle(numbers[0], numbers[1], numbers[2], numbers[3], numbers[4], material)
+                : normalAxis == 1 ? new XZPlaneRectangle(numbers[0], numbers[1], numbers[2], numbers[3], numbers[4], material)
+                : new YZPlaneRectangle(numbers[0], numbers[1], numbers[2], numbers[3], numbers[4], material);
+        if (material instanceof DiffuseLight) {
+            emitterOfObject.put(rectangle, new RectangleEmitter(normalAxis, firstAxis, secondAxis, numbers[0], numbers[1], numbers[2], numbers[3], numbers[4], material));
+        }
+        return rectangle;
+    }
+
+    // A copy of an emissive material for one object, so a hit record carrying it tells which emitter was hit
+    private static Material ownMaterialIfEmissive(final Material material) {
+        return material instanceof DiffuseLight ? new DiffuseLight(((DiffuseLight) material).getEmitTexture()) : material;
+    }
+
+    // Emitters among objects placed in world space, going into groups but not into objects other statements refer to
+    private void collectEmitters(final List<Hittable> placed, final List<Emitter> emitters) {
+        for (final Hittable object : placed) {
+            if (referencedObjects.contains(object)) {
+                continue;
+            }
+            final Emitter emitter = emitterOfObject.get(object);
+            if (emitter != null) {
+                emitters.add(emitter);
+            } else if (membersOfGroup.containsKey(object)) {
+                collectEmitters(membersOfGroup.get(object), emitters);
+            }
+        }
+    }
+
+    private Hittable compileGroup(final SceneStatement group, final int index) throws IOException {
+        final List<Hittable> members = new ArrayList<>();
+        for (final SceneStatement statement : group.getMembers()) {
+            final Hittable member = compileObject(statement, statementIndex++);
+            declare(objects, statement, member);
+            if (statement.isPlaced()) {
+                members.add(member);
+            }
+        }
+        final Accelerator.Kind kind = group.getReferences().length == 0 ? Accelerator.Kind.BVH : Accelerator.Kind.forKeyword(group.getReferences()[0]);
+        if (kind == null) {
+            throw new SceneFormatException(group.getLineNumber(), "unknown accelerator " + group.getReferences()[0] + ", use one of "
+                    + Arrays.stream(Accelerator.Kind.values()).map(Accelerator.Kind::getKeyword).collect(Collectors.joining(", ")));
+        }
+        final HierarchyBuildEvent event = new HierarchyBuildEvent();
+        event.begin();
+        final Accelerator accelerator;
+        try {
+            accelerator = kind == Accelerator.Kind.BVH ? compileHierarchy(members, index, event)
+                    // Not refitted frame by frame like a hierarchy, so built to cover every frame
+                    : kind.build(members, shutterOpen(), animationEnd());
+        } catch (IllegalArgumentException e) {
+            throw new SceneFormatException(group.getLineNumber(), e.getMessage());
+        }
+        membersOfGroup.put(accelerator, members);
+        event.group = group.getName() == null ? "line " + group.getLineNumber() : group.getName();
+        event.accelerator = kind.getKeyword();
+        event.primitiveCount = members.size();
+        event.nodeCount = accelerator.getNodeCount();
+        event.commit();
+        membersOfGroupByName.put(event.group, members);
+        return accelerator;
+    }
+
+    // Hierarchy over the members of a group, its layout taken from the cache when it has one
+    private FlattenedBoundingVolumeHierarchy compileHierarchy(final List<Hittable> members, final int index, final HierarchyBuildEvent event) {
+        FlattenedBoundingVolumeHierarchy.Layout layout = cache.getHierarchyLayout(index);
+        event.fromCache = layout != null;
+        if (layout == null) {
+            layout = new FlattenedBoundingVolumeHierarchy(members, shutterOpen(), shutterClose()).getLayout();
+            cache.putHierarchyLayout(index, layout);
+        }
+        final FlattenedBoundingVolumeHierarchy hierarchy = new FlattenedBoundingVolumeHierarchy(layout, members);
+        hierarchies.add(hierarchy);
+        return hierarchy;
+    }
+
+    /**
+     * Placed members of every group of the compiled scene, e.g. to build other accelerators over them and compare.
+     *
+     * @return members by the name of the group, or its line for anonymous groups, in the order the groups were built
+     */
+    public Map<String, List<Hittable>> getGroupMembers() {
+        return Collections.unmodifiableMap(membersOfGroupByName);
+    }
+
+    private double shutterOpen() {
+        return cameraStatement.getNumbers()[12];
+    }
+
+    private double shutterClose() {
+        return cameraStatement.getNumbers()[13];
+    }
+
+    // When the shutter of the last frame closes
+    private double animationEnd() {
+        return (frameCount - 1) / framesPerSecond + shutterClose();
+    }
+
+    private Texture texture(final SceneStatement statement, final int reference) throws SceneFormatException {
+        return lookup(textures, "texture", statement, reference);
+    }
+
+    private Material material(final SceneStatement statement, final int reference) throws SceneFormatException {
+        return lookup(materials, "material", statement, reference);
+    }
+
+    private Hittable object(final SceneStatement statement, final int reference) throws SceneFormatException {
+        final Hittable object = lookup(objects, "object", statement, reference);
+        referencedObjects.add(object);
+        return object;
+    }
+
+    private static <T> T lookup(final Map<String, T> declared, final String what, final SceneStatement statement, final int reference) throws SceneFormatException {
+        final String name = statement.getReferences()[reference];
+        final T value = declared.get(name);
+        if (value == null) {
+            throw new SceneFormatException(statement.getLineNumber(), "no " + what + " named " + name + " declared above");
+        }
+        return value;
+    }
+
+    private static <T> void declare(final Map<String, T> declared, final SceneStatement statement, final T value) throws SceneFormatException {
+        if (statement.getName() != null && declared.put(statement.getName(), value) != null) {
+            throw new SceneFormatException(statement.getLineNumber(), statement.getName() + " is declared twice");
+        }
+    }
+
+    private static int positiveInteger(final double value, final SceneStatement statement) throws SceneFormatException {
+        if (value < 1 || value != Math.floor(value)) {
+            throw new SceneFormatException(statement.getLineNumber(), statement.getKind() + " needs a positive whole number, got " + value);
+        }
+        return (int) value;
+    }
+
+    private static Vec3 vector(final double[] numbers, final int offset) {
+        return new Vec3(numbers[offset], numbers[offset + 1], numbers[offset + 2]);
+    }
+}
@@ -0,0 +1,41 @@
+package ra.one.two.ray.tracing.scene.description;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsed scene file, the statements in file order along with the directory relative paths in it are resolved against.
+ */
+@Getter
+@AllArgsConstructor
+public class SceneDescription {
+    private final List<SceneStatement> statements;
+    private final Path baseDirectory;
+
+    /**
+     * Files the scene reads besides the scene file itself, in statement order.
+     *
+     * @return resolved paths of image textures and the environment map
+     */
+    public List<Path> assetPaths() {
+        final List<Path> assetPaths = new ArrayList<>();
+        for (final SceneStatement statement : statements) {
+            if ("image".equals(statement.getKind()) || "environment".equals(statement.getKind())) {
+                assetPaths.add(resolve(statement.getReferences()[0]));
+            }
+        }
+        return assetPaths;
+    }
+
+    public Path resolve(final String path) {
+        return resolve(baseDirectory, path);
+    }
+
+    static Path resolve(final Path baseDirectory, final String path) {
+        return baseDirectory.toAbsolutePath().resolve(path).normalize();
+    }
+}
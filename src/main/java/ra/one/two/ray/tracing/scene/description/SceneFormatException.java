@@ -0,0 +1,14 @@
+package ra.one.two.ray.tracing.scene.description;
+
+import java.io.IOException;
+
+/**
+ * A scene file that does not follow the scene format, the message carries the line the problem is on.
+ */
+public class SceneFormatException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public SceneFormatException(final int lineNumber, final String message) {
+        super("Line " + lineNumber + ": " + message);
+    }
+}
@@ -0,0 +1,143 @@
+package ra.one.two.ray.tracing.scene.description;
+
+import ra.one.two.ray.tracing.diagnostics.SceneBuildEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads scene files, going through the binary scene cache. The cache file of a scene is named after the SHA-256 of the
+ * scene text and of every file it reads, so editing the scene or any of its images picks a new cache file and a stale
+ * one is never used. The files the scene reads are loaded by an AssetManager with its cache in the assets directory of
+ * the cache directory.
+ */
+public class SceneLoader {
+    // Directory cache files go to unless the scene.cache.directory system property says otherwise
+    public static final Path DEFAULT_CACHE_DIRECTORY = Path.of(System.getProperty("scene.cache.directory",
+            Path.of(System.getProperty("java.io.tmpdir"), "ray-tracing-scene-cache").toString()));
+    private static final String CACHE_FILE_EXTENSION = ".scenecache";
+    private static final String ASSET_CACHE_DIRECTORY = "assets";
+    // Asset cache of scenes loaded with the default cache directory, for scenes built in code to share
+    public static final Path DEFAULT_ASSET_CACHE_DIRECTORY = DEFAULT_CACHE_DIRECTORY.resolve(ASSET_CACHE_DIRECTORY);
+
+    private SceneLoader() {
+    }
+
+    public static CompiledScene load(final Path sceneFile) throws IOException {
+        return load(sceneFile, DEFAULT_CACHE_DIRECTORY);
+    }
+
+    /**
+     * Parse and compile a scene file, taking built hierarchies from the cache when it has them and writing a cache file
+     * for the scene when it does not. Image textures may still be loading when the scene is returned.
+     *
+     * @param sceneFile      scene file to load
+     * @param cacheDirectory directory holding the cache files
+     * @return the scene ready to render
+     * @throws IOException if the scene or a file it refers to can not be read, or the scene is not valid
+     */
+    public static CompiledScene load(final Path sceneFile, final Path cacheDirectory) throws IOException {
+        // A scene file is trusted as much as whoever points at it, its paths may go anywhere
+        return load(Files.readAllBytes(sceneFile), sceneFile.toAbsolutePath().getParent(), null, cacheDirectory);
+    }
+
+    /**
+     * Parse and compile scene text that did not come from a file, e.g. a scene submitted to the render server. Paths in
+     * the scene must stay inside the base directory, a scene referring to a file outside it is not valid.
+     *
+     * @param sceneBytes     UTF-8 text of the scene
+     * @param baseDirectory  directory paths in the scene are relative to
+     * @param cacheDirectory directory holding the cache files
+     * @return the scene ready to render
+     * @throws IOException if a file the scene refers to can not be read, or the scene is not valid
+     */
+    public static CompiledScene load(final byte[] sceneBytes, final Path baseDirectory, final Path cacheDirectory) throws IOException {
+        return load(sceneBytes, baseDirectory, baseDirectory, cacheDirectory);
+    }
+
+    private static CompiledScene load(final byte[] sceneBytes, final Path baseDirectory, final Path rootDirectory, final Path cacheDirectory) throws IOException {
+        final SceneBuildEvent event = new SceneBuildEvent();
+        event.begin();
+        final SceneDescription description = SceneParser.parse(new String(sceneBytes, StandardCharsets.UTF_8), baseDirectory, rootDirectory);
+        // Every texture starts loading now, the hash waits only for the files to be read
+        final AssetManager assets = new AssetManager(description, cacheDirectory.resolve(ASSET_CACHE_DIRECTORY));
+        final List<byte[]> assetHashes = new ArrayList<>();
+        for (final Path assetPath : description.assetPaths()) {
+            assetHashes.add(assets.contentHash(assetPath));
+        }
+
+        final String contentHash = contentHash(sceneBytes, assetHashes);
+        final Path cacheFile = cacheDirectory.resolve(contentHash + CACHE_FILE_EXTENSION);
+        SceneCache cache = null;
+        if (Files.isRegularFile(cacheFile)) {
+            try {
+                cache = SceneCache.read(cacheFile);
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable scene cache: " + e.getMessage());
+            }
+        }
+        final boolean cacheHit = cache != null;
+        if (!cacheHit) {
+            cache = new SceneCache();
+        }
+
+        final CompiledScene scene = new SceneCompiler(description, cache, assets, contentHash).compile();
+        if (!cacheHit) {
+            // The cache only saves time, failing to write it must not fail the render
+            try {
+                Files.createDirectories(cacheDirectory);
+                cache.write(cacheFile);
+            } catch (IOException e) {
+                System.err.println("Could not write scene cache " + cacheFile + ": " + e.getMessage());
+            }
+        }
+        event.contentHash = contentHash;
+        event.cacheHit = cacheHit;
+        event.statementCount = description.getStatements().size();
+        event.commit();
+        return scene;
+    }
+
+    /**
+     * Hash identifying a scene, the same one its compiled scene carries. Cheap next to loading, the scene is parsed and
+     * the files it reads are hashed but nothing is decoded or built. Paths in the scene must stay inside the base
+     * directory, as for {@link #load(byte[], Path, Path)}.
+     *
+     * @param sceneBytes    UTF-8 text of the scene
+     * @param baseDirectory directory paths in the scene are relative to
+     * @return SHA-256 of the scene and the files it reads, in hex
+     * @throws IOException if a file the scene refers to can not be read, or the scene is not valid
+     */
+    public static String contentHash(final byte[] sceneBytes, final Path baseDirectory) throws IOException {
+        final SceneDescription description = SceneParser.parse(new String(sceneBytes, StandardCharsets.UTF_8), baseDirectory, baseDirectory);
+        final List<byte[]> assetHashes = new ArrayList<>();
+        for (final Path assetPath : description.assetPaths()) {
+            assetHashes.add(AssetManager.sha256(Files.readAllBytes(assetPath)));
+        }
+        return contentHash(sceneBytes, assetHashes);
+    }
+
+    // Hash of the scene text and of the hashes of the files it reads, in the order the scene refers to them
+    private static String contentHash(final byte[] sceneBytes, final List<byte[]> assetHashes) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(0, SceneCache.VERSION));
+        digest.update(sceneBytes);
+        for (final byte[] assetHash : assetHashes) {
+            digest.update(assetHash);
+        }
+        return AssetManager.hex(digest.digest());
+    }
+}
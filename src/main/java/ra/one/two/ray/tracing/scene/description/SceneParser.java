@@ -0,0 +1,339 @@
+package ra.one.two.ray.tracing.scene.description;
+
+import ra.one.two.ray.tracing.scene.description.SceneStatement.Category;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parser for the line based scene format. Every line is one statement, tokens are separated by whitespace and
+ * everything after a # is a comment. A color is either three numbers or the name of a texture.
+ * <pre>
+ * resolution &lt;width&gt; &lt;height&gt;
+ * samples &lt;samples per pixel&gt;
+ * depth &lt;max depth&gt;
+ * background &lt;r g b&gt;
+ * environment &lt;hdr or pfm path&gt; &lt;intensity&gt;
+ * camera &lt;from x y z&gt; &lt;at x y z&gt; &lt;up x y z&gt; &lt;vertical fov&gt; &lt;aperture&gt; &lt;focus distance&gt; &lt;shutter open&gt; &lt;shutter close&gt;
+ * projection perspective | orthographic | fisheye
+ *
+ * frames &lt;count&gt; &lt;frames per second&gt;
+ * camera_key &lt;time&gt; &lt;from x y z&gt; &lt;at x y z&gt; &lt;up x y z&gt; &lt;vertical fov&gt; &lt;aperture&gt; &lt;focus distance&gt;
+ * translate_key &lt;translate&gt; &lt;time&gt; &lt;offset x y z&gt;
+ * rotate_y_key &lt;rotate_y&gt; &lt;time&gt; &lt;degrees&gt;
+ *
+ * texture &lt;name&gt; solid &lt;r g b&gt; | checker &lt;even color&gt; &lt;odd color&gt; | noise &lt;scale&gt; [seed] | image &lt;path&gt;
+ * material &lt;name&gt; lambertian &lt;color&gt; | metal &lt;r g b&gt; &lt;fuzz&gt; | dielectric &lt;index&gt; | diffuse_light &lt;color&gt; | isotropic &lt;color&gt;
+ *
+ * sphere &lt;name&gt; &lt;center x y z&gt; &lt;radius&gt; &lt;material&gt;
+ * moving_sphere &lt;name&gt; &lt;center start x y z&gt; &lt;center end x y z&gt; &lt;time start&gt; &lt;time end&gt; &lt;radius&gt; &lt;material&gt;
+ * box &lt;name&gt; &lt;min x y z&gt; &lt;max x y z&gt; &lt;material&gt;
+ * xy_rect | xz_rect | yz_rect &lt;name&gt; &lt;bottom a b&gt; &lt;top a b&gt; &lt;k&gt; &lt;material&gt;
+ * translate &lt;name&gt; &lt;object&gt; &lt;offset x y z&gt;
+ * rotate_y &lt;name&gt; &lt;object&gt; &lt;degrees&gt;
+ * constant_medium &lt;name&gt; &lt;boundary object&gt; &lt;density&gt; &lt;color&gt;
+ * perlin_medium &lt;name&gt; &lt;boundary object&gt; &lt;max density&gt; &lt;scale&gt; &lt;octaves&gt; &lt;color&gt; [seed]
+ * group &lt;name&gt; [bvh | quantized_bvh | grid | kd_tree]
+ *   ...objects, put in the acceleration structure named, a bounding volume hierarchy when none is
+ * end
+ * </pre>
+ * Objects go into the world, or into the group they are in. An object name of - leaves it anonymous, prefixing an object
+ * with define only gives it a name for other statements to refer to without placing it anywhere.
+ * Statements can only refer to names declared above them, except keys which may come anywhere.
+ * Keys animate the camera or a named transform, values are interpolated linearly between key times and replace the
+ * values given in the camera or transform statement. When rendering frames, frame f starts at f / frames per second and the
+ * shutter times of the camera are relative to that.
+ * Spheres and rectangles with a diffuse_light material that are placed in the world or in groups, and not referred to by
+ * another statement, go into a light tree and are sampled as lights directly.
+ */
+public class SceneParser {
+    // Argument types: n number, o optional number that is 0 when left out, v three numbers, r name of another statement,
+    // s file path, t color i.e. either three numbers or the name of a texture, k keyword
+    private static final Map<String, String> SIGNATURES = new HashMap<>();
+    private static final Map<String, Category> CATEGORIES = new HashMap<>();
+
+    static {
+        register(Category.SETTING, "resolution", "nn");
+        register(Category.SETTING, "samples", "n");
+        register(Category.SETTING, "depth", "n");
+        register(Category.SETTING, "background", "v");
+        register(Category.SETTING, "environment", "sn");
+        register(Category.SETTING, "camera", "vvvnnnnn");
+        register(Category.SETTING, "projection", "k");
+        register(Category.SETTING, "frames", "nn");
+        register(Category.SETTING, "camera_key", "nvvvnnn");
+        register(Category.SETTING, "translate_key", "rnv");
+        register(Category.SETTING, "rotate_y_key", "rnn");
+        register(Category.TEXTURE, "solid", "v");
+        register(Category.TEXTURE, "checker", "tt");
+        register(Category.TEXTURE, "noise", "no");
+        register(Category.TEXTURE, "image", "s");
+        register(Category.MATERIAL, "lambertian", "t");
+        register(Category.MATERIAL, "metal", "vn");
+        register(Category.MATERIAL, "dielectric", "n");
+        register(Category.MATERIAL, "diffuse_light", "t");
+        register(Category.MATERIAL, "isotropic", "t");
+        register(Category.OBJECT, "sphere", "vnr");
+        register(Category.OBJECT, "moving_sphere", "vvnnnr");
+        register(Category.OBJECT, "box", "vvr");
+        register(Category.OBJECT, "xy_rect", "nnnnnr");
+        register(Category.OBJECT, "xz_rect", "nnnnnr");
+        register(Category.OBJECT, "yz_rect", "nnnnnr");
+        register(Category.OBJECT, "translate", "rv");
+        register(Category.OBJECT, "rotate_y", "rn");
+        register(Category.OBJECT, "constant_medium", "rnt");
+        register(Category.OBJECT, "perlin_medium", "rnnnto");
+        register(Category.OBJECT, "group", "");
+    }
+
+    private final Path baseDirectory;
+    // Directory paths in the scene must stay inside, null when they may go anywhere
+    private final Path rootDirectory;
+    private final List<SceneStatement> statements = new ArrayList<>();
+    // Groups that are open, innermost first, each with the statements read into it so far
+    private final Deque<OpenGroup> openGroups = new ArrayDeque<>();
+    private int anonymousTextureCount = 0;
+
+    private SceneParser(final Path baseDirectory, final Path rootDirectory) {
+        this.baseDirectory = baseDirectory;
+        this.rootDirectory = rootDirectory == null ? null : rootDirectory.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Parse the text of a scene file.
+     *
+     * @param sceneText     text of the scene file
+     * @param baseDirectory directory that paths in the scene are relative to
+     * @return the statements of the scene
+     * @throws SceneFormatException if the text does not follow the format
+     */
+    public static SceneDescription parse(final String sceneText, final Path baseDirectory) throws SceneFormatException {
+        return parse(sceneText, baseDirectory, null);
+    }
+
+    /**
+     * Parse the text of a scene, only allowing paths that stay inside a root directory.
+     *
+     * @param sceneText     text of the scene
+     * @param baseDirectory directory that paths in the scene are relative to
+     * @param rootDirectory directory the files the scene reads must be in, null to allow any path
+     * @return the statements of the scene
+     * @throws SceneFormatException if the text does not follow the format, or a path is absolute or leaves the root directory
+     */
+    public static SceneDescription parse(final String sceneText, final Path baseDirectory, final Path rootDirectory) throws SceneFormatException {
+        final SceneParser parser = new SceneParser(baseDirectory, rootDirectory);
+        final String[] lines = sceneText.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            parser.parseLine(lines[i], i + 1);
+        }
+        if (!parser.openGroups.isEmpty()) {
+            throw new SceneFormatException(parser.openGroups.peek().lineNumber, "group " + parser.openGroups.peek().name + " is never closed with end");
+        }
+        return new SceneDescription(parser.statements, baseDirectory);
+    }
+
+    private static void register(final Category category, final String kind, final String signature) {
+        CATEGORIES.put(kind, category);
+        SIGNATURES.put(kind, signature);
+    }
+
+    private void parseLine(final String line, final int lineNumber) throws SceneFormatException {
+        final int commentStart = line.indexOf('#');
+        final String content = (commentStart < 0 ? line : line.substring(0, commentStart)).trim();
+        if (content.isEmpty()) {
+            return;
+        }
+        final String[] tokens = content.split("\\s+");
+        int position = 0;
+        boolean placed = true;
+        if (tokens[position].equals("define")) {
+            placed = false;
+            position++;
+        }
+        if (position == tokens.length) {
+            throw new SceneFormatException(lineNumber, "define needs an object after it");
+        }
+
+        final String keyword = tokens[position++];
+        if (keyword.equals("end")) {
+            closeGroup(lineNumber, placed, tokens.length - position);
+            return;
+        }
+
+        final String kind;
+        final String name;
+        final Category category;
+        if (keyword.equals("texture") || keyword.equals("material")) {
+            if (tokens.length - position < 2) {
+                throw new SceneFormatException(lineNumber, keyword + " needs a name and a kind");
+            }
+            name = tokens[position++];
+            kind = tokens[position++];
+            category = CATEGORIES.get(kind);
+            if (category != Category.valueOf(keyword.toUpperCase())) {
+                throw new SceneFormatException(lineNumber, "unknown " + keyword + " kind " + kind);
+            }
+        } else {
+            kind = keyword;
+            category = CATEGORIES.get(kind);
+            if (category == null || category == Category.TEXTURE || category == Category.MATERIAL) {
+                throw new SceneFormatException(lineNumber, "unknown statement " + kind);
+            }
+            if (category == Category.OBJECT) {
+                if (position == tokens.length) {
+                    throw new SceneFormatException(lineNumber, kind + " needs a name, use - for none");
+                }
+                final String declaredName = tokens[position++];
+                name = declaredName.equals("-") ? null : declaredName;
+            } else {
+                name = null;
+            }
+        }
+        if (!placed && (category != Category.OBJECT || name == null)) {
+            throw new SceneFormatException(lineNumber, "define needs a named object after it");
+        }
+        if (category != Category.OBJECT && !openGroups.isEmpty()) {
+            throw new SceneFormatException(lineNumber, "groups can only contain objects");
+        }
+
+        if (kind.equals("group")) {
+            if (tokens.length - position > 1) {
+                throw new SceneFormatException(lineNumber, "group takes no arguments besides its name and accelerator");
+            }
+            openGroups.push(new OpenGroup(name, placed, position < tokens.length ? tokens[position] : null, lineNumber));
+            return;
+        }
+
+        final List<Double> numbers = new ArrayList<>();
+        final List<String> references = new ArrayList<>();
+        final String signature = SIGNATURES.get(kind);
+        for (int i = 0; i < signature.length(); i++) {
+            final char argumentType = signature.charAt(i);
+            if (argumentType == 'o') {
+                numbers.add(position < tokens.length ? parseNumber(tokens[position++], lineNumber) : 0.0);
+            } else if (position == tokens.length) {
+                throw new SceneFormatException(lineNumber, "too few arguments for " + kind);
+            } else if (argumentType == 'n') {
+                numbers.add(parseNumber(tokens[position++], lineNumber));
+            } else if (argumentType == 'v') {
+                position = parseVector(tokens, position, numbers, lineNumber);
+            } else if (argumentType == 't' && isNumber(tokens[position])) {
+                // Inline color, give it a solid texture of its own so the compiler only ever deals with texture names
+                final List<Double> color = new ArrayList<>();
+                position = parseVector(tokens, position, color, lineNumber);
+                final String textureName = "#solid" + anonymousTextureCount++;
+                statements.add(new SceneStatement(Category.TEXTURE, "solid", textureName, false, toArray(color), new String[0], Collections.emptyList(), lineNumber));
+                references.add(textureName);
+            } else if (argumentType == 's') {
+                checkPath(tokens[position], lineNumber);
+                references.add(tokens[position++]);
+            } else {
+                references.add(tokens[position++]);
+            }
+        }
+        if (position != tokens.length) {
+            throw new SceneFormatException(lineNumber, "too many arguments for " + kind);
+        }
+
+        final SceneStatement statement = new SceneStatement(category, kind, name, placed && category == Category.OBJECT,
+                toArray(numbers), references.toArray(new String[0]), Collections.emptyList(), lineNumber);
+        if (openGroups.isEmpty()) {
+            statements.add(statement);
+        } else {
+            openGroups.peek().members.add(statement);
+        }
+    }
+
+    private void checkPath(final String path, final int lineNumber) throws SceneFormatException {
+        if (rootDirectory == null) {
+            return;
+        }
+        final Path resolved;
+        try {
+            if (Path.of(path).isAbsolute()) {
+                throw new SceneFormatException(lineNumber, "absolute path " + path + " is not allowed");
+            }
+            resolved = SceneDescription.resolve(baseDirectory, path);
+        } catch (InvalidPathException e) {
+            throw new SceneFormatException(lineNumber, "invalid path " + path);
+        }
+        // Normalized first, so ../ can not climb out of a directory that starts with the root
+        if (!resolved.startsWith(rootDirectory)) {
+            throw new SceneFormatException(lineNumber, "path " + path + " leaves the scene root");
+        }
+    }
+
+    private void closeGroup(final int lineNumber, final boolean placed, final int remainingTokens) throws SceneFormatException {
+        if (!placed || remainingTokens != 0) {
+            throw new SceneFormatException(lineNumber, "end takes no arguments");
+        }
+        if (openGroups.isEmpty()) {
+            throw new SceneFormatException(lineNumber, "end without a group");
+        }
+        final OpenGroup group = openGroups.pop();
+        if (group.members.stream().noneMatch(SceneStatement::isPlaced)) {
+            throw new SceneFormatException(group.lineNumber, "group " + group.name + " has no objects in it");
+        }
+        final SceneStatement statement = new SceneStatement(Category.OBJECT, "group", group.name, group.placed,
+                new double[0], group.accelerator == null ? new String[0] : new String[]{group.accelerator}, group.members, group.lineNumber);
+        if (openGroups.isEmpty()) {
+            statements.add(statement);
+        } else {
+            openGroups.peek().members.add(statement);
+        }
+    }
+
+    private static int parseVector(final String[] tokens, int position, final List<Double> numbers, final int lineNumber) throws SceneFormatException {
+        if (tokens.length - position < 3) {
+            throw new SceneFormatException(lineNumber, "expected three numbers at " + String.join(" ", List.of(tokens).subList(position, tokens.length)));
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            numbers.add(parseNumber(tokens[position++], lineNumber));
+        }
+        return position;
+    }
+
+    private static double parseNumber(final String token, final int lineNumber) throws SceneFormatException {
+        try {
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e) {
+            throw new SceneFormatException(lineNumber, "expected a number, got " + token);
+        }
+    }
+
+    private static boolean isNumber(final String token) {
+        final char first = token.charAt(0);
+        return Character.isDigit(first) || first == '-' || first == '+' || first == '.';
+    }
+
+    private static double[] toArray(final List<Double> numbers) {
+        final double[] array = new double[numbers.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = numbers.get(i);
+        }
+        return array;
+    }
+
+    private static class OpenGroup {
+        private final String name;
+        private final boolean placed;
+        // Keyword of the accelerator the group asked for, null for the default
+        private final String accelerator;
+        private final int lineNumber;
+        private final List<SceneStatement> members = new ArrayList<>();
+
+        private OpenGroup(final String name, final boolean placed, final String accelerator, final int lineNumber) {
+            this.name = name;
+            this.placed = placed;
+            this.accelerator = accelerator;
+            this.lineNumber = lineNumber;
+        }
+    }
+}
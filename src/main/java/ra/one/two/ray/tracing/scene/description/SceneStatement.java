@@ -0,0 +1,35 @@
+package ra.one.two.ray.tracing.scene.description;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * One statement of a scene file with its arguments already split by type, in the order the statement takes them.
+ * Colors and vectors are three consecutive numbers, names of other statements and file paths are references.
+ */
+@Getter
+@AllArgsConstructor
+public class SceneStatement {
+    private final Category category;
+    // e.g. sphere, lambertian or camera
+    private final String kind;
+    // name other statements refer to this one by, null for settings and anonymous objects
+    private final String name;
+    // whether an object goes into the enclosing group or the world, objects declared with define only get a name
+    private final boolean placed;
+    private final double[] numbers;
+    // names of other statements and file paths, for a group the accelerator it asked for if any
+    private final String[] references;
+    // statements between group and end, empty for everything else
+    private final List<SceneStatement> members;
+    private final int lineNumber;
+
+    public enum Category {
+        SETTING,
+        TEXTURE,
+        MATERIAL,
+        OBJECT
+    }
+}
@@ -0,0 +1,216 @@
+package ra.one.two.ray.tracing.server;
+
+import ra.one.two.ray.tracing.scene.Framebuffer;
+import ra.one.two.ray.tracing.scene.TileRenderer;
+import ra.one.two.ray.tracing.scene.description.CompiledScene;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One image rendered by the render server. The image is cut into tiles that are queued on the shared render pool, and
+ * every finished tile is published as a server sent event to the clients following the job.
+ */
+public class RenderJob {
+    public enum State {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED,
+        CANCELLED
+    }
+
+    private final String id;
+    private final CompiledScene scene;
+    private final Framebuffer framebuffer;
+    private final int tileSize;
+    private final int tileCount;
+    private final AtomicInteger finishedTiles = new AtomicInteger();
+    private final long submittedAt = System.currentTimeMillis();
+    private volatile long startedAt = 0;
+    private volatile long finishedAt = 0;
+    private volatile State state = State.QUEUED;
+    private volatile String failure = null;
+    // Events for each client following the job, END_OF_STREAM marks the end of the stream. Events are only added while
+    // holding the lock of the job, so a new client gets its snapshot before any event published after it
+    private final List<BlockingQueue<String>> subscribers = new CopyOnWriteArrayList<>();
+
+    public RenderJob(final String id, final CompiledScene scene, final int tileSize) {
+        this.id = id;
+        this.scene = scene;
+        this.framebuffer = new Framebuffer(scene.getImageWidth(), scene.getImageHeight());
+        this.tileSize = tileSize;
+        this.tileCount = ceilDiv(scene.getImageWidth(), tileSize) * ceilDiv(scene.getImageHeight(), tileSize);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Framebuffer getFramebuffer() {
+        return framebuffer;
+    }
+
+    public boolean isFinished() {
+        return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    /**
+     * Queue every tile of the image on the render pool. Tiles of jobs submitted earlier are queued earlier, so jobs run
+     * in order and a job only shares the pool with the next one while its last tiles finish.
+     *
+     * @param renderExecutor the shared render pool
+     */
+    public void submitTo(final ExecutorService renderExecutor) {
+        final TileRenderer tileRenderer = new TileRenderer(scene);
+        for (int y = 0; y < scene.getImageHeight(); y += tileSize) {
+            for (int x = 0; x < scene.getImageWidth(); x += tileSize) {
+                final int tileX = x;
+                final int tileY = y;
+                renderExecutor.execute(() -> renderTile(tileRenderer, tileX, tileY));
+            }
+        }
+    }
+
+    public void cancel() {
+        if (!isFinished()) {
+            finish(State.CANCELLED);
+        }
+    }
+
+    /**
+     * Follow the job. The first event is the image as it is now, then one event per finished tile and a last event
+     * once the job is over.
+     *
+     * @return queue of server sent events, the {@link #END_OF_STREAM} element ends the stream
+     */
+    public synchronized BlockingQueue<String> subscribe() {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        events.add(event("snapshot", "{" + progressFields() + ",\"png\":\"" + encodePng(framebuffer.toImage()) + "\"}"));
+        if (isFinished()) {
+            // Finished before we subscribed, finish() will not come around for this queue
+            events.add(event(state.name().toLowerCase(), statusJson()));
+            events.add(END_OF_STREAM);
+        } else {
+            subscribers.add(events);
+        }
+        return events;
+    }
+
+    public void unsubscribe(final BlockingQueue<String> events) {
+        subscribers.remove(events);
+    }
+
+    /**
+     * @return status of the job as a JSON object
+     */
+    public String statusJson() {
+        final StringBuilder json = new StringBuilder("{\"id\":\"").append(id).append("\",\"state\":\"").append(state.name().toLowerCase()).append("\",")
+                .append(progressFields())
+                .append(",\"width\":").append(scene.getImageWidth())
+                .append(",\"height\":").append(scene.getImageHeight())
+                .append(",\"samplesPerPixel\":").append(scene.getSamplesPerPixel())
+                .append(",\"queuedMillis\":").append((startedAt == 0 ? System.currentTimeMillis() : startedAt) - submittedAt);
+        if (startedAt != 0) {
+            json.append(",\"renderMillis\":").append((finishedAt == 0 ? System.currentTimeMillis() : finishedAt) - startedAt);
+        }
+        if (failure != null) {
+            json.append(",\"error\":\"").append(escape(failure)).append('"');
+        }
+        return json.append('}').toString();
+    }
+
+    private void renderTile(final TileRenderer tileRenderer, final int x, final int y) {
+        if (isFinished()) {
+            return;
+        }
+        if (state == State.QUEUED) {
+            synchronized (this) {
+                if (state == State.QUEUED) {
+                    startedAt = System.currentTimeMillis();
+                    state = State.RUNNING;
+                }
+            }
+        }
+        final int width = Math.min(tileSize, scene.getImageWidth() - x);
+        final int height = Math.min(tileSize, scene.getImageHeight() - y);
+        try {
+            final float[] sums = new float[3 * width * height];
+            tileRenderer.render(x, y, width, height, scene.getSamplesPerPixel(), sums);
+            framebuffer.addTile(x, y, width, height, sums, scene.getSamplesPerPixel());
+            final int finished = finishedTiles.incrementAndGet();
+            // A client subscribing after this check gets the tile in its snapshot
+            if (!subscribers.isEmpty()) {
+                publish(event("tile", "{\"x\":" + x + ",\"y\":" + y + ",\"width\":" + width + ",\"height\":" + height + "," + progressFields()
+                        + ",\"png\":\"" + encodePng(framebuffer.toImage(x, y, width, height)) + "\"}"));
+            }
+            if (finished == tileCount) {
+                finish(State.DONE);
+            }
+        } catch (RuntimeException e) {
+            failure = e.toString();
+            finish(State.FAILED);
+        }
+    }
+
+    private synchronized void finish(final State finalState) {
+        if (isFinished()) {
+            return;
+        }
+        state = finalState;
+        finishedAt = System.currentTimeMillis();
+        publish(event(finalState.name().toLowerCase(), statusJson()));
+        publish(END_OF_STREAM);
+    }
+
+    private synchronized void publish(final String event) {
+        for (final BlockingQueue<String> events : subscribers) {
+            events.add(event);
+        }
+    }
+
+    private String progressFields() {
+        return "\"tilesDone\":" + finishedTiles.get() + ",\"tiles\":" + tileCount;
+    }
+
+    // Marks the end of an event stream, compared by identity
+    @SuppressWarnings("StringOperationCanBeSimplified")
+    static final String END_OF_STREAM = new String("");
+
+    private static String event(final String name, final String json) {
+        return "event: " + name + "\ndata: " + json + "\n\n";
+    }
+
+    static String encodePng(final BufferedImage image) {
+        final ByteArrayOutputStream png = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", png);
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new UncheckedIOException(e);
+        }
+        return Base64.getEncoder().encodeToString(png.toByteArray());
+    }
+
+    static String escape(final String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static int ceilDiv(final int value, final int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
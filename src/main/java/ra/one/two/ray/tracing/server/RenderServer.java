@@ -0,0 +1,271 @@
+package ra.one.two.ray.tracing.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ra.one.two.ray.tracing.scene.description.CompiledScene;
+import ra.one.two.ray.tracing.scene.description.SceneLoader;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long running render server. Scenes are submitted over HTTP and rendered as jobs on one render pool shared by all
+ * jobs, so the JIT stays warm between images and a scene submitted again is not loaded again.
+ * <ul>
+ * <li>POST /jobs with the scene text as body queues a job and answers with its id</li>
+ * <li>GET /jobs/{id} answers with the status of the job</li>
+ * <li>GET /jobs/{id}/image answers with the image as rendered so far, as PNG</li>
+ * <li>GET /jobs/{id}/events streams server sent events: the image so far, then every tile as it finishes, then the end of the job</li>
+ * <li>DELETE /jobs/{id} cancels the job</li>
+ * </ul>
+ * Paths in submitted scenes are relative to the scene root given with --scene-root, and a scene referring to a file
+ * outside of it is refused. The server has no authentication, it only listens on the loopback interface unless started
+ * with --listen-all.
+ */
+public class RenderServer {
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_TILE_SIZE = 32;
+    // Compiled scenes kept in memory, each holds its decoded textures and built hierarchies
+    private static final int CACHED_SCENES = 8;
+    // Finished jobs kept for their images, older ones are dropped
+    private static final int KEPT_FINISHED_JOBS = 64;
+    private static final long EVENT_KEEP_ALIVE_IN_SECONDS = 15;
+
+    private final HttpServer httpServer;
+    private final ExecutorService renderExecutor;
+    private final Path sceneRoot;
+    private final int tileSize;
+    private final Map<String, RenderJob> jobs = new ConcurrentHashMap<>();
+    private final List<RenderJob> finishedJobs = new ArrayList<>();
+    private final AtomicLong jobIds = new AtomicLong();
+    // Least recently used scenes first
+    private final Map<String, CompiledScene> scenes = new LinkedHashMap<>(16, 0.75f, true);
+
+    public RenderServer(final int port, final Path sceneRoot, final int renderThreads, final int tileSize) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), sceneRoot, renderThreads, tileSize);
+    }
+
+    public RenderServer(final InetSocketAddress address, final Path sceneRoot, final int renderThreads, final int tileSize) throws IOException {
+        this.sceneRoot = sceneRoot.toAbsolutePath().normalize();
+        this.tileSize = tileSize;
+        this.renderExecutor = Executors.newFixedThreadPool(renderThreads);
+        this.httpServer = HttpServer.create(address, 0);
+        // Event streams hold their thread for as long as the client follows the job
+        this.httpServer.setExecutor(Executors.newCachedThreadPool());
+        this.httpServer.createContext("/jobs", this::handle);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        Path sceneRoot = Path.of("");
+        int renderThreads = Runtime.getRuntime().availableProcessors();
+        int tileSize = DEFAULT_TILE_SIZE;
+        boolean listenAll = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--listen-all")) {
+                listenAll = true;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                usage();
+            }
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--scene-root":
+                    sceneRoot = Path.of(args[++i]);
+                    break;
+                case "--threads":
+                    renderThreads = Integer.parseInt(args[++i]);
+                    break;
+                case "--tile-size":
+                    tileSize = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    usage();
+            }
+        }
+        final InetSocketAddress address = listenAll ? new InetSocketAddress(port) : new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        final RenderServer server = new RenderServer(address, sceneRoot, renderThreads, tileSize);
+        server.start();
+        System.err.println("Render server listening on " + server.httpServer.getAddress());
+    }
+
+    private static void usage() {
+        System.err.println("Usage: RenderServer [--port N] [--scene-root DIR] [--threads N] [--tile-size N] [--listen-all]");
+        System.exit(1);
+    }
+
+    public void start() {
+        httpServer.start();
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+        renderExecutor.shutdownNow();
+    }
+
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    /**
+     * Load a scene and queue it as a job.
+     *
+     * @param sceneBytes UTF-8 text of the scene
+     * @return the queued job
+     * @throws IOException if a file the scene refers to can not be read, or the scene is not valid
+     */
+    public RenderJob submit(final byte[] sceneBytes) throws IOException {
+        final RenderJob job = new RenderJob(Long.toString(jobIds.incrementAndGet()), loadScene(sceneBytes), tileSize);
+        jobs.put(job.getId(), job);
+        job.submitTo(renderExecutor);
+        return job;
+    }
+
+    private CompiledScene loadScene(final byte[] sceneBytes) throws IOException {
+        // Hashing reads the files the scene refers to, so an edited texture is not served from memory
+        final String contentHash = SceneLoader.contentHash(sceneBytes, sceneRoot);
+        synchronized (scenes) {
+            final CompiledScene cached = scenes.get(contentHash);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final CompiledScene scene = SceneLoader.load(sceneBytes, sceneRoot, SceneLoader.DEFAULT_CACHE_DIRECTORY);
+        synchronized (scenes) {
+            scenes.put(contentHash, scene);
+            final Iterator<String> leastRecentlyUsed = scenes.keySet().iterator();
+            while (scenes.size() > CACHED_SCENES) {
+                leastRecentlyUsed.next();
+                leastRecentlyUsed.remove();
+            }
+        }
+        return scene;
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            dropOldFinishedJobs();
+            // "/jobs", "/jobs/{id}" or "/jobs/{id}/{resource}"
+            final String[] path = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+            final String method = exchange.getRequestMethod();
+            if (path.length == 2) {
+                if (method.equals("POST")) {
+                    handleSubmit(exchange);
+                } else {
+                    sendText(exchange, 405, "Use POST to submit a scene");
+                }
+                return;
+            }
+            final RenderJob job = jobs.get(path[2]);
+            if (job == null || path.length > 4) {
+                sendText(exchange, 404, "No such job");
+            } else if (path.length == 3 && method.equals("GET")) {
+                sendJson(exchange, 200, job.statusJson());
+            } else if (path.length == 3 && method.equals("DELETE")) {
+                job.cancel();
+                sendJson(exchange, 200, job.statusJson());
+            } else if (path.length == 4 && path[3].equals("image") && method.equals("GET")) {
+                final ByteArrayOutputStream png = new ByteArrayOutputStream();
+                ImageIO.write(job.getFramebuffer().toImage(), "png", png);
+                send(exchange, 200, "image/png", png.toByteArray());
+            } else if (path.length == 4 && path[3].equals("events") && method.equals("GET")) {
+                streamEvents(exchange, job);
+            } else {
+                sendText(exchange, 404, "Unknown resource");
+            }
+        } catch (RuntimeException e) {
+            // Answered here, otherwise the exchange is closed without an answer and the client only sees the connection drop
+            System.err.println("Request " + exchange.getRequestURI() + " failed: " + e);
+            if (exchange.getResponseCode() == -1) {
+                sendText(exchange, 500, "Internal server error");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleSubmit(final HttpExchange exchange) throws IOException {
+        final RenderJob job;
+        try {
+            job = submit(exchange.getRequestBody().readAllBytes());
+        } catch (IOException e) {
+            sendText(exchange, 400, e.getMessage());
+            return;
+        }
+        exchange.getResponseHeaders().set("Location", "/jobs/" + job.getId());
+        sendJson(exchange, 201, job.statusJson());
+    }
+
+    private void streamEvents(final HttpExchange exchange, final RenderJob job) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        // Length 0 means chunked, the stream has no known end
+        exchange.sendResponseHeaders(200, 0);
+        final BlockingQueue<String> events = job.subscribe();
+        try {
+            final OutputStream output = exchange.getResponseBody();
+            while (true) {
+                final String event = events.poll(EVENT_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS);
+                if (event == RenderJob.END_OF_STREAM) {
+                    return;
+                }
+                // A comment line keeps proxies from closing a stream that is quiet while a long tile renders
+                output.write((event == null ? ": keep-alive\n\n" : event).getBytes(StandardCharsets.UTF_8));
+                output.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Client went away, nothing left to send it
+        } finally {
+            job.unsubscribe(events);
+        }
+    }
+
+    private void dropOldFinishedJobs() {
+        synchronized (finishedJobs) {
+            for (final RenderJob job : jobs.values()) {
+                if (job.isFinished() && !finishedJobs.contains(job)) {
+                    finishedJobs.add(job);
+                }
+            }
+            while (finishedJobs.size() > KEPT_FINISHED_JOBS) {
+                jobs.remove(finishedJobs.remove(0).getId());
+            }
+        }
+    }
+
+    private static void sendJson(final HttpExchange exchange, final int status, final String json) throws IOException {
+        send(exchange, status, "application/json", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendText(final HttpExchange exchange, final int status, final String text) throws IOException {
+        send(exchange, status, "text/plain; charset=utf-8", (text + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String contentType, final byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+}
@@ -0,0 +1,185 @@
+package ra.one.two.ray.tracing.textures;
+
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.rayhit.AxisAlignedBoundingBox;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Adapter that evaluates a procedural texture once on a 3D lattice over the bounds of the object using it and then
+ * answers lookups by trilinear interpolation of the baked lattice, instead of evaluating the texture at every hit.
+ * The lattice is split into bricks that are baked lazily the first time a ray hits inside them, so only the surface of
+ * the object ends up baked, and the bricks count against the memory budget of a shared {@link TextureBrickCache}.
+ * Only suits textures that depend on the hit point alone like noise and checker textures, not on texture coordinates,
+ * and features smaller than a voxel get blurred, pick the resolution accordingly.
+ */
+public class BakedTexture implements Texture {
+    // Voxels along each axis of a brick, a brick stores the lattice points at the voxel corners so (BRICK_SIZE + 1)^3 of them
+    // and interpolation never needs a neighbouring brick.
+    private static final int BRICK_SIZE = 8;
+    private static final int BRICK_POINTS = BRICK_SIZE + 1;
+    private static final int CHANNELS = 3;
+    // Procedural textures we bake do not look at the texture coordinates
+    private static final TextureCoordinates UNUSED_TEXTURE_COORDINATES = new TextureCoordinates(0, 0);
+
+    private final Texture proceduralTexture;
+    private final TextureBrickCache cache;
+    private final double minX;
+    private final double minY;
+    private final double minZ;
+    private final double voxelSize;
+    private final int bricksX;
+    private final int bricksY;
+    private final int bricksZ;
+    // Brick (i, j, k) lives at i + bricksX * (j + bricksY * k), null until baked or after eviction
+    private final AtomicReferenceArray<Brick> bricks;
+
+    /**
+     * @param proceduralTexture      texture to bake, must only depend on the hit point
+     * @param bounds                 bounds of the object the texture is attached to, lookups outside are clamped to it
+     * @param voxelsAlongLongestAxis resolution of the baked lattice, the voxels are cubes so shorter axes get fewer
+     * @param cache                  memory budget the baked bricks count against
+     */
+    public BakedTexture(final Texture proceduralTexture, final AxisAlignedBoundingBox bounds, final int voxelsAlongLongestAxis, final TextureBrickCache cache) {
+        this.proceduralTexture = proceduralTexture;
+        this.cache = cache;
+        minX = bounds.getMin().getXComponent();
+        minY = bounds.getMin().getYComponent();
+        minZ = bounds.getMin().getZComponent();
+        final double extentX = bounds.getMax().getXComponent() - minX;
+        final double extentY = bounds.getMax().getYComponent() - minY;
+        final double extentZ = bounds.getMax().getZComponent() - minZ;
+        voxelSize = Math.max(extentX, Math.max(extentY, extentZ)) / voxelsAlongLongestAxis;
+        bricksX = bricksCovering(extentX);
+        bricksY = bricksCovering(extentY);
+        bricksZ = bricksCovering(extentZ);
+        bricks = new AtomicReferenceArray<>(bricksX * bricksY * bricksZ);
+    }
+
+    @Override
+    public Vec3 value(TextureCoordinates textureCoordinates, Vec3 point) {
+        final double[] color = new double[CHANNELS];
+        sample(point, color);
+        return new Vec3(color[0], color[1], color[2]);
+    }
+
+    @Override
+    public void value(TextureCoordinates textureCoordinates, Vec3 point, ShadingContext context) {
+        sample(point, context.color);
+    }
+
+    // Trilinearly interpolated color at a point, written to color
+    private void sample(final Vec3 point, final double[] color) {
+        // Position in voxel units relative to the lattice origin
+        final double gridX = clamp((point.getXComponent() - minX) / voxelSize, bricksX);
+        final double gridY = clamp((point.getYComponent() - minY) / voxelSize, bricksY);
+        final double gridZ = clamp((point.getZComponent() - minZ) / voxelSize, bricksZ);
+        final int brickI = Math.min(bricksX - 1, (int) (gridX / BRICK_SIZE));
+        final int brickJ = Math.min(bricksY - 1, (int) (gridY / BRICK_SIZE));
+        final int brickK = Math.min(bricksZ - 1, (int) (gridZ / BRICK_SIZE));
+        final Brick brick = brick(brickI, brickJ, brickK);
+
+        // Trilinear interpolation of the 8 lattice points around the point inside the brick
+        final double localX = gridX - brickI * BRICK_SIZE;
+        final double localY = gridY - brickJ * BRICK_SIZE;
+        final double localZ = gridZ - brickK * BRICK_SIZE;
+        final int i = Math.min(BRICK_SIZE - 1, (int) localX);
+        final int j = Math.min(BRICK_SIZE - 1, (int) localY);
+        final int k = Math.min(BRICK_SIZE - 1, (int) localZ);
+        final double fractionX = localX - i;
+        final double fractionY = localY - j;
+        final double fractionZ = localZ - k;
+        final float[] texels = brick.texels;
+        final int index000 = CHANNELS * (i + BRICK_POINTS * (j + BRICK_POINTS * k));
+        final int strideY = CHANNELS * BRICK_POINTS;
+        final int strideZ = CHANNELS * BRICK_POINTS * BRICK_POINTS;
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            final int index = index000 + channel;
+            final double c00 = texels[index] + fractionX * (texels[index + CHANNELS] - texels[index]);
+            final double c10 = texels[index + strideY] + fractionX * (texels[index + strideY + CHANNELS] - texels[index + strideY]);
+            final double c01 = texels[index + strideZ] + fractionX * (texels[index + strideZ + CHANNELS] - texels[index + strideZ]);
+            final double c11 = texels[index + strideY + strideZ] + fractionX * (texels[index + strideY + strideZ + CHANNELS] - texels[index + strideY + strideZ]);
+            final double c0 = c00 + fractionY * (c10 - c00);
+            final double c1 = c01 + fractionY * (c11 - c01);
+            color[channel] = c0 + fractionZ * (c1 - c0);
+        }
+    }
+
+    private Brick brick(final int brickI, final int brickJ, final int brickK) {
+        final int slot = brickI + bricksX * (brickJ + bricksY * brickK);
+        Brick brick = bricks.get(slot);
+        if (brick == null) {
+            brick = bake(slot, brickI, brickJ, brickK);
+        }
+        // A racy write is fine here, the tick only steers which bricks get evicted first.
+        // Only write when it changed so threads reading the same brick do not keep invalidating each others cache line.
+        final long tick = cache.currentTick();
+        if (brick.lastUsedTick != tick) {
+            brick.lastUsedTick = tick;
+        }
+        return brick;
+    }
+
+    private Brick bake(final int slot, final int brickI, final int brickJ, final int brickK) {
+        final float[] texels = new float[CHANNELS * BRICK_POINTS * BRICK_POINTS * BRICK_POINTS];
+        final double originX = minX + brickI * BRICK_SIZE * voxelSize;
+        final double originY = minY + brickJ * BRICK_SIZE * voxelSize;
+        final double originZ = minZ + brickK * BRICK_SIZE * voxelSize;
+        int index = 0;
+        for (int k = 0; k < BRICK_POINTS; k++) {
+            for (int j = 0; j < BRICK_POINTS; j++) {
+                for (int i = 0; i < BRICK_POINTS; i++) {
+                    final Vec3 color = proceduralTexture.value(UNUSED_TEXTURE_COORDINATES,
+                            new Vec3(originX + i * voxelSize, originY + j * voxelSize, originZ + k * voxelSize));
+                    texels[index++] = (float) color.getXComponent();
+                    texels[index++] = (float) color.getYComponent();
+                    texels[index++] = (float) color.getZComponent();
+                }
+            }
+        }
+        final Brick brick = new Brick(this, slot, texels);
+        // Another thread may have baked the same brick meanwhile, in which case we use theirs
+        if (!bricks.compareAndSet(slot, null, brick)) {
+            final Brick winner = bricks.get(slot);
+            if (winner != null) {
+                return winner;
+            }
+            bricks.set(slot, brick);
+        }
+        cache.admit(brick);
+        return brick;
+    }
+
+    private int bricksCovering(final double extent) {
+        return Math.max(1, (int) Math.ceil(extent / voxelSize / BRICK_SIZE));
+    }
+
+    private static double clamp(final double gridCoordinate, final int bricks) {
+        return Math.min(bricks * BRICK_SIZE, Math.max(0, gridCoordinate));
+    }
+
+    /**
+     * Baked lattice points of one brick, red green and blue of point (i, j, k) start at 3 * (i + 9 * (j + 9 * k)).
+     */
+    static class Brick {
+        private final BakedTexture owner;
+        private final int slot;
+        private final float[] texels;
+        long lastUsedTick;
+
+        private Brick(final BakedTexture owner, final int slot, final float[] texels) {
+            this.owner = owner;
+            this.slot = slot;
+            this.texels = texels;
+        }
+
+        long sizeInBytes() {
+            return (long) texels.length * Float.BYTES;
+        }
+
+        void evict() {
+            owner.bricks.compareAndSet(slot, this, null);
+        }
+    }
+}
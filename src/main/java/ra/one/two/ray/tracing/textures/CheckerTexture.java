@@ -2,6 +2,7 @@ package ra.one.two.ray.tracing.textures;
 
 import lombok.AllArgsConstructor;
 import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
 
 @AllArgsConstructor
 public class CheckerTexture implements Texture {
@@ -20,4 +21,13 @@ public class CheckerTexture implements Texture {
         else
             return even.value(textureCoordinates, point);
     }
+
+    @Override
+    public void value(TextureCoordinates textureCoordinates, Vec3 point, ShadingContext context) {
+        final double sines = Math.sin(10 * point.getXComponent()) * Math.sin(10 * point.getYComponent()) * Math.sin(10 * point.getZComponent());
+        if (sines < 0)
+            odd.value(textureCoordinates, point, context);
+        else
+            even.value(textureCoordinates, point, context);
+    }
 }
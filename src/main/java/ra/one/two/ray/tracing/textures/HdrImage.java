@@ -0,0 +1,311 @@
+package ra.one.two.ray.tracing.textures;
+
+import lombok.Getter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * High dynamic range image kept as packed linear float RGB, the red, green and blue of pixel (i, j) are at
+ * 3 * (i + j * width) and the two indices after it, row 0 is the top of the image.
+ * Reads and writes Radiance RGBE (.hdr) and portable float map (.pfm) files.
+ */
+@Getter
+public class HdrImage {
+    private final int width;
+    private final int height;
+    // Only read with absolute gets, it may be a view of a memory mapped file that other images read too
+    private final FloatBuffer rgb;
+
+    public HdrImage(final int width, final int height, final float[] rgb) {
+        this(width, height, FloatBuffer.wrap(rgb));
+    }
+
+    /**
+     * Image on floats kept elsewhere, e.g. a view of a memory mapped asset cache file, read in place instead of copied.
+     *
+     * @param width  width in pixels
+     * @param height height in pixels
+     * @param rgb    3 * width * height floats laid out as described for the class
+     */
+    public HdrImage(final int width, final int height, final FloatBuffer rgb) {
+        this.width = width;
+        this.height = height;
+        this.rgb = rgb;
+    }
+
+    /**
+     * Read an image, the format is picked from the file extension.
+     *
+     * @param path path of a .hdr or .pfm file
+     * @return the decoded image
+     * @throws IOException if the file can not be read or is not in a supported format
+     */
+    public static HdrImage read(final Path path) throws IOException {
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(path))) {
+            return read(inputStream, path.toString());
+        }
+    }
+
+    /**
+     * Read an image from a stream, the format is picked from the extension of the file it came from.
+     *
+     * @param inputStream contents of a .hdr or .pfm file
+     * @param fileName    name or path of the file, for its extension
+     * @return the decoded image
+     * @throws IOException if the stream can not be read or is not in a supported format
+     */
+    public static HdrImage read(final InputStream inputStream, final String fileName) throws IOException {
+        final String lowerCaseFileName = fileName.toLowerCase();
+        if (lowerCaseFileName.endsWith(".pfm")) {
+            return readPortableFloatMap(inputStream);
+        }
+        if (lowerCaseFileName.endsWith(".hdr")) {
+            return readRadiance(inputStream);
+        }
+        throw new IOException("Unsupported high dynamic range image " + fileName + ", expected a .hdr or .pfm file");
+    }
+
+    /**
+     * Write the image, the format is picked from the file extension.
+     *
+     * @param path path of a .hdr or .pfm file
+     * @throws IOException if the file can not be written
+     */
+    public void write(final Path path) throws IOException {
+        final String fileName = path.getFileName().toString().toLowerCase();
+        if (!fileName.endsWith(".pfm") && !fileName.endsWith(".hdr")) {
+            throw new IOException("Unsupported high dynamic range image " + path + ", expected a .hdr or .pfm file");
+        }
+        try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+            if (fileName.endsWith(".pfm")) {
+                writePortableFloatMap(outputStream);
+            } else {
+                writeRadiance(outputStream);
+            }
+        }
+    }
+
+    /**
+     * Write a little endian RGB portable float map, lossless for the floats of the image.
+     */
+    public void writePortableFloatMap(final OutputStream outputStream) throws IOException {
+        outputStream.write(("PF\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII));
+        final ByteBuffer row = ByteBuffer.allocate(3 * width * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int fileRow = 0; fileRow < height; fileRow++) {
+            row.clear();
+            final int start = 3 * (height - 1 - fileRow) * width;
+            row.asFloatBuffer().put(rgb.duplicate().position(start).limit(start + 3 * width));
+            outputStream.write(row.array());
+        }
+    }
+
+    /**
+     * Write a Radiance RGBE image. Scanlines are written in the new style run length encoding but with literal runs
+     * only, which every reader understands and which, unlike flat scanlines, can not be mistaken for an encoded one.
+     */
+    public void writeRadiance(final OutputStream outputStream) throws IOException {
+        outputStream.write(("#?RADIANCE\nFORMAT=32-bit_rle_rgbe\n\n-Y " + height + " +X " + width + "\n").getBytes(StandardCharsets.US_ASCII));
+        final boolean runLengthEncoded = width >= 8 && width < 32768;
+        final byte[] scanline = new byte[4 * width];
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                final int index = 3 * (column + row * width);
+                toRgbe(rgb.get(index), rgb.get(index + 1), rgb.get(index + 2), scanline, 4 * column);
+            }
+            if (!runLengthEncoded) {
+                outputStream.write(scanline);
+                continue;
+            }
+            outputStream.write(new byte[]{2, 2, (byte) (width >> 8), (byte) width});
+            for (int channel = 0; channel < 4; channel++) {
+                for (int column = 0; column < width; column += 128) {
+                    final int count = Math.min(128, width - column);
+                    outputStream.write(count);
+                    for (int i = column; i < column + count; i++) {
+                        outputStream.write(scanline[4 * i + channel]);
+                    }
+                }
+            }
+        }
+    }
+
+    // Shared exponent encoding of the brightest channel, the inverse of the decoding in readRadiance
+    private static void toRgbe(final float red, final float green, final float blue, final byte[] rgbe, final int offset) {
+        final float brightest = Math.max(red, Math.max(green, blue));
+        if (!(brightest >= 1e-32f)) {
+            rgbe[offset] = rgbe[offset + 1] = rgbe[offset + 2] = rgbe[offset + 3] = 0;
+            return;
+        }
+        // brightest = mantissa * 2^exponent with mantissa in [0.5, 1)
+        final int exponent = Math.getExponent(brightest) + 1;
+        final float factor = Math.scalb(256.0f, -exponent);
+        rgbe[offset] = (byte) Math.max(0, red * factor);
+        rgbe[offset + 1] = (byte) Math.max(0, green * factor);
+        rgbe[offset + 2] = (byte) Math.max(0, blue * factor);
+        rgbe[offset + 3] = (byte) (exponent + 128);
+    }
+
+    /**
+     * Read a portable float map, "PF" for RGB or "Pf" for greyscale, a negative scale means little endian floats.
+     * Rows are stored bottom to top.
+     */
+    public static HdrImage readPortableFloatMap(final InputStream inputStream) throws IOException {
+        final String magic = readToken(inputStream);
+        final boolean color;
+        if ("PF".equals(magic)) {
+            color = true;
+        } else if ("Pf".equals(magic)) {
+            color = false;
+        } else {
+            throw new IOException("Not a portable float map, found magic " + magic);
+        }
+        final int width = Integer.parseInt(readToken(inputStream));
+        final int height = Integer.parseInt(readToken(inputStream));
+        final double scale = Double.parseDouble(readToken(inputStream));
+        final int channelsInFile = color ? 3 : 1;
+
+        final byte[] raster = new byte[width * height * channelsInFile * Float.BYTES];
+        new DataInputStream(inputStream).readFully(raster);
+        final ByteBuffer buffer = ByteBuffer.wrap(raster).order(scale < 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        final float[] rgb = new float[width * height * 3];
+        for (int fileRow = 0; fileRow < height; fileRow++) {
+            final int row = height - 1 - fileRow;
+            for (int column = 0; column < width; column++) {
+                final int index = 3 * (column + row * width);
+                for (int channel = 0; channel < 3; channel++) {
+                    rgb[index + channel] = channel < channelsInFile ? buffer.getFloat() : rgb[index];
+                }
+            }
+        }
+        return new HdrImage(width, height, rgb);
+    }
+
+    /**
+     * Read a Radiance RGBE image, see https://www.graphics.cornell.edu/~bjw/rgbe.html for the format.
+     * Supports flat and new style run length encoded scanlines, which is what every current writer produces.
+     */
+    public static HdrImage readRadiance(final InputStream inputStream) throws IOException {
+        // Header lines up to an empty line, then the resolution line
+        String line = readLine(inputStream);
+        if (!line.startsWith("#?")) {
+            throw new IOException("Not a Radiance image, found header " + line);
+        }
+        while (!(line = readLine(inputStream)).isEmpty()) {
+            if (line.startsWith("FORMAT=") && !line.equals("FORMAT=32-bit_rle_rgbe")) {
+                throw new IOException("Unsupported Radiance pixel format " + line);
+            }
+        }
+        final String[] resolution = readLine(inputStream).trim().split("\\s+");
+        if (resolution.length != 4 || !resolution[0].equals("-Y") || !resolution[2].equals("+X")) {
+            throw new IOException("Unsupported Radiance image orientation " + String.join(" ", resolution));
+        }
+        final int height = Integer.parseInt(resolution[1]);
+        final int width = Integer.parseInt(resolution[3]);
+
+        final float[] rgb = new float[width * height * 3];
+        final byte[] scanline = new byte[width * 4];
+        for (int row = 0; row < height; row++) {
+            readRadianceScanline(inputStream, scanline, width);
+            for (int column = 0; column < width; column++) {
+                final int exponent = scanline[4 * column + 3] & 0xFF;
+                // Shared exponent, mantissas are 8 bit fractions
+                final float factor = exponent == 0 ? 0 : Math.scalb(1.0f, exponent - (128 + 8));
+                final int index = 3 * (column + row * width);
+                rgb[index] = ((scanline[4 * column] & 0xFF) + 0.5f) * factor;
+                rgb[index + 1] = ((scanline[4 * column + 1] & 0xFF) + 0.5f) * factor;
+                rgb[index + 2] = ((scanline[4 * column + 2] & 0xFF) + 0.5f) * factor;
+            }
+        }
+        return new HdrImage(width, height, rgb);
+    }
+
+    // Reads one scanline into scanline as interleaved RGBE
+    private static void readRadianceScanline(final InputStream inputStream, final byte[] scanline, final int width) throws IOException {
+        final int first = readByte(inputStream);
+        final int second = readByte(inputStream);
+        final int third = readByte(inputStream);
+        final int fourth = readByte(inputStream);
+        final boolean runLengthEncoded = first == 2 && second == 2 && (third & 0x80) == 0 && width >= 8 && width < 32768;
+        if (!runLengthEncoded) {
+            // Flat scanline, we already consumed its first pixel
+            scanline[0] = (byte) first;
+            scanline[1] = (byte) second;
+            scanline[2] = (byte) third;
+            scanline[3] = (byte) fourth;
+            new DataInputStream(inputStream).readFully(scanline, 4, scanline.length - 4);
+            return;
+        }
+        if (((third << 8) | fourth) != width) {
+            throw new IOException("Radiance scanline width does not match the image width");
+        }
+        // New style run length encoding, the four channels are stored one after the other
+        for (int channel = 0; channel < 4; channel++) {
+            int column = 0;
+            while (column < width) {
+                int count = readByte(inputStream);
+                if (count > 128) {
+                    count -= 128;
+                    final byte value = (byte) readByte(inputStream);
+                    checkRun(column, count, width);
+                    for (int i = 0; i < count; i++) {
+                        scanline[4 * column++ + channel] = value;
+                    }
+                } else {
+                    checkRun(column, count, width);
+                    for (int i = 0; i < count; i++) {
+                        scanline[4 * column++ + channel] = (byte) readByte(inputStream);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void checkRun(final int column, final int count, final int width) throws IOException {
+        if (count == 0 || column + count > width) {
+            throw new IOException("Corrupt Radiance scanline");
+        }
+    }
+
+    private static int readByte(final InputStream inputStream) throws IOException {
+        final int value = inputStream.read();
+        if (value < 0) {
+            throw new EOFException("Unexpected end of image");
+        }
+        return value;
+    }
+
+    private static String readLine(final InputStream inputStream) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int value;
+        while ((value = readByte(inputStream)) != '\n') {
+            line.append((char) value);
+        }
+        return line.toString();
+    }
+
+    // Whitespace separated header token, consumes exactly one whitespace character after it as the PFM header requires
+    private static String readToken(final InputStream inputStream) throws IOException {
+        final StringBuilder token = new StringBuilder();
+        int value = readByte(inputStream);
+        while (Character.isWhitespace(value)) {
+            value = readByte(inputStream);
+        }
+        while (!Character.isWhitespace(value)) {
+            token.append((char) value);
+            value = readByte(inputStream);
+        }
+        return token.toString();
+    }
+}
@@ -1,49 +1,315 @@
 package ra.one.two.ray.tracing.textures;
 
 import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
 
 import javax.imageio.ImageIO;
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Texture backed by an image. The image is decoded once at load time into 16 bit linear RGB texels packed in a
+ * primitive array along with a mip pyramid, so a lookup is a few reads instead of going through BufferedImage and Color.
+ * A texture read from the asset cache starts out as views of the memory mapped file, and each level is copied to an
+ * array the first time it is looked up. Loading costs nothing and levels no ray looks up are never read, while lookups
+ * run at array speed instead of paying for a buffer read on every texel.
+ * Storage is 6 bytes per texel plus a third for the pyramid, against the 3 bytes per pixel of the BGR BufferedImage
+ * ImageIO decodes a JPEG into, but with linear 16 bit precision that survives filtering and lighting without banding.
+ */
 public class ImageTexture implements Texture {
-    private final BufferedImage image;
+    private static final int CHANNELS = 3;
+    private static final double MAX_TEXEL_VALUE = 65535.0;
+    // Source texels a texel of the next mip level covers along an axis at most
+    private static final int BOX_TAPS = 3;
+    // 8 bit sRGB encoded value to linear intensity, images are stored gamma encoded and we shade in linear space
+    private static final double[] SRGB_TO_LINEAR = new double[256];
+
+    static {
+        for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+            final double encoded = i / 255.0;
+            SRGB_TO_LINEAR[i] = encoded <= 0.04045 ? encoded / 12.92 : Math.pow((encoded + 0.055) / 1.055, 2.4);
+        }
+    }
+
+    // Mip level l is levelWidths[l] x levelHeights[l] texels, texel (i, j) of it has its red, green and blue
+    // at levelTexels[l][3 * (i + j * levelWidths[l])] and the two indices after it, row 0 is the top of the image.
+    // A level not copied from its mapped view yet is null
+    private final int[] levelWidths;
+    private final int[] levelHeights;
+    private final AtomicReferenceArray<short[]> levelTexels;
+    // Views the levels are copied from, only read with absolute gets as they may be shared with other textures.
+    // Null for an image decoded here
+    private final ShortBuffer[] mappedTexels;
 
     public ImageTexture(final String imagePath) throws IOException {
-        image = ImageIO.read(new File(imagePath));
+        this(requireImage(ImageIO.read(new File(imagePath)), imagePath));
     }
 
     public ImageTexture(final InputStream imageStream) throws IOException {
-        image = ImageIO.read(imageStream);
+        this(requireImage(ImageIO.read(imageStream), "stream"));
+    }
+
+    /**
+     * Texture from mip levels decoded earlier, e.g. views of a memory mapped asset cache file. A level is copied out of
+     * its buffer the first time it is looked up, the buffers must not change until then.
+     *
+     * @param levelWidths  width of every mip level
+     * @param levelHeights height of every mip level
+     * @param levelTexels  16 bit linear RGB texels of every mip level, see getLevelTexels
+     */
+    public ImageTexture(final int[] levelWidths, final int[] levelHeights, final ShortBuffer[] levelTexels) {
+        this.levelWidths = levelWidths;
+        this.levelHeights = levelHeights;
+        this.levelTexels = new AtomicReferenceArray<>(levelTexels.length);
+        this.mappedTexels = levelTexels;
+    }
+
+    private ImageTexture(final BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        int levels = 1;
+        while ((width >> (levels - 1)) > 1 || (height >> (levels - 1)) > 1) {
+            levels++;
+        }
+        levelWidths = new int[levels];
+        levelHeights = new int[levels];
+        levelTexels = new AtomicReferenceArray<>(levels);
+        mappedTexels = null;
+
+        float[] level = decode(image);
+        int levelWidth = width;
+        int levelHeight = height;
+        for (int l = 0; l < levels; l++) {
+            levelWidths[l] = levelWidth;
+            levelHeights[l] = levelHeight;
+            levelTexels.set(l, quantize(level));
+            if (l + 1 < levels) {
+                final int nextWidth = Math.max(1, levelWidth / 2);
+                final int nextHeight = Math.max(1, levelHeight / 2);
+                level = downsample(level, levelWidth, levelHeight, nextWidth, nextHeight);
+                levelWidth = nextWidth;
+                levelHeight = nextHeight;
+            }
+        }
     }
 
     @Override
     public Vec3 value(TextureCoordinates textureCoordinates, Vec3 point) {
+        final double[] color = new double[CHANNELS];
+        sampleBilinear(textureCoordinates.getUTextureCoordinate(), textureCoordinates.getVTextureCoordinate(), 0, color);
+        return new Vec3(color[0], color[1], color[2]);
+    }
+
+    @Override
+    public void value(TextureCoordinates textureCoordinates, Vec3 point, ShadingContext context) {
+        sampleBilinear(textureCoordinates.getUTextureCoordinate(), textureCoordinates.getVTextureCoordinate(), 0, context.color);
+    }
+
+    /**
+     * Bilinearly filtered linear RGB at the given texture coordinates of one mip level.
+     *
+     * @param u     horizontal texture coordinate, clamped to [0, 1]
+     * @param v     vertical texture coordinate, clamped to [0, 1], 0 is the bottom of the image
+     * @param level mip level to read, 0 is the full resolution image
+     * @param rgb   receives the red, green and blue at index 0, 1 and 2
+     */
+    public void sampleBilinear(final double u, final double v, final int level, final double[] rgb) {
+        final int width = levelWidths[level];
+        final int height = levelHeights[level];
+        final short[] texels = texels(level);
+        // Flip V to image coordinates and move to texel space where texel centers sit at half integers
+        final double x = clamp(u, 0.0, 1.0) * width - 0.5;
+        final double y = (1.0 - clamp(v, 0.0, 1.0)) * height - 0.5;
+        final double floorX = Math.floor(x);
+        final double floorY = Math.floor(y);
+        final double fractionX = x - floorX;
+        final double fractionY = y - floorY;
+        // Clamp integer mapping so the border texels extend past the edge
+        final int i0 = clamp((int) floorX, width);
+        final int i1 = clamp((int) floorX + 1, width);
+        final int j0 = clamp((int) floorY, height);
+        final int j1 = clamp((int) floorY + 1, height);
+        final int index00 = CHANNELS * (i0 + j0 * width);
+        final int index10 = CHANNELS * (i1 + j0 * width);
+        final int index01 = CHANNELS * (i0 + j1 * width);
+        final int index11 = CHANNELS * (i1 + j1 * width);
+        final double weight00 = (1 - fractionX) * (1 - fractionY);
+        final double weight10 = fractionX * (1 - fractionY);
+        final double weight01 = (1 - fractionX) * fractionY;
+        final double weight11 = fractionX * fractionY;
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            rgb[channel] = (weight00 * (texels[index00 + channel] & 0xFFFF) + weight10 * (texels[index10 + channel] & 0xFFFF)
+                    + weight01 * (texels[index01 + channel] & 0xFFFF) + weight11 * (texels[index11 + channel] & 0xFFFF)) / MAX_TEXEL_VALUE;
+        }
+    }
+
+    /**
+     * Trilinearly filtered linear RGB, blends the bilinear lookups of the two mip levels around the level of detail.
+     *
+     * @param u             horizontal texture coordinate, clamped to [0, 1]
+     * @param v             vertical texture coordinate, clamped to [0, 1], 0 is the bottom of the image
+     * @param levelOfDetail fractional mip level, see levelOfDetail
+     * @param rgb           receives the red, green and blue at index 0, 1 and 2
+     */
+    public void sampleTrilinear(final double u, final double v, final double levelOfDetail, final double[] rgb) {
+        final double clampedLevel = clamp(levelOfDetail, 0, levelWidths.length - 1);
+        final int lowerLevel = (int) clampedLevel;
+        final double blend = clampedLevel - lowerLevel;
+        sampleBilinear(u, v, lowerLevel, rgb);
+        if (blend == 0) {
+            return;
+        }
+        final double red = rgb[0];
+        final double green = rgb[1];
+        final double blue = rgb[2];
+        sampleBilinear(u, v, lowerLevel + 1, rgb);
+        rgb[0] = red + blend * (rgb[0] - red);
+        rgb[1] = green + blend * (rgb[1] - green);
+        rgb[2] = blue + blend * (rgb[2] - blue);
+    }
+
+    /**
+     * Mip level whose texels are about the size of a footprint on the texture.
+     *
+     * @param footprint size of the area a lookup covers, in texture coordinates i.e. 1 is the whole image
+     * @return fractional mip level to pass to sampleTrilinear
+     */
+    public double levelOfDetail(final double footprint) {
+        final double footprintInTexels = footprint * Math.max(levelWidths[0], levelHeights[0]);
+        return footprintInTexels <= 1 ? 0 : Math.log(footprintInTexels) / Math.log(2);
+    }
+
+    public int getWidth() {
+        return levelWidths[0];
+    }
+
+    public int getHeight() {
+        return levelHeights[0];
+    }
+
+    public int getLevelCount() {
+        return levelWidths.length;
+    }
+
+    public int getLevelWidth(final int level) {
+        return levelWidths[level];
+    }
+
+    public int getLevelHeight(final int level) {
+        return levelHeights[level];
+    }
+
+    /**
+     * Texels of a mip level, texel (i, j) has its red, green and blue as unsigned 16 bit values at 3 * (i + j * width)
+     * and the two indices after it, row 0 is the top of the image. The texels are shared, not copied.
+     *
+     * @param level mip level, 0 is the full resolution image
+     * @return read only view of the texels of the level, positioned at the first one
+     */
+    public ShortBuffer getLevelTexels(final int level) {
+        return ShortBuffer.wrap(texels(level)).asReadOnlyBuffer();
+    }
+
+    private short[] texels(final int level) {
+        final short[] texels = levelTexels.get(level);
+        return texels != null ? texels : copyLevel(level);
+    }
+
+    // Racing first lookups may both copy, only one copy is kept and both get it
+    private short[] copyLevel(final int level) {
+        final short[] texels = new short[mappedTexels[level].capacity()];
+        mappedTexels[level].duplicate().rewind().get(texels);
+        levelTexels.compareAndSet(level, null, texels);
+        return levelTexels.get(level);
+    }
+
+    private static BufferedImage requireImage(final BufferedImage image, final String source) throws IOException {
         if (image == null) {
-            return null;
+            throw new IOException("Unsupported image format for texture " + source);
+        }
+        return image;
+    }
+
+    // Decode the whole image to linear float RGB in one getRGB call
+    private static float[] decode(final BufferedImage image) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] packedRgb = image.getRGB(0, 0, width, height, null, 0, width);
+        final float[] linearTexels = new float[width * height * CHANNELS];
+        for (int pixel = 0; pixel < packedRgb.length; pixel++) {
+            final int rgb = packedRgb[pixel];
+            linearTexels[CHANNELS * pixel] = (float) SRGB_TO_LINEAR[(rgb >> 16) & 0xFF];
+            linearTexels[CHANNELS * pixel + 1] = (float) SRGB_TO_LINEAR[(rgb >> 8) & 0xFF];
+            linearTexels[CHANNELS * pixel + 2] = (float) SRGB_TO_LINEAR[rgb & 0xFF];
         }
-        // Clamp input texture coordinates to [0,1] x [1,0]
-        double u = clamp(textureCoordinates.getUTextureCoordinate(), 0.0, 1.0);
-        double v = 1.0 - clamp(textureCoordinates.getVTextureCoordinate(), 0.0, 1.0);  // Flip V to image coordinates
+        return linearTexels;
+    }
 
-        int i = (int) (u * (image.getWidth()));
-        int j = (int) (v * (image.getHeight()));
+    // Box filter down to the next level, each texel averages the source texels it covers. Along an even size that is 2
+    // texels of weight 1/2, along an odd size of 2n + 1 texels halved to n it covers 2 + 1/n texels, so it takes 3
+    // with weights (n - i) / (2n + 1), n / (2n + 1) and (i + 1) / (2n + 1), 1/3 each for 3 texels. Every source texel
+    // then adds the same to the level, none is dropped or counted twice
+    private static float[] downsample(final float[] level, final int width, final int height, final int nextWidth, final int nextHeight) {
+        final float[] columnWeights = boxWeights(width, nextWidth);
+        final float[] rowWeights = boxWeights(height, nextHeight);
+        final float[] next = new float[nextWidth * nextHeight * CHANNELS];
+        for (int j = 0; j < nextHeight; j++) {
+            for (int i = 0; i < nextWidth; i++) {
+                final int texel = CHANNELS * (i + j * nextWidth);
+                for (int rowTap = 0; rowTap < BOX_TAPS; rowTap++) {
+                    final float rowWeight = rowWeights[BOX_TAPS * j + rowTap];
+                    if (rowWeight == 0) {
+                        continue;
+                    }
+                    for (int columnTap = 0; columnTap < BOX_TAPS; columnTap++) {
+                        final float weight = rowWeight * columnWeights[BOX_TAPS * i + columnTap];
+                        if (weight == 0) {
+                            continue;
+                        }
+                        final int source = CHANNELS * ((2 * i + columnTap) + (2 * j + rowTap) * width);
+                        for (int channel = 0; channel < CHANNELS; channel++) {
+                            next[texel + channel] += weight * level[source + channel];
+                        }
+                    }
+                }
+            }
+        }
+        return next;
+    }
 
-        // Clamp integer mapping, since actual coordinates should be less than 1.0
-        if (i >= image.getWidth()) {
-            i = image.getWidth() - 1;
+    // Weights of source texels 2i, 2i + 1 and 2i + 2 for texel i of the next level, along one axis
+    private static float[] boxWeights(final int size, final int nextSize) {
+        final float[] weights = new float[BOX_TAPS * nextSize];
+        for (int i = 0; i < nextSize; i++) {
+            if (size == nextSize) {
+                // A size of 1 stays 1
+                weights[BOX_TAPS * i] = 1;
+            } else if (size % 2 == 0) {
+                weights[BOX_TAPS * i] = 0.5f;
+                weights[BOX_TAPS * i + 1] = 0.5f;
+            } else {
+                weights[BOX_TAPS * i] = (float) (nextSize - i) / size;
+                weights[BOX_TAPS * i + 1] = (float) nextSize / size;
+                weights[BOX_TAPS * i + 2] = (float) (i + 1) / size;
+            }
         }
-        if (j >= image.getHeight()) {
-            j = image.getHeight() - 1;
+        return weights;
+    }
+
+    private static short[] quantize(final float[] level) {
+        final short[] texels = new short[level.length];
+        for (int i = 0; i < level.length; i++) {
+            texels[i] = (short) Math.round(Math.min(1.0f, Math.max(0.0f, level[i])) * MAX_TEXEL_VALUE);
         }
+        return texels;
+    }
 
-        final Color color = new Color(image.getRGB(i, j));
-        final double colorScale = 255.0;
-        ;
-        return new Vec3(color.getRed(), color.getGreen(), color.getBlue()).scaleDown(colorScale);
+    private static int clamp(final int index, final int size) {
+        return index < 0 ? 0 : index >= size ? size - 1 : index;
     }
 
     private double clamp(final double value, final double min, final double max) {
@@ -1,17 +1,41 @@
 package ra.one.two.ray.tracing.textures;
 
-import lombok.RequiredArgsConstructor;
 import ra.one.two.ray.tracing.primitives.math.Vec3;
 import ra.one.two.ray.tracing.primitives.noise.Perlin;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
 
-@RequiredArgsConstructor
 public class NoiseTexture implements Texture {
-    private final Perlin perlinNoise = new Perlin();
+    private final Perlin perlinNoise;
     private final double scale;
 
+    public NoiseTexture(final double scale) {
+        this(new Perlin(), scale);
+    }
+
+    /**
+     * Marble like texture that looks the same every time it is created with the same seed.
+     *
+     * @param scale frequency of the stripes
+     * @param seed  seed of the noise
+     */
+    public NoiseTexture(final double scale, final long seed) {
+        this(new Perlin(seed), scale);
+    }
+
+    private NoiseTexture(final Perlin perlinNoise, final double scale) {
+        this.perlinNoise = perlinNoise;
+        this.scale = scale;
+    }
+
     @Override
     public Vec3 value(TextureCoordinates textureCoordinates, Vec3 point) {
-        return new Vec3(1).scaleUp(0.5 * (1 + Math.sin(scale * point.getZComponent() + 10 * perlinNoise.turbulence(point, 7))));
+        return new Vec3(1).scaleUp(0.5 * (1 + Math.sin(scale * point.getZComponent() + 10 * perlinNoise.turbulence(point.getXComponent(), point.getYComponent(), point.getZComponent(), 7))));
 //        return new Vec3(1,1,1).scaleUp(perlinNoise.noise(point));
     }
+
+    @Override
+    public void value(TextureCoordinates textureCoordinates, Vec3 point, ShadingContext context) {
+        final double gray = 0.5 * (1 + Math.sin(scale * point.getZComponent() + 10 * perlinNoise.turbulence(point.getXComponent(), point.getYComponent(), point.getZComponent(), 7)));
+        context.setColor(gray, gray, gray);
+    }
 }
@@ -0,0 +1,62 @@
+package ra.one.two.ray.tracing.textures;
+
+import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Texture still being loaded when the scene is put together. The load runs in the background from the moment the scene
+ * is parsed, the first lookup waits for it if it has not finished and later lookups go straight to the loaded texture.
+ * A texture no ray ever looks up is never waited for.
+ */
+public class PendingTexture implements Texture {
+    private final Future<? extends Texture> load;
+    // Set by the first lookup after the load finished, racing lookups all get the same texture from the future.
+    // Volatile so a thread that sees it set also sees everything the load wrote, textures need not be immutable for that
+    private volatile Texture loaded;
+
+    public PendingTexture(final Future<? extends Texture> load) {
+        this.load = load;
+    }
+
+    @Override
+    public Vec3 value(final TextureCoordinates textureCoordinates, final Vec3 point) {
+        return loaded().value(textureCoordinates, point);
+    }
+
+    @Override
+    public void value(final TextureCoordinates textureCoordinates, final Vec3 point, final ShadingContext context) {
+        loaded().value(textureCoordinates, point, context);
+    }
+
+    private Texture loaded() {
+        Texture texture = loaded;
+        if (texture == null) {
+            texture = await();
+            loaded = texture;
+        }
+        return texture;
+    }
+
+    private Texture await() {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return load.get();
+                } catch (InterruptedException e) {
+                    // Shading has no way to give up halfway, finish the wait and keep the interrupt for the caller
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Loading a texture failed", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package ra.one.two.ray.tracing.textures;
 
 import lombok.AllArgsConstructor;
 import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
 
 @AllArgsConstructor
 public class SolidColorTexture implements Texture {
@@ -12,4 +13,9 @@ public class SolidColorTexture implements Texture {
     public Vec3 value(TextureCoordinates textureCoordinates, Vec3 point) {
         return color;
     }
+
+    @Override
+    public void value(TextureCoordinates textureCoordinates, Vec3 point, ShadingContext context) {
+        context.setColor(color.getXComponent(), color.getYComponent(), color.getZComponent());
+    }
 }
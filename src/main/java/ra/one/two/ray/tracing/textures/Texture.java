@@ -1,7 +1,21 @@
 package ra.one.two.ray.tracing.textures;
 
 import ra.one.two.ray.tracing.primitives.math.Vec3;
+import ra.one.two.ray.tracing.rayhit.ShadingContext;
 
 public interface Texture {
     Vec3 value(final TextureCoordinates textureCoordinates, final Vec3 point);
+
+    /**
+     * Same as value but writes the color into the context instead of allocating it. Textures should override this,
+     * the default adapts the value returning a Vec3.
+     *
+     * @param textureCoordinates texture coordinates of the point
+     * @param point              point on the surface
+     * @param context            receives the color in its color
+     */
+    default void value(final TextureCoordinates textureCoordinates, final Vec3 point, final ShadingContext context) {
+        final Vec3 color = value(textureCoordinates, point);
+        context.setColor(color.getXComponent(), color.getYComponent(), color.getZComponent());
+    }
 }
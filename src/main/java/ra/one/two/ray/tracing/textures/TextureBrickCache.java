@@ -0,0 +1,69 @@
+package ra.one.two.ray.tracing.textures;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory budget shared by the bricks of all the {@link BakedTexture}s using it. Bricks are baked on first use and once the
+ * resident bricks go over the budget the least recently used ones are dropped, to be baked again if a ray needs them later.
+ */
+public class TextureBrickCache {
+    // Evict down to this fraction of the budget so that we do not have to evict again on the very next bake
+    private static final double EVICTION_TARGET_FRACTION = 0.9;
+
+    private final long memoryBudgetInBytes;
+    private final AtomicLong residentBytes = new AtomicLong();
+    // Logical clock that moves forward with every bake, bricks remember the tick they were last read at.
+    private final AtomicLong clock = new AtomicLong();
+    private final Set<BakedTexture.Brick> residentBricks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param memoryBudgetInBytes max bytes of baked texels to keep around across all textures using this cache
+     */
+    public TextureBrickCache(final long memoryBudgetInBytes) {
+        this.memoryBudgetInBytes = memoryBudgetInBytes;
+    }
+
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    long currentTick() {
+        return clock.get();
+    }
+
+    // Account for a freshly baked brick and evict if that took us over the budget
+    void admit(final BakedTexture.Brick brick) {
+        brick.lastUsedTick = clock.incrementAndGet();
+        residentBricks.add(brick);
+        if (residentBytes.addAndGet(brick.sizeInBytes()) > memoryBudgetInBytes) {
+            evict();
+        }
+    }
+
+    private synchronized void evict() {
+        final long target = (long) (memoryBudgetInBytes * EVICTION_TARGET_FRACTION);
+        if (residentBytes.get() <= target) {
+            return;
+        }
+        // Render threads keep moving the ticks forward while we sort, sort a copy taken once so the order stays consistent
+        final BakedTexture.Brick[] candidates = residentBricks.toArray(new BakedTexture.Brick[0]);
+        final long[] ticks = new long[candidates.length];
+        final Integer[] order = new Integer[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            ticks[i] = candidates[i].lastUsedTick;
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(candidate -> ticks[candidate]));
+        for (int i = 0; i < order.length && residentBytes.get() > target; i++) {
+            final BakedTexture.Brick brick = candidates[order[i]];
+            if (residentBricks.remove(brick)) {
+                brick.evict();
+                residentBytes.addAndGet(-brick.sizeInBytes());
+            }
+        }
+    }
+}